@@ -0,0 +1,46 @@
+package fr.inria.iotlab.sniffer.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * Synthetic capture files shared by the benchmarks.
+ *
+ * @author KR
+ */
+final class CaptureFiles {
+
+	/** Number of frames of the benchmark captures. */
+	static final int FRAME_COUNT = 100000;
+
+	private CaptureFiles() {
+	}
+
+	/**
+	 * Generate a temporary capture (deleted when the JVM exits).
+	 *
+	 * @param frameLength the length of the frames, or
+	 *                    <code>SyntheticCapture.MIXED_LENGTHS</code>.
+	 * @param byteSwapped <code>true</code> for a capture in the
+	 *                    opposite byte order of the platform.
+	 * @return the capture file.
+	 */
+	static File create(int frameLength, boolean byteSwapped)
+	throws IOException
+	{
+		File file = File.createTempFile("bench-" + frameLength + "-", ".pcap");
+		file.deleteOnExit();
+		SyntheticCapture capture = new SyntheticCapture(
+				SyntheticCapture.DEFAULT_SEED, FRAME_COUNT, frameLength);
+		ByteOrder order = ByteOrder.nativeOrder();
+		if (byteSwapped) {
+			order = (order == ByteOrder.BIG_ENDIAN ?
+			         ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		}
+		capture.setByteOrder(order);
+		capture.writeTo(file);
+		return file;
+	}
+
+}
@@ -0,0 +1,149 @@
+package fr.inria.iotlab.sniffer.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.iotlab.sniffer.decoder.CoapMessage;
+import fr.inria.iotlab.sniffer.decoder.DissectorChain;
+import fr.inria.iotlab.sniffer.decoder.FcsValidator;
+import fr.inria.iotlab.sniffer.filter.FilterExpression;
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+import fr.inria.iotlab.sniffer.parser.PCapFileParser;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+import fr.inria.iotlab.sniffer.stats.CaptureStatistics;
+import fr.inria.iotlab.sniffer.stats.PacketColumnStore;
+
+/**
+ * Decoding of the frames of a synthetic capture (with mixed frame
+ * lengths) held in memory: dissector chain, filter expressions, FCS
+ * validation and statistics. Scores are in packets per millisecond.
+ *
+ * @author KR
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderBenchmark {
+
+	private File capture;
+	private PacketColumnStore store;
+	private DissectorChain chain;
+	private FilterExpression headerFilter;
+	private FilterExpression coapFilter;
+
+	@Setup
+	public void loadCapture() throws IOException {
+		this.capture = CaptureFiles.create(SyntheticCapture.MIXED_LENGTHS,
+		                                   false);
+		PCapFileParser parser = new PCapFileParser(this.capture.getPath(),
+		                                           true);
+		try {
+			this.store = PacketColumnStore.load(parser, false);
+		} finally {
+			parser.close();
+		}
+		this.chain = DissectorChain.forNetworkType(NetworkType.IEEE802_15_4);
+		this.headerFilter = FilterExpression.compile("len > 64");
+		this.coapFilter = FilterExpression.compile(
+				"coap.code == get and addr.src == 0x0007");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public int dissectCoap() {
+		int found = 0;
+		for (int row = 0; row < this.store.getPacketCount(); row++) {
+			this.chain.setPacket(this.store.getPacketData(row), 0L);
+			if (this.chain.getLayer(CoapMessage.class) != null) found++;
+		}
+		return found;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public long filterHeaderOnly() throws IOException {
+		return countFiltered(this.headerFilter);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public long filterCoap() throws IOException {
+		return countFiltered(this.coapFilter);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public long validateFcs() throws IOException {
+		FcsValidator validator = new FcsValidator();
+		PCapFileParser parser = new PCapFileParser(this.capture.getPath(),
+		                                           true);
+		try {
+			PacketCursor cursor = parser.getPacketCursor();
+			while (cursor.next()) {
+				validator.validate(cursor);
+			}
+		} finally {
+			parser.close();
+		}
+		return validator.getCorruptedFrames();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public long statistics() throws IOException {
+		CaptureStatistics stats = new CaptureStatistics();
+		PCapFileParser parser = new PCapFileParser(this.capture.getPath(),
+		                                           true);
+		try {
+			PacketCursor cursor = parser.getPacketCursor();
+			while (cursor.next()) {
+				stats.add(cursor);
+			}
+		} finally {
+			parser.close();
+		}
+		return stats.getFramesWithSourceCount();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public int groupBySource() {
+		PacketColumnStore.PacketGroups groups = this.store.groupBy(
+				this.store.getSourceAddresses(), 0,
+				this.store.getPacketCount());
+		return groups.getGroupCount();
+	}
+
+	private long countFiltered(FilterExpression filter) throws IOException {
+		PCapFileParser parser = new PCapFileParser(this.capture.getPath(),
+		                                           true);
+		try {
+			parser.setPacketFilter(filter);
+			long count = 0;
+			PacketCursor cursor = parser.getPacketCursor();
+			while (cursor.next()) {
+				count++;
+			}
+			return count;
+		} finally {
+			parser.close();
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package fr.inria.iotlab.sniffer.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+
+/**
+ * Lookups of network types by their identifier.
+ *
+ * @author KR
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkTypeBenchmark {
+
+	/** Number of lookups by benchmark invocation. */
+	private static final int LOOKUPS = 1024;
+
+	private int[] commonIds;
+	private int[] allIds;
+
+	@Setup
+	public void createIds() {
+		NetworkType[] types = NetworkType.values();
+		SplittableRandom random =
+				new SplittableRandom(SyntheticCapture.DEFAULT_SEED);
+		this.commonIds = new int[LOOKUPS];
+		this.allIds = new int[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			this.commonIds[i] = NetworkType.IEEE802_15_4.getID();
+			/* one lookup out of 16 is for an unknown type */
+			this.allIds[i] = (random.nextInt(16) == 0 ?
+			                  random.nextInt(100000, 200000) :
+			                  types[random.nextInt(types.length)].getID());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int lookupCommon() {
+		int found = 0;
+		for (int id : this.commonIds) {
+			if (NetworkType.getNetworkTypeFromID(id) != null) found++;
+		}
+		return found;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int lookupMixed() {
+		int found = 0;
+		for (int id : this.allIds) {
+			if (NetworkType.getNetworkTypeFromID(id) != null) found++;
+		}
+		return found;
+	}
+
+}
@@ -0,0 +1,102 @@
+package fr.inria.iotlab.sniffer.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.iotlab.sniffer.parser.NumberInputStream;
+
+/**
+ * Primitive reads of <code>NumberInputStream</code>,
+ * in both byte orders.
+ *
+ * @author KR
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberInputStreamBenchmark {
+
+	/** Number of values read by each benchmark invocation. */
+	private static final int VALUES = 8192;
+
+	@Param({ "false", "true" })
+	public boolean byteSwapped;
+
+	private byte[] data;
+	private NumberInputStream input;
+
+	@Setup(Level.Trial)
+	public void createData() {
+		this.data = new byte[VALUES * 8];
+		SplittableRandom random =
+				new SplittableRandom(SyntheticCapture.DEFAULT_SEED);
+		for (int i = 0; i < this.data.length; i++) {
+			this.data[i] = (byte) random.nextInt(0x100);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void openStream() {
+		this.input = new NumberInputStream(
+				new ByteArrayInputStream(this.data));
+		this.input.setByteSwapped(this.byteSwapped);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public long readShort() throws IOException {
+		long sum = 0;
+		for (int i = 0; i < VALUES; i++) {
+			sum += this.input.readShort();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public long readInt() throws IOException {
+		long sum = 0;
+		for (int i = 0; i < VALUES; i++) {
+			sum += this.input.readInt();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public long readLong() throws IOException {
+		long sum = 0;
+		for (int i = 0; i < VALUES; i++) {
+			sum += this.input.readLong();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public int readInts() throws IOException {
+		int[] values = new int[VALUES];
+		this.input.readInts(values, VALUES);
+		return values[VALUES - 1];
+	}
+
+}
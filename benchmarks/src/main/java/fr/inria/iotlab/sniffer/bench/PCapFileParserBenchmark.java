@@ -0,0 +1,109 @@
+package fr.inria.iotlab.sniffer.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.inria.iotlab.sniffer.parser.PCapFileParser;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+
+/**
+ * Throughput of a full read of synthetic captures, for several frame
+ * lengths, byte orders and reading modes (stream or memory-mapped).
+ * Scores are in packets per millisecond.
+ *
+ * @author KR
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PCapFileParserBenchmark {
+
+	/** Frame length (0 for mixed lengths). */
+	@Param({ "11", "64", "127", "0" })
+	public int frameLength;
+
+	@Param({ "false", "true" })
+	public boolean byteSwapped;
+
+	@Param({ "false", "true" })
+	public boolean memoryMapped;
+
+	private File capture;
+
+	@Setup
+	public void createCapture() throws IOException {
+		this.capture = CaptureFiles.create(this.frameLength,
+		                                   this.byteSwapped);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public long readNextPacket() throws IOException {
+		PCapFileParser parser = new PCapFileParser(this.capture.getPath(),
+		                                           this.memoryMapped);
+		try {
+			long bytes = 0;
+			while (!(parser.lastPacketRead())) {
+				bytes += parser.readNextPacket().getPacketLength();
+			}
+			return bytes;
+		} finally {
+			parser.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public long cursorHeaders() throws IOException {
+		PCapFileParser parser = new PCapFileParser(this.capture.getPath(),
+		                                           this.memoryMapped);
+		try {
+			long bytes = 0;
+			PacketCursor cursor = parser.getPacketCursor();
+			while (cursor.next()) {
+				bytes += cursor.getPacketLength();
+			}
+			return bytes;
+		} finally {
+			parser.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CaptureFiles.FRAME_COUNT)
+	public long cursorData() throws IOException {
+		PCapFileParser parser = new PCapFileParser(this.capture.getPath(),
+		                                           this.memoryMapped);
+		try {
+			long sum = 0;
+			PacketCursor cursor = parser.getPacketCursor();
+			while (cursor.next()) {
+				/* the view may hold more than the packet (memory mapping) */
+				ByteBuffer data = cursor.getPacketData();
+				sum += data.get(data.position() + 2);
+			}
+			return sum;
+		} finally {
+			parser.close();
+		}
+	}
+
+}
@@ -0,0 +1,285 @@
+package fr.inria.iotlab.sniffer.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.SplittableRandom;
+
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+import fr.inria.iotlab.sniffer.parser.PCapFileWriter;
+
+/**
+ * Generator of synthetic (but realistic) IEEE 802.15.4 captures,
+ * for reproducible benchmarks.
+ * <br/>
+ * The generated capture only depends on the parameters of the generator
+ * (and on its seed): the same file is produced on every machine, and by
+ * every version of the analyzer. Frames are sent by a set of nodes with
+ * short addresses; they hold, according to their length, a CoAP request
+ * (over 6LoWPAN-compressed IPv6 and UDP) or raw data, and end with a
+ * valid FCS. Timestamps grow by random intervals of 5 ms on average.
+ *
+ * @author KR
+ */
+public final class SyntheticCapture {
+
+	///*** CONSTANTES ***///
+
+	/** Default seed of the generator. */
+	public static final long DEFAULT_SEED = 0x5EED1AB5L;
+
+	/** Frame length asking for random lengths. */
+	public static final int MIXED_LENGTHS = 0;
+
+	/** Minimal frame length (MAC header and FCS). */
+	public static final int MIN_FRAME_LENGTH = 11;
+
+	/** Maximal frame length (IEEE 802.15.4 PHY payload). */
+	public static final int MAX_FRAME_LENGTH = 127;
+
+	/** Default number of sending nodes. */
+	public static final int DEFAULT_NODE_COUNT = 32;
+
+	/** Timestamp of the first frame, in seconds since the Unix epoch. */
+	private static final long START_SECONDS = 1432112233L;
+
+	/** Mean interval between two frames, in nanoseconds. */
+	private static final long MEAN_INTERVAL = 5000000L;
+
+	private static final int PAN_ID = 0xabcd;
+	private static final int BROADCAST_ADDRESS = 0xffff;
+	private static final int MAC_HEADER_LENGTH = 9;
+	private static final int FCS_LENGTH = 2;
+
+	/* CoAP request: MAC header, IPHC header (2), UDP header (7),
+	   CoAP header (4), Uri-Path option (2) and FCS */
+	private static final int COAP_FRAME_MIN_LENGTH =
+			MAC_HEADER_LENGTH + 2 + 7 + 4 + 2 + FCS_LENGTH;
+	private static final int MAX_URI_PATH_LENGTH = 12;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_PACKET_COUNT =
+			"Packet count must not be negative (got %d)!";
+	private static final String ERR_BAD_FRAME_LENGTH =
+			"Frame length must be between %d and %d,"
+			+ " or MIXED_LENGTHS (got %d)!";
+	private static final String ERR_BAD_NODE_COUNT =
+			"Node count must be between 1 and 65534 (got %d)!";
+
+	///*** ATTRIBUTS ***///
+
+	private final long seed;
+	private final long packetCount;
+	private final int frameLength;
+	private int nodeCount;
+	private boolean nanosecondPrecision;
+	private ByteOrder byteOrder;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a generator of captures.
+	 *
+	 * @param seed seed of the pseudo-random generator.
+	 * @param packetCount number of frames to generate.
+	 * @param frameLength length of the frames (FCS included), or
+	 *                    <code>MIXED_LENGTHS</code> for random lengths.
+	 * @throws IllegalArgumentException if a parameter is out of range.
+	 */
+	public SyntheticCapture(long seed, long packetCount, int frameLength)
+	throws IllegalArgumentException
+	{
+		if (packetCount < 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_PACKET_COUNT,
+					packetCount));
+		}
+		if (frameLength != MIXED_LENGTHS
+		    && (frameLength < MIN_FRAME_LENGTH
+		        || frameLength > MAX_FRAME_LENGTH))
+		{
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_FRAME_LENGTH,
+					MIN_FRAME_LENGTH, MAX_FRAME_LENGTH, frameLength));
+		}
+		this.seed = seed;
+		this.packetCount = packetCount;
+		this.frameLength = frameLength;
+		this.nodeCount = DEFAULT_NODE_COUNT;
+		this.nanosecondPrecision = false;
+		this.byteOrder = ByteOrder.LITTLE_ENDIAN;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @param nodeCount number of sending nodes.
+	 * @throws IllegalArgumentException if <code>nodeCount</code>
+	 *                                  is out of range.
+	 */
+	public void setNodeCount(int nodeCount) throws IllegalArgumentException {
+		if (nodeCount < 1 || nodeCount >= BROADCAST_ADDRESS) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_NODE_COUNT,
+					nodeCount));
+		}
+		this.nodeCount = nodeCount;
+	}
+
+	/**
+	 * @param nanosecondPrecision <code>true</code> for nanosecond
+	 *                            timestamps, <code>false</code> for
+	 *                            microsecond ones (the default).
+	 */
+	public void setNanosecondPrecision(boolean nanosecondPrecision) {
+		this.nanosecondPrecision = nanosecondPrecision;
+	}
+
+	/**
+	 * @param byteOrder byte order of the file (little-endian
+	 *                  by default).
+	 */
+	public void setByteOrder(ByteOrder byteOrder) {
+		this.byteOrder = byteOrder;
+	}
+
+	///*** GENERATION ***///
+
+	/**
+	 * Write the capture into a file.
+	 *
+	 * @param file the file to write (replaced if it already exists).
+	 * @throws IOException if an I/O error prevents the file
+	 *                     from being written.
+	 */
+	public void writeTo(File file) throws IOException {
+		PCapFileWriter writer = new PCapFileWriter(file.getPath(),
+				NetworkType.IEEE802_15_4, this.nanosecondPrecision,
+				this.byteOrder, false);
+		try {
+			writeTo(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write the frames of the capture with the given writer.
+	 *
+	 * @param writer the writer of the capture.
+	 * @throws IOException if an I/O error prevents the frames
+	 *                     from being written.
+	 */
+	public void writeTo(PCapFileWriter writer) throws IOException {
+		SplittableRandom random = new SplittableRandom(this.seed);
+		int[] sequences = new int[this.nodeCount];
+		ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_LENGTH)
+		                             .order(ByteOrder.LITTLE_ENDIAN);
+		long time = START_SECONDS * 1000000000L;
+		for (long n = 0; n < this.packetCount; n++) {
+			time += random.nextLong(2 * MEAN_INTERVAL);
+			int length = this.frameLength;
+			if (length == MIXED_LENGTHS) {
+				length = random.nextInt(MIN_FRAME_LENGTH,
+				                        MAX_FRAME_LENGTH + 1);
+			}
+			int source = random.nextInt(this.nodeCount);
+			int destination = random.nextInt(this.nodeCount + 1);
+			buildFrame(frame, random, length, source + 1,
+			           (destination == this.nodeCount ?
+			            BROADCAST_ADDRESS : destination + 1),
+			           sequences[source]++);
+			long seconds = time / 1000000000L;
+			int nanos = (int) (time % 1000000000L);
+			writer.writePacket(seconds, nanos, true, length, frame);
+		}
+	}
+
+	/**
+	 * Generate a capture file from the command line.
+	 *
+	 * @param args output file, and optionally: number of frames,
+	 *             frame length (0 for mixed lengths), and seed.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SyntheticCapture <output.pcap>"
+			                   + " [frames] [frame length|0] [seed]");
+			System.exit(1);
+		}
+		long count = (args.length > 1 ? Long.parseLong(args[1]) : 100000L);
+		int length = (args.length > 2 ?
+		              Integer.parseInt(args[2]) : MIXED_LENGTHS);
+		long seed = (args.length > 3 ? Long.decode(args[3]) : DEFAULT_SEED);
+		new SyntheticCapture(seed, count, length).writeTo(new File(args[0]));
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Build a data frame in the given buffer (flipped once built).
+	 */
+	private static void buildFrame(ByteBuffer frame, SplittableRandom random,
+	                               int length, int source, int destination,
+	                               int sequence)
+	{
+		frame.clear();
+		/* data frame, PAN ID compression, short addresses */
+		frame.putShort((short) 0x8841);
+		frame.put((byte) sequence);
+		frame.putShort((short) PAN_ID);
+		frame.putShort((short) destination);
+		frame.putShort((short) source);
+
+		int end = length - FCS_LENGTH;
+		if (length >= COAP_FRAME_MIN_LENGTH) {
+			/* IPHC: traffic class and flow label elided, UDP header
+			   compressed, hop limit 64, addresses from the MAC header */
+			frame.put((byte) 0x7e);
+			frame.put((byte) 0x33);
+			/* UDP: ports and checksum inline */
+			frame.put((byte) 0xf0);
+			frame.order(ByteOrder.BIG_ENDIAN);
+			frame.putShort((short) 5683);
+			frame.putShort((short) 5683);
+			frame.putShort((short) random.nextInt(0x10000));
+			/* CoAP: confirmable GET or POST, no token */
+			frame.put((byte) 0x40);
+			frame.put((byte) (random.nextBoolean() ? 0x01 : 0x02));
+			frame.putShort((short) sequence);
+			frame.order(ByteOrder.LITTLE_ENDIAN);
+			int extra = length - COAP_FRAME_MIN_LENGTH;
+			int pathLength = (extra < MAX_URI_PATH_LENGTH ? 1 + extra : 1);
+			frame.put((byte) ((11 << 4) | pathLength));
+			for (int i = 0; i < pathLength; i++) {
+				frame.put((byte) ('a' + random.nextInt(26)));
+			}
+			if (frame.position() < end) {
+				frame.put((byte) 0xff);
+			}
+		}
+		while (frame.position() < end) {
+			frame.put((byte) random.nextInt(0x100));
+		}
+		frame.putShort((short) crc16(frame, end));
+		frame.flip();
+	}
+
+	/**
+	 * @return the CRC-16 (ITU-T, as used by the IEEE 802.15.4 FCS)
+	 *         of the first bytes of the given buffer.
+	 */
+	private static int crc16(ByteBuffer frame, int length) {
+		int crc = 0;
+		for (int i = 0; i < length; i++) {
+			crc ^= frame.get(i) & 0xff;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = ((crc & 1) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1);
+			}
+		}
+		return crc;
+	}
+
+}
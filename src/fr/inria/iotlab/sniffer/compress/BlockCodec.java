@@ -0,0 +1,234 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.Future;
+
+/**
+ * Decoder of a compression format, for <code>DecompressingInputStream</code>:
+ * splits the compressed data into units (of a size in the order of
+ * <code>UNIT_SIZE</code>) which are decompressed in order.
+ * <br/>
+ * Units made of independent frames or blocks are only read by
+ * <code>readUnit()</code>, on the pipeline thread, and decompressed later
+ * by <code>decodeUnit()</code>, possibly in parallel with other units;
+ * units depending on the data before them are decompressed right away
+ * by <code>readUnit()</code>. Decompressed units are then passed, in
+ * order, to <code>checkUnit()</code>, for checksums covering several
+ * units.
+ *
+ * @author KR
+ */
+abstract class BlockCodec {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Unit of compressed data, with its decompressed data.
+	 * Units are recycled, with their buffers.
+	 */
+	static final class Unit {
+
+		byte[] input = new byte[0];
+		int inputLength;
+		byte[] output = new byte[0];
+		int outputLength;
+
+		/* whether the input remains to be decoded by decodeUnit(),
+		   with codec-specific flags, and the decoding task */
+		boolean pending;
+		int flags;
+		Future<?> task;
+
+		/* codec-specific checksum, checked by checkUnit() */
+		int checksum;
+
+		/* end of the data, possibly because of a failure */
+		boolean last;
+		Exception failure;
+
+		void clear() {
+			this.inputLength = 0;
+			this.outputLength = 0;
+			this.pending = false;
+			this.flags = 0;
+			this.task = null;
+			this.checksum = 0;
+			this.last = false;
+			this.failure = null;
+		}
+
+		/**
+		 * Make room for <code>length</code> more bytes of input,
+		 * keeping the current ones.
+		 */
+		void ensureInput(int length) {
+			if (this.inputLength + length > this.input.length) {
+				this.input = grow(this.input, this.inputLength,
+				                  this.inputLength + length);
+			}
+		}
+
+		/**
+		 * Make room for <code>length</code> more bytes of output,
+		 * keeping the current ones.
+		 */
+		void ensureOutput(int length) {
+			if (this.outputLength + length > this.output.length) {
+				this.output = grow(this.output, this.outputLength,
+				                   this.outputLength + length);
+			}
+		}
+
+		/**
+		 * Append bytes read from a stream to the input.
+		 */
+		void readInput(InputStream in, int length) throws IOException {
+			ensureInput(length);
+			readFully(in, this.input, this.inputLength, length);
+			this.inputLength += length;
+		}
+
+		private static byte[] grow(byte[] buffer, int used, int minLength) {
+			int length = Math.max(minLength, buffer.length
+			                                 + (buffer.length >> 1));
+			byte[] grown = new byte[length];
+			System.arraycopy(buffer, 0, grown, 0, used);
+			return grown;
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Target size of the decompressed data of a unit, in bytes. */
+	static final int UNIT_SIZE = 1024 * 1024;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_TRUNCATED =
+			"Compressed data are truncated!";
+
+	///*** METHODES ABSTRAITES ***///
+
+	/**
+	 * Read the next unit of compressed data (on the pipeline thread).
+	 * The unit is either decompressed right away (in its output), or
+	 * marked <code>pending</code> and decompressed by
+	 * <code>decodeUnit()</code>.
+	 *
+	 * @param in the compressed data, where bytes read ahead
+	 *           may be pushed back.
+	 * @param unit the (cleared) unit to fill.
+	 * @return <code>false</code> if there are no more data.
+	 * @throws IOException if the data can't be read, or are corrupted.
+	 */
+	abstract boolean readUnit(PushbackInputStream in, Unit unit)
+	throws IOException;
+
+	/**
+	 * Decompress a pending unit, whose output buffer is large enough.
+	 * This method can be called concurrently on different units.
+	 *
+	 * @param unit the unit read by <code>readUnit()</code>.
+	 * @throws IOException if the data are corrupted.
+	 */
+	abstract void decodeUnit(Unit unit) throws IOException;
+
+	///*** VERIFICATION ***///
+
+	/**
+	 * Check a decompressed unit, on the thread reading the decompressed
+	 * data: units are passed in order, so that checksums covering several
+	 * units can be computed. Does nothing by default.
+	 *
+	 * @param unit the unit, read and decompressed.
+	 * @throws IOException if the data are corrupted.
+	 */
+	void checkUnit(Unit unit) throws IOException {
+	}
+
+	///*** METHODES INTERNES ***///
+
+	static void readFully(InputStream in, byte[] buffer, int offset,
+	                      int length)
+	throws IOException
+	{
+		while (length > 0) {
+			int n = in.read(buffer, offset, length);
+			if (n < 0) throw new EOFException(ERR_TRUNCATED);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	static void skipFully(InputStream in, long length) throws IOException {
+		while (length > 0) {
+			long n = in.skip(length);
+			if (n <= 0) {
+				if (in.read() < 0) throw new EOFException(ERR_TRUNCATED);
+				n = 1;
+			}
+			length -= n;
+		}
+	}
+
+	/**
+	 * Read the (little-endian) magic number starting the next frame.
+	 *
+	 * @return the magic number, or <code>-1</code> at the end
+	 *         of the data.
+	 */
+	static long readMagic(InputStream in) throws IOException {
+		int b0 = in.read();
+		if (b0 < 0) return -1L;
+		int b1 = in.read();
+		int b2 = in.read();
+		int b3 = in.read();
+		if ((b1 | b2 | b3) < 0) throw new EOFException(ERR_TRUNCATED);
+		return (b0 | b1 << 8 | b2 << 16 | (long) b3 << 24);
+	}
+
+	static int readIntLE(byte[] buffer, int offset) {
+		return CompressionFormat.readIntLE(buffer, offset);
+	}
+
+	static int readIntLE(InputStream in) throws IOException {
+		int b0 = in.read();
+		int b1 = in.read();
+		int b2 = in.read();
+		int b3 = in.read();
+		if ((b0 | b1 | b2 | b3) < 0) throw new EOFException(ERR_TRUNCATED);
+		return b0 | b1 << 8 | b2 << 16 | b3 << 24;
+	}
+
+	static long readLongLE(byte[] buffer, int offset) {
+		return (readIntLE(buffer, offset) & 0xffffffffL)
+		       | (long) readIntLE(buffer, offset + 4) << 32;
+	}
+
+	/**
+	 * Copy a match of LZ77 compression (of <code>length</code> bytes,
+	 * <code>offset</code> bytes before the position), which may overlap
+	 * the bytes being written.
+	 */
+	static void copyMatch(byte[] buffer, int position, int offset,
+	                      int length)
+	{
+		int from = position - offset;
+		if (offset >= length) {
+			System.arraycopy(buffer, from, buffer, position, length);
+			return;
+		}
+		/* repeated pattern: copy it in chunks doubling in size */
+		int end = position + length;
+		while (position < end) {
+			int n = Math.min(position - from, end - position);
+			System.arraycopy(buffer, from, buffer, position, n);
+			position += n;
+		}
+	}
+
+}
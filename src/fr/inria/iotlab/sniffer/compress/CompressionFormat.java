@@ -0,0 +1,129 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compression formats of capture files, recognized by the magic number
+ * starting the compressed data (whatever the name of the file).
+ *
+ * @author KR
+ * @see DecompressingInputStream
+ */
+public enum CompressionFormat {
+
+	/** Uncompressed data. */
+	NONE(null),
+
+	/** gzip (RFC 1952), including BGZF files (blocked gzip). */
+	GZIP("gz"),
+
+	/** Zstandard (RFC 8878). */
+	ZSTD("zst"),
+
+	/** LZ4 frame format. */
+	LZ4("lz4");
+
+	///*** CONSTANTES ***///
+
+	/** Number of bytes read by <code>detect(File)</code> and
+	    <code>DecompressingInputStream.open()</code> to recognize a
+	    format: enough for a small skippable frame before the first
+	    frame (as written by <tt>pzstd</tt>). */
+	public static final int DETECTION_LENGTH = 64;
+
+	static final int GZIP_MAGIC = 0x8b1f;
+	static final int ZSTD_MAGIC = 0xfd2fb528;
+	static final int LZ4_MAGIC = 0x184d2204;
+	/** Skippable frames (zstd and LZ4) have magic numbers
+	    <tt>0x184D2A50</tt> to <tt>0x184D2A5F</tt>. */
+	static final int SKIPPABLE_MAGIC = 0x184d2a50;
+	static final int SKIPPABLE_MAGIC_MASK = 0xfffffff0;
+
+	///*** ATTRIBUTS ***///
+
+	private final String fileExtension;
+
+	///*** CONSTRUCTEURS ***///
+
+	private CompressionFormat(String fileExtension) {
+		this.fileExtension = fileExtension;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the usual extension of the files in this format (without
+	 *         the dot), or <code>null</code> for uncompressed data.
+	 */
+	public String getFileExtension() {
+		return this.fileExtension;
+	}
+
+	///*** DETECTION ***///
+
+	/**
+	 * Recognize the compression format of some data from its first bytes.
+	 * <br/>
+	 * Skippable frames are skipped, when the next frame starts within the
+	 * given bytes; otherwise, data starting with a skippable frame are
+	 * deemed compressed with zstd (whose tools write such frames).
+	 *
+	 * @param head the first bytes of the data.
+	 * @param length the number of bytes of <code>head</code> to consider.
+	 * @return the compression format of the data, or <code>NONE</code>
+	 *         if they don't start with a known magic number.
+	 */
+	public static CompressionFormat detect(byte[] head, int length) {
+		int pos = 0;
+		while (length - pos >= 4) {
+			int magic = readIntLE(head, pos);
+			if ((magic & 0xffff) == GZIP_MAGIC) return GZIP;
+			if (magic == ZSTD_MAGIC) return ZSTD;
+			if (magic == LZ4_MAGIC) return LZ4;
+			if ((magic & SKIPPABLE_MAGIC_MASK) != SKIPPABLE_MAGIC) break;
+			if (length - pos < 8) return ZSTD;
+			long size = readIntLE(head, pos + 4) & 0xffffffffL;
+			if (size > length - pos - 8) return ZSTD;
+			pos += 8 + (int) size;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Recognize the compression format of a file from its first bytes.
+	 *
+	 * @param file the file to check.
+	 * @return the compression format of the file's data, or
+	 *         <code>NONE</code> if they don't start with a known
+	 *         magic number.
+	 * @throws IOException if the file can't be read.
+	 */
+	public static CompressionFormat detect(File file) throws IOException {
+		byte[] head = new byte[DETECTION_LENGTH];
+		InputStream input = new FileInputStream(file);
+		try {
+			int length = 0;
+			while (length < head.length) {
+				int n = input.read(head, length, head.length - length);
+				if (n < 0) break;
+				length += n;
+			}
+			return detect(head, length);
+		} finally {
+			input.close();
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	static int readIntLE(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff)
+		       | (buffer[offset + 1] & 0xff) << 8
+		       | (buffer[offset + 2] & 0xff) << 16
+		       | (buffer[offset + 3] & 0xff) << 24;
+	}
+
+}
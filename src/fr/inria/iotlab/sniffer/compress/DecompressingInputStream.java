@@ -0,0 +1,349 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <code>InputStream</code> decompressing gzip, zstd or LZ4 data.
+ * <br/>
+ * Decompression is pipelined: the compressed data are read by a separate
+ * thread, which splits them into units of about 1 MB, held in a ring
+ * of reusable buffers, so that the reader of this stream only copies
+ * decompressed bytes. Units that can be decompressed independently
+ * (independent frames of zstd or LZ4 files, independent blocks of LZ4
+ * frames, members of BGZF files) are decompressed in parallel by
+ * a pool of worker threads; other data (e.g.: a single large zstd
+ * frame, a usual gzip file) are decompressed by the pipeline thread.
+ * <br/>
+ * All codecs are written in pure Java (gzip relying on
+ * <code>java.util.zip.Inflater</code>), and check the checksums of
+ * the data.
+ * Dictionaries (zstd and LZ4) and legacy LZ4 frames are not supported.
+ * <br/>
+ * The compressed stream belongs to this stream, and is closed by
+ * <code>close()</code>.
+ *
+ * @author KR
+ */
+public class DecompressingInputStream extends InputStream {
+
+	///*** CONSTANTES ***///
+
+	/** Maximal default number of worker threads. */
+	private static final int MAX_DEFAULT_THREADS = 8;
+
+	/** Size of the buffer of the compressed stream, in bytes. */
+	private static final int INPUT_BUFFER_SIZE = 65536;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_NULL_FORMAT =
+			"Cannot decompress data of unspecified format!";
+	private static final String ERR_BAD_THREAD_COUNT =
+			"Number of worker threads must be strictly positive (got %d)!";
+	private static final String ERR_DECOMPRESSION_FAILED =
+			"Cannot decompress %s data: %s";
+	private static final String ERR_STREAM_CLOSED =
+			"Decompressing stream is closed!";
+
+	///*** ATTRIBUTS ***///
+
+	private final CompressionFormat format;
+	private final InputStream compressed;
+	private final BlockCodec codec;
+
+	/* ring of units: read (and possibly decoded) by the pipeline
+	   thread, in order, then consumed by the reader of this stream */
+	private final BlockingQueue<BlockCodec.Unit> fullUnits;
+	private final BlockingQueue<BlockCodec.Unit> freeUnits;
+	private final ExecutorService workers;
+	private final Thread pipelineThread;
+
+	/* unit being consumed, and position of the next byte in its output */
+	private BlockCodec.Unit unit;
+	private int position;
+	private boolean closed;
+	private IOException failure;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a decompressing stream, with one worker thread
+	 * per available processor (up to 8).
+	 *
+	 * @param compressed the compressed data.
+	 * @param format the compression format of the data
+	 *               (see <code>CompressionFormat.detect()</code>).
+	 *
+	 * @throws IllegalArgumentException if <code>format</code> is
+	 *                                  <code>NONE</code> or
+	 *                                  <code>null</code>.
+	 */
+	public DecompressingInputStream(InputStream compressed,
+	                                CompressionFormat format)
+	throws IllegalArgumentException
+	{
+		this(compressed, format, Math.min(MAX_DEFAULT_THREADS,
+				Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Constructor for a decompressing stream.
+	 * The pipeline thread is started right away.
+	 *
+	 * @param compressed the compressed data.
+	 * @param format the compression format of the data
+	 *               (see <code>CompressionFormat.detect()</code>).
+	 * @param threads the number of worker threads decompressing
+	 *                independent units in parallel.
+	 *
+	 * @throws IllegalArgumentException if <code>format</code> is
+	 *                                  <code>NONE</code> or
+	 *                                  <code>null</code>, or if
+	 *                                  <code>threads</code> is not
+	 *                                  strictly positive.
+	 */
+	public DecompressingInputStream(InputStream compressed,
+	                                CompressionFormat format, int threads)
+	throws IllegalArgumentException
+	{
+		if (format == null || format == CompressionFormat.NONE) {
+			throw new IllegalArgumentException(ERR_NULL_FORMAT);
+		}
+		if (threads <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_THREAD_COUNT,
+					threads));
+		}
+		this.format = format;
+		this.compressed = compressed;
+		switch (format) {
+		case GZIP:
+			this.codec = new GzipCodec();
+			break;
+		case ZSTD:
+			this.codec = new ZstdCodec();
+			break;
+		default:
+			this.codec = new Lz4Codec();
+			break;
+		}
+
+		/* enough units for all the workers, and as many
+		   for the pipeline to read ahead */
+		int units = 2 * threads + 2;
+		this.fullUnits = new ArrayBlockingQueue<BlockCodec.Unit>(units);
+		this.freeUnits = new ArrayBlockingQueue<BlockCodec.Unit>(units);
+		for (int i = 0; i < units; i++) {
+			this.freeUnits.add(new BlockCodec.Unit());
+		}
+		this.workers = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					private int count;
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task,
+								"Decompression worker #" + (count++));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		final PushbackInputStream input = new PushbackInputStream(
+				new BufferedInputStream(compressed, INPUT_BUFFER_SIZE),
+				INPUT_BUFFER_SIZE);
+		this.pipelineThread = new Thread(new Runnable() {
+			public void run() {
+				readAhead(input);
+			}
+		}, "Decompression pipeline");
+		this.pipelineThread.setDaemon(true);
+		this.pipelineThread.start();
+	}
+
+	/**
+	 * Open a stream of data which may be compressed: the compression
+	 * format is recognized from the first bytes of the data (which must
+	 * thus be available, or arrive).
+	 *
+	 * @param input the data, compressed or not.
+	 * @return a <code>DecompressingInputStream</code> if the data are
+	 *         compressed; otherwise, a stream of the data themselves.
+	 * @throws IOException if the first bytes can't be read.
+	 */
+	public static InputStream open(InputStream input) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(input,
+				CompressionFormat.DETECTION_LENGTH);
+		byte[] head = new byte[CompressionFormat.DETECTION_LENGTH];
+		/* only wait for the bytes needed (a magic number, or a
+		   skippable frame and the next magic number) */
+		int length = 0;
+		int needed = 4;
+		while (length < needed) {
+			int n = pushback.read(head, length, needed - length);
+			if (n < 0) break;
+			length += n;
+			if (length == 4 && (CompressionFormat.readIntLE(head, 0)
+			                    & CompressionFormat.SKIPPABLE_MAGIC_MASK)
+			                   == CompressionFormat.SKIPPABLE_MAGIC)
+			{
+				needed = head.length;
+			}
+		}
+		pushback.unread(head, 0, length);
+		CompressionFormat format = CompressionFormat.detect(head, length);
+		if (format == CompressionFormat.NONE) return pushback;
+		return new DecompressingInputStream(pushback, format);
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the compression format of the data.
+	 */
+	public CompressionFormat getFormat() {
+		return this.format;
+	}
+
+	///*** LECTURE ***///
+
+	@Override
+	public int read() throws IOException {
+		if (!(nextUnit())) return -1;
+		return this.unit.output[this.position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length)
+	throws IOException
+	{
+		if (length == 0) return 0;
+		if (!(nextUnit())) return -1;
+		int n = Math.min(length, this.unit.outputLength - this.position);
+		System.arraycopy(this.unit.output, this.position,
+		                 buffer, offset, n);
+		this.position += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (this.unit == null || this.closed) return 0;
+		return this.unit.outputLength - this.position;
+	}
+
+	/**
+	 * Stop the pipeline and worker threads, and close
+	 * the compressed stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) return;
+		this.closed = true;
+		this.pipelineThread.interrupt();
+		this.workers.shutdownNow();
+		this.compressed.close();
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Body of the pipeline thread.
+	 */
+	private void readAhead(PushbackInputStream input) {
+		BlockCodec.Unit next = null;
+		try {
+			while (true) {
+				next = this.freeUnits.take();
+				next.clear();
+				if (!(this.codec.readUnit(input, next))) {
+					next.last = true;
+					this.fullUnits.put(next);
+					return;
+				}
+				if (next.pending) {
+					final BlockCodec.Unit pending = next;
+					next.task = this.workers.submit(new Callable<Void>() {
+						public Void call() throws IOException {
+							codec.decodeUnit(pending);
+							return null;
+						}
+					});
+				}
+				this.fullUnits.put(next);
+				next = null;
+			}
+		} catch (InterruptedException exc) {
+			/* closed */
+		} catch (Exception exc) {
+			if (next == null) return;
+			/* reported by the reader of the stream */
+			next.clear();
+			next.failure = exc;
+			next.last = true;
+			try {
+				this.fullUnits.put(next);
+			} catch (InterruptedException exc2) {
+				/* closed */
+			}
+		}
+	}
+
+	/**
+	 * Move to the next unit with bytes to read if needed, waiting for it
+	 * to be read and decompressed.
+	 *
+	 * @return <code>false</code> at the end of the data.
+	 */
+	private boolean nextUnit() throws IOException {
+		if (this.closed) throw new IOException(ERR_STREAM_CLOSED);
+		if (this.failure != null) throw this.failure;
+		while (this.unit == null
+		       || this.position >= this.unit.outputLength)
+		{
+			if (this.unit != null) {
+				if (this.unit.last) return false;
+				this.freeUnits.add(this.unit);
+				this.unit = null;
+			}
+			BlockCodec.Unit next;
+			try {
+				next = this.fullUnits.take();
+				if (next.task != null) next.task.get();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException exc) {
+				throw failed(exc.getCause());
+			}
+			if (next.failure != null) throw failed(next.failure);
+			try {
+				this.codec.checkUnit(next);
+			} catch (IOException exc) {
+				throw failed(exc);
+			}
+			this.unit = next;
+			this.position = 0;
+		}
+		return true;
+	}
+
+	private IOException failed(Throwable cause) {
+		/* reported again on any further read */
+		this.failure = new IOException(String.format(
+				ERR_DECOMPRESSION_FAILED,
+				this.format,
+				cause.getMessage()),
+				cause);
+		return this.failure;
+	}
+
+}
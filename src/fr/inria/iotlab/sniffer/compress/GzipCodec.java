@@ -0,0 +1,346 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decoder of the gzip format (RFC 1952), made of one or more members.
+ * <br/>
+ * Members of BGZF files (blocked gzip, as written by <tt>bgzip</tt>),
+ * which give their compressed size in their header, are grouped into
+ * units decompressed in parallel; other members are decompressed in
+ * order by the pipeline thread.
+ *
+ * @author KR
+ */
+final class GzipCodec extends BlockCodec {
+
+	///*** CONSTANTES ***///
+
+	private static final int ID1 = 0x1f;
+	private static final int ID2 = 0x8b;
+	private static final int METHOD_DEFLATE = 8;
+
+	/* member header flags */
+	private static final int FLAG_HEADER_CRC = 0x02;
+	private static final int FLAG_EXTRA = 0x04;
+	private static final int FLAG_NAME = 0x08;
+	private static final int FLAG_COMMENT = 0x10;
+
+	/** Length of the fixed part of member headers, in bytes. */
+	private static final int HEADER_LENGTH = 10;
+	/** Length of member trailers (CRC-32 and size), in bytes. */
+	private static final int TRAILER_LENGTH = 8;
+
+	/** Extra subfield of BGZF members, giving their size. */
+	private static final int BGZF_SI1 = 'B';
+	private static final int BGZF_SI2 = 'C';
+	/** Maximal decompressed size of BGZF members. */
+	private static final int BGZF_MAX_SIZE = 65536;
+
+	/* results of readMember() besides the size of a BGZF member */
+	private static final int END_OF_DATA = -1;
+	private static final int SEQUENTIAL_MEMBER = -2;
+
+	/** Size of the buffer of sequentially decompressed members. */
+	private static final int INPUT_BUFFER_SIZE = 65536;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_MAGIC =
+			"Not a gzip member (magic number %02x%02x)!";
+	private static final String ERR_BAD_METHOD =
+			"Unsupported gzip compression method %d!";
+	private static final String ERR_BAD_BGZF_BLOCK =
+			"Invalid BGZF block (of %d bytes)!";
+	private static final String ERR_CORRUPTED_MEMBER =
+			"Corrupted gzip member!";
+	private static final String ERR_BAD_CHECKSUM =
+			"gzip member checksum mismatch!";
+
+	///*** ATTRIBUTS ***///
+
+	/* header of the member being read */
+	private byte[] header = new byte[HEADER_LENGTH + 2];
+
+	/* member being decompressed by the pipeline thread (if inMember) */
+	private boolean inMember;
+	private final Inflater inflater = new Inflater(true);
+	private final CRC32 crc = new CRC32();
+	private final byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
+	private int inputLength;
+
+	///*** DECODAGE ***///
+
+	@Override
+	boolean readUnit(PushbackInputStream in, Unit unit)
+	throws IOException
+	{
+		if (this.inMember) {
+			inflateMember(in, unit);
+			return true;
+		}
+		int outputLength = 0;
+		do {
+			int size = readMember(in, unit);
+			if (size == END_OF_DATA) {
+				if (unit.inputLength == 0) return false;
+				break;
+			}
+			if (size == SEQUENTIAL_MEMBER) {
+				if (unit.inputLength > 0) break;
+				inflateMember(in, unit);
+				return true;
+			}
+			outputLength += size;
+		} while (outputLength + BGZF_MAX_SIZE <= UNIT_SIZE);
+		/* one more byte, for the inflater to reach the end of the
+		   deflate stream of the last member */
+		unit.ensureOutput(outputLength + 1);
+		unit.pending = true;
+		return true;
+	}
+
+	@Override
+	void decodeUnit(Unit unit) throws IOException {
+		Inflater blockInflater = new Inflater(true);
+		CRC32 blockCrc = new CRC32();
+		try {
+			byte[] input = unit.input;
+			int pos = 0;
+			while (pos < unit.inputLength) {
+				int end = pos + getBgzfSize(input, pos);
+				int start = skipHeader(input, pos);
+				int expectedCrc = readIntLE(input, end - TRAILER_LENGTH);
+				int size = readIntLE(input, end - 4);
+
+				int written = unit.outputLength;
+				blockInflater.reset();
+				blockInflater.setInput(input, start, end - start);
+				int limit = Math.min(unit.output.length,
+				                     written + size + 1);
+				while (!(blockInflater.finished())) {
+					int n = blockInflater.inflate(unit.output, written,
+					                              limit - written);
+					if (n == 0 && !(blockInflater.finished())) {
+						throw new IOException(ERR_CORRUPTED_MEMBER);
+					}
+					written += n;
+				}
+				if (written - unit.outputLength != size) {
+					throw new IOException(ERR_CORRUPTED_MEMBER);
+				}
+				blockCrc.reset();
+				blockCrc.update(unit.output, unit.outputLength, size);
+				if ((int) blockCrc.getValue() != expectedCrc) {
+					throw new IOException(ERR_BAD_CHECKSUM);
+				}
+				unit.outputLength = written;
+				pos = end;
+			}
+		} catch (DataFormatException exc) {
+			throw new IOException(ERR_CORRUPTED_MEMBER, exc);
+		} finally {
+			blockInflater.end();
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Read the next member: a whole BGZF member is appended to the input
+	 * of the unit, while only the header of other members is read (their
+	 * decompression is started).
+	 *
+	 * @return the decompressed size of the BGZF member, or
+	 *         <code>SEQUENTIAL_MEMBER</code> for another member,
+	 *         or <code>END_OF_DATA</code>.
+	 */
+	private int readMember(PushbackInputStream in, Unit unit)
+	throws IOException
+	{
+		int first = in.read();
+		if (first < 0) return END_OF_DATA;
+		byte[] head = this.header;
+		head[0] = (byte) first;
+		readFully(in, head, 1, HEADER_LENGTH - 1);
+		if ((head[0] & 0xff) != ID1 || (head[1] & 0xff) != ID2) {
+			throw new IOException(String.format(
+					ERR_BAD_MAGIC,
+					head[0] & 0xff,
+					head[1] & 0xff));
+		}
+		if (head[2] != METHOD_DEFLATE) {
+			throw new IOException(String.format(ERR_BAD_METHOD, head[2]));
+		}
+		int flags = head[3];
+		int length = HEADER_LENGTH;
+		int bgzfSize = -1;
+		if ((flags & FLAG_EXTRA) != 0) {
+			readFully(in, head, length, 2);
+			int extraLength = (head[length] & 0xff)
+			                  | (head[length + 1] & 0xff) << 8;
+			length += 2;
+			if (head.length < length + extraLength) {
+				byte[] grown = new byte[length + extraLength];
+				System.arraycopy(head, 0, grown, 0, length);
+				this.header = head = grown;
+			}
+			readFully(in, head, length, extraLength);
+			length += extraLength;
+			bgzfSize = getBgzfSize(head, 0);
+		}
+
+		if (bgzfSize < 0) {
+			/* decompressed by the pipeline thread */
+			skipOptionalFields(in, flags);
+			this.inflater.reset();
+			this.crc.reset();
+			this.inputLength = 0;
+			this.inMember = true;
+			return SEQUENTIAL_MEMBER;
+		}
+
+		if (bgzfSize < length + TRAILER_LENGTH) {
+			throw new IOException(String.format(
+					ERR_BAD_BGZF_BLOCK,
+					bgzfSize));
+		}
+		unit.ensureInput(bgzfSize);
+		System.arraycopy(head, 0, unit.input, unit.inputLength, length);
+		unit.inputLength += length;
+		unit.readInput(in, bgzfSize - length);
+		int size = readIntLE(unit.input, unit.inputLength - 4);
+		if (size < 0 || size > BGZF_MAX_SIZE) {
+			throw new IOException(String.format(
+					ERR_BAD_BGZF_BLOCK,
+					bgzfSize));
+		}
+		return size;
+	}
+
+	/**
+	 * @return the total size of the BGZF member whose header starts at
+	 *         the given offset, or <code>-1</code> if it isn't a BGZF
+	 *         member (or has no extra field).
+	 */
+	private static int getBgzfSize(byte[] member, int offset) {
+		if ((member[offset + 3] & FLAG_EXTRA) == 0) return -1;
+		int pos = offset + HEADER_LENGTH;
+		int end = pos + 2 + ((member[pos] & 0xff)
+		                     | (member[pos + 1] & 0xff) << 8);
+		pos += 2;
+		while (pos + 4 <= end) {
+			int length = (member[pos + 2] & 0xff)
+			             | (member[pos + 3] & 0xff) << 8;
+			if (member[pos] == BGZF_SI1 && member[pos + 1] == BGZF_SI2
+			    && length == 2 && pos + 6 <= end)
+			{
+				return ((member[pos + 4] & 0xff)
+				        | (member[pos + 5] & 0xff) << 8) + 1;
+			}
+			pos += 4 + length;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the offset of the compressed data of the (BGZF)
+	 *         member whose header starts at the given offset.
+	 */
+	private static int skipHeader(byte[] member, int offset)
+	throws IOException
+	{
+		int flags = member[offset + 3];
+		int pos = offset + HEADER_LENGTH;
+		pos += 2 + ((member[pos] & 0xff) | (member[pos + 1] & 0xff) << 8);
+		int end = offset + getBgzfSize(member, offset) - TRAILER_LENGTH;
+		if ((flags & FLAG_NAME) != 0) {
+			while (pos < end && member[pos] != 0) pos++;
+			pos++;
+		}
+		if ((flags & FLAG_COMMENT) != 0) {
+			while (pos < end && member[pos] != 0) pos++;
+			pos++;
+		}
+		if ((flags & FLAG_HEADER_CRC) != 0) pos += 2;
+		if (pos > end) throw new IOException(ERR_CORRUPTED_MEMBER);
+		return pos;
+	}
+
+	private static void skipOptionalFields(InputStream in, int flags)
+	throws IOException
+	{
+		if ((flags & FLAG_NAME) != 0) skipString(in);
+		if ((flags & FLAG_COMMENT) != 0) skipString(in);
+		if ((flags & FLAG_HEADER_CRC) != 0) skipFully(in, 2);
+	}
+
+	private static void skipString(InputStream in) throws IOException {
+		int b;
+		do {
+			b = in.read();
+			if (b < 0) throw new IOException(ERR_CORRUPTED_MEMBER);
+		} while (b != 0);
+	}
+
+	/**
+	 * Decompress the current member (started by <code>readMember()</code>)
+	 * into the unit, up to its end or to the size of the unit.
+	 */
+	private void inflateMember(PushbackInputStream in, Unit unit)
+	throws IOException
+	{
+		unit.ensureOutput(UNIT_SIZE);
+		try {
+			while (unit.outputLength < UNIT_SIZE) {
+				if (this.inflater.needsInput()) {
+					this.inputLength = in.read(this.inputBuffer);
+					if (this.inputLength < 0) {
+						throw new IOException(ERR_CORRUPTED_MEMBER);
+					}
+					this.inflater.setInput(this.inputBuffer, 0,
+					                       this.inputLength);
+				}
+				int n = this.inflater.inflate(unit.output,
+						unit.outputLength, UNIT_SIZE - unit.outputLength);
+				this.crc.update(unit.output, unit.outputLength, n);
+				unit.outputLength += n;
+				if (this.inflater.finished()) {
+					endMember(in);
+					return;
+				}
+				if (n == 0 && this.inflater.needsDictionary()) {
+					throw new IOException(ERR_CORRUPTED_MEMBER);
+				}
+			}
+		} catch (DataFormatException exc) {
+			throw new IOException(ERR_CORRUPTED_MEMBER, exc);
+		}
+	}
+
+	/**
+	 * Check the trailer of the member decompressed by the pipeline
+	 * thread, which has just been fully decompressed.
+	 */
+	private void endMember(PushbackInputStream in) throws IOException {
+		int remaining = this.inflater.getRemaining();
+		if (remaining > 0) {
+			in.unread(this.inputBuffer, this.inputLength - remaining,
+			          remaining);
+		}
+		int expectedCrc = readIntLE(in);
+		int size = readIntLE(in);
+		if ((int) this.crc.getValue() != expectedCrc
+		    || (int) this.inflater.getBytesWritten() != size)
+		{
+			throw new IOException(ERR_BAD_CHECKSUM);
+		}
+		this.inMember = false;
+	}
+
+}
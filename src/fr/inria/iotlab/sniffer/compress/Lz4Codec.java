@@ -0,0 +1,412 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Decoder of the LZ4 frame format.
+ * <br/>
+ * Frames whose blocks are independent are split into units of
+ * consecutive blocks, decompressed in parallel; blocks of other frames
+ * are decompressed in order by the pipeline thread, keeping the 64 KB
+ * of data that the next block may refer to. Header and block checksums
+ * are checked when the blocks are read; the content checksum, computed
+ * on the whole decompressed frame, is checked as the units of the frame
+ * are consumed, in order.
+ *
+ * @author KR
+ */
+final class Lz4Codec extends BlockCodec {
+
+	///*** CONSTANTES ***///
+
+	/** Legacy frames, not supported. */
+	private static final int LEGACY_MAGIC = 0x184c2102;
+
+	/* frame descriptor flags */
+	private static final int FLAG_VERSION_MASK = 0xc0;
+	private static final int FLAG_VERSION_1 = 0x40;
+	private static final int FLAG_INDEPENDENT_BLOCKS = 0x20;
+	private static final int FLAG_BLOCK_CHECKSUM = 0x10;
+	private static final int FLAG_CONTENT_SIZE = 0x08;
+	private static final int FLAG_CONTENT_CHECKSUM = 0x04;
+	private static final int FLAG_DICTIONARY_ID = 0x01;
+
+	/* flags of the units: first and last units of their frame */
+	private static final int UNIT_FRAME_START = 0x100;
+	private static final int UNIT_FRAME_END = 0x200;
+
+	/** Flag of the size of the blocks stored uncompressed. */
+	private static final int BLOCK_UNCOMPRESSED = 0x80000000;
+
+	/** Size of the data that blocks may refer to, in bytes. */
+	private static final int WINDOW_SIZE = 65536;
+
+	/* sequences of the block format */
+	private static final int MIN_MATCH_LENGTH = 4;
+	private static final int LENGTH_EXTENDED = 15;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_MAGIC =
+			"Not an LZ4 frame (magic number %08x)!";
+	private static final String ERR_LEGACY_FRAME =
+			"Legacy LZ4 frames are not supported!";
+	private static final String ERR_BAD_VERSION =
+			"Unsupported LZ4 frame version (descriptor flags %02x)!";
+	private static final String ERR_DICTIONARY =
+			"LZ4 frames using a dictionary are not supported!";
+	private static final String ERR_BAD_BLOCK_SIZE_ID =
+			"Invalid LZ4 maximal block size (descriptor byte %02x)!";
+	private static final String ERR_BAD_HEADER_CHECKSUM =
+			"LZ4 frame descriptor checksum mismatch!";
+	private static final String ERR_BLOCK_TOO_LARGE =
+			"LZ4 block of %d bytes larger than the maximal %d bytes!";
+	private static final String ERR_BAD_BLOCK_CHECKSUM =
+			"LZ4 block checksum mismatch!";
+	private static final String ERR_BAD_CONTENT_CHECKSUM =
+			"LZ4 frame content checksum mismatch!";
+	private static final String ERR_CORRUPTED_BLOCK =
+			"Corrupted LZ4 block!";
+
+	///*** ATTRIBUTS ***///
+
+	/* frame being read (if inFrame), and its properties */
+	private boolean inFrame;
+	private boolean independentBlocks;
+	private boolean blockChecksum;
+	private boolean contentChecksum;
+	private int maxBlockSize;
+
+	/* content checksum of the frame, read at its end */
+	private int frameChecksum;
+
+	/* for frames of dependent blocks: data decompressed so far,
+	   of which the last WINDOW_SIZE bytes are kept */
+	private byte[] history;
+	private int historyLength;
+
+	/* compressed block, for frames of dependent blocks */
+	private byte[] block;
+
+	/* hash of the frame consumed so far (by checkUnit()) */
+	private final XxHash32 contentHash = new XxHash32();
+
+	///*** DECODAGE ***///
+
+	@Override
+	boolean readUnit(PushbackInputStream in, Unit unit)
+	throws IOException
+	{
+		boolean start = !(this.inFrame);
+		if (start && !(readFrameDescriptor(in))) return false;
+		if (this.independentBlocks) {
+			readIndependentBlocks(in, unit);
+		} else {
+			decodeDependentBlocks(in, unit);
+		}
+		if (this.contentChecksum) {
+			unit.flags |= FLAG_CONTENT_CHECKSUM;
+			if (start) unit.flags |= UNIT_FRAME_START;
+			if (!(this.inFrame)) {
+				unit.flags |= UNIT_FRAME_END;
+				unit.checksum = this.frameChecksum;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	void decodeUnit(Unit unit) throws IOException {
+		boolean checksum = (unit.flags & FLAG_BLOCK_CHECKSUM) != 0;
+		byte[] input = unit.input;
+		int pos = 0;
+		while (pos < unit.inputLength) {
+			int header = readIntLE(input, pos);
+			int size = header & ~BLOCK_UNCOMPRESSED;
+			pos += 4;
+			if (checksum) checkBlock(input, pos, size);
+			int start = unit.outputLength;
+			if ((header & BLOCK_UNCOMPRESSED) != 0) {
+				System.arraycopy(input, pos, unit.output, start, size);
+				unit.outputLength += size;
+			} else {
+				unit.outputLength = decompressBlock(input, pos, size,
+						unit.output, start, start, unit.output.length);
+			}
+			pos += size + (checksum ? 4 : 0);
+		}
+	}
+
+	@Override
+	void checkUnit(Unit unit) throws IOException {
+		if ((unit.flags & FLAG_CONTENT_CHECKSUM) == 0) return;
+		if ((unit.flags & UNIT_FRAME_START) != 0) this.contentHash.reset();
+		this.contentHash.update(unit.output, 0, unit.outputLength);
+		if ((unit.flags & UNIT_FRAME_END) != 0
+		    && this.contentHash.digest() != unit.checksum)
+		{
+			throw new IOException(ERR_BAD_CONTENT_CHECKSUM);
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Read the descriptor of the next frame, skipping skippable frames.
+	 *
+	 * @return <code>false</code> at the end of the data.
+	 */
+	private boolean readFrameDescriptor(InputStream in) throws IOException {
+		long magic;
+		while (true) {
+			magic = readMagic(in);
+			if (magic < 0) return false;
+			if (((int) magic & CompressionFormat.SKIPPABLE_MAGIC_MASK)
+			    != CompressionFormat.SKIPPABLE_MAGIC)
+			{
+				break;
+			}
+			skipFully(in, readIntLE(in) & 0xffffffffL);
+		}
+		if ((int) magic == LEGACY_MAGIC) {
+			throw new IOException(ERR_LEGACY_FRAME);
+		}
+		if ((int) magic != CompressionFormat.LZ4_MAGIC) {
+			throw new IOException(String.format(ERR_BAD_MAGIC, magic));
+		}
+
+		byte[] descriptor = new byte[11];
+		readFully(in, descriptor, 0, 2);
+		int flags = descriptor[0] & 0xff;
+		int blockSizeId = (descriptor[1] >> 4) & 0x07;
+		if ((flags & FLAG_VERSION_MASK) != FLAG_VERSION_1) {
+			throw new IOException(String.format(ERR_BAD_VERSION, flags));
+		}
+		if ((flags & FLAG_DICTIONARY_ID) != 0) {
+			throw new IOException(ERR_DICTIONARY);
+		}
+		if (blockSizeId < 4) {
+			throw new IOException(String.format(
+					ERR_BAD_BLOCK_SIZE_ID,
+					descriptor[1] & 0xff));
+		}
+		int length = 2;
+		if ((flags & FLAG_CONTENT_SIZE) != 0) {
+			/* not needed: units are sized from the blocks */
+			readFully(in, descriptor, length, 8);
+			length += 8;
+		}
+		readFully(in, descriptor, length, 1);
+		int checksum = descriptor[length] & 0xff;
+		if (checksum != ((XxHash32.hash(descriptor, 0, length) >>> 8) & 0xff)) {
+			throw new IOException(ERR_BAD_HEADER_CHECKSUM);
+		}
+
+		this.inFrame = true;
+		this.independentBlocks = (flags & FLAG_INDEPENDENT_BLOCKS) != 0;
+		this.blockChecksum = (flags & FLAG_BLOCK_CHECKSUM) != 0;
+		this.contentChecksum = (flags & FLAG_CONTENT_CHECKSUM) != 0;
+		this.maxBlockSize = 1 << (8 + 2 * blockSizeId);
+		this.historyLength = 0;
+		return true;
+	}
+
+	/**
+	 * Read the size of the next block of the frame, ending the frame
+	 * (and reading its content checksum) at its end mark.
+	 *
+	 * @return the header of the block, or <code>0</code>
+	 *         at the end of the frame.
+	 */
+	private int readBlockHeader(InputStream in) throws IOException {
+		int header = readIntLE(in);
+		if (header == 0) {
+			if (this.contentChecksum) this.frameChecksum = readIntLE(in);
+			this.inFrame = false;
+			return 0;
+		}
+		int size = header & ~BLOCK_UNCOMPRESSED;
+		if (size > this.maxBlockSize) {
+			throw new IOException(String.format(
+					ERR_BLOCK_TOO_LARGE,
+					size,
+					this.maxBlockSize));
+		}
+		return header;
+	}
+
+	/**
+	 * Read independent blocks, decompressed later.
+	 */
+	private void readIndependentBlocks(InputStream in, Unit unit)
+	throws IOException
+	{
+		int outputLength = 0;
+		int trailer = (this.blockChecksum ? 4 : 0);
+		do {
+			int header = readBlockHeader(in);
+			if (header == 0) break;
+			int size = header & ~BLOCK_UNCOMPRESSED;
+			unit.ensureInput(4 + size + trailer);
+			byte[] input = unit.input;
+			int pos = unit.inputLength;
+			input[pos] = (byte) header;
+			input[pos + 1] = (byte) (header >> 8);
+			input[pos + 2] = (byte) (header >> 16);
+			input[pos + 3] = (byte) (header >>> 24);
+			unit.inputLength += 4;
+			unit.readInput(in, size + trailer);
+			outputLength += ((header & BLOCK_UNCOMPRESSED) != 0 ?
+			                 size : this.maxBlockSize);
+		} while (outputLength + this.maxBlockSize <= UNIT_SIZE);
+		unit.ensureOutput(outputLength);
+		unit.flags = (this.blockChecksum ? FLAG_BLOCK_CHECKSUM : 0);
+		unit.pending = true;
+	}
+
+	/**
+	 * Decompress dependent blocks right away.
+	 */
+	private void decodeDependentBlocks(InputStream in, Unit unit)
+	throws IOException
+	{
+		if (this.history == null) {
+			this.history = new byte[WINDOW_SIZE + UNIT_SIZE];
+		}
+		if (this.block == null || this.block.length < this.maxBlockSize) {
+			this.block = new byte[this.maxBlockSize];
+		}
+		do {
+			int header = readBlockHeader(in);
+			if (header == 0) break;
+			int size = header & ~BLOCK_UNCOMPRESSED;
+			readFully(in, this.block, 0, size);
+			if (this.blockChecksum) {
+				checkBlock(this.block, 0, size, readIntLE(in));
+			}
+
+			/* keep the window at the start of the history */
+			if (this.historyLength + this.maxBlockSize
+			    > this.history.length)
+			{
+				int keep = Math.min(this.historyLength, WINDOW_SIZE);
+				if (WINDOW_SIZE + this.maxBlockSize > this.history.length) {
+					byte[] grown = new byte[WINDOW_SIZE + this.maxBlockSize];
+					System.arraycopy(this.history,
+					                 this.historyLength - keep,
+					                 grown, 0, keep);
+					this.history = grown;
+				} else {
+					System.arraycopy(this.history,
+					                 this.historyLength - keep,
+					                 this.history, 0, keep);
+				}
+				this.historyLength = keep;
+			}
+
+			int start = this.historyLength;
+			if ((header & BLOCK_UNCOMPRESSED) != 0) {
+				System.arraycopy(this.block, 0, this.history, start, size);
+				this.historyLength += size;
+			} else {
+				this.historyLength = decompressBlock(this.block, 0, size,
+						this.history, start, 0,
+						start + this.maxBlockSize);
+			}
+			int length = this.historyLength - start;
+			unit.ensureOutput(length);
+			System.arraycopy(this.history, start, unit.output,
+			                 unit.outputLength, length);
+			unit.outputLength += length;
+		} while (unit.outputLength + this.maxBlockSize <= UNIT_SIZE);
+	}
+
+	private void checkBlock(byte[] input, int offset, int size)
+	throws IOException
+	{
+		checkBlock(input, offset, size, readIntLE(input, offset + size));
+	}
+
+	private static void checkBlock(byte[] input, int offset, int size,
+	                               int checksum)
+	throws IOException
+	{
+		if (XxHash32.hash(input, offset, size) != checksum) {
+			throw new IOException(ERR_BAD_BLOCK_CHECKSUM);
+		}
+	}
+
+	/**
+	 * Decompress an LZ4 block.
+	 *
+	 * @param src buffer of the compressed block.
+	 * @param srcOffset offset of the block in <code>src</code>.
+	 * @param srcLength length of the block.
+	 * @param dst buffer of the decompressed data.
+	 * @param dstOffset offset at which the block is decompressed.
+	 * @param dstStart offset of the first byte that
+	 *                 matches can refer to.
+	 * @param dstLimit offset of the end of the room
+	 *                 for the decompressed data.
+	 * @return the offset of the end of the decompressed block.
+	 * @throws IOException if the block is corrupted.
+	 */
+	static int decompressBlock(byte[] src, int srcOffset, int srcLength,
+	                           byte[] dst, int dstOffset, int dstStart,
+	                           int dstLimit)
+	throws IOException
+	{
+		int sp = srcOffset;
+		int srcEnd = srcOffset + srcLength;
+		int dp = dstOffset;
+		while (sp < srcEnd) {
+			int token = src[sp++] & 0xff;
+
+			/* literals */
+			int length = token >>> 4;
+			if (length == LENGTH_EXTENDED) {
+				int b;
+				do {
+					if (sp >= srcEnd) throw corrupted();
+					b = src[sp++] & 0xff;
+					length += b;
+				} while (b == 0xff);
+			}
+			if (length > srcEnd - sp || length > dstLimit - dp) {
+				throw corrupted();
+			}
+			System.arraycopy(src, sp, dst, dp, length);
+			sp += length;
+			dp += length;
+			/* the last sequence has no match */
+			if (sp == srcEnd) return dp;
+
+			/* match */
+			if (srcEnd - sp < 2) throw corrupted();
+			int offset = (src[sp] & 0xff) | (src[sp + 1] & 0xff) << 8;
+			sp += 2;
+			if (offset == 0 || offset > dp - dstStart) throw corrupted();
+			length = token & 0x0f;
+			if (length == LENGTH_EXTENDED) {
+				int b;
+				do {
+					if (sp >= srcEnd) throw corrupted();
+					b = src[sp++] & 0xff;
+					length += b;
+				} while (b == 0xff);
+			}
+			length += MIN_MATCH_LENGTH;
+			if (length > dstLimit - dp) throw corrupted();
+			copyMatch(dst, dp, offset, length);
+			dp += length;
+		}
+		throw corrupted();
+	}
+
+	private static IOException corrupted() {
+		return new IOException(ERR_CORRUPTED_BLOCK);
+	}
+
+}
@@ -0,0 +1,148 @@
+package fr.inria.iotlab.sniffer.compress;
+
+/**
+ * 32-bit xxHash (XXH32) of a sequence of bytes, computed incrementally,
+ * as used for the checksums of LZ4 frames.
+ *
+ * @author KR
+ */
+final class XxHash32 {
+
+	///*** CONSTANTES ***///
+
+	private static final int PRIME1 = 0x9e3779b1;
+	private static final int PRIME2 = 0x85ebca77;
+	private static final int PRIME3 = 0xc2b2ae3d;
+	private static final int PRIME4 = 0x27d4eb2f;
+	private static final int PRIME5 = 0x165667b1;
+
+	/** Size of the stripes processed by the main loop, in bytes. */
+	private static final int STRIPE_SIZE = 16;
+
+	///*** ATTRIBUTS ***///
+
+	private int v1;
+	private int v2;
+	private int v3;
+	private int v4;
+	private long totalLength;
+
+	/* bytes not yet processed, less than a stripe */
+	private final byte[] pending = new byte[STRIPE_SIZE];
+	private int pendingLength;
+
+	///*** CONSTRUCTEURS ***///
+
+	XxHash32() {
+		reset();
+	}
+
+	///*** CALCUL ***///
+
+	/**
+	 * Start a new hash (with a seed of 0).
+	 */
+	void reset() {
+		this.v1 = PRIME1 + PRIME2;
+		this.v2 = PRIME2;
+		this.v3 = 0;
+		this.v4 = -PRIME1;
+		this.totalLength = 0L;
+		this.pendingLength = 0;
+	}
+
+	/**
+	 * Add some bytes to the hashed sequence.
+	 */
+	void update(byte[] data, int offset, int length) {
+		this.totalLength += length;
+		if (this.pendingLength > 0) {
+			int n = Math.min(length, STRIPE_SIZE - this.pendingLength);
+			System.arraycopy(data, offset, this.pending,
+			                 this.pendingLength, n);
+			this.pendingLength += n;
+			offset += n;
+			length -= n;
+			if (this.pendingLength < STRIPE_SIZE) return;
+			processStripes(this.pending, 0, STRIPE_SIZE);
+			this.pendingLength = 0;
+		}
+		int stripes = length & ~(STRIPE_SIZE - 1);
+		processStripes(data, offset, stripes);
+		System.arraycopy(data, offset + stripes, this.pending, 0,
+		                 length - stripes);
+		this.pendingLength = length - stripes;
+	}
+
+	/**
+	 * @return the hash of the bytes added since the last reset.
+	 */
+	int digest() {
+		int hash;
+		if (this.totalLength >= STRIPE_SIZE) {
+			hash = Integer.rotateLeft(this.v1, 1)
+			       + Integer.rotateLeft(this.v2, 7)
+			       + Integer.rotateLeft(this.v3, 12)
+			       + Integer.rotateLeft(this.v4, 18);
+		} else {
+			hash = PRIME5;
+		}
+		/* the length is hashed modulo 2^32 */
+		hash += (int) this.totalLength;
+
+		byte[] data = this.pending;
+		int pos = 0;
+		int end = this.pendingLength;
+		for (; pos + 4 <= end; pos += 4) {
+			hash += BlockCodec.readIntLE(data, pos) * PRIME3;
+			hash = Integer.rotateLeft(hash, 17) * PRIME4;
+		}
+		for (; pos < end; pos++) {
+			hash += (data[pos] & 0xff) * PRIME5;
+			hash = Integer.rotateLeft(hash, 11) * PRIME1;
+		}
+
+		hash ^= hash >>> 15;
+		hash *= PRIME2;
+		hash ^= hash >>> 13;
+		hash *= PRIME3;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+	/**
+	 * @return the hash of the given bytes.
+	 */
+	static int hash(byte[] data, int offset, int length) {
+		XxHash32 hash = new XxHash32();
+		hash.update(data, offset, length);
+		return hash.digest();
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void processStripes(byte[] data, int offset, int length) {
+		int a = this.v1;
+		int b = this.v2;
+		int c = this.v3;
+		int d = this.v4;
+		for (int end = offset + length; offset < end;
+		     offset += STRIPE_SIZE)
+		{
+			a = round(a, BlockCodec.readIntLE(data, offset));
+			b = round(b, BlockCodec.readIntLE(data, offset + 4));
+			c = round(c, BlockCodec.readIntLE(data, offset + 8));
+			d = round(d, BlockCodec.readIntLE(data, offset + 12));
+		}
+		this.v1 = a;
+		this.v2 = b;
+		this.v3 = c;
+		this.v4 = d;
+	}
+
+	private static int round(int acc, int input) {
+		acc += input * PRIME2;
+		return Integer.rotateLeft(acc, 13) * PRIME1;
+	}
+
+}
@@ -0,0 +1,160 @@
+package fr.inria.iotlab.sniffer.compress;
+
+/**
+ * 64-bit xxHash (XXH64) of a sequence of bytes, computed incrementally,
+ * as used for the content checksum of zstd frames.
+ *
+ * @author KR
+ */
+final class XxHash64 {
+
+	///*** CONSTANTES ***///
+
+	private static final long PRIME1 = 0x9e3779b185ebca87L;
+	private static final long PRIME2 = 0xc2b2ae3d27d4eb4fL;
+	private static final long PRIME3 = 0x165667b19e3779f9L;
+	private static final long PRIME4 = 0x85ebca77c2b2ae63L;
+	private static final long PRIME5 = 0x27d4eb2f165667c5L;
+
+	/** Size of the stripes processed by the main loop, in bytes. */
+	private static final int STRIPE_SIZE = 32;
+
+	///*** ATTRIBUTS ***///
+
+	private long v1;
+	private long v2;
+	private long v3;
+	private long v4;
+	private long totalLength;
+
+	/* bytes not yet processed, less than a stripe */
+	private final byte[] pending = new byte[STRIPE_SIZE];
+	private int pendingLength;
+
+	///*** CONSTRUCTEURS ***///
+
+	XxHash64() {
+		reset();
+	}
+
+	///*** CALCUL ***///
+
+	/**
+	 * Start a new hash (with a seed of 0).
+	 */
+	void reset() {
+		this.v1 = PRIME1 + PRIME2;
+		this.v2 = PRIME2;
+		this.v3 = 0L;
+		this.v4 = -PRIME1;
+		this.totalLength = 0L;
+		this.pendingLength = 0;
+	}
+
+	/**
+	 * Add some bytes to the hashed sequence.
+	 */
+	void update(byte[] data, int offset, int length) {
+		this.totalLength += length;
+		if (this.pendingLength > 0) {
+			int n = Math.min(length, STRIPE_SIZE - this.pendingLength);
+			System.arraycopy(data, offset, this.pending,
+			                 this.pendingLength, n);
+			this.pendingLength += n;
+			offset += n;
+			length -= n;
+			if (this.pendingLength < STRIPE_SIZE) return;
+			processStripes(this.pending, 0, STRIPE_SIZE);
+			this.pendingLength = 0;
+		}
+		int stripes = length & ~(STRIPE_SIZE - 1);
+		processStripes(data, offset, stripes);
+		System.arraycopy(data, offset + stripes, this.pending, 0,
+		                 length - stripes);
+		this.pendingLength = length - stripes;
+	}
+
+	/**
+	 * @return the hash of the bytes added since the last reset.
+	 */
+	long digest() {
+		long hash;
+		if (this.totalLength >= STRIPE_SIZE) {
+			hash = Long.rotateLeft(this.v1, 1) + Long.rotateLeft(this.v2, 7)
+			       + Long.rotateLeft(this.v3, 12)
+			       + Long.rotateLeft(this.v4, 18);
+			hash = mergeRound(hash, this.v1);
+			hash = mergeRound(hash, this.v2);
+			hash = mergeRound(hash, this.v3);
+			hash = mergeRound(hash, this.v4);
+		} else {
+			hash = PRIME5;
+		}
+		hash += this.totalLength;
+
+		byte[] data = this.pending;
+		int pos = 0;
+		int end = this.pendingLength;
+		for (; pos + 8 <= end; pos += 8) {
+			hash ^= round(0L, BlockCodec.readLongLE(data, pos));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if (pos + 4 <= end) {
+			hash ^= (BlockCodec.readIntLE(data, pos) & 0xffffffffL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			pos += 4;
+		}
+		for (; pos < end; pos++) {
+			hash ^= (data[pos] & 0xff) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	/**
+	 * @return the hash of the given bytes.
+	 */
+	static long hash(byte[] data, int offset, int length) {
+		XxHash64 hash = new XxHash64();
+		hash.update(data, offset, length);
+		return hash.digest();
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void processStripes(byte[] data, int offset, int length) {
+		long a = this.v1;
+		long b = this.v2;
+		long c = this.v3;
+		long d = this.v4;
+		for (int end = offset + length; offset < end;
+		     offset += STRIPE_SIZE)
+		{
+			a = round(a, BlockCodec.readLongLE(data, offset));
+			b = round(b, BlockCodec.readLongLE(data, offset + 8));
+			c = round(c, BlockCodec.readLongLE(data, offset + 16));
+			d = round(d, BlockCodec.readLongLE(data, offset + 24));
+		}
+		this.v1 = a;
+		this.v2 = b;
+		this.v3 = c;
+		this.v4 = d;
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		return Long.rotateLeft(acc, 31) * PRIME1;
+	}
+
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0L, value);
+		return acc * PRIME1 + PRIME4;
+	}
+
+}
@@ -0,0 +1,280 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Decoder of the Zstandard format (RFC 8878), made of one or more frames.
+ * <br/>
+ * Frames giving a content size of at most <code>MAX_UNIT_FRAME_SIZE</code>
+ * (as written by multi-threaded or seekable compressors, or when
+ * concatenating files) are grouped into units decompressed in parallel;
+ * blocks of other frames are decompressed in order by the pipeline
+ * thread, keeping the window of data that the next block may refer to.
+ * Frame checksums are checked in both cases.
+ *
+ * @author KR
+ */
+final class ZstdCodec extends BlockCodec {
+
+	///*** CONSTANTES ***///
+
+	/** Maximal content size of the frames decompressed as a whole,
+	    in parallel. */
+	private static final int MAX_UNIT_FRAME_SIZE = 8 * UNIT_SIZE;
+
+	/** Maximal length of frame headers (without the magic number). */
+	private static final int MAX_HEADER_LENGTH = 14;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_MAGIC =
+			"Not a zstd frame (magic number %08x)!";
+	private static final String ERR_BLOCK_TOO_LARGE =
+			"zstd block of %d bytes larger than the maximal %d bytes!";
+	private static final String ERR_BAD_CONTENT_SIZE =
+			"zstd frame of %d bytes instead of %d!";
+
+	///*** ATTRIBUTS ***///
+
+	/* decoder of the pipeline thread, holding the current frame */
+	private final ZstdDecoder decoder = new ZstdDecoder();
+	private final byte[] header = new byte[MAX_HEADER_LENGTH];
+	private int headerLength;
+
+	/* decoders of the worker threads */
+	private final Queue<ZstdDecoder> decoders =
+			new ConcurrentLinkedQueue<ZstdDecoder>();
+
+	/* frame decompressed by the pipeline thread (if inFrame): its
+	   checksum and size so far, and its window of data, at the end
+	   of which blocks are decompressed */
+	private boolean inFrame;
+	private final XxHash64 hash = new XxHash64();
+	private long frameLength;
+	private byte[] window;
+	private int windowLength;
+	private int windowSize;
+
+	/* compressed block, for frames decompressed by the pipeline thread */
+	private final byte[] block = new byte[ZstdDecoder.MAX_BLOCK_SIZE];
+
+	///*** DECODAGE ***///
+
+	@Override
+	boolean readUnit(PushbackInputStream in, Unit unit)
+	throws IOException
+	{
+		if (this.inFrame) {
+			decodeFrameBlocks(in, unit);
+			return true;
+		}
+		long outputLength = 0L;
+		do {
+			if (!(readFrameHeader(in))) {
+				if (unit.inputLength == 0) return false;
+				break;
+			}
+			long size = this.decoder.getContentSize();
+			if (size < 0 || size > MAX_UNIT_FRAME_SIZE) {
+				startFrame();
+				if (unit.inputLength > 0) break;
+				decodeFrameBlocks(in, unit);
+				return true;
+			}
+			readFrame(in, unit);
+			outputLength += size;
+		} while (outputLength < UNIT_SIZE);
+		unit.ensureOutput((int) outputLength);
+		unit.pending = true;
+		return true;
+	}
+
+	@Override
+	void decodeUnit(Unit unit) throws IOException {
+		ZstdDecoder frameDecoder = this.decoders.poll();
+		if (frameDecoder == null) frameDecoder = new ZstdDecoder();
+		try {
+			int pos = 0;
+			while (pos < unit.inputLength) {
+				pos = frameDecoder.decodeFrame(unit.input, pos,
+				                               unit.inputLength, unit.output,
+				                               unit.outputLength);
+				unit.outputLength += (int) frameDecoder.getContentSize();
+			}
+		} finally {
+			this.decoders.offer(frameDecoder);
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Read the header of the next frame, skipping skippable frames,
+	 * and start decoding the frame.
+	 *
+	 * @return <code>false</code> at the end of the data.
+	 */
+	private boolean readFrameHeader(InputStream in) throws IOException {
+		long magic;
+		while (true) {
+			magic = readMagic(in);
+			if (magic < 0) return false;
+			if (((int) magic & CompressionFormat.SKIPPABLE_MAGIC_MASK)
+			    != CompressionFormat.SKIPPABLE_MAGIC)
+			{
+				break;
+			}
+			skipFully(in, readIntLE(in) & 0xffffffffL);
+		}
+		if ((int) magic != CompressionFormat.ZSTD_MAGIC) {
+			throw new IOException(String.format(ERR_BAD_MAGIC, magic));
+		}
+		readFully(in, this.header, 0, 1);
+		this.headerLength =
+				ZstdDecoder.getFrameHeaderLength(this.header[0] & 0xff);
+		readFully(in, this.header, 1, this.headerLength - 1);
+		this.decoder.startFrame(this.header, 0);
+		return true;
+	}
+
+	/**
+	 * Append the frame whose header has just been read to the
+	 * input of the unit, to be decompressed later.
+	 */
+	private void readFrame(InputStream in, Unit unit) throws IOException {
+		unit.ensureInput(4 + this.headerLength);
+		byte[] input = unit.input;
+		int pos = unit.inputLength;
+		int magic = CompressionFormat.ZSTD_MAGIC;
+		input[pos] = (byte) magic;
+		input[pos + 1] = (byte) (magic >> 8);
+		input[pos + 2] = (byte) (magic >> 16);
+		input[pos + 3] = (byte) (magic >>> 24);
+		System.arraycopy(this.header, 0, input, pos + 4, this.headerLength);
+		unit.inputLength += 4 + this.headerLength;
+
+		boolean last;
+		do {
+			unit.readInput(in, 3);
+			int blockHeader = readBlockHeader(unit.input,
+			                                  unit.inputLength - 3);
+			last = (blockHeader & 1) != 0;
+			unit.readInput(in, getPayloadLength(blockHeader));
+		} while (!(last));
+		if (this.decoder.hasChecksum()) unit.readInput(in, 4);
+	}
+
+	/**
+	 * Prepare the decompression of the frame whose header has just been
+	 * read by the pipeline thread.
+	 */
+	private void startFrame() {
+		long size = this.decoder.getWindowSize();
+		if (this.decoder.getContentSize() >= 0) {
+			size = Math.min(size, this.decoder.getContentSize());
+		}
+		this.windowSize = (int) size;
+		int length = this.windowSize + Math.max(this.windowSize, UNIT_SIZE);
+		if (this.window == null || this.window.length < length) {
+			this.window = new byte[length];
+		}
+		this.windowLength = 0;
+		this.hash.reset();
+		this.frameLength = 0L;
+		this.inFrame = true;
+	}
+
+	/**
+	 * Decompress blocks of the current frame right away.
+	 */
+	private void decodeFrameBlocks(InputStream in, Unit unit)
+	throws IOException
+	{
+		ZstdDecoder frameDecoder = this.decoder;
+		int maxBlockSize = frameDecoder.getMaxBlockSize();
+		do {
+			readFully(in, this.block, 0, 3);
+			int blockHeader = readBlockHeader(this.block, 0);
+			readFully(in, this.block, 0, getPayloadLength(blockHeader));
+
+			/* keep the window at the start of the buffer */
+			if (this.windowLength + maxBlockSize > this.window.length) {
+				int keep = Math.min(this.windowLength, this.windowSize);
+				System.arraycopy(this.window, this.windowLength - keep,
+				                 this.window, 0, keep);
+				this.windowLength = keep;
+			}
+
+			int start = this.windowLength;
+			this.windowLength = frameDecoder.decodeBlock(
+					(blockHeader >>> 1) & 0x03, blockHeader >>> 3,
+					this.block, 0, this.window, start, 0,
+					this.window.length);
+			int length = this.windowLength - start;
+			this.hash.update(this.window, start, length);
+			this.frameLength += length;
+			unit.ensureOutput(length);
+			System.arraycopy(this.window, start, unit.output,
+			                 unit.outputLength, length);
+			unit.outputLength += length;
+
+			if ((blockHeader & 1) != 0) {
+				endFrame(in);
+				return;
+			}
+		} while (unit.outputLength + maxBlockSize <= UNIT_SIZE);
+	}
+
+	/**
+	 * Check the frame decompressed by the pipeline thread,
+	 * whose last block has just been decompressed.
+	 */
+	private void endFrame(InputStream in) throws IOException {
+		long size = this.decoder.getContentSize();
+		if (size >= 0 && this.frameLength != size) {
+			throw new IOException(String.format(
+					ERR_BAD_CONTENT_SIZE,
+					this.frameLength,
+					size));
+		}
+		if (this.decoder.hasChecksum()) {
+			ZstdDecoder.checkContent(this.hash.digest(), readIntLE(in));
+		}
+		this.inFrame = false;
+	}
+
+	/**
+	 * @return the (3-byte) header of the block at the given offset,
+	 *         whose size has been checked.
+	 */
+	private int readBlockHeader(byte[] buffer, int offset)
+	throws IOException
+	{
+		int blockHeader = (buffer[offset] & 0xff)
+		                  | (buffer[offset + 1] & 0xff) << 8
+		                  | (buffer[offset + 2] & 0xff) << 16;
+		int size = blockHeader >>> 3;
+		int maxBlockSize = this.decoder.getMaxBlockSize();
+		if (size > maxBlockSize) {
+			throw new IOException(String.format(
+					ERR_BLOCK_TOO_LARGE,
+					size,
+					maxBlockSize));
+		}
+		return blockHeader;
+	}
+
+	/**
+	 * @return the length of the content of the block
+	 *         with the given header.
+	 */
+	private static int getPayloadLength(int blockHeader) {
+		int type = (blockHeader >>> 1) & 0x03;
+		return (type == ZstdDecoder.BLOCK_RLE ? 1 : blockHeader >>> 3);
+	}
+
+}
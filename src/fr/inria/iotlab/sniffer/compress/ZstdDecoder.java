@@ -0,0 +1,1099 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decoder of Zstandard frames (RFC 8878), without dictionaries.
+ * <br/>
+ * A decoder holds the state of the frame being decoded (repeated
+ * offsets, entropy tables); it decodes either whole frames at once
+ * (<code>decodeFrame()</code>), or the blocks of a frame one by one
+ * (<code>startFrame()</code>, then <code>decodeBlock()</code>). Decoders
+ * are not thread-safe: each thread must use its own.
+ *
+ * @author KR
+ */
+final class ZstdDecoder {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Decoding table of Finite State Entropy (tANS) codes: for each state,
+	 * the decoded symbol, and the number of bits and the base value giving
+	 * the next state.
+	 */
+	private static final class FseTable {
+
+		int accuracyLog;
+		final byte[] symbols;
+		final byte[] bits;
+		final short[] baseStates;
+
+		FseTable(int maxAccuracyLog) {
+			int size = 1 << maxAccuracyLog;
+			this.symbols = new byte[size];
+			this.bits = new byte[size];
+			this.baseStates = new short[size];
+		}
+
+		/**
+		 * Build the table from the normalized probabilities of
+		 * the symbols (<code>-1</code> meaning "less than 1").
+		 */
+		void build(short[] counts, int maxSymbol, int accuracyLog,
+		           int[] next)
+		throws IOException
+		{
+			int size = 1 << accuracyLog;
+			int highPosition = size - 1;
+			for (int s = 0; s <= maxSymbol; s++) {
+				if (counts[s] == -1) {
+					this.symbols[highPosition--] = (byte) s;
+					next[s] = 1;
+				} else {
+					next[s] = counts[s];
+				}
+			}
+			/* spread the other symbols over the table */
+			int step = (size >>> 1) + (size >>> 3) + 3;
+			int mask = size - 1;
+			int position = 0;
+			for (int s = 0; s <= maxSymbol; s++) {
+				for (int i = 0; i < counts[s]; i++) {
+					this.symbols[position] = (byte) s;
+					do {
+						position = (position + step) & mask;
+					} while (position > highPosition);
+				}
+			}
+			if (position != 0) throw corrupted();
+
+			for (int u = 0; u < size; u++) {
+				int state = next[this.symbols[u] & 0xff]++;
+				int nbBits = accuracyLog - highBit(state);
+				this.bits[u] = (byte) nbBits;
+				this.baseStates[u] = (short) ((state << nbBits) - size);
+			}
+			this.accuracyLog = accuracyLog;
+		}
+
+		/**
+		 * Make the table always decode the same symbol, without bits.
+		 */
+		void setRle(int symbol) {
+			this.symbols[0] = (byte) symbol;
+			this.bits[0] = 0;
+			this.baseStates[0] = 0;
+			this.accuracyLog = 0;
+		}
+
+	}
+
+	/**
+	 * Reader of a bitstream written forwards and read backwards
+	 * (from its last byte, whose highest set bit marks the end of
+	 * the stream), through a 64-bit container.
+	 */
+	private static final class BitReader {
+
+		byte[] src;
+		int start;
+		int ptr;
+		long container;
+		int consumed;
+
+		void init(byte[] src, int start, int end) throws IOException {
+			int size = end - start;
+			if (size < 1) throw corrupted();
+			int last = src[end - 1] & 0xff;
+			if (last == 0) throw corrupted();
+			this.src = src;
+			this.start = start;
+			if (size >= 8) {
+				this.ptr = end - 8;
+				this.container = BlockCodec.readLongLE(src, this.ptr);
+				this.consumed = 8 - highBit(last);
+			} else {
+				this.ptr = start;
+				long bytes = 0L;
+				for (int i = size - 1; i >= 0; i--) {
+					bytes = bytes << 8 | (src[start + i] & 0xff);
+				}
+				this.container = bytes;
+				this.consumed = 8 - highBit(last) + (8 - size) * 8;
+			}
+		}
+
+		/**
+		 * @return the next <code>n</code> bits (0 to 56), without
+		 *         consuming them; bits beyond the start of the stream
+		 *         read as zeros.
+		 */
+		long look(int n) {
+			return ((this.container << (this.consumed & 63)) >>> 1)
+			       >>> ((63 - n) & 63);
+		}
+
+		long read(int n) {
+			long value = look(n);
+			this.consumed += n;
+			return value;
+		}
+
+		/**
+		 * Reload the container if at least <code>n</code> bits are not
+		 * available in it (and the stream still has bits).
+		 */
+		void fill(int n) {
+			if (this.consumed + n > 64) reload();
+		}
+
+		/**
+		 * Reload the container, so that it holds as many
+		 * unconsumed bits as possible.
+		 *
+		 * @return <code>true</code> if the bits consumed so far go
+		 *         beyond the start of the stream (overflow).
+		 */
+		boolean reload() {
+			if (this.consumed > 64) return true;
+			if (this.ptr >= this.start + 8) {
+				this.ptr -= this.consumed >>> 3;
+				this.consumed &= 7;
+			} else if (this.ptr == this.start) {
+				return false;
+			} else {
+				int n = Math.min(this.consumed >>> 3, this.ptr - this.start);
+				this.ptr -= n;
+				this.consumed -= n << 3;
+			}
+			this.container = BlockCodec.readLongLE(this.src, this.ptr);
+			return false;
+		}
+
+		/**
+		 * @return <code>true</code> if all the bits of the stream,
+		 *         and no more, have been consumed.
+		 */
+		boolean finished() {
+			reload();
+			return (this.ptr == this.start && this.consumed == 64);
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Maximal size of the decompressed data of a block. */
+	static final int MAX_BLOCK_SIZE = 128 * 1024;
+	/** Maximal window size supported (as the reference decoder does
+	    by default). */
+	static final long MAX_WINDOW_SIZE = 1L << 27;
+
+	/* block types */
+	static final int BLOCK_RAW = 0;
+	static final int BLOCK_RLE = 1;
+	static final int BLOCK_COMPRESSED = 2;
+	static final int BLOCK_RESERVED = 3;
+
+	/* literals block types */
+	private static final int LITERALS_RAW = 0;
+	private static final int LITERALS_RLE = 1;
+	private static final int LITERALS_COMPRESSED = 2;
+
+	/* compression modes of the sequences' symbols */
+	private static final int MODE_PREDEFINED = 0;
+	private static final int MODE_RLE = 1;
+	private static final int MODE_FSE = 2;
+
+	/* frame header descriptor flags */
+	private static final int FLAG_SINGLE_SEGMENT = 0x20;
+	private static final int FLAG_RESERVED = 0x08;
+	private static final int FLAG_CHECKSUM = 0x04;
+
+	private static final int MAX_HUFFMAN_BITS = 11;
+	private static final int MAX_HUFFMAN_WEIGHTS_LOG = 6;
+	private static final int MAX_LITERALS_LENGTH_LOG = 9;
+	private static final int MAX_MATCH_LENGTH_LOG = 9;
+	private static final int MAX_OFFSET_LOG = 8;
+	private static final int MAX_LITERALS_LENGTH_CODE = 35;
+	private static final int MAX_MATCH_LENGTH_CODE = 52;
+	private static final int MAX_OFFSET_CODE = 31;
+
+	/* baselines and numbers of extra bits of literals lengths codes */
+	private static final int[] LITERALS_LENGTH_BASE = {
+			0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+			16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512,
+			1024, 2048, 4096, 8192, 16384, 32768, 65536
+	};
+	private static final int[] LITERALS_LENGTH_BITS = {
+			0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+			1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12,
+			13, 14, 15, 16
+	};
+	/* baselines and numbers of extra bits of match lengths codes */
+	private static final int[] MATCH_LENGTH_BASE = {
+			3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+			19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+			35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515,
+			1027, 2051, 4099, 8195, 16387, 32771, 65539
+	};
+	private static final int[] MATCH_LENGTH_BITS = {
+			0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+			0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+			1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11,
+			12, 13, 14, 15, 16
+	};
+
+	/* predefined distributions of the sequences' codes */
+	private static final short[] LITERALS_LENGTH_DEFAULT = {
+			4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+			2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+			-1, -1, -1, -1
+	};
+	private static final short[] MATCH_LENGTH_DEFAULT = {
+			1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+			1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+			1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1,
+			-1, -1, -1, -1, -1
+	};
+	private static final short[] OFFSET_DEFAULT = {
+			1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+			1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1
+	};
+	private static final FseTable LITERALS_LENGTH_TABLE =
+			defaultTable(LITERALS_LENGTH_DEFAULT, 6);
+	private static final FseTable MATCH_LENGTH_TABLE =
+			defaultTable(MATCH_LENGTH_DEFAULT, 6);
+	private static final FseTable OFFSET_TABLE =
+			defaultTable(OFFSET_DEFAULT, 5);
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_CORRUPTED =
+			"Corrupted zstd frame!";
+	private static final String ERR_DICTIONARY =
+			"zstd frames using a dictionary are not supported!";
+	private static final String ERR_WINDOW_TOO_LARGE =
+			"zstd window of %d bytes is too large (more than %d bytes)!";
+	private static final String ERR_BAD_CHECKSUM =
+			"zstd frame checksum mismatch!";
+
+	///*** ATTRIBUTS ***///
+
+	/* properties of the frame being decoded */
+	private long contentSize;
+	private long windowSize;
+	private int maxBlockSize;
+	private boolean checksum;
+
+	/* entropy tables, repeated from block to block */
+	private FseTable literalsLengthTable;
+	private FseTable offsetTable;
+	private FseTable matchLengthTable;
+	private final FseTable literalsLengthBuffer =
+			new FseTable(MAX_LITERALS_LENGTH_LOG);
+	private final FseTable offsetBuffer = new FseTable(MAX_OFFSET_LOG);
+	private final FseTable matchLengthBuffer =
+			new FseTable(MAX_MATCH_LENGTH_LOG);
+	/* table selected by readSequencesTable() */
+	private FseTable selectedTable;
+	private final byte[] huffmanSymbols = new byte[1 << MAX_HUFFMAN_BITS];
+	private final byte[] huffmanBits = new byte[1 << MAX_HUFFMAN_BITS];
+	private int huffmanLog;
+
+	/* repeated offsets */
+	private int offset1;
+	private int offset2;
+	private int offset3;
+
+	/* literals of the current block: decoded in the literals buffer,
+	   or read in place (raw literals) */
+	private final byte[] literalsBuffer = new byte[MAX_BLOCK_SIZE];
+	private byte[] literals;
+	private int literalsStart;
+	private int literalsLength;
+
+	/* work areas */
+	private final BitReader bits = new BitReader();
+	private final short[] counts = new short[256];
+	private final int[] next = new int[256];
+	private final byte[] weights = new byte[256];
+	private final int[] rankStarts = new int[MAX_HUFFMAN_BITS + 2];
+	private final FseTable weightsTable =
+			new FseTable(MAX_HUFFMAN_WEIGHTS_LOG);
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the size of the content of the frame,
+	 *         or <code>-1</code> if it isn't given.
+	 */
+	long getContentSize() {
+		return this.contentSize;
+	}
+
+	/**
+	 * @return the size of the window of the frame: the data that matches
+	 *         may refer to, besides the current block.
+	 */
+	long getWindowSize() {
+		return this.windowSize;
+	}
+
+	/**
+	 * @return the maximal size of the blocks of the frame.
+	 */
+	int getMaxBlockSize() {
+		return this.maxBlockSize;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame ends with a checksum.
+	 */
+	boolean hasChecksum() {
+		return this.checksum;
+	}
+
+	///*** DECODAGE ***///
+
+	/**
+	 * @param descriptor the first byte of the header of a frame
+	 *                   (following its magic number).
+	 * @return the length of the header of the frame
+	 *         (without the magic number).
+	 */
+	static int getFrameHeaderLength(int descriptor) {
+		int length = 1;
+		boolean singleSegment = (descriptor & FLAG_SINGLE_SEGMENT) != 0;
+		if (!(singleSegment)) length++;
+		int dictionaryIdFlag = descriptor & 0x03;
+		length += (dictionaryIdFlag == 3 ? 4 : dictionaryIdFlag);
+		switch ((descriptor >> 6) & 0x03) {
+		case 0:
+			return length + (singleSegment ? 1 : 0);
+		case 1:
+			return length + 2;
+		case 2:
+			return length + 4;
+		default:
+			return length + 8;
+		}
+	}
+
+	/**
+	 * Start decoding a frame.
+	 *
+	 * @param header buffer holding the header of the frame
+	 *               (without the magic number).
+	 * @param offset offset of the header in <code>header</code>.
+	 * @throws IOException if the frame isn't supported.
+	 */
+	void startFrame(byte[] header, int offset) throws IOException {
+		int descriptor = header[offset] & 0xff;
+		if ((descriptor & FLAG_RESERVED) != 0) throw corrupted();
+		boolean singleSegment = (descriptor & FLAG_SINGLE_SEGMENT) != 0;
+		int pos = offset + 1;
+		long window = 0L;
+		if (!(singleSegment)) {
+			int windowDescriptor = header[pos++] & 0xff;
+			long base = 1L << (10 + (windowDescriptor >>> 3));
+			window = base + (base >>> 3) * (windowDescriptor & 0x07);
+		}
+		int dictionaryIdFlag = descriptor & 0x03;
+		if (dictionaryIdFlag != 0) {
+			int length = (dictionaryIdFlag == 3 ? 4 : dictionaryIdFlag);
+			long id = 0L;
+			for (int i = length - 1; i >= 0; i--) {
+				id = id << 8 | (header[pos + i] & 0xff);
+			}
+			if (id != 0L) throw new IOException(ERR_DICTIONARY);
+			pos += length;
+		}
+		switch ((descriptor >> 6) & 0x03) {
+		case 0:
+			this.contentSize = (singleSegment ? header[pos] & 0xff : -1L);
+			break;
+		case 1:
+			this.contentSize = ((header[pos] & 0xff)
+			                    | (header[pos + 1] & 0xff) << 8) + 256;
+			break;
+		case 2:
+			this.contentSize = BlockCodec.readIntLE(header, pos)
+			                   & 0xffffffffL;
+			break;
+		default:
+			this.contentSize = BlockCodec.readLongLE(header, pos);
+			if (this.contentSize < 0) throw corrupted();
+			break;
+		}
+		if (singleSegment) window = this.contentSize;
+		if (window > MAX_WINDOW_SIZE) {
+			throw new IOException(String.format(
+					ERR_WINDOW_TOO_LARGE,
+					window,
+					MAX_WINDOW_SIZE));
+		}
+		this.windowSize = window;
+		this.maxBlockSize = (int) Math.min(window, MAX_BLOCK_SIZE);
+		this.checksum = (descriptor & FLAG_CHECKSUM) != 0;
+
+		this.literalsLengthTable = null;
+		this.offsetTable = null;
+		this.matchLengthTable = null;
+		this.huffmanLog = 0;
+		this.offset1 = 1;
+		this.offset2 = 4;
+		this.offset3 = 8;
+	}
+
+	/**
+	 * Decode a whole frame.
+	 *
+	 * @param src buffer holding the frame.
+	 * @param offset offset of the frame (of its magic number).
+	 * @param end end of the data of <code>src</code>.
+	 * @param dst buffer of the decompressed data.
+	 * @param dstOffset offset at which the frame is decompressed.
+	 * @return the offset of the end of the frame in <code>src</code>;
+	 *         the size of the decompressed data is its content size.
+	 * @throws IOException if the frame is corrupted or not supported.
+	 */
+	int decodeFrame(byte[] src, int offset, int end, byte[] dst,
+	                int dstOffset)
+	throws IOException
+	{
+		int pos = offset + 4;
+		if (pos >= end
+		    || pos + getFrameHeaderLength(src[pos] & 0xff) > end)
+		{
+			throw corrupted();
+		}
+		startFrame(src, pos);
+		pos += getFrameHeaderLength(src[pos] & 0xff);
+
+		int dp = dstOffset;
+		boolean last;
+		do {
+			if (end - pos < 3) throw corrupted();
+			int header = (src[pos] & 0xff) | (src[pos + 1] & 0xff) << 8
+			             | (src[pos + 2] & 0xff) << 16;
+			pos += 3;
+			last = (header & 1) != 0;
+			int type = (header >>> 1) & 0x03;
+			int size = header >>> 3;
+			int payload = (type == BLOCK_RLE ? 1 : size);
+			if (payload > end - pos) throw corrupted();
+			dp = decodeBlock(type, size, src, pos, dst, dp, dstOffset,
+			                 dst.length);
+			pos += payload;
+		} while (!(last));
+
+		if (this.contentSize >= 0 && dp - dstOffset != this.contentSize) {
+			throw corrupted();
+		}
+		if (this.checksum) {
+			if (end - pos < 4) throw corrupted();
+			checkContent(XxHash64.hash(dst, dstOffset, dp - dstOffset),
+			             BlockCodec.readIntLE(src, pos));
+			pos += 4;
+		}
+		return pos;
+	}
+
+	/**
+	 * Decode a block of the current frame.
+	 *
+	 * @param type the type of the block.
+	 * @param size the size given by the header of the block.
+	 * @param src buffer holding the content of the block.
+	 * @param offset offset of the content of the block
+	 *               (following its header).
+	 * @param dst buffer of the decompressed data.
+	 * @param dstOffset offset at which the block is decompressed.
+	 * @param dstStart offset of the first byte that
+	 *                 matches can refer to.
+	 * @param dstLimit offset of the end of the room
+	 *                 for the decompressed data.
+	 * @return the offset of the end of the decompressed block.
+	 * @throws IOException if the block is corrupted.
+	 */
+	int decodeBlock(int type, int size, byte[] src, int offset,
+	                byte[] dst, int dstOffset, int dstStart, int dstLimit)
+	throws IOException
+	{
+		if (size > this.maxBlockSize) throw corrupted();
+		dstLimit = Math.min(dstLimit, dstOffset + this.maxBlockSize);
+		switch (type) {
+		case BLOCK_RAW:
+			if (size > dstLimit - dstOffset) throw corrupted();
+			System.arraycopy(src, offset, dst, dstOffset, size);
+			return dstOffset + size;
+		case BLOCK_RLE:
+			if (size > dstLimit - dstOffset) throw corrupted();
+			Arrays.fill(dst, dstOffset, dstOffset + size, src[offset]);
+			return dstOffset + size;
+		case BLOCK_COMPRESSED:
+			return decodeCompressedBlock(src, offset, offset + size,
+			                             dst, dstOffset, dstStart, dstLimit);
+		default:
+			throw corrupted();
+		}
+	}
+
+	/**
+	 * Check the checksum ending the frame.
+	 *
+	 * @param hash the xxHash of the decompressed frame.
+	 * @param expected the checksum of the frame.
+	 * @throws IOException if they don't match.
+	 */
+	static void checkContent(long hash, int expected) throws IOException {
+		if ((int) hash != expected) {
+			throw new IOException(ERR_BAD_CHECKSUM);
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private int decodeCompressedBlock(byte[] src, int offset, int end,
+	                                  byte[] dst, int dstOffset,
+	                                  int dstStart, int dstLimit)
+	throws IOException
+	{
+		int pos = decodeLiterals(src, offset, end);
+
+		/* number of sequences */
+		if (pos >= end) throw corrupted();
+		int sequences = src[pos++] & 0xff;
+		if (sequences >= 128) {
+			if (pos >= end) throw corrupted();
+			if (sequences < 255) {
+				sequences = ((sequences - 128) << 8) | (src[pos++] & 0xff);
+			} else {
+				if (pos + 1 >= end) throw corrupted();
+				sequences = ((src[pos] & 0xff)
+				             | (src[pos + 1] & 0xff) << 8) + 0x7f00;
+				pos += 2;
+			}
+		}
+		if (sequences == 0) {
+			if (pos != end) throw corrupted();
+			return copyLiterals(dst, dstOffset, this.literalsLength,
+			                    dstLimit);
+		}
+
+		/* entropy tables of the sequences */
+		if (pos >= end) throw corrupted();
+		int modes = src[pos++] & 0xff;
+		if ((modes & 0x03) != 0) throw corrupted();
+		pos = readSequencesTable(modes >>> 6, src, pos, end,
+		                         LITERALS_LENGTH_TABLE,
+		                         this.literalsLengthTable,
+		                         this.literalsLengthBuffer,
+		                         MAX_LITERALS_LENGTH_LOG,
+		                         MAX_LITERALS_LENGTH_CODE);
+		this.literalsLengthTable = this.selectedTable;
+		pos = readSequencesTable((modes >>> 4) & 0x03, src, pos, end,
+		                         OFFSET_TABLE, this.offsetTable,
+		                         this.offsetBuffer,
+		                         MAX_OFFSET_LOG, MAX_OFFSET_CODE);
+		this.offsetTable = this.selectedTable;
+		pos = readSequencesTable((modes >>> 2) & 0x03, src, pos, end,
+		                         MATCH_LENGTH_TABLE,
+		                         this.matchLengthTable,
+		                         this.matchLengthBuffer,
+		                         MAX_MATCH_LENGTH_LOG,
+		                         MAX_MATCH_LENGTH_CODE);
+		this.matchLengthTable = this.selectedTable;
+
+		return executeSequences(sequences, src, pos, end,
+		                        dst, dstOffset, dstStart, dstLimit);
+	}
+
+	/**
+	 * Read the description of the table of one of the sequences' codes,
+	 * and select the table (in <code>selectedTable</code>).
+	 *
+	 * @return the offset of the end of the description.
+	 */
+	private int readSequencesTable(int mode, byte[] src, int pos, int end,
+	                               FseTable predefined, FseTable previous,
+	                               FseTable buffer, int maxLog,
+	                               int maxSymbol)
+	throws IOException
+	{
+		switch (mode) {
+		case MODE_PREDEFINED:
+			this.selectedTable = predefined;
+			return pos;
+		case MODE_RLE:
+			if (pos >= end) throw corrupted();
+			int symbol = src[pos] & 0xff;
+			if (symbol > maxSymbol) throw corrupted();
+			buffer.setRle(symbol);
+			this.selectedTable = buffer;
+			return pos + 1;
+		case MODE_FSE:
+			pos += readDistribution(src, pos, end, maxLog, maxSymbol,
+			                        buffer);
+			this.selectedTable = buffer;
+			return pos;
+		default:
+			/* repeat the table of the previous block */
+			if (previous == null) throw corrupted();
+			this.selectedTable = previous;
+			return pos;
+		}
+	}
+
+	/**
+	 * Decode the sequences of a block, and execute them:
+	 * copy literals and matches.
+	 *
+	 * @return the offset of the end of the decompressed block.
+	 */
+	private int executeSequences(int sequences, byte[] src, int pos,
+	                             int end, byte[] dst, int dp,
+	                             int dstStart, int dstLimit)
+	throws IOException
+	{
+		FseTable llTable = this.literalsLengthTable;
+		FseTable ofTable = this.offsetTable;
+		FseTable mlTable = this.matchLengthTable;
+		byte[] lits = this.literals;
+		int litPos = this.literalsStart;
+		int litEnd = litPos + this.literalsLength;
+
+		BitReader in = this.bits;
+		in.init(src, pos, end);
+		int llState = (int) in.read(llTable.accuracyLog);
+		in.fill(MAX_OFFSET_LOG);
+		int ofState = (int) in.read(ofTable.accuracyLog);
+		in.fill(MAX_MATCH_LENGTH_LOG);
+		int mlState = (int) in.read(mlTable.accuracyLog);
+
+		for (int n = sequences; n > 0; n--) {
+			int llCode = llTable.symbols[llState];
+			int ofCode = ofTable.symbols[ofState];
+			int mlCode = mlTable.symbols[mlState];
+
+			/* offset, possibly a repeated one */
+			in.fill(ofCode);
+			long offsetValue = (1L << ofCode) + in.read(ofCode);
+			in.fill(2 * 16);
+			int matchLength = MATCH_LENGTH_BASE[mlCode]
+			                  + (int) in.read(MATCH_LENGTH_BITS[mlCode]);
+			int literalsLength = LITERALS_LENGTH_BASE[llCode]
+			                     + (int) in.read(
+			                             LITERALS_LENGTH_BITS[llCode]);
+			int offset;
+			if (offsetValue > 3) {
+				if (offsetValue - 3 > Integer.MAX_VALUE) throw corrupted();
+				offset = (int) (offsetValue - 3);
+				this.offset3 = this.offset2;
+				this.offset2 = this.offset1;
+				this.offset1 = offset;
+			} else {
+				int repeat = (int) offsetValue
+				             + (literalsLength == 0 ? 1 : 0);
+				switch (repeat) {
+				case 1:
+					offset = this.offset1;
+					break;
+				case 2:
+					offset = this.offset2;
+					this.offset2 = this.offset1;
+					this.offset1 = offset;
+					break;
+				case 3:
+					offset = this.offset3;
+					this.offset3 = this.offset2;
+					this.offset2 = this.offset1;
+					this.offset1 = offset;
+					break;
+				default:
+					offset = this.offset1 - 1;
+					if (offset == 0) throw corrupted();
+					this.offset3 = this.offset2;
+					this.offset2 = this.offset1;
+					this.offset1 = offset;
+					break;
+				}
+			}
+
+			/* next states (except after the last sequence) */
+			if (n > 1) {
+				in.fill(MAX_LITERALS_LENGTH_LOG + MAX_MATCH_LENGTH_LOG
+				        + MAX_OFFSET_LOG);
+				llState = llTable.baseStates[llState]
+				          + (int) in.read(llTable.bits[llState]);
+				mlState = mlTable.baseStates[mlState]
+				          + (int) in.read(mlTable.bits[mlState]);
+				ofState = ofTable.baseStates[ofState]
+				          + (int) in.read(ofTable.bits[ofState]);
+			}
+
+			/* execution */
+			if (literalsLength > litEnd - litPos
+			    || literalsLength + matchLength > dstLimit - dp)
+			{
+				throw corrupted();
+			}
+			System.arraycopy(lits, litPos, dst, dp, literalsLength);
+			litPos += literalsLength;
+			dp += literalsLength;
+			if (offset > dp - dstStart) throw corrupted();
+			BlockCodec.copyMatch(dst, dp, offset, matchLength);
+			dp += matchLength;
+		}
+		if (!(in.finished())) throw corrupted();
+
+		/* last literals */
+		this.literalsStart = litPos;
+		return copyLiterals(dst, dp, litEnd - litPos, dstLimit);
+	}
+
+	private int copyLiterals(byte[] dst, int dp, int length, int dstLimit)
+	throws IOException
+	{
+		if (length > dstLimit - dp) throw corrupted();
+		System.arraycopy(this.literals, this.literalsStart, dst, dp, length);
+		return dp + length;
+	}
+
+	/**
+	 * Decode the literals section of a block.
+	 *
+	 * @return the offset of the end of the section.
+	 */
+	private int decodeLiterals(byte[] src, int pos, int end)
+	throws IOException
+	{
+		if (pos >= end) throw corrupted();
+		int header = src[pos] & 0xff;
+		int type = header & 0x03;
+		int sizeFormat = (header >>> 2) & 0x03;
+
+		if (type == LITERALS_RAW || type == LITERALS_RLE) {
+			int size;
+			switch (sizeFormat) {
+			case 1:
+				if (end - pos < 2) throw corrupted();
+				size = (header >>> 4) | (src[pos + 1] & 0xff) << 4;
+				pos += 2;
+				break;
+			case 3:
+				if (end - pos < 3) throw corrupted();
+				size = (header >>> 4) | (src[pos + 1] & 0xff) << 4
+				       | (src[pos + 2] & 0xff) << 12;
+				pos += 3;
+				break;
+			default:
+				size = header >>> 3;
+				pos += 1;
+				break;
+			}
+			if (size > MAX_BLOCK_SIZE) throw corrupted();
+			if (type == LITERALS_RAW) {
+				if (size > end - pos) throw corrupted();
+				this.literals = src;
+				this.literalsStart = pos;
+				this.literalsLength = size;
+				return pos + size;
+			}
+			if (pos >= end) throw corrupted();
+			Arrays.fill(this.literalsBuffer, 0, size, src[pos]);
+			this.literals = this.literalsBuffer;
+			this.literalsStart = 0;
+			this.literalsLength = size;
+			return pos + 1;
+		}
+
+		/* Huffman-coded literals */
+		int headerLength = (sizeFormat <= 1 ? 3 : sizeFormat + 2);
+		if (end - pos < headerLength) throw corrupted();
+		long sizes = 0L;
+		for (int i = headerLength - 1; i >= 0; i--) {
+			sizes = sizes << 8 | (src[pos + i] & 0xff);
+		}
+		int sizeBits = (sizeFormat <= 1 ? 10 : 4 * sizeFormat + 6);
+		int size = (int) (sizes >>> 4) & ((1 << sizeBits) - 1);
+		int compressedSize = (int) (sizes >>> (4 + sizeBits))
+		                     & ((1 << sizeBits) - 1);
+		boolean singleStream = (sizeFormat == 0);
+		pos += headerLength;
+		if (size > MAX_BLOCK_SIZE || compressedSize > end - pos) {
+			throw corrupted();
+		}
+		int streamsEnd = pos + compressedSize;
+		if (type == LITERALS_COMPRESSED) {
+			pos += readHuffmanTable(src, pos, streamsEnd);
+		} else if (this.huffmanLog == 0) {
+			/* treeless literals without a previous table */
+			throw corrupted();
+		}
+
+		byte[] out = this.literalsBuffer;
+		if (singleStream) {
+			decodeHuffmanStream(src, pos, streamsEnd, out, 0, size);
+		} else {
+			if (streamsEnd - pos < 10) throw corrupted();
+			int size1 = (src[pos] & 0xff) | (src[pos + 1] & 0xff) << 8;
+			int size2 = (src[pos + 2] & 0xff) | (src[pos + 3] & 0xff) << 8;
+			int size3 = (src[pos + 4] & 0xff) | (src[pos + 5] & 0xff) << 8;
+			int start1 = pos + 6;
+			int start2 = start1 + size1;
+			int start3 = start2 + size2;
+			int start4 = start3 + size3;
+			if (start4 > streamsEnd) throw corrupted();
+			int segment = (size + 3) / 4;
+			if (3 * segment > size) throw corrupted();
+			decodeHuffmanStream(src, start1, start2, out, 0, segment);
+			decodeHuffmanStream(src, start2, start3, out, segment,
+			                    segment);
+			decodeHuffmanStream(src, start3, start4, out, 2 * segment,
+			                    segment);
+			decodeHuffmanStream(src, start4, streamsEnd, out, 3 * segment,
+			                    size - 3 * segment);
+		}
+		this.literals = out;
+		this.literalsStart = 0;
+		this.literalsLength = size;
+		return streamsEnd;
+	}
+
+	private void decodeHuffmanStream(byte[] src, int start, int end,
+	                                 byte[] out, int pos, int count)
+	throws IOException
+	{
+		BitReader in = this.bits;
+		in.init(src, start, end);
+		byte[] symbols = this.huffmanSymbols;
+		byte[] lengths = this.huffmanBits;
+		int log = this.huffmanLog;
+		for (int stop = pos + count; pos < stop; pos++) {
+			in.fill(log);
+			int index = (int) in.look(log);
+			out[pos] = symbols[index];
+			in.consumed += lengths[index];
+		}
+		if (!(in.finished())) throw corrupted();
+	}
+
+	/**
+	 * Read the description of a Huffman table, and build the table.
+	 *
+	 * @return the length of the description.
+	 */
+	private int readHuffmanTable(byte[] src, int pos, int end)
+	throws IOException
+	{
+		if (pos >= end) throw corrupted();
+		int header = src[pos] & 0xff;
+		byte[] w = this.weights;
+		int count;
+		int length;
+		if (header >= 128) {
+			/* weights on 4 bits */
+			count = header - 127;
+			length = 1 + (count + 1) / 2;
+			if (length > end - pos) throw corrupted();
+			for (int i = 0; i < count; i++) {
+				int b = src[pos + 1 + i / 2];
+				w[i] = (byte) ((i & 1) == 0 ? (b >>> 4) & 0x0f : b & 0x0f);
+			}
+		} else {
+			/* weights compressed with FSE */
+			length = 1 + header;
+			if (length > end - pos) throw corrupted();
+			int start = pos + 1;
+			start += readDistribution(src, start, pos + length,
+			                          MAX_HUFFMAN_WEIGHTS_LOG, 255,
+			                          this.weightsTable);
+			count = decodeWeights(src, start, pos + length);
+		}
+
+		/* the weight of the last symbol is implied */
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			if (w[i] > MAX_HUFFMAN_BITS) throw corrupted();
+			if (w[i] > 0) total += 1 << (w[i] - 1);
+		}
+		if (total == 0) throw corrupted();
+		int maxBits = highBit(total) + 1;
+		if (maxBits > MAX_HUFFMAN_BITS) throw corrupted();
+		int rest = (1 << maxBits) - total;
+		if ((rest & (rest - 1)) != 0) throw corrupted();
+		w[count++] = (byte) (highBit(rest) + 1);
+
+		/* symbols of each weight take consecutive ranges of the table,
+		   the lowest weights first */
+		int[] starts = this.rankStarts;
+		Arrays.fill(starts, 0);
+		for (int i = 0; i < count; i++) {
+			starts[w[i]]++;
+		}
+		int nextStart = 0;
+		for (int weight = 1; weight <= maxBits; weight++) {
+			int ranks = starts[weight];
+			starts[weight] = nextStart;
+			nextStart += ranks << (weight - 1);
+		}
+		for (int s = 0; s < count; s++) {
+			int weight = w[s];
+			if (weight == 0) continue;
+			int from = starts[weight];
+			int to = from + (1 << (weight - 1));
+			Arrays.fill(this.huffmanSymbols, from, to, (byte) s);
+			Arrays.fill(this.huffmanBits, from, to,
+			            (byte) (maxBits + 1 - weight));
+			starts[weight] = to;
+		}
+		this.huffmanLog = maxBits;
+		return length;
+	}
+
+	/**
+	 * Decode the FSE-compressed weights of a Huffman table, with
+	 * two interleaved states.
+	 *
+	 * @return the number of decoded weights.
+	 */
+	private int decodeWeights(byte[] src, int start, int end)
+	throws IOException
+	{
+		FseTable table = this.weightsTable;
+		byte[] w = this.weights;
+		int max = w.length - 1;
+		BitReader in = this.bits;
+		in.init(src, start, end);
+		int state1 = (int) in.read(table.accuracyLog);
+		in.reload();
+		int state2 = (int) in.read(table.accuracyLog);
+		in.reload();
+		int count = 0;
+		while (true) {
+			if (count > max - 2) throw corrupted();
+			w[count++] = table.symbols[state1];
+			state1 = table.baseStates[state1]
+			         + (int) in.read(table.bits[state1]);
+			if (in.reload()) {
+				w[count++] = table.symbols[state2];
+				break;
+			}
+			if (count > max - 2) throw corrupted();
+			w[count++] = table.symbols[state2];
+			state2 = table.baseStates[state2]
+			         + (int) in.read(table.bits[state2]);
+			if (in.reload()) {
+				w[count++] = table.symbols[state1];
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Read the normalized distribution of the symbols of an FSE
+	 * table, and build the table.
+	 *
+	 * @return the length of the description of the distribution.
+	 */
+	private int readDistribution(byte[] src, int start, int end,
+	                             int maxLog, int maxSymbol, FseTable table)
+	throws IOException
+	{
+		if (start >= end) throw corrupted();
+		short[] norm = this.counts;
+		Arrays.fill(norm, 0, maxSymbol + 1, (short) 0);
+		int bitPos = 0;
+		int accuracyLog = peekBits(src, start, end, bitPos, 4) + 5;
+		bitPos += 4;
+		if (accuracyLog > maxLog) throw corrupted();
+
+		int remaining = (1 << accuracyLog) + 1;
+		int threshold = 1 << accuracyLog;
+		int nbBits = accuracyLog + 1;
+		int symbol = 0;
+		boolean previousZero = false;
+		while (remaining > 1 && symbol <= maxSymbol) {
+			if (previousZero) {
+				int repeat;
+				do {
+					repeat = peekBits(src, start, end, bitPos, 2);
+					bitPos += 2;
+					symbol += repeat;
+				} while (repeat == 3);
+				if (symbol > maxSymbol) break;
+			}
+			int max = (2 * threshold - 1) - remaining;
+			int value = peekBits(src, start, end, bitPos, nbBits);
+			int count;
+			if ((value & (threshold - 1)) < max) {
+				count = value & (threshold - 1);
+				bitPos += nbBits - 1;
+			} else {
+				count = value & (2 * threshold - 1);
+				if (count >= threshold) count -= max;
+				bitPos += nbBits;
+			}
+			count--;
+			remaining -= (count < 0 ? -count : count);
+			norm[symbol++] = (short) count;
+			previousZero = (count == 0);
+			if (remaining < threshold) {
+				if (remaining <= 1) break;
+				nbBits = highBit(remaining) + 1;
+				threshold = 1 << (nbBits - 1);
+			}
+		}
+		int length = (bitPos + 7) >>> 3;
+		if (remaining != 1 || symbol > maxSymbol + 1
+		    || length > end - start)
+		{
+			throw corrupted();
+		}
+		table.build(norm, symbol - 1, accuracyLog, this.next);
+		return length;
+	}
+
+	/**
+	 * @return the <code>n</code> bits (up to 24) at the given bit position
+	 *         of a little-endian bitstream (zeros beyond its end).
+	 */
+	private static int peekBits(byte[] src, int start, int end, int bitPos,
+	                            int n)
+	{
+		int pos = start + (bitPos >>> 3);
+		int value = 0;
+		for (int i = 3; i >= 0; i--) {
+			value <<= 8;
+			if (pos + i < end) value |= src[pos + i] & 0xff;
+		}
+		return (value >>> (bitPos & 7)) & ((1 << n) - 1);
+	}
+
+	private static FseTable defaultTable(short[] distribution,
+	                                     int accuracyLog)
+	{
+		FseTable table = new FseTable(accuracyLog);
+		try {
+			table.build(distribution, distribution.length - 1,
+			            accuracyLog, new int[distribution.length]);
+		} catch (IOException exc) {
+			throw new IllegalStateException(exc);
+		}
+		return table;
+	}
+
+	private static int highBit(int value) {
+		return 31 - Integer.numberOfLeadingZeros(value);
+	}
+
+	private static IOException corrupted() {
+		return new IOException(ERR_CORRUPTED);
+	}
+
+}
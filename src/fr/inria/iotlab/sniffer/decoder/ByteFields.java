@@ -0,0 +1,44 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoding of unsigned big-endian (i.e.: network byte order) fields,
+ * by absolute offset, independently of the buffer's byte order.
+ *
+ * @author KR
+ */
+final class ByteFields {
+
+	private ByteFields() {
+		// static methods only
+	}
+
+	static int u8(ByteBuffer buf, int offset) {
+		return buf.get(offset) & 0xff;
+	}
+
+	static int u16(ByteBuffer buf, int offset) {
+		return (u8(buf, offset) << 8) | u8(buf, offset + 1);
+	}
+
+	static long u32(ByteBuffer buf, int offset) {
+		return ((long) u16(buf, offset) << 16) | u16(buf, offset + 2);
+	}
+
+	static long u64(ByteBuffer buf, int offset) {
+		return (u32(buf, offset) << 32) | u32(buf, offset + 4);
+	}
+
+	/**
+	 * Decode a big-endian field of 0 to 8 bytes.
+	 */
+	static long uN(ByteBuffer buf, int offset, int length) {
+		long value = 0L;
+		for (int i = 0; i < length; i++) {
+			value = (value << 8) | u8(buf, offset + i);
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,402 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.u16;
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.u8;
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.uN;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <code>Dissector</code> of CoAP messages (RFC 7252), carried by UDP
+ * over 6LoWPAN.
+ * <br/>
+ * Decoding the layer only checks the fixed header and the token: options
+ * are only scanned when one of them (or the payload) is first accessed.
+ * Up to <code>MAX_OPTIONS</code> options are recorded, in primitive
+ * arrays; <code>uriPathEquals()</code> compares the Uri-Path without
+ * building any string.
+ *
+ * @author KR
+ */
+public final class CoapMessage implements Dissector {
+
+	///*** CONSTANTES ***///
+
+	/** Default UDP port of CoAP. */
+	public static final int DEFAULT_PORT = 5683;
+
+	/** Maximal number of options recorded for a message. */
+	public static final int MAX_OPTIONS = 32;
+
+	/** Message type: confirmable. */
+	public static final int TYPE_CONFIRMABLE = 0;
+	/** Message type: non-confirmable. */
+	public static final int TYPE_NON_CONFIRMABLE = 1;
+	/** Message type: acknowledgement. */
+	public static final int TYPE_ACKNOWLEDGEMENT = 2;
+	/** Message type: reset. */
+	public static final int TYPE_RESET = 3;
+
+	/** Option number: Uri-Host. */
+	public static final int OPTION_URI_HOST = 3;
+	/** Option number: Observe (RFC 7641). */
+	public static final int OPTION_OBSERVE = 6;
+	/** Option number: Uri-Path. */
+	public static final int OPTION_URI_PATH = 11;
+	/** Option number: Content-Format. */
+	public static final int OPTION_CONTENT_FORMAT = 12;
+	/** Option number: Uri-Query. */
+	public static final int OPTION_URI_QUERY = 15;
+	/** Option number: Block2 (RFC 7959). */
+	public static final int OPTION_BLOCK2 = 23;
+
+	/** Size of the fixed header of CoAP messages, in bytes. */
+	private static final int HEADER_SIZE = 4;
+	/** Marker of the start of the payload. */
+	private static final int PAYLOAD_MARKER = 0xff;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_OPTION_INDEX =
+			"Option index %d is out of bounds (message has %d options)!";
+
+	///*** ATTRIBUTS ***///
+
+	private final int port;
+
+	/* current message */
+	private ByteBuffer buffer;
+	private int messageStart;
+	private int messageEnd;
+
+	/* options, once scanned */
+	private boolean optionsScanned;
+	private boolean wellFormed;
+	private int optionCount;
+	private final int[] optionNumbers = new int[MAX_OPTIONS];
+	private final int[] optionOffsets = new int[MAX_OPTIONS];
+	private final int[] optionLengths = new int[MAX_OPTIONS];
+	private int payloadStart;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a CoAP dissector, for the default CoAP port.
+	 */
+	public CoapMessage() {
+		this(DEFAULT_PORT);
+	}
+
+	/**
+	 * Constructor for a CoAP dissector.
+	 *
+	 * @param port the UDP port on which CoAP messages are exchanged
+	 *             (as source or destination port).
+	 */
+	public CoapMessage(int port) {
+		this.port = port;
+	}
+
+	///*** DECODAGE ***///
+
+	@Override
+	public boolean decode(DissectorChain chain, Dissector lower) {
+		if (!(lower instanceof SixLowpanPacket)) return false;
+		SixLowpanPacket ip = (SixLowpanPacket) lower;
+		if (!(ip.isUdp())
+		    || (ip.getSourcePort() != this.port
+		        && ip.getDestinationPort() != this.port))
+		{
+			return false;
+		}
+		ByteBuffer buf = ip.getPayloadBuffer();
+		int pos = ip.getPayloadOffset();
+		int end = pos + ip.getPayloadLength();
+		if (pos + HEADER_SIZE > end) return false;
+		int first = u8(buf, pos);
+		int tokenLength = first & 0x0f;
+		if ((first >>> 6) != 1 || tokenLength > 8
+		    || pos + HEADER_SIZE + tokenLength > end)
+		{
+			return false;
+		}
+		this.buffer = buf;
+		this.messageStart = pos;
+		this.messageEnd = end;
+		this.optionsScanned = false;
+		return true;
+	}
+
+	///*** EN-TETE ***///
+
+	/**
+	 * @return the message type (see the <code>TYPE_*</code> constants).
+	 */
+	public int getType() {
+		return (u8(this.buffer, this.messageStart) >>> 4) & 0x03;
+	}
+
+	/**
+	 * @return the message code (class in the 3 most significant bits,
+	 *         detail in the 5 least significant bits).
+	 */
+	public int getCode() {
+		return u8(this.buffer, this.messageStart + 1);
+	}
+
+	/**
+	 * @return the class of the message code (0 for requests,
+	 *         2 to 5 for responses).
+	 */
+	public int getCodeClass() {
+		return getCode() >>> 5;
+	}
+
+	/**
+	 * @return the detail of the message code (e.g.: the method
+	 *         of requests).
+	 */
+	public int getCodeDetail() {
+		return getCode() & 0x1f;
+	}
+
+	/**
+	 * @return the message ID.
+	 */
+	public int getMessageId() {
+		return u16(this.buffer, this.messageStart + 2);
+	}
+
+	/**
+	 * @return the length of the token (from 0 to 8 bytes).
+	 */
+	public int getTokenLength() {
+		return u8(this.buffer, this.messageStart) & 0x0f;
+	}
+
+	/**
+	 * @return the token, as a big-endian number.
+	 */
+	public long getToken() {
+		return uN(this.buffer, this.messageStart + HEADER_SIZE,
+		          getTokenLength());
+	}
+
+	///*** OPTIONS ***///
+
+	/**
+	 * @return <code>false</code> if the options of the message are
+	 *         malformed (in which case only the options before the
+	 *         error are available, and the payload is empty).
+	 */
+	public boolean isWellFormed() {
+		scanOptions();
+		return this.wellFormed;
+	}
+
+	/**
+	 * @return the number of options of the message (at most
+	 *         <code>MAX_OPTIONS</code>).
+	 */
+	public int getOptionCount() {
+		scanOptions();
+		return this.optionCount;
+	}
+
+	/**
+	 * @param index the index of an option.
+	 * @return the number of the option (see the <code>OPTION_*</code>
+	 *         constants).
+	 * @throws IndexOutOfBoundsException if there is no such option.
+	 */
+	public int getOptionNumber(int index) {
+		checkOptionIndex(index);
+		return this.optionNumbers[index];
+	}
+
+	/**
+	 * @param index the index of an option.
+	 * @return the absolute offset of the value of the option
+	 *         in the payload buffer.
+	 * @throws IndexOutOfBoundsException if there is no such option.
+	 */
+	public int getOptionValueOffset(int index) {
+		checkOptionIndex(index);
+		return this.optionOffsets[index];
+	}
+
+	/**
+	 * @param index the index of an option.
+	 * @return the length of the value of the option, in bytes.
+	 * @throws IndexOutOfBoundsException if there is no such option.
+	 */
+	public int getOptionValueLength(int index) {
+		checkOptionIndex(index);
+		return this.optionLengths[index];
+	}
+
+	/**
+	 * @return the Content-Format of the payload,
+	 *         or -1 if the message has no Content-Format option.
+	 */
+	public int getContentFormat() {
+		scanOptions();
+		for (int i = 0; i < this.optionCount; i++) {
+			if (this.optionNumbers[i] == OPTION_CONTENT_FORMAT) {
+				return (int) uN(this.buffer, this.optionOffsets[i],
+				                Math.min(this.optionLengths[i], 2));
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the path of the target resource, made of its Uri-Path
+	 *         options (e.g.: <tt>"/sensors/temp"</tt>), or
+	 *         <tt>"/"</tt> if the message has no Uri-Path option.
+	 */
+	public String getUriPath() {
+		scanOptions();
+		StringBuilder path = new StringBuilder();
+		byte[] segment = null;
+		for (int i = 0; i < this.optionCount; i++) {
+			if (this.optionNumbers[i] != OPTION_URI_PATH) continue;
+			int length = this.optionLengths[i];
+			if (segment == null || segment.length < length) {
+				segment = new byte[length];
+			}
+			for (int j = 0; j < length; j++) {
+				segment[j] = this.buffer.get(this.optionOffsets[i] + j);
+			}
+			path.append('/');
+			path.append(new String(segment, 0, length,
+			                       StandardCharsets.UTF_8));
+		}
+		return (path.length() > 0 ? path.toString() : "/");
+	}
+
+	/**
+	 * Compare the path of the target resource with the given one,
+	 * without building any string. Only ASCII paths can match.
+	 *
+	 * @param path a resource path (e.g.: <tt>"/sensors/temp"</tt>).
+	 * @return <code>true</code> if <code>path</code> is the path given
+	 *         by the Uri-Path options of the message.
+	 */
+	public boolean uriPathEquals(CharSequence path) {
+		scanOptions();
+		int pos = 0;
+		int length = path.length();
+		boolean anySegment = false;
+		for (int i = 0; i < this.optionCount; i++) {
+			if (this.optionNumbers[i] != OPTION_URI_PATH) continue;
+			anySegment = true;
+			if (pos >= length || path.charAt(pos) != '/') return false;
+			pos++;
+			int offset = this.optionOffsets[i];
+			for (int j = 0; j < this.optionLengths[i]; j++) {
+				if (pos >= length
+				    || path.charAt(pos) != (char) u8(this.buffer, offset + j))
+				{
+					return false;
+				}
+				pos++;
+			}
+		}
+		if (!(anySegment)) return (length == 0 || "/".contentEquals(path));
+		return (pos == length);
+	}
+
+	///*** CHARGE UTILE ***///
+
+	@Override
+	public ByteBuffer getPayloadBuffer() {
+		return this.buffer;
+	}
+
+	@Override
+	public int getPayloadOffset() {
+		scanOptions();
+		return this.payloadStart;
+	}
+
+	@Override
+	public int getPayloadLength() {
+		scanOptions();
+		return this.messageEnd - this.payloadStart;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Scan the options of the message (once per message),
+	 * and locate its payload.
+	 */
+	private void scanOptions() {
+		if (this.optionsScanned) return;
+		this.optionsScanned = true;
+		this.optionCount = 0;
+		this.wellFormed = false;
+		this.payloadStart = this.messageEnd;
+
+		int pos = this.messageStart + HEADER_SIZE + getTokenLength();
+		int end = this.messageEnd;
+		int number = 0;
+		while (pos < end) {
+			int first = u8(this.buffer, pos);
+			pos++;
+			if (first == PAYLOAD_MARKER) {
+				if (pos == end) return;
+				this.payloadStart = pos;
+				this.wellFormed = true;
+				return;
+			}
+			int delta = first >>> 4;
+			int length = first & 0x0f;
+			if (delta == 13) {
+				if (pos + 1 > end) return;
+				delta = 13 + u8(this.buffer, pos);
+				pos++;
+			} else if (delta == 14) {
+				if (pos + 2 > end) return;
+				delta = 269 + u16(this.buffer, pos);
+				pos += 2;
+			} else if (delta == 15) {
+				return;
+			}
+			if (length == 13) {
+				if (pos + 1 > end) return;
+				length = 13 + u8(this.buffer, pos);
+				pos++;
+			} else if (length == 14) {
+				if (pos + 2 > end) return;
+				length = 269 + u16(this.buffer, pos);
+				pos += 2;
+			} else if (length == 15) {
+				return;
+			}
+			if (pos + length > end) return;
+			number += delta;
+			if (this.optionCount < MAX_OPTIONS) {
+				this.optionNumbers[this.optionCount] = number;
+				this.optionOffsets[this.optionCount] = pos;
+				this.optionLengths[this.optionCount] = length;
+				this.optionCount++;
+			}
+			pos += length;
+		}
+		/* no payload */
+		this.wellFormed = true;
+	}
+
+	private void checkOptionIndex(int index) {
+		scanOptions();
+		if (index < 0 || index >= this.optionCount) {
+			throw new IndexOutOfBoundsException(String.format(
+					ERR_BAD_OPTION_INDEX,
+					index, this.optionCount));
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of one protocol layer, in a <code>DissectorChain</code>.
+ * <br/>
+ * Dissectors are reusable ("flyweight") objects: <code>decode()</code>
+ * only locates the fields of the layer in the packet data, and these
+ * fields are then decoded on demand by the dissector's accessors,
+ * until the next packet is decoded. A dissector instance belongs
+ * to a single chain.
+ *
+ * @author KR
+ * @see DissectorChain
+ */
+public interface Dissector {
+
+	/**
+	 * Decode the layer of the current packet of the given chain.
+	 *
+	 * @param chain the chain holding the current packet.
+	 * @param lower the highest layer successfully decoded below this one,
+	 *              whose payload should hold this layer; or
+	 *              <code>null</code> for the first layer of the chain,
+	 *              which is found in the whole packet data.
+	 * @return <code>true</code> if the layer has been decoded;
+	 *         <code>false</code> if it isn't carried by the lower layer,
+	 *         or is malformed.
+	 */
+	boolean decode(DissectorChain chain, Dissector lower);
+
+	/**
+	 * @return the buffer holding the payload of the decoded layer
+	 *         (which may not be the packet data buffer, e.g.: for
+	 *         reassembled datagrams).
+	 */
+	ByteBuffer getPayloadBuffer();
+
+	/**
+	 * @return the absolute offset, in its buffer,
+	 *         of the payload of the decoded layer.
+	 */
+	int getPayloadOffset();
+
+	/**
+	 * @return the length of the payload of the decoded layer, in bytes.
+	 */
+	int getPayloadLength();
+
+}
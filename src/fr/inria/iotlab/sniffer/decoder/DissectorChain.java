@@ -0,0 +1,248 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+
+/**
+ * Stack of <code>Dissector</code>s decoding the successive protocol
+ * layers of the packets of a capture.
+ * <br/>
+ * Layers are decoded lazily: setting a new packet decodes nothing, and
+ * asking for a layer only decodes the layers up to (and including) that
+ * one. A filter on the link layer thus never pays for the decoding of
+ * the upper layers.
+ * <br/>
+ * Each layer is decoded from the payload of the highest layer decoded
+ * successfully below it; a layer that isn't carried by its lower layer
+ * is simply absent (e.g.: RPL and CoAP both lie above 6LoWPAN, and at
+ * most one of them is present in a given packet).
+ * <br/>
+ * Note that dissectors may keep state between packets (e.g.: for the
+ * reassembly of fragmented datagrams): a chain must thus be used for
+ * the packets of a single capture, in their order, and is not
+ * thread-safe.
+ *
+ * @author KR
+ */
+public final class DissectorChain {
+
+	///*** ATTRIBUTS ***///
+
+	private final NetworkType netType;
+	private final Dissector[] layers;
+	private final boolean[] decoded;
+
+	/* current packet */
+	private ByteBuffer packetData;
+	private int packetOffset;
+	private int packetLength;
+	private long packetTime;
+
+	/* decoding state of the current packet: number of layers
+	   examined so far, and highest layer successfully decoded */
+	private int examinedLayers;
+	private int topLayer;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a dissector chain.
+	 *
+	 * @param netType the network (link-layer header) type
+	 *                of the packets to decode.
+	 * @param layers the dissectors of the successive layers,
+	 *               from the link layer up.
+	 */
+	public DissectorChain(NetworkType netType, Dissector... layers) {
+		this.netType = netType;
+		this.layers = layers.clone();
+		this.decoded = new boolean[layers.length];
+		this.topLayer = -1;
+	}
+
+	/**
+	 * Build the default chain of dissectors for the given network type.
+	 * <br/>
+	 * The dissectors are those of the link type registered in
+	 * <code>LinkTypeRegistry</code>: IEEE 802.15.4 link types are decoded
+	 * up to RPL and CoAP (through 6LoWPAN); network types without
+	 * dissectors are not decoded (the chain is empty).
+	 *
+	 * @param netType the network (link-layer header) type
+	 *                of the packets to decode.
+	 * @return a new dissector chain for <code>netType</code>.
+	 */
+	public static DissectorChain forNetworkType(NetworkType netType) {
+		return create(netType, LinkTypeRegistry.get(netType));
+	}
+
+	/**
+	 * Build the default chain of dissectors for the given link type,
+	 * which may be unknown to <code>NetworkType</code> (if registered
+	 * at runtime in <code>LinkTypeRegistry</code>).
+	 *
+	 * @param linkTypeID the numeric identifier of the link type
+	 *                   of the packets to decode.
+	 * @return a new dissector chain for that link type
+	 *         (empty if it has no registered dissectors).
+	 */
+	public static DissectorChain forLinkType(int linkTypeID) {
+		LinkTypeInfo info = LinkTypeRegistry.get(linkTypeID);
+		return create(info != null ? info.getNetworkType() : null, info);
+	}
+
+	///*** PAQUET COURANT ***///
+
+	/**
+	 * Set the packet to decode.
+	 *
+	 * @param data the buffer holding the packet, between its
+	 *             position and its limit.
+	 * @param timeMillis the capture time of the packet, in milliseconds
+	 *                   (used to expire the state kept between packets).
+	 */
+	public void setPacket(ByteBuffer data, long timeMillis) {
+		this.packetData = data;
+		this.packetOffset = data.position();
+		this.packetLength = data.remaining();
+		this.packetTime = timeMillis;
+		this.examinedLayers = 0;
+		this.topLayer = -1;
+	}
+
+	/**
+	 * Set the current packet of the given cursor as the packet to decode.
+	 *
+	 * @param cursor a cursor positioned on a packet.
+	 * @throws IOException if an I/O error prevents the packet data from
+	 *                     being read (e.g.: an unexpected EOF).
+	 */
+	public void setPacket(PacketCursor cursor) throws IOException {
+		long millis = cursor.getTimestampSeconds() * 1000L
+		              + cursor.getTimestampFraction()
+		                / (cursor.hasNanosecondPrecision() ? 1000000 : 1000);
+		setPacket(cursor.getPacketData(), millis);
+	}
+
+	/**
+	 * @return the network type of the decoded packets.
+	 */
+	public NetworkType getNetworkType() {
+		return this.netType;
+	}
+
+	/**
+	 * @return the buffer holding the current packet.
+	 */
+	public ByteBuffer getPacketData() {
+		return this.packetData;
+	}
+
+	/**
+	 * @return the absolute offset of the current packet in its buffer.
+	 */
+	public int getPacketOffset() {
+		return this.packetOffset;
+	}
+
+	/**
+	 * @return the length of the current packet, in bytes.
+	 */
+	public int getPacketLength() {
+		return this.packetLength;
+	}
+
+	/**
+	 * @return the capture time of the current packet, in milliseconds.
+	 */
+	public long getPacketTime() {
+		return this.packetTime;
+	}
+
+	///*** COUCHES ***///
+
+	/**
+	 * @return the number of layers (dissectors) of this chain.
+	 */
+	public int getLayerCount() {
+		return this.layers.length;
+	}
+
+	/**
+	 * Get the given layer of the current packet, decoding it
+	 * (and the layers below it) if not done yet.
+	 *
+	 * @param depth the index of the layer in the chain (0 for the
+	 *              link layer).
+	 * @return the dissector of the layer, or <code>null</code> if the
+	 *         current packet doesn't hold this layer.
+	 * @throws IndexOutOfBoundsException if the chain has no such layer.
+	 */
+	public Dissector getLayer(int depth) {
+		return (isDecoded(depth) ? this.layers[depth] : null);
+	}
+
+	/**
+	 * Get the layer of the current packet decoded by a dissector of the
+	 * given class, decoding it (and the layers below it) if not done yet.
+	 *
+	 * @param layerClass the class of the wanted dissector.
+	 * @return the dissector of the layer, or <code>null</code> if the
+	 *         current packet doesn't hold this layer (or if the chain
+	 *         has no such dissector).
+	 */
+	public <T extends Dissector> T getLayer(Class<T> layerClass) {
+		for (int i = 0; i < this.layers.length; i++) {
+			if (layerClass.isInstance(this.layers[i])) {
+				return (isDecoded(i) ? layerClass.cast(this.layers[i]) : null);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decode all the layers of the current packet.
+	 *
+	 * @return the dissector of the highest layer of the current packet,
+	 *         or <code>null</code> if even the first one couldn't be
+	 *         decoded.
+	 */
+	public Dissector getTopLayer() {
+		if (this.layers.length > 0) {
+			isDecoded(this.layers.length - 1);
+		}
+		return (this.topLayer >= 0 ? this.layers[this.topLayer] : null);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static DissectorChain create(NetworkType netType,
+	                                     LinkTypeInfo info)
+	{
+		DissectorFactory factory = (info != null ?
+		                            info.getDissectorFactory() : null);
+		if (factory == null) return new DissectorChain(netType);
+		return new DissectorChain(netType, factory.createLayers());
+	}
+
+	private boolean isDecoded(int depth) {
+		if (depth < 0 || depth >= this.layers.length) {
+			throw new IndexOutOfBoundsException(Integer.toString(depth));
+		}
+		while (this.examinedLayers <= depth) {
+			int i = this.examinedLayers;
+			Dissector lower = (this.topLayer >= 0 ?
+			                   this.layers[this.topLayer] : null);
+			boolean ok = (i == 0 || lower != null)
+			             && this.layers[i].decode(this, lower);
+			this.decoded[i] = ok;
+			if (ok) this.topLayer = i;
+			this.examinedLayers++;
+		}
+		return this.decoded[depth];
+	}
+
+}
@@ -0,0 +1,19 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+/**
+ * Factory of the dissectors decoding the packets of a link type.
+ *
+ * @author KR
+ * @see LinkTypeInfo
+ */
+public interface DissectorFactory {
+
+	/**
+	 * Create new dissectors, for a new <code>DissectorChain</code>.
+	 *
+	 * @return the dissectors of the successive layers,
+	 *         from the link layer up.
+	 */
+	Dissector[] createLayers();
+
+}
@@ -0,0 +1,476 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+import fr.inria.iotlab.sniffer.parser.PCapFileMerger;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+
+/**
+ * Validator of the Frame Check Sequence of the packets of a capture,
+ * telling corrupted frames apart from valid ones, with per-sniffer
+ * corruption counters.
+ * <br/>
+ * The FCS is checked for the link types whose frames end with a 2-byte
+ * FCS (according to <code>LinkTypeRegistry</code>): the ITU-T CRC-16
+ * (as used by IEEE 802.15.4, i.e.: the CRC-16/KERMIT variant) is
+ * computed over the whole frame, FCS included, which gives 0 for a valid
+ * frame. Other link types (e.g.: <code>IEEE802_15_4_NOFCS</code>) are
+ * not checked; validation can also be enabled or disabled explicitly
+ * for each link type.
+ * <br/>
+ * The CRC is computed with the "slicing-by-8" algorithm (8 bytes per
+ * step, through 8 lookup tables), reading direct buffers (e.g.: memory
+ * mapped captures) by 8-byte words, so that validation does not slow
+ * the parsing down.
+ * <br/>
+ * Sniffers are numbered from 0: capture interfaces of a capture, or
+ * inputs of a <code>PCapFileMerger</code>. Truncated packets (i.e.:
+ * not captured entirely) cannot be checked.
+ * <br/>
+ * Note that this class is not thread-safe: parallel parsers should use
+ * a validator per chunk, then <code>merge()</code> them.
+ *
+ * @author KR
+ */
+public final class FcsValidator {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Result of the validation of a frame.
+	 */
+	public enum Status {
+		/** The FCS of the frame is correct. */
+		VALID,
+		/** The FCS of the frame is wrong (or the frame is too short
+		    to hold one). */
+		CORRUPTED,
+		/** The frame was not checked: its link type has no (known) FCS,
+		    or its validation is disabled, or the frame is truncated. */
+		UNCHECKED
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Length of the checked FCS, in bytes. */
+	public static final int FCS_LENGTH = 2;
+
+	/** Reversed polynomial of the ITU-T CRC-16 (x^16 + x^12 + x^5 + 1). */
+	private static final int CRC16_POLYNOMIAL = 0x8408;
+
+	/* slicing-by-8 tables: table k (at offset 256 * k) gives the CRC of
+	   a byte followed by k zero bytes */
+	private static final char[] CRC16_TABLES = createTables();
+
+	/* validation state of a link type */
+	private static final byte DEFAULT = 0;
+	private static final byte ENABLED = 1;
+	private static final byte DISABLED = 2;
+
+	/* initial number of sniffers of the counters */
+	private static final int DEFAULT_SNIFFER_COUNT = 8;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_SNIFFER =
+			"Invalid sniffer number %d!";
+	private static final String ERR_BAD_LINK_TYPE =
+			"Invalid link type ID %d!";
+	private static final String ERR_BAD_RANGE =
+			"Invalid range [%d, %d[ of a %d-byte buffer!";
+
+	///*** ATTRIBUTS ***///
+
+	/* validation state, indexed by link type ID */
+	private byte[] linkTypeStates;
+
+	/* counters, indexed by sniffer */
+	private long[] framesValid;
+	private long[] framesCorrupted;
+	private long[] framesUnchecked;
+	private int snifferCount;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a validator with the default validation
+	 * of each link type.
+	 */
+	public FcsValidator() {
+		this.linkTypeStates = new byte[0];
+		this.framesValid = new long[DEFAULT_SNIFFER_COUNT];
+		this.framesCorrupted = new long[DEFAULT_SNIFFER_COUNT];
+		this.framesUnchecked = new long[DEFAULT_SNIFFER_COUNT];
+		this.snifferCount = 0;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * Enable or disable the validation of a link type (replacing its
+	 * default validation, which depends on the FCS length registered
+	 * in <code>LinkTypeRegistry</code>).
+	 *
+	 * @param linkTypeID numeric identifier of a link type.
+	 * @param validated <code>true</code> to check the FCS
+	 *                  of the frames of that link type.
+	 * @throws IllegalArgumentException if <code>linkTypeID</code>
+	 *                                  is out of range.
+	 */
+	public void setValidated(int linkTypeID, boolean validated)
+	throws IllegalArgumentException
+	{
+		if (linkTypeID < 0
+		    || linkTypeID > LinkTypeRegistry.MAX_LINK_TYPE_ID)
+		{
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_LINK_TYPE,
+					linkTypeID));
+		}
+		if (linkTypeID >= this.linkTypeStates.length) {
+			this.linkTypeStates = Arrays.copyOf(this.linkTypeStates,
+			                                    linkTypeID + 1);
+		}
+		this.linkTypeStates[linkTypeID] = (validated ? ENABLED : DISABLED);
+	}
+
+	/**
+	 * Enable or disable the validation of a network type.
+	 *
+	 * @see #setValidated(int, boolean)
+	 */
+	public void setValidated(NetworkType netType, boolean validated) {
+		setValidated(netType.getID(), validated);
+	}
+
+	/**
+	 * @param linkTypeID numeric identifier of a link type.
+	 * @return <code>true</code> if the FCS of the frames
+	 *         of that link type is checked.
+	 */
+	public boolean isValidated(int linkTypeID) {
+		byte state = (linkTypeID >= 0
+		              && linkTypeID < this.linkTypeStates.length ?
+		              this.linkTypeStates[linkTypeID] : DEFAULT);
+		if (state == DEFAULT) {
+			return (LinkTypeRegistry.getFcsLength(linkTypeID) == FCS_LENGTH);
+		}
+		return (state == ENABLED);
+	}
+
+	/**
+	 * @return the number of sniffers seen so far (i.e.: the highest
+	 *         sniffer number, plus one).
+	 */
+	public int getSnifferCount() {
+		return this.snifferCount;
+	}
+
+	/**
+	 * @return the number of frames checked so far.
+	 */
+	public long getFramesChecked() {
+		return getValidFrames() + getCorruptedFrames();
+	}
+
+	/**
+	 * @return the number of valid frames so far.
+	 */
+	public long getValidFrames() {
+		return sum(this.framesValid);
+	}
+
+	/**
+	 * @return the number of corrupted frames so far.
+	 */
+	public long getCorruptedFrames() {
+		return sum(this.framesCorrupted);
+	}
+
+	/**
+	 * @return the number of frames not checked so far.
+	 */
+	public long getUncheckedFrames() {
+		return sum(this.framesUnchecked);
+	}
+
+	/**
+	 * @param sniffer the number of a sniffer.
+	 * @return the number of valid frames received by that sniffer.
+	 */
+	public long getValidFrames(int sniffer) {
+		return counter(this.framesValid, sniffer);
+	}
+
+	/**
+	 * @param sniffer the number of a sniffer.
+	 * @return the number of corrupted frames received by that sniffer.
+	 */
+	public long getCorruptedFrames(int sniffer) {
+		return counter(this.framesCorrupted, sniffer);
+	}
+
+	/**
+	 * @param sniffer the number of a sniffer.
+	 * @return the number of frames received by that sniffer
+	 *         which were not checked.
+	 */
+	public long getUncheckedFrames(int sniffer) {
+		return counter(this.framesUnchecked, sniffer);
+	}
+
+	/**
+	 * @param sniffer the number of a sniffer.
+	 * @return the proportion of corrupted frames among the frames
+	 *         of that sniffer which were checked (0 if none was).
+	 */
+	public double getCorruptionRate(int sniffer) {
+		long corrupted = getCorruptedFrames(sniffer);
+		long checked = corrupted + getValidFrames(sniffer);
+		return (checked > 0 ? (double) corrupted / checked : 0.0);
+	}
+
+	///*** VALIDATION ***///
+
+	/**
+	 * Validate the current packet of the given cursor, received by the
+	 * sniffer numbered as its capture interface.
+	 *
+	 * @param cursor a cursor positioned on a packet.
+	 * @return the result of the validation.
+	 * @throws IOException if an I/O error prevents the packet data from
+	 *                     being read (e.g.: an unexpected EOF).
+	 */
+	public Status validate(PacketCursor cursor) throws IOException {
+		int sniffer = cursor.getInterfaceId();
+		if (cursor.getPacketLength() < cursor.getOriginalPacketLength()) {
+			return count(sniffer, Status.UNCHECKED);
+		}
+		return validate(sniffer, cursor.getLinkTypeID(),
+		                cursor.getPacketData());
+	}
+
+	/**
+	 * Validate the current packet of the given merger, received by the
+	 * sniffer numbered as its input.
+	 *
+	 * @param merger a merger positioned on a packet.
+	 * @return the result of the validation.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public Status validate(PCapFileMerger merger) {
+		int sniffer = merger.getInputIndex();
+		if (merger.getPacketLength() < merger.getOriginalPacketLength()) {
+			return count(sniffer, Status.UNCHECKED);
+		}
+		return validate(sniffer, merger.getLinkTypeID(),
+		                merger.getPacketData());
+	}
+
+	/**
+	 * Validate a complete frame received by a sniffer.
+	 *
+	 * @param sniffer the number of the sniffer.
+	 * @param linkTypeID numeric identifier of the link type of the frame.
+	 * @param frame the frame, from its position to its limit
+	 *              (the buffer itself is left unchanged).
+	 * @return the result of the validation.
+	 * @throws IllegalArgumentException if <code>sniffer</code>
+	 *                                  is negative.
+	 */
+	public Status validate(int sniffer, int linkTypeID, ByteBuffer frame)
+	throws IllegalArgumentException
+	{
+		if (!(isValidated(linkTypeID))) {
+			return count(sniffer, Status.UNCHECKED);
+		}
+		int start = frame.position();
+		if (linkTypeID == NetworkType.IEEE802_15_4_NONASK_PHY.getID()) {
+			/* the FCS doesn't cover the PHY header */
+			start += IEEE802154Frame.NONASK_PHY_HEADER_SIZE;
+		}
+		int length = frame.limit() - start;
+		if (length < FCS_LENGTH) {
+			return count(sniffer, Status.CORRUPTED);
+		}
+		return count(sniffer, (crc16(frame, start, length) == 0 ?
+		                       Status.VALID : Status.CORRUPTED));
+	}
+
+	/**
+	 * Add the counters of another validator (e.g.: of the next chunk
+	 * of a capture parsed in parallel) to those of this one.
+	 *
+	 * @param other another validator.
+	 */
+	public void merge(FcsValidator other) {
+		if (other.snifferCount > 0) {
+			ensureSniffer(other.snifferCount - 1);
+		}
+		for (int s = 0; s < other.snifferCount; s++) {
+			this.framesValid[s] += other.framesValid[s];
+			this.framesCorrupted[s] += other.framesCorrupted[s];
+			this.framesUnchecked[s] += other.framesUnchecked[s];
+		}
+	}
+
+	/**
+	 * Reset all the counters.
+	 */
+	public void clear() {
+		Arrays.fill(this.framesValid, 0L);
+		Arrays.fill(this.framesCorrupted, 0L);
+		Arrays.fill(this.framesUnchecked, 0L);
+		this.snifferCount = 0;
+	}
+
+	///*** CRC ***///
+
+	/**
+	 * Compute the ITU-T CRC-16 (as used by the IEEE 802.15.4 FCS:
+	 * reflected, with an initial value of 0 and no final XOR)
+	 * of some bytes of a buffer.
+	 *
+	 * @param data the buffer (left unchanged).
+	 * @param offset the offset of the first byte in the buffer.
+	 * @param length the number of bytes.
+	 * @return the CRC of these bytes (0 for bytes ending with their
+	 *         own CRC, least significant byte first).
+	 * @throws IndexOutOfBoundsException if the bytes are not all
+	 *                                   in the buffer.
+	 */
+	public static int crc16(ByteBuffer data, int offset, int length)
+	throws IndexOutOfBoundsException
+	{
+		if (offset < 0 || length < 0 || offset + length > data.limit()) {
+			throw new IndexOutOfBoundsException(String.format(
+					ERR_BAD_RANGE,
+					offset, offset + length, data.limit()));
+		}
+		if (data.hasArray()) {
+			return crc16(data.array(), data.arrayOffset() + offset, length);
+		}
+		char[] t = CRC16_TABLES;
+		boolean swap = (data.order() != ByteOrder.LITTLE_ENDIAN);
+		int crc = 0;
+		int pos = offset;
+		int end = offset + length;
+		for (; pos + 8 <= end; pos += 8) {
+			long word = data.getLong(pos);
+			if (swap) word = Long.reverseBytes(word);
+			word ^= crc;
+			crc = t[0x700 + ((int) word & 0xff)]
+			      ^ t[0x600 + ((int) (word >>> 8) & 0xff)]
+			      ^ t[0x500 + ((int) (word >>> 16) & 0xff)]
+			      ^ t[0x400 + ((int) (word >>> 24) & 0xff)]
+			      ^ t[0x300 + ((int) (word >>> 32) & 0xff)]
+			      ^ t[0x200 + ((int) (word >>> 40) & 0xff)]
+			      ^ t[0x100 + ((int) (word >>> 48) & 0xff)]
+			      ^ t[(int) (word >>> 56)];
+		}
+		for (; pos < end; pos++) {
+			crc = (crc >>> 8) ^ t[(crc ^ data.get(pos)) & 0xff];
+		}
+		return crc;
+	}
+
+	/**
+	 * Compute the ITU-T CRC-16 of some bytes of an array.
+	 *
+	 * @see #crc16(ByteBuffer, int, int)
+	 */
+	public static int crc16(byte[] data, int offset, int length) {
+		char[] t = CRC16_TABLES;
+		int crc = 0;
+		int pos = offset;
+		int end = offset + length;
+		for (; pos + 8 <= end; pos += 8) {
+			crc = t[0x700 + ((crc ^ data[pos]) & 0xff)]
+			      ^ t[0x600 + (((crc >>> 8) ^ data[pos + 1]) & 0xff)]
+			      ^ t[0x500 + (data[pos + 2] & 0xff)]
+			      ^ t[0x400 + (data[pos + 3] & 0xff)]
+			      ^ t[0x300 + (data[pos + 4] & 0xff)]
+			      ^ t[0x200 + (data[pos + 5] & 0xff)]
+			      ^ t[0x100 + (data[pos + 6] & 0xff)]
+			      ^ t[data[pos + 7] & 0xff];
+		}
+		for (; pos < end; pos++) {
+			crc = (crc >>> 8) ^ t[(crc ^ data[pos]) & 0xff];
+		}
+		return crc;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static char[] createTables() {
+		char[] tables = new char[8 * 256];
+		for (int b = 0; b < 256; b++) {
+			int crc = b;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = ((crc & 1) != 0 ?
+				       (crc >>> 1) ^ CRC16_POLYNOMIAL : crc >>> 1);
+			}
+			tables[b] = (char) crc;
+		}
+		for (int i = 256; i < tables.length; i++) {
+			int crc = tables[i - 256];
+			tables[i] = (char) ((crc >>> 8) ^ tables[crc & 0xff]);
+		}
+		return tables;
+	}
+
+	private Status count(int sniffer, Status status) {
+		ensureSniffer(sniffer);
+		switch (status) {
+		case VALID:
+			this.framesValid[sniffer]++;
+			break;
+		case CORRUPTED:
+			this.framesCorrupted[sniffer]++;
+			break;
+		default:
+			this.framesUnchecked[sniffer]++;
+			break;
+		}
+		return status;
+	}
+
+	private void ensureSniffer(int sniffer) {
+		if (sniffer < 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_SNIFFER,
+					sniffer));
+		}
+		if (sniffer < this.snifferCount) return;
+		if (sniffer >= this.framesValid.length) {
+			int size = Math.max(sniffer + 1, 2 * this.framesValid.length);
+			this.framesValid = Arrays.copyOf(this.framesValid, size);
+			this.framesCorrupted = Arrays.copyOf(this.framesCorrupted, size);
+			this.framesUnchecked = Arrays.copyOf(this.framesUnchecked, size);
+		}
+		this.snifferCount = sniffer + 1;
+	}
+
+	private long counter(long[] counters, int sniffer) {
+		if (sniffer < 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_SNIFFER,
+					sniffer));
+		}
+		return (sniffer < this.snifferCount ? counters[sniffer] : 0L);
+	}
+
+	private long sum(long[] counters) {
+		long total = 0;
+		for (int s = 0; s < this.snifferCount; s++) {
+			total += counters[s];
+		}
+		return total;
+	}
+
+}
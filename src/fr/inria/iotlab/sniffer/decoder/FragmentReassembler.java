@@ -0,0 +1,315 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembly table for fragmented 6LoWPAN datagrams (RFC 4944,
+ * section 5.3).
+ * <br/>
+ * The table is bounded: it holds at most a given number of datagrams
+ * being reassembled, in preallocated slots, so that reassembly allocates
+ * nothing, whatever the traffic. Datagrams whose first fragment is older
+ * than the reassembly timeout (in capture time) are discarded; when all
+ * slots are used, the oldest datagram is discarded to make room.
+ * <br/>
+ * Fragments are identified, as required by RFC 4944, by the link-layer
+ * source and destination addresses, the datagram size and the datagram
+ * tag. Offsets and sizes are expressed in bytes of the uncompressed
+ * IPv6 datagram; the first fragment is however kept in its compressed
+ * form, so that the reassembled datagram can be decoded like an
+ * unfragmented 6LoWPAN packet.
+ * <br/>
+ * Note that this class is not thread-safe.
+ *
+ * @author KR
+ */
+public final class FragmentReassembler {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Slot of the table, holding a datagram being reassembled.
+	 */
+	private static final class Slot {
+
+		boolean inUse;
+		long startTime;
+
+		/* datagram identification */
+		int addrModes;
+		long srcAddr;
+		long dstAddr;
+		int size;
+		int tag;
+
+		/* first fragment, in compressed form */
+		final byte[] first = new byte[MAX_DATAGRAM_SIZE];
+		int firstLength;
+		int firstEnd;
+
+		/* other fragments, at their offset in the uncompressed datagram */
+		final byte[] data = new byte[MAX_DATAGRAM_SIZE];
+
+		/* received 8-byte units of the uncompressed datagram */
+		final long[] received = new long[MAX_DATAGRAM_SIZE / 8 / 64];
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Maximal size of a 6LoWPAN datagram (11-bit size field). */
+	public static final int MAX_DATAGRAM_SIZE = 2048;
+
+	/** Default maximal number of datagrams reassembled at the same time. */
+	public static final int DEFAULT_MAX_DATAGRAMS = 32;
+
+	/** Default reassembly timeout (RFC 4944), in milliseconds. */
+	public static final long DEFAULT_TIMEOUT = 60000L;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_MAX_DATAGRAMS =
+			"Maximal number of datagrams must be strictly positive (got %d)!";
+	private static final String ERR_BAD_TIMEOUT =
+			"Reassembly timeout must be strictly positive (got %d)!";
+
+	///*** ATTRIBUTS ***///
+
+	private final Slot[] slots;
+	private final long timeout;
+
+	/* statistics */
+	private long reassembledDatagrams;
+	private long discardedDatagrams;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a reassembly table with default bounds.
+	 */
+	public FragmentReassembler() {
+		this(DEFAULT_MAX_DATAGRAMS, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Constructor for a reassembly table.
+	 *
+	 * @param maxDatagrams maximal number of datagrams
+	 *                     reassembled at the same time.
+	 * @param timeout reassembly timeout, in milliseconds (of capture time).
+	 * @throws IllegalArgumentException if a parameter is not
+	 *                                  strictly positive.
+	 */
+	public FragmentReassembler(int maxDatagrams, long timeout)
+	throws IllegalArgumentException
+	{
+		if (maxDatagrams <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_MAX_DATAGRAMS,
+					maxDatagrams));
+		}
+		if (timeout <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_TIMEOUT,
+					timeout));
+		}
+		this.slots = new Slot[maxDatagrams];
+		for (int i = 0; i < maxDatagrams; i++) {
+			this.slots[i] = new Slot();
+		}
+		this.timeout = timeout;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the number of datagrams currently being reassembled.
+	 */
+	public int getPendingDatagrams() {
+		int count = 0;
+		for (Slot slot: this.slots) {
+			if (slot.inUse) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of datagrams completely reassembled so far.
+	 */
+	public long getReassembledDatagrams() {
+		return this.reassembledDatagrams;
+	}
+
+	/**
+	 * @return the number of incomplete datagrams discarded so far
+	 *         (on timeout, or to make room for newer datagrams).
+	 */
+	public long getDiscardedDatagrams() {
+		return this.discardedDatagrams;
+	}
+
+	/**
+	 * Discard all the datagrams being reassembled.
+	 */
+	public void clear() {
+		for (Slot slot: this.slots) {
+			slot.inUse = false;
+		}
+	}
+
+	///*** REASSEMBLAGE ***///
+
+	/**
+	 * Add a fragment to the table.
+	 *
+	 * @param mac the link-layer frame carrying the fragment.
+	 * @param size the size of the (uncompressed) datagram, in bytes.
+	 * @param tag the datagram tag.
+	 * @param offset the offset of the fragment in the uncompressed
+	 *               datagram, in bytes (0 for the first fragment).
+	 * @param buf the buffer holding the fragment's payload.
+	 * @param start the absolute offset of the payload in <code>buf</code>.
+	 * @param length the length of the payload, in bytes.
+	 * @param uncompressedLength the length of the payload once uncompressed
+	 *                           (equal to <code>length</code>, except for
+	 *                           the first fragment).
+	 * @param time the capture time of the fragment, in milliseconds.
+	 * @param dst array receiving the reassembled datagram (in compressed
+	 *            form, without fragmentation header) when this fragment
+	 *            completes it; it must hold at least
+	 *            <code>MAX_DATAGRAM_SIZE</code> bytes.
+	 * @return the length of the reassembled datagram written in
+	 *         <code>dst</code>, or -1 if the datagram is not complete
+	 *         yet (or if the fragment is inconsistent, and ignored).
+	 */
+	public int addFragment(IEEE802154Frame mac, int size, int tag,
+	                       int offset, ByteBuffer buf, int start, int length,
+	                       int uncompressedLength, long time, byte[] dst)
+	{
+		if (offset + uncompressedLength > size || length > MAX_DATAGRAM_SIZE
+		    || uncompressedLength <= 0)
+		{
+			return -1;
+		}
+		int addrModes = (mac.getSourceAddressMode() << 2)
+		                | mac.getDestinationAddressMode();
+		long srcAddr = linkAddress(mac, mac.getSourceAddressMode(), true);
+		long dstAddr = linkAddress(mac, mac.getDestinationAddressMode(), false);
+
+		Slot slot = findSlot(addrModes, srcAddr, dstAddr, size, tag, time);
+		if (offset == 0) {
+			copy(buf, start, slot.first, 0, length);
+			slot.firstLength = length;
+			slot.firstEnd = uncompressedLength;
+		} else {
+			copy(buf, start, slot.data, offset, length);
+		}
+		markReceived(slot, offset, offset + uncompressedLength);
+		if (!(isComplete(slot))) return -1;
+
+		/* first fragment as is, then the uncompressed remainder */
+		System.arraycopy(slot.first, 0, dst, 0, slot.firstLength);
+		int remainder = slot.size - slot.firstEnd;
+		System.arraycopy(slot.data, slot.firstEnd, dst, slot.firstLength,
+		                 remainder);
+		slot.inUse = false;
+		this.reassembledDatagrams++;
+		return slot.firstLength + remainder;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static long linkAddress(IEEE802154Frame mac, int mode,
+	                                boolean source)
+	{
+		switch (mode) {
+		case IEEE802154Frame.ADDR_MODE_SHORT:
+			return (source ? mac.getSourceShortAddress()
+			               : mac.getDestinationShortAddress());
+		case IEEE802154Frame.ADDR_MODE_EXTENDED:
+			return (source ? mac.getSourceExtendedAddress()
+			               : mac.getDestinationExtendedAddress());
+		default:
+			return 0L;
+		}
+	}
+
+	/**
+	 * Find the slot of the given datagram, expiring old datagrams, and
+	 * allocating a new slot (possibly by discarding the oldest datagram)
+	 * if this datagram is new.
+	 */
+	private Slot findSlot(int addrModes, long srcAddr, long dstAddr,
+	                      int size, int tag, long time)
+	{
+		Slot match = null;
+		Slot free = null;
+		Slot oldest = null;
+		for (Slot slot: this.slots) {
+			if (slot.inUse && time - slot.startTime > this.timeout) {
+				slot.inUse = false;
+				this.discardedDatagrams++;
+			}
+			if (!(slot.inUse)) {
+				if (free == null) free = slot;
+				continue;
+			}
+			if (slot.tag == tag && slot.size == size
+			    && slot.srcAddr == srcAddr && slot.dstAddr == dstAddr
+			    && slot.addrModes == addrModes)
+			{
+				match = slot;
+			}
+			if (oldest == null || slot.startTime < oldest.startTime) {
+				oldest = slot;
+			}
+		}
+		if (match != null) return match;
+
+		Slot slot = free;
+		if (slot == null) {
+			slot = oldest;
+			this.discardedDatagrams++;
+		}
+		slot.inUse = true;
+		slot.startTime = time;
+		slot.addrModes = addrModes;
+		slot.srcAddr = srcAddr;
+		slot.dstAddr = dstAddr;
+		slot.size = size;
+		slot.tag = tag;
+		slot.firstLength = 0;
+		slot.firstEnd = 0;
+		for (int i = 0; i < slot.received.length; i++) {
+			slot.received[i] = 0L;
+		}
+		return slot;
+	}
+
+	private static void copy(ByteBuffer src, int start, byte[] dst,
+	                         int dstStart, int length)
+	{
+		for (int i = 0; i < length; i++) {
+			dst[dstStart + i] = src.get(start + i);
+		}
+	}
+
+	private static void markReceived(Slot slot, int from, int to) {
+		int lastUnit = (to + 7) >>> 3;
+		for (int unit = from >>> 3; unit < lastUnit; unit++) {
+			slot.received[unit >>> 6] |= (1L << (unit & 63));
+		}
+	}
+
+	private static boolean isComplete(Slot slot) {
+		if (slot.firstEnd == 0) return false;
+		int units = (slot.size + 7) >>> 3;
+		for (int unit = 0; unit < units; unit++) {
+			if ((slot.received[unit >>> 6] & (1L << (unit & 63))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,743 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import java.nio.ByteBuffer;
+
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+
+/**
+ * Reusable ("flyweight") decoder of IEEE 802.15.4 MAC frames, as found
+ * in the PCap files of the IoT-LAB sniffer (link types
+ * <code>IEEE802_15_4</code>, <code>IEEE802_15_4_NONASK_PHY</code> and
+ * <code>IEEE802_15_4_NOFCS</code>).
+ * <br/>
+ * <code>wrap()</code> only locates the fields of the MAC header in the
+ * given buffer, without copying them nor allocating anything: fields are
+ * then decoded on demand, directly from the buffer, by the accessors.
+ * A single instance can thus decode any number of frames; the buffer
+ * must however not be modified (nor reused by the parser) as long as
+ * the current frame is examined.
+ * <br/>
+ * Frame versions 0 (2003), 1 (2006) and 2 (2015) are supported; for the
+ * latter, header Information Elements are skipped, and payload IEs are
+ * left at the start of the MAC payload.
+ * <br/>
+ * This class is also the link-layer <code>Dissector</code> of the
+ * default <code>DissectorChain</code> of IEEE 802.15.4 captures.
+ * <br/>
+ * Note that this class is not thread-safe.
+ *
+ * @author KR
+ */
+public final class IEEE802154Frame implements Dissector {
+
+	///*** CONSTANTES ***///
+
+	/** Frame type: beacon. */
+	public static final int FRAME_TYPE_BEACON = 0;
+	/** Frame type: data. */
+	public static final int FRAME_TYPE_DATA = 1;
+	/** Frame type: acknowledgment. */
+	public static final int FRAME_TYPE_ACK = 2;
+	/** Frame type: MAC command. */
+	public static final int FRAME_TYPE_MAC_COMMAND = 3;
+	/** Frame type: multipurpose (802.15.4-2015). */
+	public static final int FRAME_TYPE_MULTIPURPOSE = 5;
+	/** Frame type: fragment (802.15.4-2015). */
+	public static final int FRAME_TYPE_FRAGMENT = 6;
+	/** Frame type: extended (802.15.4-2015). */
+	public static final int FRAME_TYPE_EXTENDED = 7;
+
+	/** Addressing mode: no address (nor PAN ID). */
+	public static final int ADDR_MODE_NONE = 0;
+	/** Addressing mode: 16-bit short address. */
+	public static final int ADDR_MODE_SHORT = 2;
+	/** Addressing mode: 64-bit extended address. */
+	public static final int ADDR_MODE_EXTENDED = 3;
+
+	/** Frame version: IEEE 802.15.4-2003. */
+	public static final int FRAME_VERSION_2003 = 0;
+	/** Frame version: IEEE 802.15.4-2006. */
+	public static final int FRAME_VERSION_2006 = 1;
+	/** Frame version: IEEE 802.15.4-2015. */
+	public static final int FRAME_VERSION_2015 = 2;
+
+	/** Size of the PHY header of <code>IEEE802_15_4_NONASK_PHY</code>
+	 *  frames (4 bytes of preamble, SFD, and PHR), in bytes. */
+	public static final int NONASK_PHY_HEADER_SIZE = 6;
+
+	/** Size of the Frame Check Sequence, in bytes. */
+	public static final int FCS_SIZE = 2;
+
+	/* frame control field bits */
+	private static final int FCF_FRAME_TYPE_MASK = 0x0007;
+	private static final int FCF_SECURITY_ENABLED = 0x0008;
+	private static final int FCF_FRAME_PENDING = 0x0010;
+	private static final int FCF_ACK_REQUEST = 0x0020;
+	private static final int FCF_PAN_ID_COMPRESSION = 0x0040;
+	private static final int FCF_SEQ_NUM_SUPPRESSION = 0x0100;
+	private static final int FCF_IE_PRESENT = 0x0200;
+	private static final int FCF_DEST_ADDR_MODE_SHIFT = 10;
+	private static final int FCF_FRAME_VERSION_SHIFT = 12;
+	private static final int FCF_SRC_ADDR_MODE_SHIFT = 14;
+
+	/* auxiliary security header bits */
+	private static final int SEC_LEVEL_MASK = 0x07;
+	private static final int SEC_KEY_ID_MODE_SHIFT = 3;
+	private static final int SEC_FRAME_COUNTER_SUPPRESSION = 0x20;
+
+	/* header IEs ending the list of header IEs */
+	private static final int HEADER_IE_TERMINATION_1 = 0x7e;
+	private static final int HEADER_IE_TERMINATION_2 = 0x7f;
+
+	/** Offset of fields absent from the current frame. */
+	private static final int ABSENT = -1;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_UNSUPPORTED_NETWORK_TYPE =
+			"Network type %s is not an IEEE 802.15.4 link type!";
+	private static final String ERR_NO_CURRENT_FRAME =
+			"No valid frame is currently wrapped by the decoder!";
+	private static final String ERR_ABSENT_FIELD =
+			"Field %s is not present in the current frame!";
+
+	///*** ATTRIBUTS ***///
+
+	/* buffer holding the current frame */
+	private ByteBuffer buffer;
+	private boolean valid;
+
+	/* absolute offsets (in buffer) of the frame parts */
+	private int phyStart;
+	private int frameStart;
+	private int frameEnd;
+	private int payloadStart;
+	private int payloadEnd;
+
+	/* decoded frame control field */
+	private int frameControl;
+
+	/* absolute offsets (in buffer) of optional fields, or ABSENT */
+	private int seqNumOffset;
+	private int destPanOffset;
+	private int destAddrOffset;
+	private int srcPanOffset;
+	private int srcAddrOffset;
+	private int securityOffset;
+	private int frameCounterOffset;
+	private int keyIdOffset;
+	private int fcsOffset;
+
+	///*** DECODAGE ***///
+
+	/**
+	 * Tell whether the frames of the given network type
+	 * can be decoded by this class.
+	 *
+	 * @param type a network (link-layer header) type.
+	 * @return <code>true</code> if <code>type</code> is an
+	 *         IEEE 802.15.4 link type.
+	 */
+	public static boolean isSupported(NetworkType type) {
+		return (type == NetworkType.IEEE802_15_4
+		        || type == NetworkType.IEEE802_15_4_NONASK_PHY
+		        || type == NetworkType.IEEE802_15_4_NOFCS);
+	}
+
+	/**
+	 * Decode the frame between the position and limit of the given buffer
+	 * (typically, a packet data buffer given by <code>PacketCursor</code>).
+	 * Neither the position nor the limit of the buffer are modified.
+	 *
+	 * @param data the buffer holding the frame.
+	 * @param type the link type of the frame.
+	 * @return <code>true</code> if the frame has been decoded;
+	 *         <code>false</code> if it is malformed (too short for
+	 *         its own header, or reserved addressing mode).
+	 * @throws IllegalArgumentException if <code>type</code> is not an
+	 *                                  IEEE 802.15.4 link type.
+	 */
+	public boolean wrap(ByteBuffer data, NetworkType type)
+	throws IllegalArgumentException
+	{
+		return wrap(data, data.position(), data.remaining(), type);
+	}
+
+	/**
+	 * Decode the frame found at the given offset of the given buffer.
+	 * Neither the position nor the limit of the buffer are modified.
+	 *
+	 * @param data the buffer holding the frame.
+	 * @param offset the absolute offset of the frame (including its PHY
+	 *               header, if any) in the buffer.
+	 * @param length the length of the frame (including its PHY header
+	 *               and its FCS, if any), in bytes.
+	 * @param type the link type of the frame.
+	 * @return <code>true</code> if the frame has been decoded;
+	 *         <code>false</code> if it is malformed (too short for
+	 *         its own header, or reserved addressing mode).
+	 * @throws IllegalArgumentException if <code>type</code> is not an
+	 *                                  IEEE 802.15.4 link type.
+	 */
+	public boolean wrap(ByteBuffer data, int offset, int length,
+	                    NetworkType type)
+	throws IllegalArgumentException
+	{
+		if (!(isSupported(type))) {
+			throw new IllegalArgumentException(String.format(
+					ERR_UNSUPPORTED_NETWORK_TYPE,
+					type));
+		}
+		this.buffer = data;
+		this.valid = false;
+		this.phyStart = offset;
+		this.frameStart = offset;
+		this.frameEnd = offset + length;
+		if (type == NetworkType.IEEE802_15_4_NONASK_PHY) {
+			this.frameStart += NONASK_PHY_HEADER_SIZE;
+		}
+		if (type == NetworkType.IEEE802_15_4_NOFCS) {
+			this.fcsOffset = ABSENT;
+		} else {
+			this.fcsOffset = this.frameEnd - FCS_SIZE;
+			this.frameEnd = this.fcsOffset;
+		}
+		this.valid = decodeHeader();
+		return this.valid;
+	}
+
+	/**
+	 * Decode the current packet of the given chain, as the first layer
+	 * of this chain.
+	 */
+	@Override
+	public boolean decode(DissectorChain chain, Dissector lower) {
+		return (lower == null)
+		       && wrap(chain.getPacketData(), chain.getPacketOffset(),
+		               chain.getPacketLength(), chain.getNetworkType());
+	}
+
+	/**
+	 * @return <code>true</code> if the last call to <code>wrap()</code>
+	 *         decoded a valid frame.
+	 */
+	public boolean isValid() {
+		return this.valid;
+	}
+
+	///*** CHAMP DE CONTROLE ***///
+
+	/**
+	 * @return the raw (16-bit) frame control field.
+	 */
+	public int getFrameControl() {
+		checkValid();
+		return this.frameControl;
+	}
+
+	/**
+	 * @return the frame type (see the <code>FRAME_TYPE_*</code>
+	 *         constants).
+	 */
+	public int getFrameType() {
+		checkValid();
+		return this.frameControl & FCF_FRAME_TYPE_MASK;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame is secured (and thus
+	 *         has an auxiliary security header).
+	 */
+	public boolean isSecurityEnabled() {
+		checkValid();
+		return (this.frameControl & FCF_SECURITY_ENABLED) != 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the sender has more data
+	 *         for the recipient.
+	 */
+	public boolean isFramePending() {
+		checkValid();
+		return (this.frameControl & FCF_FRAME_PENDING) != 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the sender requests an acknowledgment.
+	 */
+	public boolean isAckRequested() {
+		checkValid();
+		return (this.frameControl & FCF_ACK_REQUEST) != 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the PAN ID compression bit is set.
+	 */
+	public boolean isPanIdCompressed() {
+		checkValid();
+		return (this.frameControl & FCF_PAN_ID_COMPRESSION) != 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame holds Information Elements
+	 *         (802.15.4-2015 frames only).
+	 */
+	public boolean hasInformationElements() {
+		checkValid();
+		return (this.frameControl & FCF_IE_PRESENT) != 0;
+	}
+
+	/**
+	 * @return the frame version (see the <code>FRAME_VERSION_*</code>
+	 *         constants).
+	 */
+	public int getFrameVersion() {
+		checkValid();
+		return (this.frameControl >>> FCF_FRAME_VERSION_SHIFT) & 0x03;
+	}
+
+	///*** ADRESSAGE ***///
+
+	/**
+	 * @return <code>true</code> if the frame has a sequence number
+	 *         (which may be suppressed in 802.15.4-2015 frames).
+	 */
+	public boolean hasSequenceNumber() {
+		checkValid();
+		return (this.seqNumOffset != ABSENT);
+	}
+
+	/**
+	 * @return the sequence number of the frame (from 0 to 255).
+	 * @throws IllegalStateException if the frame has no sequence number.
+	 */
+	public int getSequenceNumber() {
+		return u8(checkPresent(this.seqNumOffset, "sequence number"));
+	}
+
+	/**
+	 * @return the destination addressing mode (see the
+	 *         <code>ADDR_MODE_*</code> constants).
+	 */
+	public int getDestinationAddressMode() {
+		checkValid();
+		return (this.frameControl >>> FCF_DEST_ADDR_MODE_SHIFT) & 0x03;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame holds a destination PAN ID.
+	 */
+	public boolean hasDestinationPanId() {
+		checkValid();
+		return (this.destPanOffset != ABSENT);
+	}
+
+	/**
+	 * @return the destination PAN ID (from 0 to 0xffff).
+	 * @throws IllegalStateException if the frame has no destination PAN ID.
+	 */
+	public int getDestinationPanId() {
+		return u16(checkPresent(this.destPanOffset, "destination PAN ID"));
+	}
+
+	/**
+	 * @return the destination short address (from 0 to 0xffff,
+	 *         0xffff being the broadcast address).
+	 * @throws IllegalStateException if the frame has no short
+	 *                               destination address.
+	 */
+	public int getDestinationShortAddress() {
+		if (getDestinationAddressMode() != ADDR_MODE_SHORT) {
+			throw absentField("destination short address");
+		}
+		return u16(this.destAddrOffset);
+	}
+
+	/**
+	 * @return the destination extended (EUI-64) address.
+	 * @throws IllegalStateException if the frame has no extended
+	 *                               destination address.
+	 */
+	public long getDestinationExtendedAddress() {
+		if (getDestinationAddressMode() != ADDR_MODE_EXTENDED) {
+			throw absentField("destination extended address");
+		}
+		return u64(this.destAddrOffset);
+	}
+
+	/**
+	 * @return the source addressing mode (see the
+	 *         <code>ADDR_MODE_*</code> constants).
+	 */
+	public int getSourceAddressMode() {
+		checkValid();
+		return (this.frameControl >>> FCF_SRC_ADDR_MODE_SHIFT) & 0x03;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame holds a source PAN ID.
+	 */
+	public boolean hasSourcePanId() {
+		checkValid();
+		return (this.srcPanOffset != ABSENT);
+	}
+
+	/**
+	 * @return the source PAN ID (from 0 to 0xffff), as given in the
+	 *         frame, or else deduced from the destination PAN ID
+	 *         when PAN ID compression is used.
+	 * @throws IllegalStateException if the frame has no PAN ID at all.
+	 */
+	public int getSourcePanId() {
+		checkValid();
+		if (this.srcPanOffset != ABSENT) {
+			return u16(this.srcPanOffset);
+		}
+		return u16(checkPresent(this.destPanOffset, "source PAN ID"));
+	}
+
+	/**
+	 * @return the source short address (from 0 to 0xffff).
+	 * @throws IllegalStateException if the frame has no short
+	 *                               source address.
+	 */
+	public int getSourceShortAddress() {
+		if (getSourceAddressMode() != ADDR_MODE_SHORT) {
+			throw absentField("source short address");
+		}
+		return u16(this.srcAddrOffset);
+	}
+
+	/**
+	 * @return the source extended (EUI-64) address.
+	 * @throws IllegalStateException if the frame has no extended
+	 *                               source address.
+	 */
+	public long getSourceExtendedAddress() {
+		if (getSourceAddressMode() != ADDR_MODE_EXTENDED) {
+			throw absentField("source extended address");
+		}
+		return u64(this.srcAddrOffset);
+	}
+
+	///*** SECURITE ***///
+
+	/**
+	 * @return the security level (from 0 to 7) of the frame,
+	 *         0 if the frame is not secured.
+	 */
+	public int getSecurityLevel() {
+		checkValid();
+		if (this.securityOffset == ABSENT) return 0;
+		return u8(this.securityOffset) & SEC_LEVEL_MASK;
+	}
+
+	/**
+	 * @return the key identifier mode (from 0 to 3) of the frame.
+	 * @throws IllegalStateException if the frame is not secured.
+	 */
+	public int getKeyIdMode() {
+		int sc = u8(checkPresent(this.securityOffset, "security header"));
+		return (sc >>> SEC_KEY_ID_MODE_SHIFT) & 0x03;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame holds a frame counter
+	 *         (which may be suppressed in 802.15.4-2015 frames).
+	 */
+	public boolean hasFrameCounter() {
+		checkValid();
+		return (this.frameCounterOffset != ABSENT);
+	}
+
+	/**
+	 * @return the (unsigned, 32-bit) frame counter of the frame.
+	 * @throws IllegalStateException if the frame has no frame counter.
+	 */
+	public long getFrameCounter() {
+		int offset = checkPresent(this.frameCounterOffset, "frame counter");
+		return u32(offset);
+	}
+
+	/**
+	 * @return the key index (from 0 to 255) of the frame.
+	 * @throws IllegalStateException if the frame has no key index
+	 *                               (i.e.: its key identifier mode is 0).
+	 */
+	public int getKeyIndex() {
+		int offset = checkPresent(this.keyIdOffset, "key index");
+		return u8(offset + keySourceLength(getKeyIdMode()));
+	}
+
+	/**
+	 * @return the key source of the frame, as a 32-bit (key identifier
+	 *         mode 2) or 64-bit (key identifier mode 3) value.
+	 * @throws IllegalStateException if the frame has no key source
+	 *                               (i.e.: its key identifier mode
+	 *                               is 0 or 1).
+	 */
+	public long getKeySource() {
+		int offset = checkPresent(this.keyIdOffset, "key source");
+		switch (getKeyIdMode()) {
+		case 2:
+			return u32(offset);
+		case 3:
+			return u64(offset);
+		default:
+			throw absentField("key source");
+		}
+	}
+
+	///*** CHARGE UTILE ***///
+
+	/**
+	 * @return the absolute offset, in the wrapped buffer, of the first
+	 *         byte of the MAC header (i.e.: after the PHY header, if any).
+	 */
+	public int getFrameOffset() {
+		checkValid();
+		return this.frameStart;
+	}
+
+	/**
+	 * @return the absolute offset, in the wrapped buffer, of the first
+	 *         byte of the MAC payload.
+	 */
+	@Override
+	public int getPayloadOffset() {
+		checkValid();
+		return this.payloadStart;
+	}
+
+	/**
+	 * @return the length of the MAC payload (excluding the FCS), in bytes.
+	 */
+	@Override
+	public int getPayloadLength() {
+		checkValid();
+		return this.payloadEnd - this.payloadStart;
+	}
+
+	/**
+	 * @return the buffer holding the current frame; its payload is found
+	 *         at <code>getPayloadOffset()</code>.
+	 */
+	@Override
+	public ByteBuffer getPayloadBuffer() {
+		checkValid();
+		return this.buffer;
+	}
+
+	/**
+	 * @return the frame length given by the PHY header
+	 *         (<code>IEEE802_15_4_NONASK_PHY</code> frames only).
+	 * @throws IllegalStateException if the frame has no PHY header.
+	 */
+	public int getPhyFrameLength() {
+		checkValid();
+		if (this.frameStart == this.phyStart) {
+			throw absentField("PHY header");
+		}
+		return u8(this.frameStart - 1) & 0x7f;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame ends with its FCS.
+	 */
+	public boolean hasFcs() {
+		checkValid();
+		return (this.fcsOffset != ABSENT);
+	}
+
+	/**
+	 * @return the (16-bit) Frame Check Sequence, as found in the frame.
+	 * @throws IllegalStateException if the frame has no FCS.
+	 */
+	public int getFcs() {
+		return u16(checkPresent(this.fcsOffset, "FCS"));
+	}
+
+	/**
+	 * @return <code>true</code> if the FCS of the frame is correct.
+	 * @throws IllegalStateException if the frame has no FCS.
+	 * @see FcsValidator
+	 */
+	public boolean isFcsValid() {
+		int end = checkPresent(this.fcsOffset, "FCS") + FCS_SIZE;
+		return (FcsValidator.crc16(this.buffer, this.frameStart,
+		                           end - this.frameStart) == 0);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Locate the fields of the MAC header of the current frame.
+	 *
+	 * @return <code>false</code> if the frame is malformed.
+	 */
+	private boolean decodeHeader() {
+		int pos = this.frameStart;
+		if (pos + 2 > this.frameEnd) return false;
+		this.frameControl = u16(pos);
+		pos += 2;
+
+		int version = (this.frameControl >>> FCF_FRAME_VERSION_SHIFT) & 0x03;
+		int destMode = (this.frameControl >>> FCF_DEST_ADDR_MODE_SHIFT) & 0x03;
+		int srcMode = (this.frameControl >>> FCF_SRC_ADDR_MODE_SHIFT) & 0x03;
+		boolean panIdCompression =
+				(this.frameControl & FCF_PAN_ID_COMPRESSION) != 0;
+		if (destMode == 1 || srcMode == 1) return false;
+
+		/* sequence number */
+		if (version == FRAME_VERSION_2015
+		    && (this.frameControl & FCF_SEQ_NUM_SUPPRESSION) != 0)
+		{
+			this.seqNumOffset = ABSENT;
+		} else {
+			this.seqNumOffset = pos;
+			pos++;
+		}
+
+		/* addressing fields */
+		boolean destPan;
+		boolean srcPan;
+		if (version == FRAME_VERSION_2015) {
+			/* IEEE 802.15.4-2015, table 7-2 */
+			if (destMode == ADDR_MODE_NONE && srcMode == ADDR_MODE_NONE) {
+				destPan = panIdCompression;
+				srcPan = false;
+			} else if (srcMode == ADDR_MODE_NONE) {
+				destPan = !panIdCompression;
+				srcPan = false;
+			} else if (destMode == ADDR_MODE_NONE) {
+				destPan = false;
+				srcPan = !panIdCompression;
+			} else if (destMode == ADDR_MODE_EXTENDED
+			           && srcMode == ADDR_MODE_EXTENDED)
+			{
+				destPan = !panIdCompression;
+				srcPan = false;
+			} else {
+				destPan = true;
+				srcPan = !panIdCompression;
+			}
+		} else {
+			destPan = (destMode != ADDR_MODE_NONE);
+			srcPan = (srcMode != ADDR_MODE_NONE && !panIdCompression);
+		}
+		this.destPanOffset = (destPan ? pos : ABSENT);
+		if (destPan) pos += 2;
+		this.destAddrOffset = (destMode != ADDR_MODE_NONE ? pos : ABSENT);
+		pos += addressLength(destMode);
+		this.srcPanOffset = (srcPan ? pos : ABSENT);
+		if (srcPan) pos += 2;
+		this.srcAddrOffset = (srcMode != ADDR_MODE_NONE ? pos : ABSENT);
+		pos += addressLength(srcMode);
+		if (pos > this.frameEnd) return false;
+
+		/* auxiliary security header */
+		this.securityOffset = ABSENT;
+		this.frameCounterOffset = ABSENT;
+		this.keyIdOffset = ABSENT;
+		if ((this.frameControl & FCF_SECURITY_ENABLED) != 0) {
+			if (pos + 1 > this.frameEnd) return false;
+			this.securityOffset = pos;
+			int sc = u8(pos);
+			pos++;
+			if (version != FRAME_VERSION_2015
+			    || (sc & SEC_FRAME_COUNTER_SUPPRESSION) == 0)
+			{
+				this.frameCounterOffset = pos;
+				pos += 4;
+			}
+			int keyIdMode = (sc >>> SEC_KEY_ID_MODE_SHIFT) & 0x03;
+			if (keyIdMode != 0) {
+				this.keyIdOffset = pos;
+				pos += keySourceLength(keyIdMode) + 1;
+			}
+			if (pos > this.frameEnd) return false;
+		}
+
+		/* header IEs */
+		if (version == FRAME_VERSION_2015
+		    && (this.frameControl & FCF_IE_PRESENT) != 0)
+		{
+			while (true) {
+				if (pos + 2 > this.frameEnd) return false;
+				int descriptor = u16(pos);
+				int ieLength = descriptor & 0x7f;
+				int elementId = (descriptor >>> 7) & 0xff;
+				pos += 2 + ieLength;
+				if (pos > this.frameEnd) return false;
+				if (elementId == HEADER_IE_TERMINATION_1
+				    || elementId == HEADER_IE_TERMINATION_2)
+				{
+					break;
+				}
+			}
+		}
+
+		this.payloadStart = pos;
+		this.payloadEnd = this.frameEnd;
+		return true;
+	}
+
+	private static int addressLength(int addrMode) {
+		switch (addrMode) {
+		case ADDR_MODE_SHORT:
+			return 2;
+		case ADDR_MODE_EXTENDED:
+			return 8;
+		default:
+			return 0;
+		}
+	}
+
+	private static int keySourceLength(int keyIdMode) {
+		switch (keyIdMode) {
+		case 2:
+			return 4;
+		case 3:
+			return 8;
+		default:
+			return 0;
+		}
+	}
+
+	private void checkValid() {
+		if (!(this.valid)) {
+			throw new IllegalStateException(ERR_NO_CURRENT_FRAME);
+		}
+	}
+
+	private int checkPresent(int offset, String field) {
+		checkValid();
+		if (offset == ABSENT) throw absentField(field);
+		return offset;
+	}
+
+	private static IllegalStateException absentField(String field) {
+		return new IllegalStateException(String.format(
+				ERR_ABSENT_FIELD,
+				field));
+	}
+
+	/* little-endian decoding, independent of the buffer's byte order */
+
+	private int u8(int offset) {
+		return this.buffer.get(offset) & 0xff;
+	}
+
+	private int u16(int offset) {
+		return u8(offset) | (u8(offset + 1) << 8);
+	}
+
+	private long u32(int offset) {
+		return ((long) u16(offset) | ((long) u16(offset + 2) << 16));
+	}
+
+	private long u64(int offset) {
+		return (u32(offset) | (u32(offset + 4) << 32));
+	}
+
+}
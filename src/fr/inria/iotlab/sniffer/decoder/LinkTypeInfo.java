@@ -0,0 +1,148 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+
+/**
+ * Description of a link type (i.e.: of the link-layer header of the
+ * packets of a capture): how its packets are decoded, the length of
+ * their FCS, and what their timestamps refer to.
+ * <br/>
+ * Note that this is an immutable class.
+ *
+ * @author KR
+ * @see LinkTypeRegistry
+ */
+public final class LinkTypeInfo {
+
+	///*** CONSTANTES ***///
+
+	/** FCS length of the link types whose frames may or may not
+	    hold an FCS, or whose FCS length is not known. */
+	public static final int FCS_LENGTH_UNKNOWN = -1;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_ID =
+			"Link type ID must be between 0 and %d (got %d)!";
+	private static final String ERR_NULL_NAME =
+			"Link type name must not be null!";
+	private static final String ERR_BAD_FCS_LENGTH =
+			"Invalid FCS length %d!";
+	private static final String ERR_ID_MISMATCH =
+			"Link type ID %d differs from that of network type %s!";
+
+	///*** ATTRIBUTS ***///
+
+	private final int id;
+	private final String name;
+	private final NetworkType netType;
+	private final int fcsLength;
+	private final TimestampReference timestampReference;
+	private final DissectorFactory dissectors;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a link type description.
+	 *
+	 * @param id numeric identifier of the link type
+	 *           (as found in capture files).
+	 * @param name name of the link type.
+	 * @param netType the corresponding network type, or
+	 *                <code>null</code> for a link type unknown
+	 *                to <code>NetworkType</code>.
+	 * @param fcsLength length of the FCS ending each frame (0 if frames
+	 *                  have no FCS), or <code>FCS_LENGTH_UNKNOWN</code>.
+	 * @param timestampReference what the timestamps of the packets
+	 *                           refer to (<code>null</code> for
+	 *                           <code>UNSPECIFIED</code>).
+	 * @param dissectors factory of the dissectors decoding the packets,
+	 *                   or <code>null</code> if they are not decoded.
+	 * @throws IllegalArgumentException if a parameter is invalid.
+	 */
+	public LinkTypeInfo(int id, String name, NetworkType netType,
+	                    int fcsLength, TimestampReference timestampReference,
+	                    DissectorFactory dissectors)
+	throws IllegalArgumentException
+	{
+		if (id < 0 || id > LinkTypeRegistry.MAX_LINK_TYPE_ID) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_ID,
+					LinkTypeRegistry.MAX_LINK_TYPE_ID, id));
+		}
+		if (name == null) {
+			throw new IllegalArgumentException(ERR_NULL_NAME);
+		}
+		if (fcsLength < FCS_LENGTH_UNKNOWN) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_FCS_LENGTH,
+					fcsLength));
+		}
+		if (netType != null && netType.getID() != id) {
+			throw new IllegalArgumentException(String.format(
+					ERR_ID_MISMATCH,
+					id, netType));
+		}
+		this.id = id;
+		this.name = name;
+		this.netType = netType;
+		this.fcsLength = fcsLength;
+		this.timestampReference = (timestampReference != null ?
+		                           timestampReference :
+		                           TimestampReference.UNSPECIFIED);
+		this.dissectors = dissectors;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the numeric identifier of the link type.
+	 */
+	public int getID() {
+		return this.id;
+	}
+
+	/**
+	 * @return the name of the link type.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the corresponding network type, or <code>null</code>
+	 *         for a link type unknown to <code>NetworkType</code>.
+	 */
+	public NetworkType getNetworkType() {
+		return this.netType;
+	}
+
+	/**
+	 * @return the length of the FCS ending each frame (0 if frames have
+	 *         no FCS), or <code>FCS_LENGTH_UNKNOWN</code>.
+	 */
+	public int getFcsLength() {
+		return this.fcsLength;
+	}
+
+	/**
+	 * @return what the timestamps of the packets refer to.
+	 */
+	public TimestampReference getTimestampReference() {
+		return this.timestampReference;
+	}
+
+	/**
+	 * @return the factory of the dissectors decoding the packets,
+	 *         or <code>null</code> if they are not decoded.
+	 */
+	public DissectorFactory getDissectorFactory() {
+		return this.dissectors;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d (LINKTYPE_%s)", this.id, this.name);
+	}
+
+}
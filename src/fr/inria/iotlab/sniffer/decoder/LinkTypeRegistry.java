@@ -0,0 +1,163 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import java.util.Arrays;
+
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+
+/**
+ * Registry of the known link types, giving the description
+ * (<code>LinkTypeInfo</code>) of each link type from its identifier.
+ * <br/>
+ * All the types of <code>NetworkType</code> are registered initially;
+ * other link types (e.g.: private <tt>USERn</tt> link types) may be
+ * registered at runtime, and built-in descriptions may be replaced.
+ * <br/>
+ * Descriptions are held in a table indexed by link type identifier,
+ * replaced as a whole on each registration (which should be rare), so
+ * that a lookup is a single array access, without any lock.
+ *
+ * @author KR
+ */
+public final class LinkTypeRegistry {
+
+	///*** CONSTANTES ***///
+
+	/** Highest link type identifier (link types are 16-bit values
+	    in pcapng files). */
+	public static final int MAX_LINK_TYPE_ID = 0xFFFF;
+
+	/** Length of the FCS of IEEE 802.15.4 frames. */
+	private static final int IEEE802_15_4_FCS_LENGTH = 2;
+
+	/** Dissectors of IEEE 802.15.4 link types: up to RPL and CoAP,
+	    through 6LoWPAN. */
+	private static final DissectorFactory IEEE802_15_4_DISSECTORS =
+			new DissectorFactory() {
+				public Dissector[] createLayers() {
+					return new Dissector[] {
+							new IEEE802154Frame(),
+							new SixLowpanPacket(),
+							new RplMessage(),
+							new CoapMessage()
+					};
+				}
+			};
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_NULL_INFO =
+			"Cannot register a null link type!";
+
+	///*** ATTRIBUTS ***///
+
+	/* descriptions, indexed by link type identifier */
+	private static volatile LinkTypeInfo[] table;
+
+	static {
+		int maxId = 0;
+		for (NetworkType nt: NetworkType.values()) {
+			maxId = Math.max(maxId, nt.getID());
+		}
+		LinkTypeInfo[] builtIn = new LinkTypeInfo[maxId + 1];
+		for (NetworkType nt: NetworkType.values()) {
+			if (nt.getID() < 0) continue;
+			builtIn[nt.getID()] = createBuiltIn(nt);
+		}
+		table = builtIn;
+	}
+
+	///*** CONSTRUCTEURS ***///
+
+	private LinkTypeRegistry() {
+		/* static methods only */
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * Get the description of a link type.
+	 *
+	 * @param id numeric identifier of the link type.
+	 * @return the description of that link type,
+	 *         or <code>null</code> if it is unknown.
+	 */
+	public static LinkTypeInfo get(int id) {
+		LinkTypeInfo[] infos = table;
+		return (id >= 0 && id < infos.length) ? infos[id] : null;
+	}
+
+	/**
+	 * Get the description of a network type.
+	 *
+	 * @param netType a network type.
+	 * @return the description of that network type,
+	 *         or <code>null</code> if it is unknown.
+	 */
+	public static LinkTypeInfo get(NetworkType netType) {
+		return (netType != null ? get(netType.getID()) : null);
+	}
+
+	/**
+	 * Get the length of the FCS of the frames of a link type.
+	 *
+	 * @param id numeric identifier of the link type.
+	 * @return the length of the FCS (0 if frames have no FCS), or
+	 *         <code>LinkTypeInfo.FCS_LENGTH_UNKNOWN</code> if unknown.
+	 */
+	public static int getFcsLength(int id) {
+		LinkTypeInfo info = get(id);
+		return (info != null ?
+		        info.getFcsLength() : LinkTypeInfo.FCS_LENGTH_UNKNOWN);
+	}
+
+	///*** ENREGISTREMENT ***///
+
+	/**
+	 * Register the description of a link type, replacing the previous
+	 * description of that link type, if any.
+	 *
+	 * @param info the description of the link type.
+	 * @return the previous description of that link type,
+	 *         or <code>null</code> if there was none.
+	 * @throws IllegalArgumentException if <code>info</code>
+	 *                                  is <code>null</code>.
+	 */
+	public static synchronized LinkTypeInfo register(LinkTypeInfo info)
+	throws IllegalArgumentException
+	{
+		if (info == null) {
+			throw new IllegalArgumentException(ERR_NULL_INFO);
+		}
+		LinkTypeInfo[] infos = table;
+		int id = info.getID();
+		LinkTypeInfo previous = (id < infos.length ? infos[id] : null);
+		infos = Arrays.copyOf(infos, Math.max(infos.length, id + 1));
+		infos[id] = info;
+		table = infos;
+		return previous;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static LinkTypeInfo createBuiltIn(NetworkType netType) {
+		int fcsLength = LinkTypeInfo.FCS_LENGTH_UNKNOWN;
+		DissectorFactory dissectors = null;
+		switch (netType) {
+		case IEEE802_15_4:
+		case IEEE802_15_4_NONASK_PHY:
+			fcsLength = IEEE802_15_4_FCS_LENGTH;
+			dissectors = IEEE802_15_4_DISSECTORS;
+			break;
+		case IEEE802_15_4_NOFCS:
+			fcsLength = 0;
+			dissectors = IEEE802_15_4_DISSECTORS;
+			break;
+		default:
+			break;
+		}
+		return new LinkTypeInfo(netType.getID(), netType.getLinkType(),
+		                        netType, fcsLength,
+		                        TimestampReference.UNSPECIFIED, dissectors);
+	}
+
+}
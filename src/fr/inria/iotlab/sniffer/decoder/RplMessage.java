@@ -0,0 +1,264 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.u16;
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.u64;
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.u8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <code>Dissector</code> of RPL control messages (RFC 6550):
+ * DIS, DIO, DAO and DAO-ACK, carried by ICMPv6 over 6LoWPAN.
+ * Secured RPL messages are not decoded.
+ * <br/>
+ * The payload of this layer is the list of RPL options
+ * following the base of the message.
+ *
+ * @author KR
+ */
+public final class RplMessage implements Dissector {
+
+	///*** CONSTANTES ***///
+
+	/** ICMPv6 type of RPL control messages. */
+	public static final int ICMPV6_TYPE_RPL = 155;
+
+	/** RPL message code: DODAG Information Solicitation. */
+	public static final int CODE_DIS = 0x00;
+	/** RPL message code: DODAG Information Object. */
+	public static final int CODE_DIO = 0x01;
+	/** RPL message code: Destination Advertisement Object. */
+	public static final int CODE_DAO = 0x02;
+	/** RPL message code: Destination Advertisement Object Acknowledgment. */
+	public static final int CODE_DAO_ACK = 0x03;
+
+	/** Size of the ICMPv6 header (type, code, checksum), in bytes. */
+	private static final int ICMPV6_HEADER_SIZE = 4;
+
+	/* sizes of the bases of the messages, without DODAG ID */
+	private static final int DIS_BASE_SIZE = 2;
+	private static final int DIO_BASE_SIZE = 24;
+	private static final int DAO_BASE_SIZE = 4;
+	private static final int DODAG_ID_SIZE = 16;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_WRONG_MESSAGE =
+			"Field %s is not present in RPL messages with code %d!";
+
+	///*** ATTRIBUTS ***///
+
+	private ByteBuffer buffer;
+	private int code;
+	private int baseStart;
+	private int dodagIdStart;
+	private int optionsStart;
+	private int optionsEnd;
+
+	///*** DECODAGE ***///
+
+	@Override
+	public boolean decode(DissectorChain chain, Dissector lower) {
+		if (!(lower instanceof SixLowpanPacket)) return false;
+		SixLowpanPacket ip = (SixLowpanPacket) lower;
+		if (ip.getNextHeader() != SixLowpanPacket.NEXT_HEADER_ICMPV6) {
+			return false;
+		}
+		ByteBuffer buf = ip.getPayloadBuffer();
+		int pos = ip.getPayloadOffset();
+		int end = pos + ip.getPayloadLength();
+		if (pos + ICMPV6_HEADER_SIZE > end
+		    || u8(buf, pos) != ICMPV6_TYPE_RPL)
+		{
+			return false;
+		}
+
+		int msgCode = u8(buf, pos + 1);
+		pos += ICMPV6_HEADER_SIZE;
+		int baseSize;
+		boolean dodagId = false;
+		switch (msgCode) {
+		case CODE_DIS:
+			baseSize = DIS_BASE_SIZE;
+			break;
+		case CODE_DIO:
+			baseSize = DIO_BASE_SIZE;
+			break;
+		case CODE_DAO:
+		case CODE_DAO_ACK:
+			if (pos + DAO_BASE_SIZE > end) return false;
+			baseSize = DAO_BASE_SIZE;
+			/* 'D' flag: DODAG ID present */
+			dodagId = (u8(buf, pos + 1)
+			           & (msgCode == CODE_DAO ? 0x40 : 0x80)) != 0;
+			break;
+		default:
+			return false;
+		}
+		int idStart = -1;
+		if (msgCode == CODE_DIO) {
+			idStart = pos + 8;
+		} else if (dodagId) {
+			idStart = pos + baseSize;
+			baseSize += DODAG_ID_SIZE;
+		}
+		if (pos + baseSize > end) return false;
+
+		this.buffer = buf;
+		this.code = msgCode;
+		this.baseStart = pos;
+		this.dodagIdStart = idStart;
+		this.optionsStart = pos + baseSize;
+		this.optionsEnd = end;
+		return true;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the code of the message (see the <code>CODE_*</code>
+	 *         constants).
+	 */
+	public int getCode() {
+		return this.code;
+	}
+
+	/**
+	 * @return the RPL instance ID (DIO, DAO and DAO-ACK messages).
+	 */
+	public int getInstanceId() {
+		if (this.code == CODE_DIS) throw wrongMessage("RPLInstanceID");
+		return u8(this.buffer, this.baseStart);
+	}
+
+	/**
+	 * @return the DODAG version number (DIO messages).
+	 */
+	public int getVersion() {
+		checkDio("Version");
+		return u8(this.buffer, this.baseStart + 1);
+	}
+
+	/**
+	 * @return the rank of the sender (DIO messages).
+	 */
+	public int getRank() {
+		checkDio("Rank");
+		return u16(this.buffer, this.baseStart + 2);
+	}
+
+	/**
+	 * @return <code>true</code> if the DODAG is grounded (DIO messages).
+	 */
+	public boolean isGrounded() {
+		checkDio("G");
+		return (u8(this.buffer, this.baseStart + 4) & 0x80) != 0;
+	}
+
+	/**
+	 * @return the mode of operation of the DODAG (DIO messages).
+	 */
+	public int getModeOfOperation() {
+		checkDio("MOP");
+		return (u8(this.buffer, this.baseStart + 4) >>> 3) & 0x07;
+	}
+
+	/**
+	 * @return the DODAG preference (DIO messages).
+	 */
+	public int getPreference() {
+		checkDio("Prf");
+		return u8(this.buffer, this.baseStart + 4) & 0x07;
+	}
+
+	/**
+	 * @return the Destination Advertisement Trigger Sequence Number
+	 *         (DIO messages).
+	 */
+	public int getDtsn() {
+		checkDio("DTSN");
+		return u8(this.buffer, this.baseStart + 5);
+	}
+
+	/**
+	 * @return <code>true</code> if the sender expects a DAO-ACK
+	 *         (DAO messages).
+	 */
+	public boolean isDaoAckRequested() {
+		if (this.code != CODE_DAO) throw wrongMessage("K");
+		return (u8(this.buffer, this.baseStart + 1) & 0x80) != 0;
+	}
+
+	/**
+	 * @return the DAO sequence number (DAO and DAO-ACK messages).
+	 */
+	public int getDaoSequence() {
+		if (this.code != CODE_DAO && this.code != CODE_DAO_ACK) {
+			throw wrongMessage("DAOSequence");
+		}
+		return u8(this.buffer, this.baseStart + 3 -
+		                       (this.code == CODE_DAO_ACK ? 1 : 0));
+	}
+
+	/**
+	 * @return the status of a DAO-ACK message.
+	 */
+	public int getDaoAckStatus() {
+		if (this.code != CODE_DAO_ACK) throw wrongMessage("Status");
+		return u8(this.buffer, this.baseStart + 3);
+	}
+
+	/**
+	 * @return <code>true</code> if the message holds a DODAG ID (always
+	 *         for DIO messages, optionally for DAO and DAO-ACK messages).
+	 */
+	public boolean hasDodagId() {
+		return (this.dodagIdStart >= 0);
+	}
+
+	/**
+	 * @return the 64 most significant bits of the DODAG ID.
+	 */
+	public long getDodagIdHigh() {
+		if (this.dodagIdStart < 0) throw wrongMessage("DODAGID");
+		return u64(this.buffer, this.dodagIdStart);
+	}
+
+	/**
+	 * @return the 64 least significant bits of the DODAG ID.
+	 */
+	public long getDodagIdLow() {
+		if (this.dodagIdStart < 0) throw wrongMessage("DODAGID");
+		return u64(this.buffer, this.dodagIdStart + 8);
+	}
+
+	///*** CHARGE UTILE ***///
+
+	@Override
+	public ByteBuffer getPayloadBuffer() {
+		return this.buffer;
+	}
+
+	@Override
+	public int getPayloadOffset() {
+		return this.optionsStart;
+	}
+
+	@Override
+	public int getPayloadLength() {
+		return this.optionsEnd - this.optionsStart;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void checkDio(String field) {
+		if (this.code != CODE_DIO) throw wrongMessage(field);
+	}
+
+	private IllegalStateException wrongMessage(String field) {
+		return new IllegalStateException(String.format(
+				ERR_WRONG_MESSAGE,
+				field, this.code));
+	}
+
+}
@@ -0,0 +1,866 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.u16;
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.u8;
+import static fr.inria.iotlab.sniffer.decoder.ByteFields.uN;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <code>Dissector</code> of 6LoWPAN packets (RFC 4944 and RFC 6282),
+ * carried by the data frames of IEEE 802.15.4 networks.
+ * <br/>
+ * Supported encodings are IPHC-compressed IPv6 headers (with the UDP
+ * and IPv6 extension headers next-header compressions), uncompressed
+ * IPv6 headers, as well as mesh, broadcast and fragmentation headers.
+ * Fragments are reassembled by a bounded <code>FragmentReassembler</code>:
+ * the fragment completing a datagram gives access to the whole datagram,
+ * while the other fragments only give access to their 6LoWPAN headers
+ * (and to the IPv6 header, for the first fragment). Note that fragments
+ * are only reassembled when their 6LoWPAN layer is decoded, i.e.: when
+ * this layer (or an upper one) is asked for every packet.
+ * <br/>
+ * The payload of this layer is the payload of the upper-layer protocol:
+ * for UDP, it is the UDP payload (UDP ports being decoded by this layer).
+ * <br/>
+ * IPv6 addresses are given as two 64-bit halves (prefix and interface
+ * identifier). Context-based addresses use the prefixes given by
+ * <code>setContextPrefix()</code> (unknown prefixes being 0).
+ *
+ * @author KR
+ */
+public final class SixLowpanPacket implements Dissector {
+
+	///*** CONSTANTES ***///
+
+	/** Next header value: IPv6 Hop-by-Hop Options. */
+	public static final int NEXT_HEADER_HOP_BY_HOP = 0;
+	/** Next header value: UDP. */
+	public static final int NEXT_HEADER_UDP = 17;
+	/** Next header value: IPv6 (encapsulation). */
+	public static final int NEXT_HEADER_IPV6 = 41;
+	/** Next header value: IPv6 Routing Header. */
+	public static final int NEXT_HEADER_ROUTING = 43;
+	/** Next header value: IPv6 Fragment Header. */
+	public static final int NEXT_HEADER_FRAGMENT = 44;
+	/** Next header value: ICMPv6. */
+	public static final int NEXT_HEADER_ICMPV6 = 58;
+	/** Next header value: IPv6 Destination Options. */
+	public static final int NEXT_HEADER_DEST_OPTIONS = 60;
+	/** Next header value: IPv6 Mobility Header. */
+	public static final int NEXT_HEADER_MOBILITY = 135;
+	/** Next header value of fragments that don't hold the IPv6 header. */
+	public static final int NEXT_HEADER_UNKNOWN = -1;
+
+	/** Size of an uncompressed IPv6 header, in bytes. */
+	private static final int IPV6_HEADER_SIZE = 40;
+	/** Size of an uncompressed UDP header, in bytes. */
+	private static final int UDP_HEADER_SIZE = 8;
+
+	/* dispatch values (RFC 4944 and RFC 6282) */
+	private static final int DISPATCH_IPV6 = 0x41;
+	private static final int DISPATCH_BC0 = 0x50;
+	private static final int DISPATCH_IPHC_MASK = 0xe0;
+	private static final int DISPATCH_IPHC = 0x60;
+	private static final int DISPATCH_MESH_MASK = 0xc0;
+	private static final int DISPATCH_MESH = 0x80;
+	private static final int DISPATCH_FRAG_MASK = 0xf8;
+	private static final int DISPATCH_FRAG1 = 0xc0;
+	private static final int DISPATCH_FRAGN = 0xe0;
+
+	/* next header compression (RFC 6282, section 4) */
+	private static final int NHC_UDP_MASK = 0xf8;
+	private static final int NHC_UDP = 0xf0;
+	private static final int NHC_EXT_MASK = 0xf0;
+	private static final int NHC_EXT = 0xe0;
+	private static final int NHC_EXT_IPV6 = 7;
+
+	/* link-local prefix (fe80::/64) */
+	private static final long LINK_LOCAL_PREFIX = 0xfe80000000000000L;
+
+	/** Number of IPHC contexts. */
+	private static final int CONTEXT_COUNT = 16;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_CONTEXT_ID =
+			"Context identifier must be between 0 and 15 (got %d)!";
+	private static final String ERR_NO_IPV6_HEADER =
+			"The current packet doesn't hold an IPv6 header!";
+	private static final String ERR_NOT_UDP =
+			"The current packet is not a UDP datagram!";
+
+	///*** ATTRIBUTS ***///
+
+	private final FragmentReassembler reassembler;
+	private final byte[] datagram;
+	private final ByteBuffer datagramBuffer;
+	private final long[] contextPrefixes;
+
+	/* buffer holding the current packet (or reassembled datagram) */
+	private ByteBuffer buffer;
+
+	/* fragmentation */
+	private boolean fragment;
+	private boolean reassembled;
+	private int datagramSize;
+	private int datagramTag;
+	private int fragmentOffset;
+
+	/* IPv6 header */
+	private boolean headerDecoded;
+	private int uncompressedHeaderLength;
+	private int trafficClass;
+	private int flowLabel;
+	private int nextHeader;
+	private int hopLimit;
+	private long srcPrefix;
+	private long srcIid;
+	private long dstPrefix;
+	private long dstIid;
+
+	/* UDP header */
+	private int srcPort;
+	private int dstPort;
+	private int udpChecksum;
+
+	/* upper-layer payload */
+	private int payloadStart;
+	private int payloadEnd;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a 6LoWPAN dissector, with a default
+	 * reassembly table.
+	 */
+	public SixLowpanPacket() {
+		this(new FragmentReassembler());
+	}
+
+	/**
+	 * Constructor for a 6LoWPAN dissector.
+	 *
+	 * @param reassembler the table in which fragments are reassembled.
+	 */
+	public SixLowpanPacket(FragmentReassembler reassembler) {
+		this.reassembler = reassembler;
+		this.datagram = new byte[FragmentReassembler.MAX_DATAGRAM_SIZE];
+		this.datagramBuffer = ByteBuffer.wrap(this.datagram);
+		this.contextPrefixes = new long[CONTEXT_COUNT];
+	}
+
+	/**
+	 * Set the prefix of an IPHC context (as configured in the network,
+	 * e.g.: through RPL or 6LoWPAN-ND), for context-based addresses.
+	 *
+	 * @param contextId the context identifier (from 0 to 15).
+	 * @param prefix the 64-bit prefix of the context.
+	 * @throws IllegalArgumentException if <code>contextId</code>
+	 *                                  is out of range.
+	 */
+	public void setContextPrefix(int contextId, long prefix)
+	throws IllegalArgumentException
+	{
+		if (contextId < 0 || contextId >= CONTEXT_COUNT) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_CONTEXT_ID,
+					contextId));
+		}
+		this.contextPrefixes[contextId] = prefix;
+	}
+
+	/**
+	 * @return the table in which fragments are reassembled.
+	 */
+	public FragmentReassembler getReassembler() {
+		return this.reassembler;
+	}
+
+	///*** DECODAGE ***///
+
+	@Override
+	public boolean decode(DissectorChain chain, Dissector lower) {
+		if (!(lower instanceof IEEE802154Frame)) return false;
+		IEEE802154Frame mac = (IEEE802154Frame) lower;
+		if (mac.getFrameType() != IEEE802154Frame.FRAME_TYPE_DATA) {
+			return false;
+		}
+
+		ByteBuffer buf = mac.getPayloadBuffer();
+		int pos = mac.getPayloadOffset();
+		int end = pos + mac.getPayloadLength();
+		this.fragment = false;
+		this.reassembled = false;
+		this.headerDecoded = false;
+		this.nextHeader = NEXT_HEADER_UNKNOWN;
+
+		while (pos < end) {
+			this.buffer = buf;
+			int dispatch = u8(buf, pos);
+
+			if ((dispatch & DISPATCH_MESH_MASK) == DISPATCH_MESH) {
+				/* mesh header: skip originator and final addresses */
+				pos += 1 + ((dispatch & 0x20) != 0 ? 2 : 8)
+				         + ((dispatch & 0x10) != 0 ? 2 : 8);
+				continue;
+			}
+			if (dispatch == DISPATCH_BC0) {
+				pos += 2;
+				continue;
+			}
+
+			int fragDispatch = dispatch & DISPATCH_FRAG_MASK;
+			if (fragDispatch == DISPATCH_FRAG1
+			    || fragDispatch == DISPATCH_FRAGN)
+			{
+				boolean first = (fragDispatch == DISPATCH_FRAG1);
+				int headerSize = (first ? 4 : 5);
+				if (this.reassembled || pos + headerSize > end) return false;
+				this.fragment = true;
+				this.datagramSize = ((dispatch & 0x07) << 8)
+				                    | u8(buf, pos + 1);
+				this.datagramTag = u16(buf, pos + 2);
+				this.fragmentOffset = (first ? 0 : u8(buf, pos + 4) * 8);
+				pos += headerSize;
+
+				int uncompressedLength = end - pos;
+				if (first) {
+					/* the first fragment holds the IPv6 header */
+					if (!(decodeHeader(mac, buf, pos, end))) return false;
+					uncompressedLength += this.uncompressedHeaderLength
+					                      - (this.payloadStart - pos);
+				}
+				int length = this.reassembler.addFragment(mac,
+						this.datagramSize, this.datagramTag,
+						this.fragmentOffset, buf, pos, end - pos,
+						uncompressedLength, chain.getPacketTime(),
+						this.datagram);
+				if (length < 0) {
+					/* incomplete datagram: no upper-layer payload */
+					this.payloadEnd = this.payloadStart = end;
+					return true;
+				}
+				buf = this.datagramBuffer;
+				pos = 0;
+				end = length;
+				this.reassembled = true;
+				continue;
+			}
+
+			return decodeHeader(mac, buf, pos, end);
+		}
+		return false;
+	}
+
+	///*** FRAGMENTATION ***///
+
+	/**
+	 * @return <code>true</code> if the current packet is a fragment.
+	 */
+	public boolean isFragment() {
+		return this.fragment;
+	}
+
+	/**
+	 * @return <code>true</code> if the current packet is the fragment
+	 *         completing a datagram, which has thus been reassembled.
+	 */
+	public boolean isReassembled() {
+		return this.reassembled;
+	}
+
+	/**
+	 * @return the size of the (uncompressed) datagram of the current
+	 *         fragment, in bytes.
+	 */
+	public int getDatagramSize() {
+		return this.datagramSize;
+	}
+
+	/**
+	 * @return the datagram tag of the current fragment.
+	 */
+	public int getDatagramTag() {
+		return this.datagramTag;
+	}
+
+	/**
+	 * @return the offset of the current fragment in its (uncompressed)
+	 *         datagram, in bytes.
+	 */
+	public int getFragmentOffset() {
+		return this.fragmentOffset;
+	}
+
+	///*** EN-TETE IPV6 ***///
+
+	/**
+	 * @return <code>true</code> if the current packet holds an IPv6
+	 *         header (i.e.: is not a non-first fragment of an incomplete
+	 *         datagram).
+	 */
+	public boolean hasIPv6Header() {
+		return this.headerDecoded;
+	}
+
+	/**
+	 * @return the IPv6 traffic class (DSCP and ECN).
+	 */
+	public int getTrafficClass() {
+		checkHeader();
+		return this.trafficClass;
+	}
+
+	/**
+	 * @return the IPv6 flow label.
+	 */
+	public int getFlowLabel() {
+		checkHeader();
+		return this.flowLabel;
+	}
+
+	/**
+	 * @return the protocol of the upper layer (see the
+	 *         <code>NEXT_HEADER_*</code> constants), after the IPv6
+	 *         extension headers, if any; or
+	 *         <code>NEXT_HEADER_UNKNOWN</code> for fragments that don't
+	 *         hold the IPv6 header.
+	 */
+	public int getNextHeader() {
+		return this.nextHeader;
+	}
+
+	/**
+	 * @return the IPv6 hop limit.
+	 */
+	public int getHopLimit() {
+		checkHeader();
+		return this.hopLimit;
+	}
+
+	/**
+	 * @return the 64 most significant bits (prefix)
+	 *         of the IPv6 source address.
+	 */
+	public long getSourceAddressHigh() {
+		checkHeader();
+		return this.srcPrefix;
+	}
+
+	/**
+	 * @return the 64 least significant bits (interface identifier)
+	 *         of the IPv6 source address.
+	 */
+	public long getSourceAddressLow() {
+		checkHeader();
+		return this.srcIid;
+	}
+
+	/**
+	 * @return the 64 most significant bits (prefix)
+	 *         of the IPv6 destination address.
+	 */
+	public long getDestinationAddressHigh() {
+		checkHeader();
+		return this.dstPrefix;
+	}
+
+	/**
+	 * @return the 64 least significant bits (interface identifier)
+	 *         of the IPv6 destination address.
+	 */
+	public long getDestinationAddressLow() {
+		checkHeader();
+		return this.dstIid;
+	}
+
+	///*** EN-TETE UDP ***///
+
+	/**
+	 * @return <code>true</code> if the current packet
+	 *         is a UDP datagram.
+	 */
+	public boolean isUdp() {
+		return (this.nextHeader == NEXT_HEADER_UDP);
+	}
+
+	/**
+	 * @return the UDP source port.
+	 * @throws IllegalStateException if the packet is not a UDP datagram.
+	 */
+	public int getSourcePort() {
+		checkUdp();
+		return this.srcPort;
+	}
+
+	/**
+	 * @return the UDP destination port.
+	 * @throws IllegalStateException if the packet is not a UDP datagram.
+	 */
+	public int getDestinationPort() {
+		checkUdp();
+		return this.dstPort;
+	}
+
+	/**
+	 * @return the UDP checksum, or -1 if it has been elided
+	 *         by the compression.
+	 * @throws IllegalStateException if the packet is not a UDP datagram.
+	 */
+	public int getUdpChecksum() {
+		checkUdp();
+		return this.udpChecksum;
+	}
+
+	///*** CHARGE UTILE ***///
+
+	@Override
+	public ByteBuffer getPayloadBuffer() {
+		return this.buffer;
+	}
+
+	@Override
+	public int getPayloadOffset() {
+		return this.payloadStart;
+	}
+
+	@Override
+	public int getPayloadLength() {
+		return this.payloadEnd - this.payloadStart;
+	}
+
+	/**
+	 * Format an IPv6 address in its usual (RFC 5952) text form.
+	 *
+	 * @param high the 64 most significant bits of the address.
+	 * @param low the 64 least significant bits of the address.
+	 * @return the text form of the address.
+	 */
+	public static String formatAddress(long high, long low) {
+		int[] groups = new int[8];
+		for (int i = 0; i < 4; i++) {
+			groups[i] = (int) (high >>> (48 - 16 * i)) & 0xffff;
+			groups[i + 4] = (int) (low >>> (48 - 16 * i)) & 0xffff;
+		}
+		/* longest run of (at least two) zero groups */
+		int bestStart = -1;
+		int bestLength = 1;
+		for (int i = 0; i < 8; ) {
+			if (groups[i] != 0) {
+				i++;
+				continue;
+			}
+			int j = i;
+			while (j < 8 && groups[j] == 0) j++;
+			if (j - i > bestLength) {
+				bestStart = i;
+				bestLength = j - i;
+			}
+			i = j;
+		}
+		StringBuilder text = new StringBuilder(39);
+		for (int i = 0; i < 8; i++) {
+			if (i == bestStart) {
+				text.append("::");
+				i += bestLength - 1;
+				continue;
+			}
+			if (i > 0 && i != bestStart + bestLength) text.append(':');
+			text.append(Integer.toHexString(groups[i]));
+		}
+		return text.toString();
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Decode the IPv6 header (compressed or not) found at the given
+	 * position, and locate the upper-layer payload.
+	 */
+	private boolean decodeHeader(IEEE802154Frame mac, ByteBuffer buf,
+	                             int pos, int end)
+	{
+		this.buffer = buf;
+		this.payloadEnd = end;
+		if (pos >= end) return false;
+		int dispatch = u8(buf, pos);
+		boolean ok;
+		if ((dispatch & DISPATCH_IPHC_MASK) == DISPATCH_IPHC) {
+			ok = decodeIphc(mac, buf, pos, end);
+		} else if (dispatch == DISPATCH_IPV6) {
+			ok = decodeIPv6(buf, pos + 1, end);
+		} else {
+			ok = false;
+		}
+		this.headerDecoded = ok;
+		if (!(ok)) this.nextHeader = NEXT_HEADER_UNKNOWN;
+		return ok;
+	}
+
+	/**
+	 * Decode an IPHC-compressed IPv6 header (RFC 6282, section 3).
+	 */
+	private boolean decodeIphc(IEEE802154Frame mac, ByteBuffer buf,
+	                           int pos, int end)
+	{
+		if (pos + 2 > end) return false;
+		int iphc = u16(buf, pos);
+		pos += 2;
+		int tf = (iphc >>> 11) & 0x03;
+		boolean nhCompressed = (iphc & 0x0400) != 0;
+		int hlim = (iphc >>> 8) & 0x03;
+		boolean cid = (iphc & 0x0080) != 0;
+		boolean sac = (iphc & 0x0040) != 0;
+		int sam = (iphc >>> 4) & 0x03;
+		boolean multicast = (iphc & 0x0008) != 0;
+		boolean dac = (iphc & 0x0004) != 0;
+		int dam = iphc & 0x03;
+
+		int srcContext = 0;
+		int dstContext = 0;
+		if (cid) {
+			if (pos + 1 > end) return false;
+			srcContext = u8(buf, pos) >>> 4;
+			dstContext = u8(buf, pos) & 0x0f;
+			pos++;
+		}
+
+		/* traffic class and flow label (ECN, DSCP order) */
+		int ecn = 0;
+		int dscp = 0;
+		this.flowLabel = 0;
+		switch (tf) {
+		case 0:
+			if (pos + 4 > end) return false;
+			ecn = u8(buf, pos) >>> 6;
+			dscp = u8(buf, pos) & 0x3f;
+			this.flowLabel = (int) uN(buf, pos + 1, 3) & 0xfffff;
+			pos += 4;
+			break;
+		case 1:
+			if (pos + 3 > end) return false;
+			ecn = u8(buf, pos) >>> 6;
+			this.flowLabel = (int) uN(buf, pos, 3) & 0xfffff;
+			pos += 3;
+			break;
+		case 2:
+			if (pos + 1 > end) return false;
+			ecn = u8(buf, pos) >>> 6;
+			dscp = u8(buf, pos) & 0x3f;
+			pos++;
+			break;
+		default:
+			break;
+		}
+		this.trafficClass = (dscp << 2) | ecn;
+
+		int inlineNextHeader = NEXT_HEADER_UNKNOWN;
+		if (!(nhCompressed)) {
+			if (pos + 1 > end) return false;
+			inlineNextHeader = u8(buf, pos);
+			pos++;
+		}
+
+		switch (hlim) {
+		case 0:
+			if (pos + 1 > end) return false;
+			this.hopLimit = u8(buf, pos);
+			pos++;
+			break;
+		case 1:
+			this.hopLimit = 1;
+			break;
+		case 2:
+			this.hopLimit = 64;
+			break;
+		default:
+			this.hopLimit = 255;
+			break;
+		}
+
+		/* source address */
+		if (sac && sam == 0) {
+			/* unspecified address */
+			this.srcPrefix = 0L;
+			this.srcIid = 0L;
+		} else {
+			long prefix = (sac ? this.contextPrefixes[srcContext]
+			                   : LINK_LOCAL_PREFIX);
+			pos = decodeUnicastAddress(mac, buf, pos, end, sam, prefix, true);
+			if (pos < 0) return false;
+		}
+
+		/* destination address */
+		if (multicast) {
+			pos = decodeMulticastAddress(buf, pos, end, dac, dam, dstContext);
+		} else if (dac && dam == 0) {
+			/* reserved */
+			return false;
+		} else {
+			long prefix = (dac ? this.contextPrefixes[dstContext]
+			                   : LINK_LOCAL_PREFIX);
+			pos = decodeUnicastAddress(mac, buf, pos, end, dam, prefix, false);
+		}
+		if (pos < 0) return false;
+
+		this.uncompressedHeaderLength = IPV6_HEADER_SIZE;
+		if (!(nhCompressed)) {
+			this.nextHeader = inlineNextHeader;
+			return locateUpperLayer(buf, pos, end);
+		}
+		return decodeNhc(buf, pos, end);
+	}
+
+	/**
+	 * Decode a (stateless or context-based) unicast address.
+	 *
+	 * @return the position after the inline part of the address,
+	 *         or -1 if it is malformed.
+	 */
+	private int decodeUnicastAddress(IEEE802154Frame mac, ByteBuffer buf,
+	                                 int pos, int end, int mode, long prefix,
+	                                 boolean source)
+	{
+		long high = prefix;
+		long low;
+		switch (mode) {
+		case 0:
+			if (pos + 16 > end) return -1;
+			high = ByteFields.u64(buf, pos);
+			low = ByteFields.u64(buf, pos + 8);
+			pos += 16;
+			break;
+		case 1:
+			if (pos + 8 > end) return -1;
+			low = ByteFields.u64(buf, pos);
+			pos += 8;
+			break;
+		case 2:
+			if (pos + 2 > end) return -1;
+			low = 0x000000fffe000000L | u16(buf, pos);
+			pos += 2;
+			break;
+		default:
+			/* derived from the link-layer address */
+			int addrMode = (source ? mac.getSourceAddressMode()
+			                       : mac.getDestinationAddressMode());
+			if (addrMode == IEEE802154Frame.ADDR_MODE_EXTENDED) {
+				long eui64 = (source ? mac.getSourceExtendedAddress()
+				                     : mac.getDestinationExtendedAddress());
+				/* universal/local bit inverted (RFC 4291) */
+				low = eui64 ^ 0x0200000000000000L;
+			} else if (addrMode == IEEE802154Frame.ADDR_MODE_SHORT) {
+				low = 0x000000fffe000000L
+				      | (source ? mac.getSourceShortAddress()
+				                : mac.getDestinationShortAddress());
+			} else {
+				return -1;
+			}
+			break;
+		}
+		if (source) {
+			this.srcPrefix = high;
+			this.srcIid = low;
+		} else {
+			this.dstPrefix = high;
+			this.dstIid = low;
+		}
+		return pos;
+	}
+
+	/**
+	 * Decode a multicast destination address.
+	 *
+	 * @return the position after the inline part of the address,
+	 *         or -1 if it is malformed.
+	 */
+	private int decodeMulticastAddress(ByteBuffer buf, int pos, int end,
+	                                   boolean dac, int mode, int context)
+	{
+		if (dac) {
+			/* unicast-prefix-based address (RFC 3306) */
+			if (mode != 0 || pos + 6 > end) return -1;
+			long flagsScope = u16(buf, pos);
+			long prefixLength = this.contextPrefixes[context] == 0L ? 0 : 64;
+			this.dstPrefix = (0xffL << 56) | (flagsScope << 40)
+			                 | (prefixLength << 32)
+			                 | (this.contextPrefixes[context] >>> 32);
+			this.dstIid = (this.contextPrefixes[context] << 32)
+			              | ByteFields.u32(buf, pos + 2);
+			return pos + 6;
+		}
+		switch (mode) {
+		case 0:
+			if (pos + 16 > end) return -1;
+			this.dstPrefix = ByteFields.u64(buf, pos);
+			this.dstIid = ByteFields.u64(buf, pos + 8);
+			return pos + 16;
+		case 1:
+			/* ffXX::00XX:XXXX:XXXX */
+			if (pos + 6 > end) return -1;
+			this.dstPrefix = (0xffL << 56) | ((long) u8(buf, pos) << 48);
+			this.dstIid = uN(buf, pos + 1, 5);
+			return pos + 6;
+		case 2:
+			/* ffXX::00XX:XXXX */
+			if (pos + 4 > end) return -1;
+			this.dstPrefix = (0xffL << 56) | ((long) u8(buf, pos) << 48);
+			this.dstIid = uN(buf, pos + 1, 3);
+			return pos + 4;
+		default:
+			/* ff02::00XX */
+			if (pos + 1 > end) return -1;
+			this.dstPrefix = 0xff02000000000000L;
+			this.dstIid = u8(buf, pos);
+			return pos + 1;
+		}
+	}
+
+	/**
+	 * Decode the compressed next headers (RFC 6282, section 4).
+	 */
+	private boolean decodeNhc(ByteBuffer buf, int pos, int end) {
+		while (true) {
+			if (pos + 1 > end) return false;
+			int nhc = u8(buf, pos);
+
+			if ((nhc & NHC_UDP_MASK) == NHC_UDP) {
+				pos++;
+				switch (nhc & 0x03) {
+				case 0:
+					if (pos + 4 > end) return false;
+					this.srcPort = u16(buf, pos);
+					this.dstPort = u16(buf, pos + 2);
+					pos += 4;
+					break;
+				case 1:
+					if (pos + 3 > end) return false;
+					this.srcPort = u16(buf, pos);
+					this.dstPort = 0xf000 | u8(buf, pos + 2);
+					pos += 3;
+					break;
+				case 2:
+					if (pos + 3 > end) return false;
+					this.srcPort = 0xf000 | u8(buf, pos);
+					this.dstPort = u16(buf, pos + 1);
+					pos += 3;
+					break;
+				default:
+					if (pos + 1 > end) return false;
+					this.srcPort = 0xf0b0 | (u8(buf, pos) >>> 4);
+					this.dstPort = 0xf0b0 | (u8(buf, pos) & 0x0f);
+					pos++;
+					break;
+				}
+				if ((nhc & 0x04) != 0) {
+					this.udpChecksum = -1;
+				} else {
+					if (pos + 2 > end) return false;
+					this.udpChecksum = u16(buf, pos);
+					pos += 2;
+				}
+				this.nextHeader = NEXT_HEADER_UDP;
+				this.uncompressedHeaderLength += UDP_HEADER_SIZE;
+				this.payloadStart = pos;
+				return true;
+			}
+
+			if ((nhc & NHC_EXT_MASK) != NHC_EXT) return false;
+			int eid = (nhc >>> 1) & 0x07;
+			if (eid == NHC_EXT_IPV6) {
+				/* encapsulated IPv6: not decoded further */
+				this.nextHeader = NEXT_HEADER_IPV6;
+				this.payloadStart = pos + 1;
+				return true;
+			}
+			boolean nhInline = (nhc & 0x01) == 0;
+			pos++;
+			int inlineNextHeader = NEXT_HEADER_UNKNOWN;
+			if (nhInline) {
+				if (pos + 1 > end) return false;
+				inlineNextHeader = u8(buf, pos);
+				pos++;
+			}
+			if (pos + 1 > end) return false;
+			int length = u8(buf, pos);
+			pos += 1 + length;
+			if (pos > end) return false;
+			/* uncompressed extension headers are padded to 8 bytes */
+			this.uncompressedHeaderLength += (2 + length + 7) & ~7;
+			if (nhInline) {
+				this.nextHeader = inlineNextHeader;
+				return locateUpperLayer(buf, pos, end);
+			}
+		}
+	}
+
+	/**
+	 * Decode an uncompressed IPv6 header.
+	 */
+	private boolean decodeIPv6(ByteBuffer buf, int pos, int end) {
+		if (pos + IPV6_HEADER_SIZE > end) return false;
+		long first = ByteFields.u32(buf, pos);
+		if ((first >>> 28) != 6) return false;
+		this.trafficClass = (int) (first >>> 20) & 0xff;
+		this.flowLabel = (int) first & 0xfffff;
+		this.nextHeader = u8(buf, pos + 6);
+		this.hopLimit = u8(buf, pos + 7);
+		this.srcPrefix = ByteFields.u64(buf, pos + 8);
+		this.srcIid = ByteFields.u64(buf, pos + 16);
+		this.dstPrefix = ByteFields.u64(buf, pos + 24);
+		this.dstIid = ByteFields.u64(buf, pos + 32);
+		this.uncompressedHeaderLength = IPV6_HEADER_SIZE;
+		return locateUpperLayer(buf, pos + IPV6_HEADER_SIZE, end);
+	}
+
+	/**
+	 * Skip the uncompressed extension headers and UDP header found
+	 * at the given position (after <code>nextHeader</code> has been set
+	 * to the protocol of the first one), and locate the payload.
+	 */
+	private boolean locateUpperLayer(ByteBuffer buf, int pos, int end) {
+		int start = pos;
+		while (true) {
+			switch (this.nextHeader) {
+			case NEXT_HEADER_HOP_BY_HOP:
+			case NEXT_HEADER_ROUTING:
+			case NEXT_HEADER_DEST_OPTIONS:
+			case NEXT_HEADER_FRAGMENT:
+				if (pos + 2 > end) return false;
+				int length = (this.nextHeader == NEXT_HEADER_FRAGMENT ?
+				              8 : (u8(buf, pos + 1) + 1) * 8);
+				this.nextHeader = u8(buf, pos);
+				pos += length;
+				if (pos > end) return false;
+				continue;
+			case NEXT_HEADER_UDP:
+				if (pos + UDP_HEADER_SIZE > end) return false;
+				this.srcPort = u16(buf, pos);
+				this.dstPort = u16(buf, pos + 2);
+				this.udpChecksum = u16(buf, pos + 6);
+				pos += UDP_HEADER_SIZE;
+				break;
+			default:
+				break;
+			}
+			break;
+		}
+		this.uncompressedHeaderLength += pos - start;
+		this.payloadStart = pos;
+		return true;
+	}
+
+	private void checkHeader() {
+		if (!(this.headerDecoded)) {
+			throw new IllegalStateException(ERR_NO_IPV6_HEADER);
+		}
+	}
+
+	private void checkUdp() {
+		if (this.nextHeader != NEXT_HEADER_UDP) {
+			throw new IllegalStateException(ERR_NOT_UDP);
+		}
+	}
+
+}
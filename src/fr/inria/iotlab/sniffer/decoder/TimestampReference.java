@@ -0,0 +1,21 @@
+package fr.inria.iotlab.sniffer.decoder;
+
+/**
+ * Instant of the reception of a frame that its capture timestamp
+ * refers to, according to its link type.
+ *
+ * @author KR
+ * @see LinkTypeInfo#getTimestampReference()
+ */
+public enum TimestampReference {
+
+	/** Not specified by the link type (the usual case). */
+	UNSPECIFIED,
+
+	/** Start of the frame (e.g.: detection of its start delimiter). */
+	START_OF_FRAME,
+
+	/** End of the frame (i.e.: once the whole frame is received). */
+	END_OF_FRAME
+
+}
@@ -0,0 +1,504 @@
+package fr.inria.iotlab.sniffer.export;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.inria.iotlab.sniffer.decoder.IEEE802154Frame;
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+import fr.inria.iotlab.sniffer.parser.PCapFileParser;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+
+
+/**
+ * Exporter of captures to the Arrow IPC streaming format (usually with
+ * the <code>.arrows</code> extension), for offline analytics: e.g. with
+ * <tt>pyarrow.ipc.open_stream()</tt> or <tt>polars.read_ipc_stream()</tt>.
+ * <br/>
+ * Each packet is a row, with its timestamp (in nanoseconds, UTC), its
+ * captured and original lengths, and optionally its data. For IEEE
+ * 802.15.4 captures, the decoded MAC header fields are added: frame
+ * type and version, flags, sequence number, PAN IDs and addresses,
+ * payload length and FCS validity (null when the frame cannot be
+ * decoded). Addresses are dictionary-encoded, as strings of 4 (short
+ * addresses) or 16 (extended addresses) hexadecimal digits.
+ * <br/>
+ * Rows are accumulated in column vectors allocated once, and written as
+ * a record batch (row group) whenever <code>rowGroupSize</code> rows
+ * have been added: memory use is bounded by the row group size (and by
+ * the number of distinct addresses), whatever the size of the capture.
+ * Data is only guaranteed to be complete once the exporter has been
+ * closed.
+ *
+ * @author KR
+ * @see PCapFileParser#getPacketCursor()
+ */
+public class ArrowCaptureExporter implements Closeable, Flushable {
+
+	///*** CONSTANTES ***///
+
+	/** Default number of rows of the record batches. */
+	public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+
+	/* formats of the addresses (numbers of the dictionary formats) */
+	private static final String[] ADDRESS_FORMATS = { "%04x", "%016x" };
+	private static final int FORMAT_SHORT = 0;
+	private static final int FORMAT_EXTENDED = 1;
+
+	/** Average packet length assumed to size the data buffer. */
+	private static final int ESTIMATED_PACKET_LENGTH = 64;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_ROW_GROUP_SIZE =
+			"Row group size must be strictly positive (got %d)!";
+	private static final String ERR_EXPORTER_CLOSED =
+			"This Arrow exporter has been closed!";
+	private static final String USAGE =
+			"Usage: ArrowCaptureExporter <capture> <output.arrows>" +
+			" [--data] [--row-group-size N]";
+
+	///*** ATTRIBUTS ***///
+
+	private final OutputStream out;
+	private final ArrowStreamWriter writer;
+	private final int rowGroupSize;
+	private boolean closed;
+	private long rowCount;
+
+	/* columns of all the captures */
+	private final ColumnVector.Timestamp time;
+	private final ColumnVector.Int capturedLength;
+	private final ColumnVector.Int originalLength;
+	private final ColumnVector.Binary data;
+
+	/* columns of IEEE 802.15.4 captures (null for other captures),
+	   and the decoder of their frames */
+	private final IEEE802154Frame frame;
+	private final ColumnVector.Int frameType;
+	private final ColumnVector.Int frameVersion;
+	private final ColumnVector.Bool securityEnabled;
+	private final ColumnVector.Bool framePending;
+	private final ColumnVector.Bool ackRequested;
+	private final ColumnVector.Int sequenceNumber;
+	private final ColumnVector.Int destinationPan;
+	private final ColumnVector.Dictionary destinationAddress;
+	private final ColumnVector.Int sourcePan;
+	private final ColumnVector.Dictionary sourceAddress;
+	private final ColumnVector.Int payloadLength;
+	private final ColumnVector.Bool fcsValid;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for an exporter to an Arrow stream file, with the
+	 * default row group size, and without the data of the packets.
+	 *
+	 * @param filePath path to the file to write
+	 *                 (replaced if it already exists).
+	 * @param netType data link type of the exported packets (which
+	 *                gives the decoded columns), or <code>null</code>
+	 *                if unknown.
+	 *
+	 * @throws IOException if the file cannot be created.
+	 */
+	public ArrowCaptureExporter(String filePath, NetworkType netType)
+	throws IOException
+	{
+		this(new FileOutputStream(filePath), netType,
+		     DEFAULT_ROW_GROUP_SIZE, false);
+	}
+
+	/**
+	 * Constructor for an exporter writing an Arrow stream to the given
+	 * output stream (which belongs to the exporter, and is closed by
+	 * <code>close()</code>). The schema is written right away.
+	 *
+	 * @param output the stream to which the Arrow stream is written.
+	 * @param netType data link type of the exported packets (which
+	 *                gives the decoded columns), or <code>null</code>
+	 *                if unknown.
+	 * @param rowGroupSize number of rows of the record batches.
+	 * @param includeData <code>true</code> to export the data
+	 *                    of the packets (in a binary column).
+	 *
+	 * @throws IllegalArgumentException if <code>rowGroupSize</code>
+	 *                                  is not strictly positive.
+	 * @throws IOException if the schema cannot be written.
+	 */
+	public ArrowCaptureExporter(OutputStream output, NetworkType netType,
+	                            int rowGroupSize, boolean includeData)
+	throws IllegalArgumentException, IOException
+	{
+		if (rowGroupSize <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_ROW_GROUP_SIZE,
+					rowGroupSize));
+		}
+		this.rowGroupSize = rowGroupSize;
+		int n = rowGroupSize;
+		List<ColumnVector> columns = new ArrayList<ColumnVector>();
+		this.time = add(columns, new ColumnVector.Timestamp("time", false, n));
+		this.capturedLength = add(columns,
+				new ColumnVector.Int("captured_length", false, n, 32, true));
+		this.originalLength = add(columns,
+				new ColumnVector.Int("original_length", false, n, 32, true));
+		this.data = (includeData ?
+		             add(columns, new ColumnVector.Binary(
+		                     "data", false, n,
+		                     n * ESTIMATED_PACKET_LENGTH, false)) :
+		             null);
+
+		if (netType != null && IEEE802154Frame.isSupported(netType)) {
+			this.frame = new IEEE802154Frame();
+			this.frameType = add(columns,
+					new ColumnVector.Int("frame_type", true, n, 8, false));
+			this.frameVersion = add(columns,
+					new ColumnVector.Int("frame_version", true, n, 8, false));
+			this.securityEnabled = add(columns,
+					new ColumnVector.Bool("security_enabled", true, n));
+			this.framePending = add(columns,
+					new ColumnVector.Bool("frame_pending", true, n));
+			this.ackRequested = add(columns,
+					new ColumnVector.Bool("ack_requested", true, n));
+			this.sequenceNumber = add(columns,
+					new ColumnVector.Int("sequence_number", true, n, 8, false));
+			this.destinationPan = add(columns,
+					new ColumnVector.Int("dst_pan", true, n, 16, false));
+			this.destinationAddress = add(columns,
+					new ColumnVector.Dictionary("dst_addr", true, n,
+					                            ADDRESS_FORMATS));
+			this.sourcePan = add(columns,
+					new ColumnVector.Int("src_pan", true, n, 16, false));
+			this.sourceAddress = add(columns,
+					new ColumnVector.Dictionary("src_addr", true, n,
+					                            ADDRESS_FORMATS));
+			this.payloadLength = add(columns,
+					new ColumnVector.Int("payload_length", true, n, 32, true));
+			this.fcsValid = add(columns,
+					new ColumnVector.Bool("fcs_valid", true, n));
+		} else {
+			this.frame = null;
+			this.frameType = null;
+			this.frameVersion = null;
+			this.securityEnabled = null;
+			this.framePending = null;
+			this.ackRequested = null;
+			this.sequenceNumber = null;
+			this.destinationPan = null;
+			this.destinationAddress = null;
+			this.sourcePan = null;
+			this.sourceAddress = null;
+			this.payloadLength = null;
+			this.fcsValid = null;
+		}
+
+		this.out = new BufferedOutputStream(output, 1 << 20);
+		this.writer = new ArrowStreamWriter(
+				this.out,
+				columns.toArray(new ColumnVector[columns.size()]));
+		this.writer.writeSchema();
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the number of rows (packets) exported so far.
+	 */
+	public long getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @return the number of record batches (row groups)
+	 *         written so far.
+	 */
+	public long getRowGroupCount() {
+		return this.writer.getBatchCount();
+	}
+
+	/**
+	 * @return <code>true</code> if the decoded IEEE 802.15.4
+	 *         columns are exported.
+	 */
+	public boolean hasFrameColumns() {
+		return (this.frame != null);
+	}
+
+	///*** EXPORT ***///
+
+	/**
+	 * Export the current packet of the given cursor. Its frame is only
+	 * decoded if its own network type is an IEEE 802.15.4 type (the
+	 * decoded columns being null otherwise).
+	 *
+	 * @param cursor a cursor positioned on a packet.
+	 *
+	 * @throws IllegalStateException if the exporter has been closed,
+	 *                               or if the cursor is not positioned
+	 *                               on a packet.
+	 * @throws IOException if the packet data cannot be read, or if
+	 *                     a record batch cannot be written.
+	 */
+	public void add(PacketCursor cursor)
+	throws IllegalStateException, IOException
+	{
+		int fraction = cursor.getTimestampFraction();
+		add(cursor.getTimestampSeconds(),
+		    (cursor.hasNanosecondPrecision() ? fraction : fraction * 1000),
+		    cursor.getOriginalPacketLength(),
+		    cursor.getPacketData(),
+		    cursor.getNetworkType());
+	}
+
+	/**
+	 * Export a packet.
+	 *
+	 * @param seconds the timestamp of the packet, in seconds
+	 *                since the Unix epoch.
+	 * @param nanoseconds the sub-second fraction of the timestamp,
+	 *                    in nanoseconds.
+	 * @param originalLength the original length of the packet.
+	 * @param packetData the (captured) data of the packet, from the
+	 *                   position to the limit of the buffer (neither
+	 *                   of which is modified).
+	 * @param netType the network type of the packet, or
+	 *                <code>null</code> if unknown.
+	 *
+	 * @throws IllegalStateException if the exporter has been closed.
+	 * @throws IOException if a record batch cannot be written.
+	 */
+	public void add(long seconds, int nanoseconds, int originalLength,
+	                ByteBuffer packetData, NetworkType netType)
+	throws IllegalStateException, IOException
+	{
+		checkOpen();
+		this.time.add(seconds * 1000000000L + nanoseconds);
+		this.capturedLength.add(packetData.remaining());
+		this.originalLength.add(originalLength);
+		if (this.data != null) {
+			this.data.add(packetData.duplicate());
+		}
+		if (this.frame != null) {
+			if (netType != null && IEEE802154Frame.isSupported(netType)
+			    && this.frame.wrap(packetData, netType))
+			{
+				addFrame(this.frame);
+			} else {
+				addNullFrame();
+			}
+		}
+		this.rowCount++;
+		if (this.time.getLength() == this.rowGroupSize) {
+			this.writer.writeBatch();
+		}
+	}
+
+	/**
+	 * Export all the (remaining) packets read by the given parser.
+	 *
+	 * @param parser the parser of a capture.
+	 * @return the number of exported packets.
+	 *
+	 * @throws IllegalStateException if the exporter has been closed.
+	 * @throws IOException if the capture cannot be read, or if
+	 *                     a record batch cannot be written.
+	 */
+	public long addAll(PCapFileParser parser)
+	throws IllegalStateException, IOException
+	{
+		PacketCursor cursor = parser.getPacketCursor();
+		long count = 0L;
+		while (cursor.next()) {
+			add(cursor);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Write the rows added since the last record batch, as a (possibly
+	 * shorter) record batch, and flush the output stream.
+	 *
+	 * @throws IllegalStateException if the exporter has been closed.
+	 * @throws IOException if the record batch cannot be written.
+	 */
+	@Override
+	public void flush() throws IllegalStateException, IOException {
+		checkOpen();
+		if (this.time.getLength() > 0) this.writer.writeBatch();
+		this.out.flush();
+	}
+
+	/**
+	 * Write the pending rows and the end of the stream,
+	 * and close the output stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) return;
+		this.closed = true;
+		try {
+			if (this.time.getLength() > 0) this.writer.writeBatch();
+			this.writer.writeEnd();
+		} finally {
+			this.out.close();
+		}
+	}
+
+	/**
+	 * Export a whole capture to an Arrow stream file.
+	 *
+	 * @param capturePath path to the capture (possibly compressed).
+	 * @param outputPath path to the file to write.
+	 * @param rowGroupSize number of rows of the record batches.
+	 * @param includeData <code>true</code> to export the data
+	 *                    of the packets.
+	 * @return the number of exported packets.
+	 *
+	 * @throws IllegalArgumentException if <code>rowGroupSize</code>
+	 *                                  is not strictly positive.
+	 * @throws IOException if the capture cannot be read,
+	 *                     or the file written.
+	 */
+	public static long export(String capturePath, String outputPath,
+	                          int rowGroupSize, boolean includeData)
+	throws IllegalArgumentException, IOException
+	{
+		PCapFileParser parser = new PCapFileParser(capturePath);
+		try {
+			ArrowCaptureExporter exporter = new ArrowCaptureExporter(
+					new FileOutputStream(outputPath),
+					parser.getNetworkType(), rowGroupSize, includeData);
+			try {
+				return exporter.addAll(parser);
+			} finally {
+				exporter.close();
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Command-line entry point: export a capture to an Arrow stream file.
+	 */
+	public static void main(String[] args) throws IOException {
+		String capturePath = null;
+		String outputPath = null;
+		boolean includeData = false;
+		int rowGroupSize = DEFAULT_ROW_GROUP_SIZE;
+		for (int i = 0; i < args.length; i++) {
+			if ("--data".equals(args[i])) {
+				includeData = true;
+			} else if ("--row-group-size".equals(args[i])
+			           && i + 1 < args.length) {
+				rowGroupSize = Integer.parseInt(args[++i]);
+			} else if (capturePath == null) {
+				capturePath = args[i];
+			} else if (outputPath == null) {
+				outputPath = args[i];
+			} else {
+				capturePath = null;
+				break;
+			}
+		}
+		if (capturePath == null || outputPath == null) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		long count = export(capturePath, outputPath, rowGroupSize,
+		                    includeData);
+		System.out.println(count + " packets exported to " + outputPath);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void addFrame(IEEE802154Frame f) {
+		this.frameType.add(f.getFrameType());
+		this.frameVersion.add(f.getFrameVersion());
+		this.securityEnabled.add(f.isSecurityEnabled());
+		this.framePending.add(f.isFramePending());
+		this.ackRequested.add(f.isAckRequested());
+		if (f.hasSequenceNumber()) {
+			this.sequenceNumber.add(f.getSequenceNumber());
+		} else {
+			this.sequenceNumber.addNull();
+		}
+
+		int mode = f.getDestinationAddressMode();
+		if (f.hasDestinationPanId()) {
+			this.destinationPan.add(f.getDestinationPanId());
+		} else {
+			this.destinationPan.addNull();
+		}
+		if (mode == IEEE802154Frame.ADDR_MODE_SHORT) {
+			this.destinationAddress.add(f.getDestinationShortAddress(),
+			                            FORMAT_SHORT);
+		} else if (mode == IEEE802154Frame.ADDR_MODE_EXTENDED) {
+			this.destinationAddress.add(f.getDestinationExtendedAddress(),
+			                            FORMAT_EXTENDED);
+		} else {
+			this.destinationAddress.addNull();
+		}
+
+		mode = f.getSourceAddressMode();
+		if (mode != IEEE802154Frame.ADDR_MODE_NONE
+		    && (f.hasSourcePanId() || f.hasDestinationPanId()))
+		{
+			this.sourcePan.add(f.getSourcePanId());
+		} else {
+			this.sourcePan.addNull();
+		}
+		if (mode == IEEE802154Frame.ADDR_MODE_SHORT) {
+			this.sourceAddress.add(f.getSourceShortAddress(), FORMAT_SHORT);
+		} else if (mode == IEEE802154Frame.ADDR_MODE_EXTENDED) {
+			this.sourceAddress.add(f.getSourceExtendedAddress(),
+			                       FORMAT_EXTENDED);
+		} else {
+			this.sourceAddress.addNull();
+		}
+
+		this.payloadLength.add(f.getPayloadLength());
+		if (f.hasFcs()) {
+			this.fcsValid.add(f.isFcsValid());
+		} else {
+			this.fcsValid.addNull();
+		}
+	}
+
+	private void addNullFrame() {
+		this.frameType.addNull();
+		this.frameVersion.addNull();
+		this.securityEnabled.addNull();
+		this.framePending.addNull();
+		this.ackRequested.addNull();
+		this.sequenceNumber.addNull();
+		this.destinationPan.addNull();
+		this.destinationAddress.addNull();
+		this.sourcePan.addNull();
+		this.sourceAddress.addNull();
+		this.payloadLength.addNull();
+		this.fcsValid.addNull();
+	}
+
+	private void checkOpen() {
+		if (this.closed) {
+			throw new IllegalStateException(ERR_EXPORTER_CLOSED);
+		}
+	}
+
+	private static <C extends ColumnVector> C add(List<ColumnVector> columns,
+	                                              C column)
+	{
+		columns.add(column);
+		return column;
+	}
+
+}
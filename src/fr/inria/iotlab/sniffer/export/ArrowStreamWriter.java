@@ -0,0 +1,275 @@
+package fr.inria.iotlab.sniffer.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writer of the Arrow IPC streaming format: a schema message, followed
+ * by dictionary and record batch messages, and an end-of-stream marker.
+ * <br/>
+ * Each message is made of its metadata (a FlatBuffers-encoded
+ * <code>Message</code>), padded to 8 bytes, and of its body: the buffers
+ * of the columns, each padded to 8 bytes. Dictionaries are written in
+ * full before the first record batch, then as delta batches holding the
+ * values added since, before the record batches using them.
+ *
+ * @author KR
+ */
+final class ArrowStreamWriter {
+
+	///*** CONSTANTES ***///
+
+	/** Marker preceding the length of the metadata of each message. */
+	private static final int CONTINUATION = 0xFFFFFFFF;
+
+	/** Version of the metadata (V5). */
+	private static final int METADATA_VERSION = 4;
+
+	/* members of the MessageHeader union */
+	private static final int HEADER_SCHEMA = 1;
+	private static final int HEADER_DICTIONARY_BATCH = 2;
+	private static final int HEADER_RECORD_BATCH = 3;
+
+	private static final int ENDIANNESS_LITTLE = 0;
+
+	private static final byte[] PADDING = new byte[8];
+
+	///*** ATTRIBUTS ***///
+
+	private final OutputStream out;
+	private final ColumnVector[] columns;
+
+	private final FlatBufferBuilder builder = new FlatBufferBuilder();
+	private final Body body = new Body();
+	private final byte[] prefix = new byte[8];
+
+	private boolean dictionariesWritten;
+	private long batchCount;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * @param out the stream to which messages are written
+	 *            (best buffered).
+	 * @param columns the columns of the record batches.
+	 */
+	ArrowStreamWriter(OutputStream out, ColumnVector[] columns) {
+		this.out = out;
+		this.columns = columns;
+	}
+
+	///*** ACCESSEURS ***///
+
+	long getBatchCount() {
+		return this.batchCount;
+	}
+
+	///*** SERIALISATION ***///
+
+	/**
+	 * Write the schema message, describing the columns
+	 * (and assigning their dictionary IDs).
+	 */
+	void writeSchema() throws IOException {
+		FlatBufferBuilder b = this.builder;
+		b.clear();
+		int[] fields = new int[this.columns.length];
+		long dictionaryId = 0L;
+		for (int i = 0; i < this.columns.length; i++) {
+			ColumnVector column = this.columns[i];
+			int name = b.createString(column.getName());
+			int type = column.writeType(b);
+			int dictionary = column.writeDictionaryEncoding(b, dictionaryId);
+			if (dictionary != 0) dictionaryId++;
+			int children = b.createOffsetVector(fields, 0);
+			b.startTable(7);
+			b.addOffset(0, name);
+			b.addBoolean(1, column.isNullable());
+			b.addByte(2, column.getTypeId());
+			b.addOffset(3, type);
+			if (dictionary != 0) b.addOffset(4, dictionary);
+			b.addOffset(5, children);
+			fields[i] = b.endTable();
+		}
+		int fieldVector = b.createOffsetVector(fields, fields.length);
+		b.startTable(2);
+		b.addShort(0, ENDIANNESS_LITTLE);
+		b.addOffset(1, fieldVector);
+		int schema = b.endTable();
+		this.body.clear();
+		writeMessage(HEADER_SCHEMA, schema);
+	}
+
+	/**
+	 * Write the rows of the columns as a record batch (preceded by
+	 * the dictionary batches it needs), and clear the columns.
+	 */
+	void writeBatch() throws IOException {
+		writeDictionaries();
+		int rows = this.columns[0].getLength();
+		this.body.clear();
+		for (ColumnVector column : this.columns) {
+			column.writeBuffers(this.body);
+		}
+		FlatBufferBuilder b = this.builder;
+		b.clear();
+		int batch = writeRecordBatch(rows, this.columns);
+		writeMessage(HEADER_RECORD_BATCH, batch);
+		for (ColumnVector column : this.columns) {
+			column.clear();
+		}
+		this.batchCount++;
+	}
+
+	/**
+	 * Write the end-of-stream marker (and the dictionaries, if no
+	 * batch has been written, as readers expect them).
+	 */
+	void writeEnd() throws IOException {
+		writeDictionaries();
+		writeInt(this.prefix, 0, CONTINUATION);
+		writeInt(this.prefix, 4, 0);
+		this.out.write(this.prefix, 0, 8);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Write the dictionaries of the dictionary-encoded columns: in full
+	 * the first time, then only their new values, if any.
+	 */
+	private void writeDictionaries() throws IOException {
+		boolean delta = this.dictionariesWritten;
+		for (ColumnVector column : this.columns) {
+			if (!(column instanceof ColumnVector.Dictionary)) continue;
+			ColumnVector.Dictionary dictionary =
+					(ColumnVector.Dictionary) column;
+			if (delta && dictionary.getNewValueCount() == 0) continue;
+			ColumnVector.Binary values = dictionary.takeNewValues();
+			this.body.clear();
+			values.writeBuffers(this.body);
+			FlatBufferBuilder b = this.builder;
+			b.clear();
+			int data = writeRecordBatch(values.getLength(),
+			                            new ColumnVector[] { values });
+			b.startTable(3);
+			b.addLong(0, dictionary.getId());
+			b.addOffset(1, data);
+			b.addBoolean(2, delta);
+			int batch = b.endTable();
+			writeMessage(HEADER_DICTIONARY_BATCH, batch);
+			values.clear();
+		}
+		this.dictionariesWritten = true;
+	}
+
+	/**
+	 * @return the offset of a <code>RecordBatch</code> table, describing
+	 *         the given columns and the buffers of the body.
+	 */
+	private int writeRecordBatch(int rows, ColumnVector[] batchColumns) {
+		FlatBufferBuilder b = this.builder;
+		Body data = this.body;
+		b.startVector(16, data.count, 8);
+		for (int i = data.count - 1; i >= 0; i--) {
+			b.prep(8, 16);
+			b.putLong(data.lengths[i]);
+			b.putLong(data.offsets[i]);
+		}
+		int buffers = b.endVector(data.count);
+		b.startVector(16, batchColumns.length, 8);
+		for (int i = batchColumns.length - 1; i >= 0; i--) {
+			b.prep(8, 16);
+			b.putLong(batchColumns[i].getNullCount());
+			b.putLong(batchColumns[i].getLength());
+		}
+		int nodes = b.endVector(batchColumns.length);
+		b.startTable(3);
+		b.addLong(0, rows);
+		b.addOffset(1, nodes);
+		b.addOffset(2, buffers);
+		return b.endTable();
+	}
+
+	/**
+	 * Write a message, with the given header and the current body.
+	 */
+	private void writeMessage(int headerType, int header)
+	throws IOException
+	{
+		FlatBufferBuilder b = this.builder;
+		b.startTable(5);
+		b.addLong(3, this.body.length);
+		b.addOffset(2, header);
+		b.addShort(0, METADATA_VERSION);
+		b.addByte(1, headerType);
+		int length = b.finish(b.endTable());
+		int padded = (length + 7) & ~7;
+		writeInt(this.prefix, 0, CONTINUATION);
+		writeInt(this.prefix, 4, padded);
+		this.out.write(this.prefix, 0, 8);
+		this.out.write(b.getBuffer(), b.getStart(), length);
+		this.out.write(PADDING, 0, padded - length);
+		this.body.writeTo(this.out);
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		for (int i = 0; i < 4; i++) {
+			buffer[offset + i] = (byte) (value >> (8 * i));
+		}
+	}
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Body of a message: the buffers of its columns, laid out one after
+	 * the other, each padded to 8 bytes.
+	 */
+	static final class Body {
+
+		private byte[][] arrays = new byte[16][];
+		private int[] starts = new int[16];
+		private long[] offsets = new long[16];
+		private long[] lengths = new long[16];
+		private int count;
+		private long length;
+
+		/**
+		 * Append a buffer (whose array may be <code>null</code>
+		 * if it is empty).
+		 */
+		void addBuffer(byte[] data, int offset, int n) {
+			if (this.count == this.arrays.length) {
+				int capacity = this.count * 2;
+				this.arrays = Arrays.copyOf(this.arrays, capacity);
+				this.starts = Arrays.copyOf(this.starts, capacity);
+				this.offsets = Arrays.copyOf(this.offsets, capacity);
+				this.lengths = Arrays.copyOf(this.lengths, capacity);
+			}
+			this.arrays[this.count] = data;
+			this.starts[this.count] = offset;
+			this.offsets[this.count] = this.length;
+			this.lengths[this.count] = n;
+			this.count++;
+			this.length += (n + 7) & ~7;
+		}
+
+		private void clear() {
+			Arrays.fill(this.arrays, 0, this.count, null);
+			this.count = 0;
+			this.length = 0L;
+		}
+
+		private void writeTo(OutputStream out) throws IOException {
+			for (int i = 0; i < this.count; i++) {
+				int n = (int) this.lengths[i];
+				if (n == 0) continue;
+				out.write(this.arrays[i], this.starts[i], n);
+				out.write(PADDING, 0, ((n + 7) & ~7) - n);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,528 @@
+package fr.inria.iotlab.sniffer.export;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Column of a batch of rows, in the Arrow columnar layout: a validity
+ * bitmap (for nullable columns) and one or more value buffers, filled
+ * row by row, and serialized as the buffers of an Arrow record batch.
+ * <br/>
+ * The capacity of a column is its number of rows per batch: columns are
+ * allocated once, and cleared after each batch. Only the buffers of
+ * variable-length values may grow beyond their initial size.
+ *
+ * @author KR
+ */
+abstract class ColumnVector {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Column of integers (8, 16, 32 or 64 bits wide),
+	 * signed or not.
+	 */
+	static class Int extends ColumnVector {
+
+		private final int byteWidth;
+		private final boolean signed;
+		private final byte[] values;
+
+		Int(String name, boolean nullable, int capacity, int bitWidth,
+		    boolean signed)
+		{
+			super(name, nullable, capacity);
+			this.byteWidth = bitWidth / 8;
+			this.signed = signed;
+			this.values = new byte[capacity * this.byteWidth];
+		}
+
+		void add(long value) {
+			int pos = this.length * this.byteWidth;
+			for (int i = 0; i < this.byteWidth; i++) {
+				this.values[pos + i] = (byte) (value >> (8 * i));
+			}
+			addValid();
+		}
+
+		@Override
+		void addNull() {
+			Arrays.fill(this.values, this.length * this.byteWidth,
+			            (this.length + 1) * this.byteWidth, (byte) 0);
+			super.addNull();
+		}
+
+		@Override
+		int getTypeId() {
+			return TYPE_INT;
+		}
+
+		@Override
+		int writeType(FlatBufferBuilder builder) {
+			return writeIntType(builder, this.byteWidth * 8, this.signed);
+		}
+
+		@Override
+		void writeBuffers(ArrowStreamWriter.Body body) {
+			writeValidity(body);
+			body.addBuffer(this.values, 0, this.length * this.byteWidth);
+		}
+
+	}
+
+	/**
+	 * Column of timestamps, in nanoseconds since the Unix epoch (UTC).
+	 */
+	static final class Timestamp extends Int {
+
+		Timestamp(String name, boolean nullable, int capacity) {
+			super(name, nullable, capacity, 64, true);
+		}
+
+		@Override
+		int getTypeId() {
+			return TYPE_TIMESTAMP;
+		}
+
+		@Override
+		int writeType(FlatBufferBuilder builder) {
+			int timeZone = builder.createString("UTC");
+			builder.startTable(2);
+			builder.addShort(0, TIME_UNIT_NANOSECOND);
+			builder.addOffset(1, timeZone);
+			return builder.endTable();
+		}
+
+	}
+
+	/**
+	 * Column of booleans, as a bitmap.
+	 */
+	static final class Bool extends ColumnVector {
+
+		private final byte[] values;
+
+		Bool(String name, boolean nullable, int capacity) {
+			super(name, nullable, capacity);
+			this.values = new byte[(capacity + 7) / 8];
+		}
+
+		void add(boolean value) {
+			setBit(this.values, this.length, value);
+			addValid();
+		}
+
+		@Override
+		void addNull() {
+			setBit(this.values, this.length, false);
+			super.addNull();
+		}
+
+		@Override
+		int getTypeId() {
+			return TYPE_BOOL;
+		}
+
+		@Override
+		int writeType(FlatBufferBuilder builder) {
+			builder.startTable(0);
+			return builder.endTable();
+		}
+
+		@Override
+		void writeBuffers(ArrowStreamWriter.Body body) {
+			writeValidity(body);
+			body.addBuffer(this.values, 0, (this.length + 7) / 8);
+		}
+
+	}
+
+	/**
+	 * Column of variable-length binary values (or UTF-8 strings),
+	 * as offsets into a buffer of concatenated values.
+	 */
+	static final class Binary extends ColumnVector {
+
+		private final boolean utf8;
+		private byte[] offsets;
+		private byte[] data;
+		private int dataLength;
+
+		Binary(String name, boolean nullable, int capacity,
+		       int initialDataSize, boolean utf8)
+		{
+			super(name, nullable, capacity);
+			this.utf8 = utf8;
+			this.offsets = new byte[(capacity + 1) * 4];
+			this.data = new byte[Math.max(initialDataSize, 16)];
+		}
+
+		/**
+		 * Append a value, from the position to the limit of the buffer
+		 * (the position of which is moved to the limit).
+		 */
+		void add(ByteBuffer value) {
+			int n = value.remaining();
+			ensureData(n);
+			value.get(this.data, this.dataLength, n);
+			this.dataLength += n;
+			setOffset(this.length + 1);
+			addValid();
+		}
+
+		void add(byte[] value, int offset, int n) {
+			ensureData(n);
+			System.arraycopy(value, offset, this.data, this.dataLength, n);
+			this.dataLength += n;
+			setOffset(this.length + 1);
+			addValid();
+		}
+
+		@Override
+		void addNull() {
+			setOffset(this.length + 1);
+			super.addNull();
+		}
+
+		@Override
+		void clear() {
+			super.clear();
+			this.dataLength = 0;
+		}
+
+		@Override
+		int getTypeId() {
+			return (this.utf8 ? TYPE_UTF8 : TYPE_BINARY);
+		}
+
+		@Override
+		int writeType(FlatBufferBuilder builder) {
+			builder.startTable(0);
+			return builder.endTable();
+		}
+
+		@Override
+		void writeBuffers(ArrowStreamWriter.Body body) {
+			writeValidity(body);
+			body.addBuffer(this.offsets, 0, (this.length + 1) * 4);
+			body.addBuffer(this.data, 0, this.dataLength);
+		}
+
+		private void setOffset(int row) {
+			int pos = row * 4;
+			if (pos + 4 > this.offsets.length) {
+				/* more rows than expected (dictionary values) */
+				this.offsets = Arrays.copyOf(this.offsets,
+				                             this.offsets.length * 2);
+			}
+			int value = this.dataLength;
+			for (int i = 0; i < 4; i++) {
+				this.offsets[pos + i] = (byte) (value >> (8 * i));
+			}
+		}
+
+		private void ensureData(int n) {
+			if (this.dataLength + n > this.data.length) {
+				this.data = Arrays.copyOf(this.data,
+						Math.max(this.dataLength + n,
+						         this.data.length * 2));
+			}
+		}
+
+	}
+
+	/**
+	 * Column of dictionary-encoded strings: each row holds the index of
+	 * its value in a dictionary shared by all the batches, which only
+	 * grows. Values are looked up by a numeric key (e.g.: an address)
+	 * and one of the formats of the column, and only formatted when
+	 * first seen.
+	 */
+	static final class Dictionary extends ColumnVector {
+
+		private final Int indices;
+		private final String[] formats;
+		private long id;
+
+		/* open-addressing table of the entries: key, format,
+		   and index in the dictionary plus 1 (0 for free slots) */
+		private long[] tableKeys = new long[16];
+		private int[] tableFormats = new int[16];
+		private int[] tableIndices = new int[16];
+		private int size;
+
+		/* values not yet written in a dictionary batch */
+		private final Binary values;
+
+		/* number of values already written in dictionary batches */
+		private int written;
+
+		Dictionary(String name, boolean nullable, int capacity,
+		           String... formats)
+		{
+			super(name, nullable, capacity);
+			this.indices = new Int(name, false, capacity, 32, true);
+			this.formats = formats;
+			this.values = new Binary(name, false, 16, 256, true);
+		}
+
+		/**
+		 * Append the value of the given key.
+		 *
+		 * @param key the key of the value.
+		 * @param format the number of the format of the value, given
+		 *               the key (used the first time it is seen).
+		 */
+		void add(long key, int format) {
+			int mask = this.tableKeys.length - 1;
+			int slot = mix(key, format) & mask;
+			int index;
+			while (true) {
+				index = this.tableIndices[slot] - 1;
+				if (index < 0 || (this.tableKeys[slot] == key
+				                  && this.tableFormats[slot] == format))
+				{
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (index < 0) {
+				index = this.size++;
+				this.tableKeys[slot] = key;
+				this.tableFormats[slot] = format;
+				this.tableIndices[slot] = index + 1;
+				byte[] value = String.format(this.formats[format], key)
+				                     .getBytes(StandardCharsets.UTF_8);
+				this.values.add(value, 0, value.length);
+				if (this.size * 2 > this.tableKeys.length) rehash();
+			}
+			this.indices.add(index);
+			addValid();
+		}
+
+		@Override
+		void addNull() {
+			this.indices.add(0);
+			super.addNull();
+		}
+
+		@Override
+		void clear() {
+			super.clear();
+			this.indices.clear();
+		}
+
+		@Override
+		int getTypeId() {
+			return TYPE_UTF8;
+		}
+
+		@Override
+		int writeType(FlatBufferBuilder builder) {
+			return this.values.writeType(builder);
+		}
+
+		@Override
+		int writeDictionaryEncoding(FlatBufferBuilder builder, long id) {
+			this.id = id;
+			int indexType = writeIntType(builder, 32, true);
+			builder.startTable(4);
+			builder.addLong(0, id);
+			builder.addOffset(1, indexType);
+			builder.addBoolean(2, false);
+			builder.addShort(3, DICTIONARY_KIND_DENSE_ARRAY);
+			return builder.endTable();
+		}
+
+		@Override
+		void writeBuffers(ArrowStreamWriter.Body body) {
+			writeValidity(body);
+			body.addBuffer(this.indices.values, 0, this.length * 4);
+		}
+
+		long getId() {
+			return this.id;
+		}
+
+		/**
+		 * @return the number of values added to the dictionary
+		 *         since the last dictionary batch.
+		 */
+		int getNewValueCount() {
+			return this.size - this.written;
+		}
+
+		/**
+		 * @return the column of the values added to the dictionary since
+		 *         the last dictionary batch, to be written (and cleared)
+		 *         in the next one.
+		 */
+		Binary takeNewValues() {
+			this.written = this.size;
+			return this.values;
+		}
+
+		/**
+		 * Double the capacity of the table of the entries,
+		 * to keep a load factor of at most 1/2.
+		 */
+		private void rehash() {
+			long[] keys = this.tableKeys;
+			int[] formats = this.tableFormats;
+			int[] indices = this.tableIndices;
+			int capacity = keys.length * 2;
+			this.tableKeys = new long[capacity];
+			this.tableFormats = new int[capacity];
+			this.tableIndices = new int[capacity];
+			for (int i = 0; i < keys.length; i++) {
+				if (indices[i] == 0) continue;
+				int slot = mix(keys[i], formats[i]) & (capacity - 1);
+				while (this.tableIndices[slot] != 0) {
+					slot = (slot + 1) & (capacity - 1);
+				}
+				this.tableKeys[slot] = keys[i];
+				this.tableFormats[slot] = formats[i];
+				this.tableIndices[slot] = indices[i];
+			}
+		}
+
+		private static int mix(long key, int format) {
+			long h = (key + format) * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/* Arrow types (members of the Type union) */
+	static final int TYPE_INT = 2;
+	static final int TYPE_BINARY = 4;
+	static final int TYPE_UTF8 = 5;
+	static final int TYPE_BOOL = 6;
+	static final int TYPE_TIMESTAMP = 10;
+
+	private static final int TIME_UNIT_NANOSECOND = 3;
+	private static final int DICTIONARY_KIND_DENSE_ARRAY = 0;
+
+	///*** ATTRIBUTS ***///
+
+	private final String name;
+	private final boolean nullable;
+
+	/* rows of the current batch, and their validity bitmap */
+	int length;
+	private int nullCount;
+	private final byte[] validity;
+
+	///*** CONSTRUCTEURS ***///
+
+	ColumnVector(String name, boolean nullable, int capacity) {
+		this.name = name;
+		this.nullable = nullable;
+		this.validity = (nullable ? new byte[(capacity + 7) / 8] : null);
+	}
+
+	///*** ACCESSEURS ***///
+
+	String getName() {
+		return this.name;
+	}
+
+	boolean isNullable() {
+		return this.nullable;
+	}
+
+	int getLength() {
+		return this.length;
+	}
+
+	int getNullCount() {
+		return this.nullCount;
+	}
+
+	///*** REMPLISSAGE ***///
+
+	/**
+	 * Append a null value (the column must be nullable).
+	 */
+	void addNull() {
+		setBit(this.validity, this.length, false);
+		this.nullCount++;
+		this.length++;
+	}
+
+	/**
+	 * Empty the column, for the next batch.
+	 */
+	void clear() {
+		this.length = 0;
+		this.nullCount = 0;
+	}
+
+	///*** SERIALISATION ***///
+
+	/**
+	 * @return the member of the Type union giving the type
+	 *         of the values of the column.
+	 */
+	abstract int getTypeId();
+
+	/**
+	 * @return the offset of the table describing the type
+	 *         of the values of the column.
+	 */
+	abstract int writeType(FlatBufferBuilder builder);
+
+	/**
+	 * @return the offset of the table describing the dictionary encoding
+	 *         of the column (with the given dictionary ID), or
+	 *         <code>0</code> if the column is not dictionary-encoded.
+	 */
+	int writeDictionaryEncoding(FlatBufferBuilder builder, long id) {
+		return 0;
+	}
+
+	/**
+	 * Append the buffers of the column to the body of a record batch.
+	 */
+	abstract void writeBuffers(ArrowStreamWriter.Body body);
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Mark the row being appended as valid.
+	 */
+	void addValid() {
+		if (this.validity != null) setBit(this.validity, this.length, true);
+		this.length++;
+	}
+
+	/**
+	 * Write the validity bitmap, which is left empty
+	 * when all the values are valid.
+	 */
+	void writeValidity(ArrowStreamWriter.Body body) {
+		int n = (this.nullCount == 0 ? 0 : (this.length + 7) / 8);
+		body.addBuffer(this.validity, 0, n);
+	}
+
+	static int writeIntType(FlatBufferBuilder builder, int bitWidth,
+	                        boolean signed)
+	{
+		builder.startTable(2);
+		builder.addInt(0, bitWidth);
+		builder.addBoolean(1, signed);
+		return builder.endTable();
+	}
+
+	private static void setBit(byte[] bitmap, int index, boolean value) {
+		if (value) {
+			bitmap[index >>> 3] |= (byte) (1 << (index & 7));
+		} else {
+			bitmap[index >>> 3] &= (byte) ~(1 << (index & 7));
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+package fr.inria.iotlab.sniffer.export;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal builder of FlatBuffers, the serialization format of the
+ * metadata of Arrow IPC messages.
+ * <br/>
+ * As with the reference implementation, the buffer is built backwards,
+ * from its end: objects (strings, vectors, tables) must be created
+ * before the tables referring to them, and are identified by their
+ * offset from the end of the buffer. Tables are built between
+ * <code>startTable()</code> and <code>endTable()</code>, with one
+ * <code>add*()</code> call per field; vtables are not shared.
+ *
+ * @author KR
+ */
+final class FlatBufferBuilder {
+
+	///*** CONSTANTES ***///
+
+	private static final int INITIAL_SIZE = 1024;
+
+	///*** ATTRIBUTS ***///
+
+	/* data is written at the end of the buffer, from "space" */
+	private byte[] buffer = new byte[INITIAL_SIZE];
+	private int space = INITIAL_SIZE;
+	private int minAlign = 1;
+
+	/* table being built: offsets of its fields, and of its start */
+	private int[] vtable = new int[16];
+	private int vtableLength;
+	private int objectStart;
+
+	///*** CONSTRUCTION ***///
+
+	/**
+	 * Empty the builder, to build a new buffer.
+	 */
+	void clear() {
+		this.space = this.buffer.length;
+		this.minAlign = 1;
+		this.vtableLength = 0;
+	}
+
+	/**
+	 * @return the current offset (from the end of the buffer).
+	 */
+	int offset() {
+		return this.buffer.length - this.space;
+	}
+
+	/**
+	 * Prepare to write <code>size</code> bytes aligned on
+	 * <code>size</code>, after <code>additional</code> bytes.
+	 */
+	void prep(int size, int additional) {
+		if (size > this.minAlign) this.minAlign = size;
+		int alignSize = (~(offset() + additional) + 1) & (size - 1);
+		while (this.space < alignSize + size + additional) grow();
+		this.space -= alignSize;
+		Arrays.fill(this.buffer, this.space, this.space + alignSize,
+		            (byte) 0);
+	}
+
+	void putByte(int value) {
+		this.buffer[--this.space] = (byte) value;
+	}
+
+	void putShort(int value) {
+		this.space -= 2;
+		this.buffer[this.space] = (byte) value;
+		this.buffer[this.space + 1] = (byte) (value >> 8);
+	}
+
+	void putInt(int value) {
+		this.space -= 4;
+		for (int i = 0; i < 4; i++) {
+			this.buffer[this.space + i] = (byte) (value >> (8 * i));
+		}
+	}
+
+	void putLong(long value) {
+		this.space -= 8;
+		for (int i = 0; i < 8; i++) {
+			this.buffer[this.space + i] = (byte) (value >> (8 * i));
+		}
+	}
+
+	/**
+	 * Write a reference to an object created earlier.
+	 */
+	void putOffset(int object) {
+		prep(4, 0);
+		putInt(offset() - object + 4);
+	}
+
+	/**
+	 * @return the offset of a new (UTF-8, null-terminated) string.
+	 */
+	int createString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		prep(4, bytes.length + 1);
+		putByte(0);
+		this.space -= bytes.length;
+		System.arraycopy(bytes, 0, this.buffer, this.space, bytes.length);
+		putInt(bytes.length);
+		return offset();
+	}
+
+	/**
+	 * Start a vector: its elements are then written backwards
+	 * (from the last one).
+	 */
+	void startVector(int elementSize, int count, int alignment) {
+		prep(4, elementSize * count);
+		prep(alignment, elementSize * count);
+	}
+
+	/**
+	 * @return the offset of the vector.
+	 */
+	int endVector(int count) {
+		prep(4, 0);
+		putInt(count);
+		return offset();
+	}
+
+	/**
+	 * @return the offset of a new vector of references to objects.
+	 */
+	int createOffsetVector(int[] objects, int count) {
+		startVector(4, count, 4);
+		for (int i = count - 1; i >= 0; i--) {
+			putOffset(objects[i]);
+		}
+		return endVector(count);
+	}
+
+	void startTable(int fieldCount) {
+		if (this.vtable.length < fieldCount) {
+			this.vtable = new int[fieldCount];
+		}
+		Arrays.fill(this.vtable, 0, fieldCount, 0);
+		this.vtableLength = fieldCount;
+		this.objectStart = offset();
+	}
+
+	void addBoolean(int field, boolean value) {
+		prep(1, 0);
+		putByte(value ? 1 : 0);
+		this.vtable[field] = offset();
+	}
+
+	void addByte(int field, int value) {
+		prep(1, 0);
+		putByte(value);
+		this.vtable[field] = offset();
+	}
+
+	void addShort(int field, int value) {
+		prep(2, 0);
+		putShort(value);
+		this.vtable[field] = offset();
+	}
+
+	void addInt(int field, int value) {
+		prep(4, 0);
+		putInt(value);
+		this.vtable[field] = offset();
+	}
+
+	void addLong(int field, long value) {
+		prep(8, 0);
+		putLong(value);
+		this.vtable[field] = offset();
+	}
+
+	void addOffset(int field, int object) {
+		putOffset(object);
+		this.vtable[field] = offset();
+	}
+
+	/**
+	 * @return the offset of the table.
+	 */
+	int endTable() {
+		/* placeholder of the offset of the vtable */
+		prep(4, 0);
+		putInt(0);
+		int object = offset();
+		int length = this.vtableLength;
+		while (length > 0 && this.vtable[length - 1] == 0) length--;
+		for (int i = length - 1; i >= 0; i--) {
+			putVtableEntry(this.vtable[i] != 0 ? object - this.vtable[i] : 0);
+		}
+		putVtableEntry(object - this.objectStart);
+		putVtableEntry((length + 2) * 2);
+		/* the vtable precedes the table */
+		int position = this.buffer.length - object;
+		int delta = offset() - object;
+		for (int i = 0; i < 4; i++) {
+			this.buffer[position + i] = (byte) (delta >> (8 * i));
+		}
+		this.vtableLength = 0;
+		return object;
+	}
+
+	/**
+	 * Finish the buffer, with its root table.
+	 *
+	 * @return the length of the buffer, whose data is then given
+	 *         by <code>getBuffer()</code> from
+	 *         <code>getStart()</code>.
+	 */
+	int finish(int root) {
+		prep(this.minAlign, 4);
+		putOffset(root);
+		return offset();
+	}
+
+	byte[] getBuffer() {
+		return this.buffer;
+	}
+
+	int getStart() {
+		return this.space;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void putVtableEntry(int value) {
+		prep(2, 0);
+		putShort(value);
+	}
+
+	/**
+	 * Double the size of the buffer, keeping its data at the end.
+	 */
+	private void grow() {
+		int used = offset();
+		byte[] grown = new byte[this.buffer.length * 2];
+		System.arraycopy(this.buffer, this.space, grown,
+		                 grown.length - used, used);
+		this.space = grown.length - used;
+		this.buffer = grown;
+	}
+
+}
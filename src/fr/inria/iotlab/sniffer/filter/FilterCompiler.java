@@ -0,0 +1,403 @@
+package fr.inria.iotlab.sniffer.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiler of filter expressions into trees of <code>FilterNode</code>s,
+ * by recursive descent on the following grammar:
+ * <pre>
+ * expression := conjunction ( ("or" | "||") conjunction )*
+ * conjunction := negation ( ("and" | "&&") negation )*
+ * negation := ("not" | "!") negation | primary
+ * primary := "(" expression ")" | flag | field operator value
+ *            | "coap.uri" ("==" | "!=") string
+ * operator := "==" | "=" | "!=" | "<" | "<=" | ">" | ">="
+ * value := number | symbol
+ * </pre>
+ * Numbers are decimal, hexadecimal (<tt>0x12ab</tt>), or extended
+ * addresses (<tt>00:12:4b:00:01:02:03:04</tt>); timestamps are given in
+ * seconds since the Unix epoch, possibly with a decimal fraction.
+ * Symbols are the named values of some fields (e.g.: <tt>data</tt> for
+ * <tt>frame.type</tt>). <tt>udp.port</tt>, <tt>addr</tt> and <tt>pan</tt>
+ * test both the source and destination fields.
+ *
+ * @author KR
+ */
+final class FilterCompiler {
+
+	///*** CONSTANTES ***///
+
+	/* token types */
+	private static final int TOKEN_END = 0;
+	private static final int TOKEN_WORD = 1;
+	private static final int TOKEN_STRING = 2;
+	private static final int TOKEN_OPERATOR = 3;
+	private static final int TOKEN_LEFT_PAREN = 4;
+	private static final int TOKEN_RIGHT_PAREN = 5;
+
+	/** Field comparing the path of CoAP messages. */
+	private static final String URI_PATH_FIELD = "coap.uri";
+
+	/** Fields testing both a source and a destination field. */
+	private static final Object[] FIELD_PAIRS = {
+		"udp.port", FilterField.UDP_SOURCE_PORT, FilterField.UDP_DESTINATION_PORT,
+		"addr", FilterField.SOURCE_ADDRESS, FilterField.DESTINATION_ADDRESS,
+		"pan", FilterField.SOURCE_PAN, FilterField.DESTINATION_PAN
+	};
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_SYNTAX =
+			"Syntax error in filter expression at position %d: %s";
+	private static final String ERR_UNEXPECTED_TOKEN =
+			"unexpected '%s'";
+	private static final String ERR_UNEXPECTED_END =
+			"unexpected end of expression";
+	private static final String ERR_UNKNOWN_FIELD =
+			"unknown field '%s'";
+	private static final String ERR_NOT_A_FLAG =
+			"field '%s' must be compared with a value";
+	private static final String ERR_FLAG_COMPARED =
+			"flag '%s' cannot be compared with a value";
+	private static final String ERR_BAD_VALUE =
+			"invalid value '%s' for field '%s'";
+	private static final String ERR_STRING_EXPECTED =
+			"string expected for field '%s'";
+	private static final String ERR_UNTERMINATED_STRING =
+			"unterminated string";
+
+	///*** ATTRIBUTS ***///
+
+	private final String text;
+	private int pos;
+
+	/* current token */
+	private int tokenType;
+	private String token;
+	private int tokenStart;
+
+	///*** COMPILATION ***///
+
+	private FilterCompiler(String text) {
+		this.text = text;
+		this.pos = 0;
+	}
+
+	/**
+	 * Compile the given filter expression.
+	 *
+	 * @throws IllegalArgumentException if the expression is not valid.
+	 */
+	static FilterNode compile(String expression)
+	throws IllegalArgumentException
+	{
+		FilterCompiler compiler = new FilterCompiler(expression);
+		compiler.nextToken();
+		FilterNode root = compiler.parseExpression();
+		if (compiler.tokenType != TOKEN_END) {
+			throw compiler.unexpectedToken();
+		}
+		return root;
+	}
+
+	private FilterNode parseExpression() {
+		List<FilterNode> operands = new ArrayList<FilterNode>();
+		operands.add(parseConjunction());
+		while (isToken("or") || isToken("||")) {
+			nextToken();
+			operands.add(parseConjunction());
+		}
+		if (operands.size() == 1) return operands.get(0);
+		return new FilterNode.Or(operands.toArray(new FilterNode[0]));
+	}
+
+	private FilterNode parseConjunction() {
+		List<FilterNode> operands = new ArrayList<FilterNode>();
+		operands.add(parseNegation());
+		while (isToken("and") || isToken("&&")) {
+			nextToken();
+			operands.add(parseNegation());
+		}
+		if (operands.size() == 1) return operands.get(0);
+		return new FilterNode.And(operands.toArray(new FilterNode[0]));
+	}
+
+	private FilterNode parseNegation() {
+		if (isToken("not") || isToken("!")) {
+			nextToken();
+			return new FilterNode.Not(parseNegation());
+		}
+		return parsePrimary();
+	}
+
+	private FilterNode parsePrimary() {
+		if (this.tokenType == TOKEN_LEFT_PAREN) {
+			nextToken();
+			FilterNode node = parseExpression();
+			if (this.tokenType != TOKEN_RIGHT_PAREN) throw unexpectedToken();
+			nextToken();
+			return node;
+		}
+		if (this.tokenType != TOKEN_WORD) throw unexpectedToken();
+
+		String name = this.token;
+		int nameStart = this.tokenStart;
+		nextToken();
+		boolean compared = (this.tokenType == TOKEN_OPERATOR
+		                    && !(isToken("!")) && !(isToken("&&"))
+		                    && !(isToken("||")));
+
+		if (name.equals(URI_PATH_FIELD)) {
+			return parseUriPath();
+		}
+		for (int i = 0; i < FIELD_PAIRS.length; i += 3) {
+			if (FIELD_PAIRS[i].equals(name)) {
+				if (!(compared)) {
+					throw syntaxError(nameStart, String.format(
+							ERR_NOT_A_FLAG, name));
+				}
+				return parsePairComparison(name,
+						(FilterField) FIELD_PAIRS[i + 1],
+						(FilterField) FIELD_PAIRS[i + 2]);
+			}
+		}
+
+		FilterField field = FilterField.fromName(name);
+		if (field == null) {
+			throw syntaxError(nameStart, String.format(
+					ERR_UNKNOWN_FIELD, name));
+		}
+		if (field.isFlag()) {
+			if (compared) {
+				throw syntaxError(nameStart, String.format(
+						ERR_FLAG_COMPARED, name));
+			}
+			return new FilterNode.Flag(field);
+		}
+		if (!(compared)) {
+			throw syntaxError(nameStart, String.format(
+					ERR_NOT_A_FLAG, name));
+		}
+		int operator = parseOperator();
+		return new FilterNode.Comparison(field, operator, parseValue(field));
+	}
+
+	private FilterNode parsePairComparison(String name, FilterField source,
+	                                       FilterField destination)
+	{
+		int operator = parseOperator();
+		int valueStart = this.tokenStart;
+		long value = parseValue(source);
+		if (operator == FilterNode.OP_NE) {
+			/* neither the source nor the destination */
+			return new FilterNode.Not(new FilterNode.Or(new FilterNode[] {
+				new FilterNode.Comparison(source, FilterNode.OP_EQ, value),
+				new FilterNode.Comparison(destination, FilterNode.OP_EQ, value)
+			}));
+		}
+		if (value == FilterField.ABSENT) {
+			throw syntaxError(valueStart, String.format(
+					ERR_BAD_VALUE, this.token, name));
+		}
+		return new FilterNode.Or(new FilterNode[] {
+			new FilterNode.Comparison(source, operator, value),
+			new FilterNode.Comparison(destination, operator, value)
+		});
+	}
+
+	private FilterNode parseUriPath() {
+		int operator = parseOperator();
+		if (operator != FilterNode.OP_EQ && operator != FilterNode.OP_NE) {
+			throw unexpectedToken();
+		}
+		if (this.tokenType != TOKEN_STRING) {
+			throw syntaxError(this.tokenStart, String.format(
+					ERR_STRING_EXPECTED, URI_PATH_FIELD));
+		}
+		String path = this.token;
+		nextToken();
+		return new FilterNode.UriPath(path, operator == FilterNode.OP_EQ);
+	}
+
+	private int parseOperator() {
+		if (this.tokenType != TOKEN_OPERATOR) throw unexpectedToken();
+		int operator;
+		if (isToken("==") || isToken("=")) {
+			operator = FilterNode.OP_EQ;
+		} else if (isToken("!=")) {
+			operator = FilterNode.OP_NE;
+		} else if (isToken("<")) {
+			operator = FilterNode.OP_LT;
+		} else if (isToken("<=")) {
+			operator = FilterNode.OP_LE;
+		} else if (isToken(">")) {
+			operator = FilterNode.OP_GT;
+		} else if (isToken(">=")) {
+			operator = FilterNode.OP_GE;
+		} else {
+			throw unexpectedToken();
+		}
+		nextToken();
+		return operator;
+	}
+
+	/**
+	 * Parse the value compared with the given field.
+	 */
+	private long parseValue(FilterField field) {
+		if (this.tokenType != TOKEN_WORD) throw unexpectedToken();
+		String word = this.token;
+		long value = field.getSymbolValue(word);
+		if (value == FilterField.ABSENT) {
+			value = parseNumber(word, field == FilterField.TIME);
+		}
+		if (value == FilterField.ABSENT) {
+			throw syntaxError(this.tokenStart, String.format(
+					ERR_BAD_VALUE, word, field.getName()));
+		}
+		nextToken();
+		return value;
+	}
+
+	/**
+	 * Parse a numeric literal.
+	 *
+	 * @param time <code>true</code> for timestamps (in seconds,
+	 *             converted into nanoseconds).
+	 * @return the value, or <code>ABSENT</code> if the literal is invalid.
+	 */
+	private static long parseNumber(String word, boolean time) {
+		try {
+			if (word.indexOf(':') >= 0) {
+				/* extended address */
+				String[] bytes = word.split(":", -1);
+				if (bytes.length != 8) return FilterField.ABSENT;
+				long value = 0L;
+				for (String b: bytes) {
+					if (b.isEmpty() || b.length() > 2) return FilterField.ABSENT;
+					value = (value << 8) | Integer.parseInt(b, 16);
+				}
+				return value;
+			}
+			if (word.startsWith("0x") || word.startsWith("0X")) {
+				return Long.parseUnsignedLong(word.substring(2), 16);
+			}
+			int dot = word.indexOf('.');
+			if (!(time)) {
+				return (dot < 0 ? Long.parseLong(word) : FilterField.ABSENT);
+			}
+			if (dot < 0) return Long.parseLong(word) * 1000000000L;
+			String fraction = word.substring(dot + 1);
+			if (fraction.length() > 9) return FilterField.ABSENT;
+			long nanos = (fraction.isEmpty() ? 0L : Long.parseLong(fraction));
+			for (int i = fraction.length(); i < 9; i++) nanos *= 10;
+			return Long.parseLong(word.substring(0, dot)) * 1000000000L + nanos;
+		} catch (NumberFormatException exc) {
+			return FilterField.ABSENT;
+		}
+	}
+
+	///*** ANALYSE LEXICALE ***///
+
+	private boolean isToken(String text) {
+		return (this.tokenType == TOKEN_WORD
+		        || this.tokenType == TOKEN_OPERATOR)
+		       && this.token.equals(text);
+	}
+
+	private void nextToken() {
+		while (this.pos < this.text.length()
+		       && Character.isWhitespace(this.text.charAt(this.pos)))
+		{
+			this.pos++;
+		}
+		this.tokenStart = this.pos;
+		if (this.pos >= this.text.length()) {
+			this.tokenType = TOKEN_END;
+			this.token = "";
+			return;
+		}
+
+		char c = this.text.charAt(this.pos);
+		if (c == '(' || c == ')') {
+			this.tokenType = (c == '(' ? TOKEN_LEFT_PAREN : TOKEN_RIGHT_PAREN);
+			this.token = String.valueOf(c);
+			this.pos++;
+		} else if (c == '"') {
+			readString();
+		} else if (isWordChar(c)) {
+			int start = this.pos;
+			while (this.pos < this.text.length()
+			       && isWordChar(this.text.charAt(this.pos)))
+			{
+				this.pos++;
+			}
+			this.tokenType = TOKEN_WORD;
+			this.token = this.text.substring(start, this.pos);
+		} else {
+			readOperator(c);
+		}
+	}
+
+	private void readString() {
+		StringBuilder value = new StringBuilder();
+		this.pos++;
+		while (true) {
+			if (this.pos >= this.text.length()) {
+				throw syntaxError(this.tokenStart, ERR_UNTERMINATED_STRING);
+			}
+			char c = this.text.charAt(this.pos++);
+			if (c == '"') break;
+			if (c == '\\' && this.pos < this.text.length()) {
+				c = this.text.charAt(this.pos++);
+			}
+			value.append(c);
+		}
+		this.tokenType = TOKEN_STRING;
+		this.token = value.toString();
+	}
+
+	private void readOperator(char c) {
+		char next = (this.pos + 1 < this.text.length() ?
+		             this.text.charAt(this.pos + 1) : '\0');
+		String op;
+		if ((c == '=' || c == '!' || c == '<' || c == '>') && next == '=') {
+			op = new String(new char[] { c, next });
+		} else if ((c == '&' && next == '&') || (c == '|' && next == '|')) {
+			op = new String(new char[] { c, next });
+		} else if (c == '=' || c == '!' || c == '<' || c == '>') {
+			op = String.valueOf(c);
+		} else {
+			throw syntaxError(this.pos, String.format(
+					ERR_UNEXPECTED_TOKEN, String.valueOf(c)));
+		}
+		this.tokenType = TOKEN_OPERATOR;
+		this.token = op;
+		this.pos += op.length();
+	}
+
+	private static boolean isWordChar(char c) {
+		return (Character.isLetterOrDigit(c) || c == '.' || c == '_'
+		        || c == '-' || c == ':');
+	}
+
+	///*** ERREURS ***///
+
+	private IllegalArgumentException unexpectedToken() {
+		if (this.tokenType == TOKEN_END) {
+			return syntaxError(this.tokenStart, ERR_UNEXPECTED_END);
+		}
+		return syntaxError(this.tokenStart, String.format(
+				ERR_UNEXPECTED_TOKEN, this.token));
+	}
+
+	private IllegalArgumentException syntaxError(int position,
+	                                             String detail)
+	{
+		return new IllegalArgumentException(String.format(
+				ERR_SYNTAX,
+				position, detail));
+	}
+
+}
@@ -0,0 +1,145 @@
+package fr.inria.iotlab.sniffer.filter;
+
+import java.io.IOException;
+
+import fr.inria.iotlab.sniffer.decoder.Dissector;
+import fr.inria.iotlab.sniffer.decoder.DissectorChain;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+import fr.inria.iotlab.sniffer.parser.PacketFilter;
+
+/**
+ * Packet filter defined by a textual expression, such as:
+ * <pre>
+ * time &gt;= 1432112233.5 and len &gt; 20 and addr.src == 0x1234
+ * frame.type == data and not secured and pan.dst == 0xabcd
+ * coap and coap.code == get and coap.uri == "/sensors/temp"
+ * </pre>
+ * The expression is compiled once into a tree of nodes, evaluated
+ * directly on the parser's <code>PacketCursor</code>. Tests on the record
+ * header (<tt>time</tt>, <tt>len</tt>, <tt>origlen</tt>,
+ * <tt>truncated</tt>) are evaluated first, so that the data of the
+ * records they reject is never read; the packet data is decoded, layer
+ * by layer and only as far as needed, by a <code>DissectorChain</code>
+ * chosen from the network type of the capture.
+ * <br/>
+ * The available fields are: <tt>time</tt> (in seconds), <tt>len</tt>,
+ * <tt>origlen</tt>, <tt>truncated</tt>; <tt>frame.type</tt>
+ * (<tt>beacon</tt>, <tt>data</tt>, <tt>ack</tt>, <tt>cmd</tt>),
+ * <tt>frame.version</tt>, <tt>frame.seq</tt>, <tt>secured</tt>,
+ * <tt>sec.level</tt>, <tt>ackreq</tt>, <tt>pan.src</tt>, <tt>pan.dst</tt>,
+ * <tt>pan</tt>, <tt>addr.src</tt>, <tt>addr.dst</tt>, <tt>addr</tt>;
+ * <tt>ipv6</tt>, <tt>frag</tt>, <tt>ipv6.nh</tt>, <tt>ipv6.hlim</tt>,
+ * <tt>udp</tt>, <tt>udp.srcport</tt>, <tt>udp.dstport</tt>,
+ * <tt>udp.port</tt>; <tt>rpl</tt>, <tt>rpl.code</tt> (<tt>dis</tt>,
+ * <tt>dio</tt>, <tt>dao</tt>, <tt>dao-ack</tt>), <tt>rpl.instance</tt>,
+ * <tt>rpl.rank</tt>; <tt>coap</tt>, <tt>coap.type</tt> (<tt>con</tt>,
+ * <tt>non</tt>, <tt>ack</tt>, <tt>rst</tt>), <tt>coap.code</tt>
+ * (<tt>get</tt>, <tt>post</tt>, <tt>put</tt>, <tt>delete</tt>),
+ * <tt>coap.mid</tt>, <tt>coap.uri</tt>. Comparisons on fields absent
+ * from a packet are false.
+ * <br/>
+ * As dissectors keep state between packets (e.g.: for fragment
+ * reassembly), a filter instance must only be used by a single parser;
+ * it is not thread-safe.
+ *
+ * @author KR
+ * @see fr.inria.iotlab.sniffer.parser.PCapFileParser#setPacketFilter(PacketFilter)
+ */
+public final class FilterExpression implements PacketFilter {
+
+	///*** ATTRIBUTS ***///
+
+	private final String expression;
+	private final FilterNode root;
+
+	/* packet being tested, and its decoding */
+	private PacketCursor cursor;
+	private DissectorChain chain;
+	private boolean packetDecoded;
+
+	///*** CONSTRUCTEURS ***///
+
+	private FilterExpression(String expression, FilterNode root) {
+		this.expression = expression;
+		this.root = root;
+	}
+
+	/**
+	 * Compile a filter expression.
+	 *
+	 * @param expression the text of the filter expression.
+	 * @return the compiled filter.
+	 * @throws IllegalArgumentException if <code>expression</code>
+	 *                                  is not a valid filter expression.
+	 */
+	public static FilterExpression compile(String expression)
+	throws IllegalArgumentException
+	{
+		return new FilterExpression(expression,
+		                            FilterCompiler.compile(expression));
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the text of the filter expression.
+	 */
+	public String getExpression() {
+		return this.expression;
+	}
+
+	/**
+	 * @return <code>true</code> if this filter only tests record headers
+	 *         (and thus never reads the packet data).
+	 */
+	public boolean isHeaderOnly() {
+		return this.root.isHeaderOnly();
+	}
+
+	@Override
+	public String toString() {
+		return this.expression;
+	}
+
+	///*** FILTRAGE ***///
+
+	@Override
+	public boolean accept(PacketCursor packet) throws IOException {
+		this.cursor = packet;
+		this.packetDecoded = false;
+		return this.root.eval(this);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * @return the cursor positioned on the packet being tested.
+	 */
+	PacketCursor getCursor() {
+		return this.cursor;
+	}
+
+	/**
+	 * Get the given layer of the packet being tested,
+	 * reading its data on first use.
+	 *
+	 * @return the layer, or <code>null</code> if the packet
+	 *         doesn't hold it.
+	 */
+	<T extends Dissector> T getLayer(Class<T> layerClass)
+	throws IOException
+	{
+		if (!(this.packetDecoded)) {
+			if (this.chain == null
+			    || this.chain.getNetworkType() != this.cursor.getNetworkType())
+			{
+				this.chain = DissectorChain.forNetworkType(
+						this.cursor.getNetworkType());
+			}
+			this.chain.setPacket(this.cursor);
+			this.packetDecoded = true;
+		}
+		return this.chain.getLayer(layerClass);
+	}
+
+}
@@ -0,0 +1,381 @@
+package fr.inria.iotlab.sniffer.filter;
+
+import java.io.IOException;
+
+import fr.inria.iotlab.sniffer.decoder.CoapMessage;
+import fr.inria.iotlab.sniffer.decoder.IEEE802154Frame;
+import fr.inria.iotlab.sniffer.decoder.RplMessage;
+import fr.inria.iotlab.sniffer.decoder.SixLowpanPacket;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+
+/**
+ * Fields that can be tested by filter expressions.
+ * <br/>
+ * Each field extracts a (non-negative) number from the current packet,
+ * or <code>ABSENT</code> if the packet doesn't hold the field. Header
+ * fields only use the record header, while the other ones need the
+ * packet data, decoded by the filter's <code>DissectorChain</code>.
+ * Flags are fields whose value is either 0 or 1.
+ *
+ * @author KR
+ */
+enum FilterField {
+
+	///*** EN-TETE D'ENREGISTREMENT ***///
+
+	/** Timestamp, in nanoseconds since the Unix epoch. */
+	TIME ("time", true, false) {
+		long get(FilterExpression ctx) {
+			PacketCursor c = ctx.getCursor();
+			return c.getTimestampSeconds() * 1000000000L
+			       + c.getTimestampFraction()
+			         * (c.hasNanosecondPrecision() ? 1L : 1000L);
+		}
+	},
+
+	/** Length of the packet data in the file. */
+	LENGTH ("len", true, false) {
+		long get(FilterExpression ctx) {
+			return ctx.getCursor().getPacketLength();
+		}
+	},
+
+	/** Original length of the packet. */
+	ORIGINAL_LENGTH ("origlen", true, false) {
+		long get(FilterExpression ctx) {
+			return ctx.getCursor().getOriginalPacketLength();
+		}
+	},
+
+	/** Flag: packet truncated in the file. */
+	TRUNCATED ("truncated", true, true) {
+		long get(FilterExpression ctx) {
+			PacketCursor c = ctx.getCursor();
+			return (c.getPacketLength() < c.getOriginalPacketLength() ? 1 : 0);
+		}
+	},
+
+	///*** IEEE 802.15.4 ***///
+
+	/** MAC frame type. */
+	FRAME_TYPE ("frame.type", false, false,
+	            "beacon", IEEE802154Frame.FRAME_TYPE_BEACON,
+	            "data", IEEE802154Frame.FRAME_TYPE_DATA,
+	            "ack", IEEE802154Frame.FRAME_TYPE_ACK,
+	            "cmd", IEEE802154Frame.FRAME_TYPE_MAC_COMMAND) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null ? mac.getFrameType() : ABSENT);
+		}
+	},
+
+	/** MAC frame version. */
+	FRAME_VERSION ("frame.version", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null ? mac.getFrameVersion() : ABSENT);
+		}
+	},
+
+	/** MAC sequence number. */
+	SEQUENCE_NUMBER ("frame.seq", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null && mac.hasSequenceNumber() ?
+			        mac.getSequenceNumber() : ABSENT);
+		}
+	},
+
+	/** Flag: secured MAC frame. */
+	SECURED ("secured", false, true) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null && mac.isSecurityEnabled() ? 1 : 0);
+		}
+	},
+
+	/** Flag: acknowledgment requested. */
+	ACK_REQUESTED ("ackreq", false, true) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null && mac.isAckRequested() ? 1 : 0);
+		}
+	},
+
+	/** MAC security level. */
+	SECURITY_LEVEL ("sec.level", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null ? mac.getSecurityLevel() : ABSENT);
+		}
+	},
+
+	/** Destination PAN ID. */
+	DESTINATION_PAN ("pan.dst", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null && mac.hasDestinationPanId() ?
+			        mac.getDestinationPanId() : ABSENT);
+		}
+	},
+
+	/** Source PAN ID (possibly deduced from the destination PAN ID). */
+	SOURCE_PAN ("pan.src", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			return (mac != null && (mac.hasSourcePanId()
+			                        || mac.hasDestinationPanId()) ?
+			        mac.getSourcePanId() : ABSENT);
+		}
+	},
+
+	/** Destination MAC address (short or extended). */
+	DESTINATION_ADDRESS ("addr.dst", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			if (mac == null) return ABSENT;
+			switch (mac.getDestinationAddressMode()) {
+			case IEEE802154Frame.ADDR_MODE_SHORT:
+				return mac.getDestinationShortAddress();
+			case IEEE802154Frame.ADDR_MODE_EXTENDED:
+				return mac.getDestinationExtendedAddress();
+			default:
+				return ABSENT;
+			}
+		}
+	},
+
+	/** Source MAC address (short or extended). */
+	SOURCE_ADDRESS ("addr.src", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			IEEE802154Frame mac = ctx.getLayer(IEEE802154Frame.class);
+			if (mac == null) return ABSENT;
+			switch (mac.getSourceAddressMode()) {
+			case IEEE802154Frame.ADDR_MODE_SHORT:
+				return mac.getSourceShortAddress();
+			case IEEE802154Frame.ADDR_MODE_EXTENDED:
+				return mac.getSourceExtendedAddress();
+			default:
+				return ABSENT;
+			}
+		}
+	},
+
+	///*** 6LOWPAN / IPV6 / UDP ***///
+
+	/** Flag: 6LoWPAN packet holding an IPv6 header. */
+	IPV6 ("ipv6", false, true) {
+		long get(FilterExpression ctx) throws IOException {
+			SixLowpanPacket ip = ctx.getLayer(SixLowpanPacket.class);
+			return (ip != null && ip.hasIPv6Header() ? 1 : 0);
+		}
+	},
+
+	/** Flag: 6LoWPAN fragment. */
+	FRAGMENT ("frag", false, true) {
+		long get(FilterExpression ctx) throws IOException {
+			SixLowpanPacket ip = ctx.getLayer(SixLowpanPacket.class);
+			return (ip != null && ip.isFragment() ? 1 : 0);
+		}
+	},
+
+	/** IPv6 upper-layer protocol. */
+	NEXT_HEADER ("ipv6.nh", false, false,
+	             "udp", SixLowpanPacket.NEXT_HEADER_UDP,
+	             "icmpv6", SixLowpanPacket.NEXT_HEADER_ICMPV6) {
+		long get(FilterExpression ctx) throws IOException {
+			SixLowpanPacket ip = ctx.getLayer(SixLowpanPacket.class);
+			return (ip != null && ip.hasIPv6Header() ?
+			        ip.getNextHeader() : ABSENT);
+		}
+	},
+
+	/** IPv6 hop limit. */
+	HOP_LIMIT ("ipv6.hlim", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			SixLowpanPacket ip = ctx.getLayer(SixLowpanPacket.class);
+			return (ip != null && ip.hasIPv6Header() ?
+			        ip.getHopLimit() : ABSENT);
+		}
+	},
+
+	/** Flag: UDP datagram. */
+	UDP ("udp", false, true) {
+		long get(FilterExpression ctx) throws IOException {
+			SixLowpanPacket ip = ctx.getLayer(SixLowpanPacket.class);
+			return (ip != null && ip.isUdp() ? 1 : 0);
+		}
+	},
+
+	/** UDP source port. */
+	UDP_SOURCE_PORT ("udp.srcport", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			SixLowpanPacket ip = ctx.getLayer(SixLowpanPacket.class);
+			return (ip != null && ip.isUdp() ? ip.getSourcePort() : ABSENT);
+		}
+	},
+
+	/** UDP destination port. */
+	UDP_DESTINATION_PORT ("udp.dstport", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			SixLowpanPacket ip = ctx.getLayer(SixLowpanPacket.class);
+			return (ip != null && ip.isUdp() ?
+			        ip.getDestinationPort() : ABSENT);
+		}
+	},
+
+	///*** RPL ***///
+
+	/** Flag: RPL control message. */
+	RPL ("rpl", false, true) {
+		long get(FilterExpression ctx) throws IOException {
+			return (ctx.getLayer(RplMessage.class) != null ? 1 : 0);
+		}
+	},
+
+	/** RPL message code. */
+	RPL_CODE ("rpl.code", false, false,
+	          "dis", RplMessage.CODE_DIS,
+	          "dio", RplMessage.CODE_DIO,
+	          "dao", RplMessage.CODE_DAO,
+	          "dao-ack", RplMessage.CODE_DAO_ACK) {
+		long get(FilterExpression ctx) throws IOException {
+			RplMessage rpl = ctx.getLayer(RplMessage.class);
+			return (rpl != null ? rpl.getCode() : ABSENT);
+		}
+	},
+
+	/** RPL instance ID. */
+	RPL_INSTANCE ("rpl.instance", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			RplMessage rpl = ctx.getLayer(RplMessage.class);
+			return (rpl != null && rpl.getCode() != RplMessage.CODE_DIS ?
+			        rpl.getInstanceId() : ABSENT);
+		}
+	},
+
+	/** RPL rank (DIO messages). */
+	RPL_RANK ("rpl.rank", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			RplMessage rpl = ctx.getLayer(RplMessage.class);
+			return (rpl != null && rpl.getCode() == RplMessage.CODE_DIO ?
+			        rpl.getRank() : ABSENT);
+		}
+	},
+
+	///*** COAP ***///
+
+	/** Flag: CoAP message. */
+	COAP ("coap", false, true) {
+		long get(FilterExpression ctx) throws IOException {
+			return (ctx.getLayer(CoapMessage.class) != null ? 1 : 0);
+		}
+	},
+
+	/** CoAP message type. */
+	COAP_TYPE ("coap.type", false, false,
+	           "con", CoapMessage.TYPE_CONFIRMABLE,
+	           "non", CoapMessage.TYPE_NON_CONFIRMABLE,
+	           "ack", CoapMessage.TYPE_ACKNOWLEDGEMENT,
+	           "rst", CoapMessage.TYPE_RESET) {
+		long get(FilterExpression ctx) throws IOException {
+			CoapMessage coap = ctx.getLayer(CoapMessage.class);
+			return (coap != null ? coap.getType() : ABSENT);
+		}
+	},
+
+	/** CoAP message code. */
+	COAP_CODE ("coap.code", false, false,
+	           "get", 1, "post", 2, "put", 3, "delete", 4) {
+		long get(FilterExpression ctx) throws IOException {
+			CoapMessage coap = ctx.getLayer(CoapMessage.class);
+			return (coap != null ? coap.getCode() : ABSENT);
+		}
+	},
+
+	/** CoAP message ID. */
+	COAP_MESSAGE_ID ("coap.mid", false, false) {
+		long get(FilterExpression ctx) throws IOException {
+			CoapMessage coap = ctx.getLayer(CoapMessage.class);
+			return (coap != null ? coap.getMessageId() : ABSENT);
+		}
+	};
+
+	///*** CONSTANTES ***///
+
+	/** Value of fields absent from the current packet. */
+	static final long ABSENT = Long.MIN_VALUE;
+
+	///*** ATTRIBUTS ***///
+
+	private final String name;
+	private final boolean headerOnly;
+	private final boolean flag;
+	private final Object[] symbols;
+
+	private FilterField(String name, boolean headerOnly, boolean flag,
+	                    Object... symbols)
+	{
+		this.name = name;
+		this.headerOnly = headerOnly;
+		this.flag = flag;
+		this.symbols = symbols;
+	}
+
+	///*** METHODES ***///
+
+	/**
+	 * Extract the field from the current packet of the given filter.
+	 *
+	 * @return the value of the field, or <code>ABSENT</code>.
+	 */
+	abstract long get(FilterExpression ctx) throws IOException;
+
+	/**
+	 * @return the name of the field in filter expressions.
+	 */
+	String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return <code>true</code> if the field is extracted from
+	 *         the record header alone.
+	 */
+	boolean isHeaderOnly() {
+		return this.headerOnly;
+	}
+
+	/**
+	 * @return <code>true</code> if the field is a flag.
+	 */
+	boolean isFlag() {
+		return this.flag;
+	}
+
+	/**
+	 * @return the value of the given symbolic constant for this field
+	 *         (e.g.: <tt>data</tt> for <tt>frame.type</tt>),
+	 *         or <code>ABSENT</code> if there is no such constant.
+	 */
+	long getSymbolValue(String symbol) {
+		for (int i = 0; i < this.symbols.length; i += 2) {
+			if (this.symbols[i].equals(symbol)) {
+				return ((Integer) this.symbols[i + 1]).longValue();
+			}
+		}
+		return ABSENT;
+	}
+
+	/**
+	 * @return the field with the given name,
+	 *         or <code>null</code> if there is none.
+	 */
+	static FilterField fromName(String name) {
+		for (FilterField field: values()) {
+			if (field.name.equals(name)) return field;
+		}
+		return null;
+	}
+
+}
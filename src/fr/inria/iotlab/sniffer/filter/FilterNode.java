@@ -0,0 +1,229 @@
+package fr.inria.iotlab.sniffer.filter;
+
+import java.io.IOException;
+
+import fr.inria.iotlab.sniffer.decoder.CoapMessage;
+
+/**
+ * Node of the tree into which filter expressions are compiled.
+ * <br/>
+ * Each node evaluates its part of the expression directly on the current
+ * packet of the filter: there is no intermediate representation to
+ * interpret at run time. The operands of conjunctions and disjunctions
+ * are ordered so that header-only tests come first: thanks to
+ * short-circuit evaluation, the packet data is then only read (and
+ * decoded) when the record header alone doesn't decide.
+ *
+ * @author KR
+ */
+abstract class FilterNode {
+
+	///*** OPERATEURS DE COMPARAISON ***///
+
+	static final int OP_EQ = 0;
+	static final int OP_NE = 1;
+	static final int OP_LT = 2;
+	static final int OP_LE = 3;
+	static final int OP_GT = 4;
+	static final int OP_GE = 5;
+
+	///*** METHODES ***///
+
+	/**
+	 * Evaluate this node on the current packet of the given filter.
+	 */
+	abstract boolean eval(FilterExpression ctx) throws IOException;
+
+	/**
+	 * @return <code>true</code> if this node only tests
+	 *         the record header.
+	 */
+	abstract boolean isHeaderOnly();
+
+	///*** NOEUDS ***///
+
+	/**
+	 * Conjunction of several nodes.
+	 */
+	static final class And extends FilterNode {
+
+		private final FilterNode[] operands;
+
+		And(FilterNode[] operands) {
+			this.operands = headerOnlyFirst(operands);
+		}
+
+		boolean eval(FilterExpression ctx) throws IOException {
+			for (FilterNode operand: this.operands) {
+				if (!(operand.eval(ctx))) return false;
+			}
+			return true;
+		}
+
+		boolean isHeaderOnly() {
+			return allHeaderOnly(this.operands);
+		}
+
+	}
+
+	/**
+	 * Disjunction of several nodes.
+	 */
+	static final class Or extends FilterNode {
+
+		private final FilterNode[] operands;
+
+		Or(FilterNode[] operands) {
+			this.operands = headerOnlyFirst(operands);
+		}
+
+		boolean eval(FilterExpression ctx) throws IOException {
+			for (FilterNode operand: this.operands) {
+				if (operand.eval(ctx)) return true;
+			}
+			return false;
+		}
+
+		boolean isHeaderOnly() {
+			return allHeaderOnly(this.operands);
+		}
+
+	}
+
+	/**
+	 * Negation of a node.
+	 */
+	static final class Not extends FilterNode {
+
+		private final FilterNode operand;
+
+		Not(FilterNode operand) {
+			this.operand = operand;
+		}
+
+		boolean eval(FilterExpression ctx) throws IOException {
+			return !(this.operand.eval(ctx));
+		}
+
+		boolean isHeaderOnly() {
+			return this.operand.isHeaderOnly();
+		}
+
+	}
+
+	/**
+	 * Comparison of a field with a constant. Values are compared as
+	 * unsigned numbers (e.g.: for extended addresses); comparisons
+	 * on fields absent from the packet are always false.
+	 */
+	static final class Comparison extends FilterNode {
+
+		private final FilterField field;
+		private final int operator;
+		private final long value;
+
+		Comparison(FilterField field, int operator, long value) {
+			this.field = field;
+			this.operator = operator;
+			this.value = value;
+		}
+
+		boolean eval(FilterExpression ctx) throws IOException {
+			long fieldValue = this.field.get(ctx);
+			if (fieldValue == FilterField.ABSENT) return false;
+			int cmp = Long.compareUnsigned(fieldValue, this.value);
+			switch (this.operator) {
+			case OP_EQ:
+				return (cmp == 0);
+			case OP_NE:
+				return (cmp != 0);
+			case OP_LT:
+				return (cmp < 0);
+			case OP_LE:
+				return (cmp <= 0);
+			case OP_GT:
+				return (cmp > 0);
+			default:
+				return (cmp >= 0);
+			}
+		}
+
+		boolean isHeaderOnly() {
+			return this.field.isHeaderOnly();
+		}
+
+	}
+
+	/**
+	 * Test of a flag.
+	 */
+	static final class Flag extends FilterNode {
+
+		private final FilterField field;
+
+		Flag(FilterField field) {
+			this.field = field;
+		}
+
+		boolean eval(FilterExpression ctx) throws IOException {
+			return (this.field.get(ctx) == 1);
+		}
+
+		boolean isHeaderOnly() {
+			return this.field.isHeaderOnly();
+		}
+
+	}
+
+	/**
+	 * Comparison of the path of CoAP messages with a constant
+	 * (always false for other packets).
+	 */
+	static final class UriPath extends FilterNode {
+
+		private final String path;
+		private final boolean equal;
+
+		UriPath(String path, boolean equal) {
+			this.path = path;
+			this.equal = equal;
+		}
+
+		boolean eval(FilterExpression ctx) throws IOException {
+			CoapMessage coap = ctx.getLayer(CoapMessage.class);
+			if (coap == null) return false;
+			return (coap.uriPathEquals(this.path) == this.equal);
+		}
+
+		boolean isHeaderOnly() {
+			return false;
+		}
+
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * @return the given nodes, header-only ones first
+	 *         (keeping their relative order otherwise).
+	 */
+	private static FilterNode[] headerOnlyFirst(FilterNode[] nodes) {
+		FilterNode[] sorted = new FilterNode[nodes.length];
+		int pos = 0;
+		for (FilterNode node: nodes) {
+			if (node.isHeaderOnly()) sorted[pos++] = node;
+		}
+		for (FilterNode node: nodes) {
+			if (!(node.isHeaderOnly())) sorted[pos++] = node;
+		}
+		return sorted;
+	}
+
+	private static boolean allHeaderOnly(FilterNode[] nodes) {
+		for (FilterNode node: nodes) {
+			if (!(node.isHeaderOnly())) return false;
+		}
+		return true;
+	}
+
+}
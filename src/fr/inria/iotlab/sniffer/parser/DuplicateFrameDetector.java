@@ -0,0 +1,574 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Detector of the frames received several times, by different sniffers,
+ * in a merged capture (e.g.: when several IoT-LAB sniffer nodes overhear
+ * the same transmission).
+ * <br/>
+ * Frames are identified by a 64-bit hash of their bytes and their length:
+ * a frame is a duplicate when an identical frame has been received by
+ * another sniffer less than a time window before (the timestamps of the
+ * sniffers being slightly skewed). An identical frame received again by
+ * the same sniffer is considered as a new transmission (e.g.: a MAC-level
+ * retransmission).
+ * <br/>
+ * Recent frames are kept in an open-addressing hash table (with linear
+ * probing) and in a FIFO ring giving their expiry order, both made of
+ * primitive arrays allocated once: frames leave them when they get older
+ * than the time window, or when the maximal number of frames is reached
+ * (the oldest one being then evicted). For each frame, the set of
+ * sniffers which received it is recorded as a bit set; once a frame
+ * leaves the window, its complete reception set is given to the
+ * <code>ReceptionListener</code>, if any.
+ * <br/>
+ * Frames must be given in (roughly) increasing time order, as produced
+ * by <code>PCapFileMerger</code>. This class is not thread-safe.
+ *
+ * @author KR
+ * @see PCapFileMerger
+ */
+public final class DuplicateFrameDetector {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Listener notified of the complete reception sets of the frames
+	 * leaving the time window.
+	 */
+	public interface ReceptionListener {
+
+		/**
+		 * Called when a frame leaves the time window: no more receptions
+		 * of that frame will be recorded.
+		 *
+		 * @param receptions the receptions of the frame: a shared view,
+		 *                   only valid during this call.
+		 */
+		void receptionsCompleted(ReceptionSet receptions);
+
+	}
+
+	/**
+	 * View on the receptions of a frame: the set of the sniffers which
+	 * received it, and the properties of its first reception.
+	 * <br/>
+	 * Instances are shared views, only valid until the detector
+	 * is used again.
+	 */
+	public final class ReceptionSet {
+
+		private int entry;
+
+		ReceptionSet() {
+			this.entry = -1;
+		}
+
+		/**
+		 * @return the number of the frame (in the order of their first
+		 *         reception, from 0).
+		 */
+		public long getFrameNumber() {
+			return frameNumbers[this.entry];
+		}
+
+		/**
+		 * @return the time of the first reception of the frame.
+		 */
+		public long getFirstTime() {
+			return firstTimes[this.entry];
+		}
+
+		/**
+		 * @return the sniffer which received the frame first.
+		 */
+		public int getFirstSniffer() {
+			return firstSniffers[this.entry];
+		}
+
+		/**
+		 * @return the length of the frame, in bytes.
+		 */
+		public int getFrameLength() {
+			return frameLengths[this.entry];
+		}
+
+		/**
+		 * @return the number of sniffers which received the frame.
+		 */
+		public int getReceptionCount() {
+			return receptionCounts[this.entry];
+		}
+
+		/**
+		 * @param sniffer the number of a sniffer.
+		 * @return <code>true</code> if that sniffer received the frame.
+		 */
+		public boolean contains(int sniffer) {
+			checkSniffer(sniffer);
+			int base = this.entry * receiverWords;
+			return (receivers[base + (sniffer >>> 6)]
+			        & (1L << sniffer)) != 0;
+		}
+
+		/**
+		 * Iterate over the sniffers which received the frame.
+		 *
+		 * @param from the first sniffer number to consider.
+		 * @return the first sniffer, at or after <code>from</code>,
+		 *         which received the frame, or <code>-1</code>
+		 *         if there is none.
+		 */
+		public int nextSniffer(int from) {
+			int base = this.entry * receiverWords;
+			for (int word = from >>> 6; word < receiverWords; word++) {
+				long bits = receivers[base + word];
+				if (word == (from >>> 6)) bits &= (-1L << from);
+				if (bits != 0) {
+					return (word << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			return -1;
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Default time window, in nanoseconds (i.e.: 50 ms). */
+	public static final long DEFAULT_WINDOW = 50000000L;
+
+	/** Default maximal number of frames in the window. */
+	public static final int DEFAULT_MAX_FRAMES = 65536;
+
+	/* constants of the hash function */
+	private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+	private static final long HASH_MULTIPLIER_1 = 0xC2B2AE3D27D4EB4FL;
+	private static final long HASH_MULTIPLIER_2 = 0x165667B19E3779F9L;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_WINDOW =
+			"Time window must be strictly positive (got %d)!";
+	private static final String ERR_BAD_MAX_FRAMES =
+			"Maximal number of frames must be strictly positive (got %d)!";
+	private static final String ERR_BAD_SNIFFER_COUNT =
+			"Number of sniffers must be strictly positive (got %d)!";
+	private static final String ERR_BAD_SNIFFER =
+			"Sniffer #%d is out of range (%d sniffers)!";
+	private static final String ERR_NO_CURRENT_FRAME =
+			"No frame has been observed yet!";
+
+	///*** ATTRIBUTS ***///
+
+	private final long window;
+	private final int maxFrames;
+	private final int snifferCount;
+	private final int receiverWords;
+
+	/* hash table: entry number + 1 for each slot (0 for empty slots) */
+	private final int[] table;
+	private final int tableMask;
+
+	/* entries (frames), as parallel arrays used as a FIFO ring */
+	private final long[] hashes;
+	private final int[] frameLengths;
+	private final long[] firstTimes;
+	private final int[] firstSniffers;
+	private final long[] frameNumbers;
+	private final int[] receptionCounts;
+	private final int[] tableSlots;
+	private final long[] receivers;
+	private int oldestEntry;
+	private int entryCount;
+
+	/* statistics */
+	private long framesObserved;
+	private long uniqueFrames;
+	private long evictedFrames;
+	private final long[] framesReceived;
+	private final long[] duplicatesReceived;
+
+	/* last observation, and listener */
+	private final ReceptionSet currentFrame;
+	private final ReceptionSet completedFrame;
+	private boolean currentDuplicate;
+	private ReceptionListener listener;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a duplicate frame detector with the default
+	 * time window and maximal number of frames.
+	 *
+	 * @param snifferCount number of sniffers (i.e.: of merged captures).
+	 * @throws IllegalArgumentException if <code>snifferCount</code> is
+	 *                                  not strictly positive.
+	 */
+	public DuplicateFrameDetector(int snifferCount)
+	throws IllegalArgumentException
+	{
+		this(snifferCount, DEFAULT_WINDOW, DEFAULT_MAX_FRAMES);
+	}
+
+	/**
+	 * Constructor for a duplicate frame detector.
+	 *
+	 * @param snifferCount number of sniffers (i.e.: of merged captures).
+	 * @param window time window, in the unit of the times given
+	 *               to <code>observe()</code> (nanoseconds for
+	 *               <code>PCapFileMerger</code>).
+	 * @param maxFrames maximal number of frames kept in the window.
+	 * @throws IllegalArgumentException if one of the parameters is not
+	 *                                  strictly positive.
+	 */
+	public DuplicateFrameDetector(int snifferCount, long window,
+	                              int maxFrames)
+	throws IllegalArgumentException
+	{
+		if (snifferCount <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_SNIFFER_COUNT,
+					snifferCount));
+		}
+		if (window <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_WINDOW,
+					window));
+		}
+		if (maxFrames <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_MAX_FRAMES,
+					maxFrames));
+		}
+		this.window = window;
+		this.maxFrames = maxFrames;
+		this.snifferCount = snifferCount;
+		this.receiverWords = (snifferCount + 63) >>> 6;
+
+		/* load factor of at most 1/2 */
+		int tableSize = Integer.highestOneBit(maxFrames) << 2;
+		this.table = new int[tableSize];
+		this.tableMask = tableSize - 1;
+
+		this.hashes = new long[maxFrames];
+		this.frameLengths = new int[maxFrames];
+		this.firstTimes = new long[maxFrames];
+		this.firstSniffers = new int[maxFrames];
+		this.frameNumbers = new long[maxFrames];
+		this.receptionCounts = new int[maxFrames];
+		this.tableSlots = new int[maxFrames];
+		this.receivers = new long[maxFrames * this.receiverWords];
+
+		this.framesReceived = new long[snifferCount];
+		this.duplicatesReceived = new long[snifferCount];
+		this.currentFrame = new ReceptionSet();
+		this.completedFrame = new ReceptionSet();
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the time window.
+	 */
+	public long getWindow() {
+		return this.window;
+	}
+
+	/**
+	 * @return the maximal number of frames kept in the window.
+	 */
+	public int getMaxFrames() {
+		return this.maxFrames;
+	}
+
+	/**
+	 * @return the number of sniffers.
+	 */
+	public int getSnifferCount() {
+		return this.snifferCount;
+	}
+
+	/**
+	 * Set the listener notified of the complete reception sets
+	 * of the frames leaving the window.
+	 *
+	 * @param listener the listener, or <code>null</code> for none.
+	 */
+	public void setReceptionListener(ReceptionListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the number of frames observed so far
+	 *         (duplicates included).
+	 */
+	public long getFramesObserved() {
+		return this.framesObserved;
+	}
+
+	/**
+	 * @return the number of distinct frames observed so far.
+	 */
+	public long getUniqueFrames() {
+		return this.uniqueFrames;
+	}
+
+	/**
+	 * @return the number of duplicates observed so far.
+	 */
+	public long getDuplicateFrames() {
+		return this.framesObserved - this.uniqueFrames;
+	}
+
+	/**
+	 * @return the number of frames which had to be removed before the end
+	 *         of their window, because of the maximal number of frames.
+	 */
+	public long getEvictedFrames() {
+		return this.evictedFrames;
+	}
+
+	/**
+	 * @param sniffer the number of a sniffer.
+	 * @return the number of frames received by that sniffer.
+	 */
+	public long getFramesReceived(int sniffer) {
+		checkSniffer(sniffer);
+		return this.framesReceived[sniffer];
+	}
+
+	/**
+	 * @param sniffer the number of a sniffer.
+	 * @return the number of frames received by that sniffer
+	 *         which had already been received by another one.
+	 */
+	public long getDuplicatesReceived(int sniffer) {
+		checkSniffer(sniffer);
+		return this.duplicatesReceived[sniffer];
+	}
+
+	///*** DETECTION ***///
+
+	/**
+	 * Observe the current packet of the given merger.
+	 *
+	 * @return <code>true</code> if the packet is a duplicate.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 * @see #observe(long, int, ByteBuffer)
+	 */
+	public boolean observe(PCapFileMerger merger) {
+		return observe(merger.getTime(), merger.getInputIndex(),
+		               merger.getPacketData());
+	}
+
+	/**
+	 * Observe a frame received by a sniffer.
+	 *
+	 * @param time the time of the reception.
+	 * @param sniffer the number of the sniffer.
+	 * @param frame the frame, from its position to its limit
+	 *              (the buffer itself is left unchanged).
+	 * @return <code>true</code> if the frame is a duplicate: an identical
+	 *         frame has been received by another sniffer less than the
+	 *         time window before; <code>false</code> if it is a new one.
+	 * @throws IllegalArgumentException if <code>sniffer</code>
+	 *                                  is out of range.
+	 */
+	public boolean observe(long time, int sniffer, ByteBuffer frame)
+	throws IllegalArgumentException
+	{
+		checkSniffer(sniffer);
+		expire(time);
+		this.framesObserved++;
+		this.framesReceived[sniffer]++;
+
+		int length = frame.remaining();
+		long hash = hash(frame);
+		int slot = (int) hash & this.tableMask;
+		while (true) {
+			int entry = this.table[slot] - 1;
+			if (entry < 0) break;
+			if (this.hashes[entry] == hash
+			    && this.frameLengths[entry] == length)
+			{
+				int bit = this.receiverWords * entry + (sniffer >>> 6);
+				long mask = 1L << sniffer;
+				if ((this.receivers[bit] & mask) == 0) {
+					/* received by another sniffer */
+					this.receivers[bit] |= mask;
+					this.receptionCounts[entry]++;
+					this.duplicatesReceived[sniffer]++;
+					this.currentFrame.entry = entry;
+					this.currentDuplicate = true;
+					return true;
+				}
+				/* same sniffer: new transmission, replacing the old one */
+				removeFromTable(slot);
+				break;
+			}
+			slot = (slot + 1) & this.tableMask;
+		}
+
+		addEntry(hash, length, time, sniffer);
+		this.uniqueFrames++;
+		this.currentDuplicate = false;
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if the last observed frame
+	 *         was a duplicate.
+	 * @throws IllegalStateException if no frame has been observed.
+	 */
+	public boolean isDuplicate() {
+		getReceptionSet();
+		return this.currentDuplicate;
+	}
+
+	/**
+	 * Get the receptions so far of the last observed frame.
+	 *
+	 * @return a shared view on these receptions, only valid
+	 *         until the detector is used again.
+	 * @throws IllegalStateException if no frame has been observed.
+	 */
+	public ReceptionSet getReceptionSet() {
+		if (this.currentFrame.entry < 0) {
+			throw new IllegalStateException(ERR_NO_CURRENT_FRAME);
+		}
+		return this.currentFrame;
+	}
+
+	/**
+	 * Remove all the frames from the window, notifying the listener
+	 * of their reception sets (e.g.: at the end of the capture).
+	 */
+	public void flush() {
+		while (this.entryCount > 0) {
+			removeOldest();
+		}
+		this.currentFrame.entry = -1;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void checkSniffer(int sniffer) {
+		if (sniffer < 0 || sniffer >= this.snifferCount) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_SNIFFER,
+					sniffer, this.snifferCount));
+		}
+	}
+
+	/**
+	 * Remove the frames older than the time window.
+	 */
+	private void expire(long time) {
+		while (this.entryCount > 0
+		       && time - this.firstTimes[this.oldestEntry] > this.window)
+		{
+			removeOldest();
+		}
+	}
+
+	private void addEntry(long hash, int length, long time, int sniffer) {
+		if (this.entryCount == this.maxFrames) {
+			this.evictedFrames++;
+			removeOldest();
+		}
+		int entry = this.oldestEntry + this.entryCount;
+		if (entry >= this.maxFrames) entry -= this.maxFrames;
+		this.entryCount++;
+
+		this.hashes[entry] = hash;
+		this.frameLengths[entry] = length;
+		this.firstTimes[entry] = time;
+		this.firstSniffers[entry] = sniffer;
+		this.frameNumbers[entry] = this.uniqueFrames;
+		this.receptionCounts[entry] = 1;
+		int base = entry * this.receiverWords;
+		for (int i = 0; i < this.receiverWords; i++) {
+			this.receivers[base + i] = 0L;
+		}
+		this.receivers[base + (sniffer >>> 6)] = 1L << sniffer;
+
+		int slot = (int) hash & this.tableMask;
+		while (this.table[slot] != 0) {
+			slot = (slot + 1) & this.tableMask;
+		}
+		this.table[slot] = entry + 1;
+		this.tableSlots[entry] = slot;
+		this.currentFrame.entry = entry;
+	}
+
+	private void removeOldest() {
+		int entry = this.oldestEntry;
+		if (this.tableSlots[entry] >= 0) {
+			removeFromTable(this.tableSlots[entry]);
+		}
+		if (this.listener != null) {
+			this.completedFrame.entry = entry;
+			this.listener.receptionsCompleted(this.completedFrame);
+		}
+		if (this.currentFrame.entry == entry) {
+			this.currentFrame.entry = -1;
+		}
+		this.oldestEntry = (entry + 1 == this.maxFrames ? 0 : entry + 1);
+		this.entryCount--;
+	}
+
+	/**
+	 * Empty the given slot of the hash table, shifting back the entries
+	 * of the following slots which would otherwise become unreachable.
+	 */
+	private void removeFromTable(int slot) {
+		this.tableSlots[this.table[slot] - 1] = -1;
+		int hole = slot;
+		int next = (slot + 1) & this.tableMask;
+		while (this.table[next] != 0) {
+			int entry = this.table[next] - 1;
+			int home = (int) this.hashes[entry] & this.tableMask;
+			/* can the entry move back to the hole? */
+			boolean movable = (hole <= next ?
+			                   (home <= hole || home > next) :
+			                   (home <= hole && home > next));
+			if (movable) {
+				this.table[hole] = this.table[next];
+				this.tableSlots[entry] = hole;
+				hole = next;
+			}
+			next = (next + 1) & this.tableMask;
+		}
+		this.table[hole] = 0;
+	}
+
+	/**
+	 * @return a 64-bit hash of the remaining bytes of the given buffer.
+	 */
+	private static long hash(ByteBuffer frame) {
+		int pos = frame.position();
+		int end = frame.limit();
+		long h = HASH_SEED ^ (end - pos);
+		for (; pos + 8 <= end; pos += 8) {
+			h = Long.rotateLeft(h ^ (frame.getLong(pos) * HASH_MULTIPLIER_1),
+			                    31) * HASH_MULTIPLIER_2;
+		}
+		for (; pos < end; pos++) {
+			h = Long.rotateLeft(h ^ ((frame.get(pos) & 0xFFL)
+			                         * HASH_MULTIPLIER_1), 11)
+			    * HASH_MULTIPLIER_2;
+		}
+		/* final mixing (from MurmurHash3) */
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
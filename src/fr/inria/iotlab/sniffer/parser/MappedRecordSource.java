@@ -0,0 +1,201 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <code>PCapRecordSource</code> reading its bytes from memory-mapped
+ * windows of the source file.
+ * <br/>
+ * A single <code>MappedByteBuffer</code> cannot exceed 2 GB, so files
+ * are mapped through a sliding window that is remapped whenever a read
+ * would cross its end. Numeric values are decoded by the buffer itself,
+ * in the byte order set through <code>setByteSwapped()</code>.
+ *
+ * @author KR
+ */
+final class MappedRecordSource extends PCapRecordSource {
+
+	///*** CONSTANTES ***///
+
+	/** Default size of the mapped window over the file, in bytes. */
+	static final long DEFAULT_WINDOW_SIZE = 256L * 1024L * 1024L;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_NOT_ENOUGH_BYTES_IN_FILE =
+			"EOF encountered: not enough bytes left" +
+			" in source file to read a %s value!";
+	private static final String ERR_BAD_OFFSET =
+			"Offset %d is outside of the source file!";
+
+	///*** ATTRIBUTS ***///
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final long windowSize;
+
+	/* current mapped window, and its offset in the file */
+	private MappedByteBuffer window;
+	private long windowStart;
+	private ByteOrder byteOrder;
+
+	/* read-only duplicate of the current window, used for views */
+	private ByteBuffer windowView;
+
+	///*** CONSTRUCTEURS ***///
+
+	MappedRecordSource(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	MappedRecordSource(File file, long windowSize) throws IOException {
+		this.channel = new FileInputStream(file).getChannel();
+		this.fileSize = this.channel.size();
+		this.windowSize = windowSize;
+		this.byteOrder = ByteOrder.BIG_ENDIAN;
+		remap(0L, 0);
+	}
+
+	///*** METHODES HERITEES ***///
+
+	@Override
+	void setByteSwapped(boolean swap) {
+		this.byteOrder = (swap ? ByteOrder.LITTLE_ENDIAN
+		                       : ByteOrder.BIG_ENDIAN);
+		this.window.order(this.byteOrder);
+		this.windowView.order(this.byteOrder);
+	}
+
+	@Override
+	short readShort() throws IOException {
+		ensureAvailable(2, "short");
+		return this.window.getShort();
+	}
+
+	@Override
+	int readInt() throws IOException {
+		ensureAvailable(4, "int");
+		return this.window.getInt();
+	}
+
+	@Override
+	int read(byte[] dst, int off, int len) throws IOException {
+		long left = this.fileSize - position();
+		int total = (int) Math.min(len, left);
+		int done = 0;
+		while (done < total) {
+			if (!(this.window.hasRemaining())) {
+				remap(position(), 1);
+			}
+			int n = Math.min(total - done, this.window.remaining());
+			this.window.get(dst, off + done, n);
+			done += n;
+		}
+		return total;
+	}
+
+	@Override
+	ByteBuffer view(int len) throws IOException {
+		int n = (int) Math.min(len, this.fileSize - position());
+		if (this.window.remaining() < n) {
+			remap(position(), n);
+		}
+		int start = this.window.position();
+		this.window.position(start + n);
+		this.windowView.clear();
+		this.windowView.position(start);
+		this.windowView.limit(start + n);
+		return this.windowView;
+	}
+
+	@Override
+	int skip(int len) throws IOException {
+		int n = (int) Math.min(len, this.fileSize - position());
+		if (this.window.remaining() >= n) {
+			this.window.position(this.window.position() + n);
+		} else {
+			remap(position() + n, 0);
+		}
+		return n;
+	}
+
+	@Override
+	boolean isAtEnd() {
+		return (position() >= this.fileSize);
+	}
+
+	@Override
+	int available() {
+		return (int) Math.min(this.fileSize - position(), Integer.MAX_VALUE);
+	}
+
+	@Override
+	long position() {
+		return this.windowStart + this.window.position();
+	}
+
+	@Override
+	long length() {
+		return this.fileSize;
+	}
+
+	@Override
+	void seek(long offset) throws IOException {
+		if (offset < 0 || offset > this.fileSize) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_OFFSET,
+					offset));
+		}
+		long inWindow = offset - this.windowStart;
+		if (inWindow >= 0 && inWindow <= this.window.limit()) {
+			this.window.position((int) inWindow);
+		} else {
+			remap(offset, 0);
+		}
+	}
+
+	@Override
+	void close() throws IOException {
+		this.channel.close();
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Make sure that the next <code>n</code> bytes of the file
+	 * are in the current window, remapping it if needed.
+	 */
+	private void ensureAvailable(int n, String what) throws IOException {
+		if (this.window.remaining() >= n) return;
+		long pos = position();
+		if (this.fileSize - pos < n) {
+			throw new EOFException(String.format(
+					ERR_NOT_ENOUGH_BYTES_IN_FILE,
+					what));
+		}
+		remap(pos, n);
+	}
+
+	/**
+	 * Map a new window starting at the given file offset, and holding
+	 * at least <code>minSize</code> bytes (unless EOF is reached first).
+	 */
+	private void remap(long pos, int minSize) throws IOException {
+		long size = Math.min(Math.max(this.windowSize, minSize),
+		                     this.fileSize - pos);
+		this.window = this.channel.map(FileChannel.MapMode.READ_ONLY,
+		                               pos, size);
+		this.window.order(this.byteOrder);
+		this.windowStart = pos;
+		this.windowView = this.window.asReadOnlyBuffer();
+		this.windowView.order(this.byteOrder);
+	}
+
+}
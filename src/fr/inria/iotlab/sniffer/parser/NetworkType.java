@@ -310,6 +310,20 @@ public enum NetworkType {
 	private final String linkType;
 	private final String dltName;
 
+	/** Network types, indexed by their ID (<code>null</code> for
+	    unknown IDs): filled once all the constants are created. */
+	private static final NetworkType[] BY_ID;
+
+	static {
+		int maxId = 0;
+		for (NetworkType nt: values())
+			maxId = Math.max(maxId, nt.id);
+		BY_ID = new NetworkType[maxId + 1];
+		for (NetworkType nt: values())
+			if (nt.id >= 0)
+				BY_ID[nt.id] = nt;
+	}
+
 	private NetworkType(int id, String name, String dlt) {
 		this.id = id;
 		this.linkType = name;
@@ -345,19 +359,18 @@ public enum NetworkType {
 
 	/**
 	 * Get the network (link-layer) type corresponding to the given ID.
+	 * <br/>
+	 * This is a single lookup in a table indexed by ID, so that it can
+	 * be done for every record (e.g.: in pcapng or merged captures).
 	 * 
 	 * @param id numeric identifier of the network type to find.
 	 * 
 	 * @return the network type corresponding to the given ID,
 	 *         or <code>null</code> if the ID is not known/found.
+	 * @see fr.inria.iotlab.sniffer.decoder.LinkTypeRegistry
 	 */
 	public static NetworkType getNetworkTypeFromID(int id) {
-		for (NetworkType nt: NetworkType.values())
-			if (nt.id == id)
-				return nt;
-
-		// type unknown/not found
-		return null;
+		return (id >= 0 && id < BY_ID.length) ? BY_ID[id] : null;
 	}
 
 }
@@ -10,6 +10,10 @@ import java.io.InputStream;
  * <code>long</code>, etc.).
  * <br/>
  * Currently, only integral values are supported; no floating-point numbers.
+ * <br/>
+ * Bytes are read from the base stream in large chunks into an internal
+ * buffer, from which values are then decoded directly: reading a value
+ * costs neither a system call nor an allocation.
  * 
  * @author KR
  */
@@ -17,15 +21,28 @@ public class NumberInputStream extends InputStream {
 
 	///*** CONSTANTES ***///
 
+	/** Default size of the internal refill buffer, in bytes. */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/** Minimal size of the internal refill buffer, in bytes
+	 *  (i.e.: enough to hold the widest numeric value). */
+	private static final int MIN_BUFFER_SIZE = 8;
+
 	// MESSAGES D'ERREUR //
 
 	private static final String ERR_NULL_BASE_INPUTSTREAM =
 			"Cannot create a NumberInputStream on a null base InputStream!";
+	private static final String ERR_BUFFER_TOO_SMALL =
+			"Buffer size must be at least " + MIN_BUFFER_SIZE +
+			" bytes (got %d)!";
 	private static final String ERR_NO_MORE_BYTES_IN_FILE =
 			"EOF encountered: no more bytes left in source file to read!";
 	private static final String ERR_NOT_ENOUGH_BYTES_IN_FILE =
 			"EOF encountered: not enough bytes left" +
 			" in source file to read a %s value!";
+	private static final String ERR_NOT_ENOUGH_BYTES_FOR_ARRAY =
+			"EOF encountered: could only read %d bytes" +
+			" instead of expected %d!";
 
 	///*** ATTRIBUTS ***///
 
@@ -35,6 +52,17 @@ public class NumberInputStream extends InputStream {
 	 */
 	private final InputStream baseInputStream;
 
+	/**
+	 * Internal buffer, refilled from the base <code>InputStream</code>
+	 * in large chunks, and from which values are decoded.
+	 * Bytes still to be read are those between indexes
+	 * <code>bufferPos</code> (included) and <code>bufferLimit</code>
+	 * (excluded).
+	 */
+	private final byte[] buffer;
+	private int bufferPos;
+	private int bufferLimit;
+
 	/**
 	 * <code>true</code> if the numeric values must have their bytes
 	 * swapped&mdash;that is: reversed&mdash;when read; <br/>
@@ -43,19 +71,45 @@ public class NumberInputStream extends InputStream {
 	 */
 	private boolean byteSwapped;
 
-	///*** CONSTRUCTEUR ***///
+	///*** CONSTRUCTEURS ***///
 
 	/**
-	 * Constructor for a new <code>NumberInputStream</code>.
+	 * Constructor for a new <code>NumberInputStream</code>,
+	 * with an internal buffer of default size.
 	 * 
 	 * @param base the base <code>InputStream</code> from which
 	 *             raw bytes are read.
 	 */
 	public NumberInputStream(InputStream base) throws NullPointerException {
+		this(base, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor for a new <code>NumberInputStream</code>.
+	 * 
+	 * @param base the base <code>InputStream</code> from which
+	 *             raw bytes are read.
+	 * @param bufferSize size of the internal refill buffer, in bytes.
+	 * 
+	 * @throws IllegalArgumentException if <code>bufferSize</code>
+	 *                                  is too small to hold a
+	 *                                  <code>long</code> value.
+	 */
+	public NumberInputStream(InputStream base, int bufferSize)
+	throws NullPointerException, IllegalArgumentException
+	{
 		if (base == null) {
 			throw new NullPointerException(ERR_NULL_BASE_INPUTSTREAM);
 		}
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BUFFER_TOO_SMALL,
+					bufferSize));
+		}
 		this.baseInputStream = base;
+		this.buffer = new byte[bufferSize];
+		this.bufferPos = 0;
+		this.bufferLimit = 0;
 	}
 
 	///*** METHODES HERITEES ***///
@@ -66,8 +120,64 @@ public class NumberInputStream extends InputStream {
 	 */
 	@Override
 	public int read() throws IOException {
-		/* simply read a byte from the base input stream */
-		return baseInputStream.read();
+		if (this.bufferPos >= this.bufferLimit && !(refill(1))) {
+			return -1;
+		}
+		return (this.buffer[this.bufferPos++] & 0xff);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) return 0;
+
+		int buffered = this.bufferLimit - this.bufferPos;
+		if (buffered == 0) {
+			/* large reads bypass the internal buffer altogether */
+			if (len >= this.buffer.length) {
+				return this.baseInputStream.read(b, off, len);
+			}
+			if (!(refill(1))) return -1;
+			buffered = this.bufferLimit - this.bufferPos;
+		}
+		int n = Math.min(len, buffered);
+		System.arraycopy(this.buffer, this.bufferPos, b, off, n);
+		this.bufferPos += n;
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#skip(long)
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) return 0;
+		int buffered = this.bufferLimit - this.bufferPos;
+		if (n <= buffered) {
+			this.bufferPos += (int) n;
+			return n;
+		}
+		this.bufferPos = this.bufferLimit;
+		return buffered + this.baseInputStream.skip(n - buffered);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() throws IOException {
+		int buffered = this.bufferLimit - this.bufferPos;
+		int avail = this.baseInputStream.available();
+		return (avail > Integer.MAX_VALUE - buffered) ? Integer.MAX_VALUE
+		                                              : buffered + avail;
 	}
 
 	/**
@@ -110,86 +220,218 @@ public class NumberInputStream extends InputStream {
 
 	///*** METHODES DE LECTURE ***///
 
+	/**
+	 * Check whether EOF has been attained, that is: whether no more
+	 * bytes can be read from this stream. Contrary to
+	 * <code>available()</code>, this is reliable even on sources that
+	 * deliver their data progressively (pipes, sockets...), but may
+	 * block until at least one byte is available.
+	 * 
+	 * @return <code>true</code> if EOF has been attained;
+	 *         <code>false</code> if there are more bytes to read.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public boolean isAtEOF() throws IOException {
+		return (this.bufferPos >= this.bufferLimit && !(refill(1)));
+	}
+
 	public byte readByte() throws IOException {
-		int byteRead = this.baseInputStream.read();
-		if (byteRead == -1) {
+		if (this.bufferPos >= this.bufferLimit && !(refill(1))) {
 			throw new EOFException(ERR_NO_MORE_BYTES_IN_FILE);
 		}
-		return (byte)(byteRead);
+		return this.buffer[this.bufferPos++];
 	}
 
 	public short readShort() throws IOException {
-		byte[] buf = new byte[2];
-		int bytesRead = this.baseInputStream.read(buf);
-		if (bytesRead != 2) {
+		if (!(refill(2))) {
 			throw new EOFException(String.format(
 					ERR_NOT_ENOUGH_BYTES_IN_FILE,
 					"short"));
 		}
-
-		short val;
-		if (this.byteSwapped) {
-			val  = (short)((buf[1] & 0xff) << 8);
-			val |= (short) (buf[0] & 0xff);
-		} else {
-			val  = (short)((buf[0] & 0xff) << 8);
-			val |= (short) (buf[1] & 0xff);
-		}
+		short val = decodeShort(this.buffer, this.bufferPos);
+		this.bufferPos += 2;
 		return val;
 	}
 
 	public int readInt() throws IOException {
-		byte[] buf = new byte[4];
-		int bytesRead = this.baseInputStream.read(buf);
-		if (bytesRead != 4) {
+		if (!(refill(4))) {
 			throw new EOFException(String.format(
 					ERR_NOT_ENOUGH_BYTES_IN_FILE,
 					"int"));
 		}
-
-		int val;
-		if (this.byteSwapped) {
-			val  = (buf[3] & 0xff) << 24;
-			val |= (buf[2] & 0xff) << 16;
-			val |= (buf[1] & 0xff) << 8;
-			val |= (buf[0] & 0xff);
-		} else {
-			val  = (buf[0] & 0xff) << 24;
-			val |= (buf[1] & 0xff) << 16;
-			val |= (buf[2] & 0xff) << 8;
-			val |= (buf[3] & 0xff);
-		}
+		int val = decodeInt(this.buffer, this.bufferPos);
+		this.bufferPos += 4;
 		return val;
 	}
 
 	public long readLong() throws IOException {
-		byte[] buf = new byte[8];
-		int bytesRead = this.baseInputStream.read(buf);
-		if (bytesRead != 8) {
+		if (!(refill(8))) {
 			throw new EOFException(String.format(
 					ERR_NOT_ENOUGH_BYTES_IN_FILE,
 					"long"));
 		}
-
+		byte[] buf = this.buffer;
+		int p = this.bufferPos;
 		long val;
 		if (this.byteSwapped) {
-			val  = (long)(buf[7] & 0xff) << 56;
-			val |= (long)(buf[6] & 0xff) << 48;
-			val |= (long)(buf[5] & 0xff) << 40;
-			val |= (long)(buf[4] & 0xff) << 32;
-			val |= (long)(buf[3] & 0xff) << 24;
-			val |= (long)(buf[2] & 0xff) << 16;
-			val |= (long)(buf[1] & 0xff) << 8;
-			val |= (long)(buf[0] & 0xff);
+			val  = (long)(buf[p + 7] & 0xff) << 56;
+			val |= (long)(buf[p + 6] & 0xff) << 48;
+			val |= (long)(buf[p + 5] & 0xff) << 40;
+			val |= (long)(buf[p + 4] & 0xff) << 32;
+			val |= (long)(buf[p + 3] & 0xff) << 24;
+			val |= (long)(buf[p + 2] & 0xff) << 16;
+			val |= (long)(buf[p + 1] & 0xff) << 8;
+			val |= (long)(buf[p] & 0xff);
+		} else {
+			val  = (long)(buf[p] & 0xff) << 56;
+			val |= (long)(buf[p + 1] & 0xff) << 48;
+			val |= (long)(buf[p + 2] & 0xff) << 40;
+			val |= (long)(buf[p + 3] & 0xff) << 32;
+			val |= (long)(buf[p + 4] & 0xff) << 24;
+			val |= (long)(buf[p + 5] & 0xff) << 16;
+			val |= (long)(buf[p + 6] & 0xff) << 8;
+			val |= (long)(buf[p + 7] & 0xff);
+		}
+		this.bufferPos += 8;
+		return val;
+	}
+
+	///*** METHODES DE LECTURE EN BLOC ***///
+
+	/**
+	 * Read exactly <code>b.length</code> bytes into the given array.
+	 * 
+	 * @param b the array to fill.
+	 * @throws EOFException if EOF is encountered before the whole array
+	 *                      could be filled.
+	 * @throws IOException if another I/O error occurs.
+	 */
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	/**
+	 * Read exactly <code>len</code> bytes into the given array.
+	 * 
+	 * @param b the array to fill.
+	 * @param off index in <code>b</code> of the first byte to write.
+	 * @param len number of bytes to read.
+	 * @throws EOFException if EOF is encountered before
+	 *                      <code>len</code> bytes could be read.
+	 * @throws IOException if another I/O error occurs.
+	 */
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while (total < len) {
+			int n = read(b, off + total, len - total);
+			if (n < 0) {
+				throw new EOFException(String.format(
+						ERR_NOT_ENOUGH_BYTES_FOR_ARRAY,
+						total, len));
+			}
+			total += n;
+		}
+	}
+
+	/**
+	 * Read <code>n</code> consecutive <code>int</code> values
+	 * into the beginning of the given array.
+	 * 
+	 * @param dst the array to fill.
+	 * @param n number of values to read.
+	 * @throws EOFException if EOF is encountered before
+	 *                      <code>n</code> values could be read.
+	 * @throws IOException if another I/O error occurs.
+	 * @see #readInts(int[], int, int)
+	 */
+	public void readInts(int[] dst, int n) throws IOException {
+		readInts(dst, 0, n);
+	}
+
+	/**
+	 * Read <code>n</code> consecutive <code>int</code> values
+	 * into the given array.
+	 * 
+	 * @param dst the array to fill.
+	 * @param off index in <code>dst</code> of the first value to write.
+	 * @param n number of values to read.
+	 * @throws EOFException if EOF is encountered before
+	 *                      <code>n</code> values could be read.
+	 * @throws IOException if another I/O error occurs.
+	 */
+	public void readInts(int[] dst, int off, int n) throws IOException {
+		if (off < 0 || n < 0 || n > dst.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		int done = 0;
+		while (done < n) {
+			if (!(refill(4))) {
+				throw new EOFException(String.format(
+						ERR_NOT_ENOUGH_BYTES_IN_FILE,
+						"int"));
+			}
+			/* decode as many values as the buffer currently holds */
+			int count = Math.min(n - done,
+			                     (this.bufferLimit - this.bufferPos) / 4);
+			for (int i = 0; i < count; i++) {
+				dst[off + done + i] = decodeInt(this.buffer, this.bufferPos);
+				this.bufferPos += 4;
+			}
+			done += count;
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Make sure that at least <code>n</code> bytes are available in the
+	 * internal buffer, reading from the base stream as long as needed.
+	 * 
+	 * @return <code>true</code> if <code>n</code> bytes are available;
+	 *         <code>false</code> if EOF was reached before.
+	 */
+	private boolean refill(int n) throws IOException {
+		int buffered = this.bufferLimit - this.bufferPos;
+		if (buffered >= n) return true;
+
+		/* move the remaining bytes to the beginning of the buffer */
+		if (buffered > 0) {
+			System.arraycopy(this.buffer, this.bufferPos,
+			                 this.buffer, 0, buffered);
+		}
+		this.bufferPos = 0;
+		this.bufferLimit = buffered;
+
+		while (this.bufferLimit < n) {
+			int read = this.baseInputStream.read(this.buffer,
+					this.bufferLimit,
+					this.buffer.length - this.bufferLimit);
+			if (read < 0) return false;
+			this.bufferLimit += read;
+		}
+		return true;
+	}
+
+	private short decodeShort(byte[] buf, int p) {
+		if (this.byteSwapped) {
+			return (short)(((buf[p + 1] & 0xff) << 8) | (buf[p] & 0xff));
+		} else {
+			return (short)(((buf[p] & 0xff) << 8) | (buf[p + 1] & 0xff));
+		}
+	}
+
+	private int decodeInt(byte[] buf, int p) {
+		int val;
+		if (this.byteSwapped) {
+			val  = (buf[p + 3] & 0xff) << 24;
+			val |= (buf[p + 2] & 0xff) << 16;
+			val |= (buf[p + 1] & 0xff) << 8;
+			val |= (buf[p] & 0xff);
 		} else {
-			val  = (long)(buf[0] & 0xff) << 56;
-			val |= (long)(buf[1] & 0xff) << 48;
-			val |= (long)(buf[2] & 0xff) << 40;
-			val |= (long)(buf[3] & 0xff) << 32;
-			val |= (long)(buf[4] & 0xff) << 24;
-			val |= (long)(buf[5] & 0xff) << 16;
-			val |= (long)(buf[6] & 0xff) << 8;
-			val |= (long)(buf[7] & 0xff);
+			val  = (buf[p] & 0xff) << 24;
+			val |= (buf[p + 1] & 0xff) << 16;
+			val |= (buf[p + 2] & 0xff) << 8;
+			val |= (buf[p + 3] & 0xff);
 		}
 		return val;
 	}
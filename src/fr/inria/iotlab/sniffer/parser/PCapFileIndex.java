@@ -0,0 +1,496 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Index of the packets of a PCap file, giving random access to them.
+ * <br/>
+ * The index holds the offset in the file of every packet record, plus a
+ * sparse table of the timestamps of one packet out of
+ * <code>getSparseInterval()</code>. It is built in a single streaming
+ * pass over the PCap file, and can be saved in a "sidecar" file
+ * (named after the PCap file, with an added <code>.idx</code>
+ * extension), which is memory-mapped when the index is loaded again.
+ * The size and modification date of the PCap file are stored with the
+ * index, so that stale indexes can be detected.
+ * <br/>
+ * Timestamps are handled as single <code>long</code> values, counting
+ * sub-second units (micro- or nanoseconds, according to the PCap file
+ * format) since the Unix epoch.
+ * <br/>
+ * An index being built can be read concurrently by other threads:
+ * packets become visible to them as soon as they are counted by
+ * <code>getPacketCount()</code>.
+ *
+ * @author KR
+ * @see PCapFileParser#setPacketIndex(PCapFileIndex)
+ */
+public class PCapFileIndex {
+
+	///*** CONSTANTES ***///
+
+	/** Extension added to the name of a PCap file to name its index. */
+	public static final String INDEX_FILE_EXTENSION = ".idx";
+
+	/** Default number of packets between two sparse timestamps. */
+	public static final int DEFAULT_SPARSE_INTERVAL = 1024;
+
+	/** Index file format "Magic Number" (i.e.: "PCIX"). */
+	private static final int INDEX_MAGIC_NUMBER = 0x50434958;
+	/** Index file format version. */
+	private static final int INDEX_VERSION = 1;
+	/** Size of the header of an index file, in bytes. */
+	private static final int INDEX_HEADER_SIZE = 40;
+
+	/** Number of offsets per mapped window (log2), i.e.: 1 GB windows. */
+	private static final int OFFSETS_WINDOW_SHIFT = 27;
+	private static final long OFFSETS_WINDOW_MASK =
+			(1L << OFFSETS_WINDOW_SHIFT) - 1;
+
+	/** Size of the buffer used to write index files, in bytes. */
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_INDEX_FILE =
+			"File %s is not a valid PCap index file!";
+	private static final String ERR_BAD_SPARSE_INTERVAL =
+			"Sparse interval must be strictly positive (got %d)!";
+	private static final String ERR_PACKET_NUMBER_OUT_OF_RANGE =
+			"Packet #%d does not exist (the file has %d packets)!";
+
+	///*** ATTRIBUTS ***///
+
+	/* properties of the indexed PCap file */
+	private final long pcapFileLength;
+	private final long pcapFileLastModified;
+
+	private final int sparseInterval;
+	private volatile long packetCount;
+
+	/* in-memory storage, used while the index is being built
+	   (arrays are always published before the packet count) */
+	private volatile long[] offsetsArray;
+	private volatile long[] sparseTimesArray;
+
+	/* memory-mapped storage, used for indexes loaded from a file */
+	private LongBuffer[] offsetsWindows;
+	private LongBuffer sparseTimesBuffer;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a new, empty, in-memory index;
+	 * records are then added through <code>addRecord()</code>.
+	 */
+	PCapFileIndex(long pcapFileLength, long pcapFileLastModified,
+	              int sparseInterval)
+	{
+		if (sparseInterval <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_SPARSE_INTERVAL,
+					sparseInterval));
+		}
+		this.pcapFileLength = pcapFileLength;
+		this.pcapFileLastModified = pcapFileLastModified;
+		this.sparseInterval = sparseInterval;
+		this.packetCount = 0L;
+		this.offsetsArray = new long[1024];
+		this.sparseTimesArray = new long[16];
+	}
+
+	/**
+	 * Constructor for an index loaded from a memory-mapped index file.
+	 */
+	private PCapFileIndex(long pcapFileLength, long pcapFileLastModified,
+	                      int sparseInterval, long packetCount,
+	                      LongBuffer[] offsetsWindows,
+	                      LongBuffer sparseTimesBuffer)
+	{
+		this.pcapFileLength = pcapFileLength;
+		this.pcapFileLastModified = pcapFileLastModified;
+		this.sparseInterval = sparseInterval;
+		this.packetCount = packetCount;
+		this.offsetsWindows = offsetsWindows;
+		this.sparseTimesBuffer = sparseTimesBuffer;
+	}
+
+	///*** CREATION ***///
+
+	/**
+	 * Get the index of the given PCap file: the index file next to it
+	 * is loaded if it exists and is up to date; otherwise, the index
+	 * is built, then saved next to the PCap file (if possible).
+	 *
+	 * @param pcapPath path to the PCap file.
+	 * @return the index of the given PCap file.
+	 * @throws IllegalArgumentException if <code>pcapPath</code> doesn't
+	 *                                  correspond to a valid PCap file.
+	 * @throws IOException if an I/O error prevents the file from being
+	 *                     indexed.
+	 */
+	public static PCapFileIndex open(String pcapPath)
+	throws IllegalArgumentException, IOException
+	{
+		PCapFileIndex index = loadIfUpToDate(pcapPath);
+		if (index != null) {
+			return index;
+		}
+
+		index = build(pcapPath, DEFAULT_SPARSE_INTERVAL);
+		try {
+			index.save(getIndexFile(pcapPath));
+		} catch (IOException exc) {
+			/* read-only location: keep the index in memory only */
+		}
+		return index;
+	}
+
+	/**
+	 * Load the index file next to the given PCap file,
+	 * if it exists and is up to date.
+	 *
+	 * @param pcapPath path to the PCap file.
+	 * @return the index of the given PCap file, or <code>null</code>
+	 *         if there is no valid and up to date index file for it.
+	 * @throws IOException if an I/O error prevents the index file
+	 *                     from being loaded.
+	 */
+	public static PCapFileIndex loadIfUpToDate(String pcapPath)
+	throws IOException
+	{
+		File indexFile = getIndexFile(pcapPath);
+		if (!(indexFile.isFile())) return null;
+		try {
+			PCapFileIndex index = load(indexFile);
+			return index.isStale(new File(pcapPath)) ? null : index;
+		} catch (IllegalArgumentException exc) {
+			/* corrupted index file: it must be rebuilt */
+			return null;
+		}
+	}
+
+	/**
+	 * Build the index of the given PCap file, in a single
+	 * streaming pass over it.
+	 *
+	 * @param pcapPath path to the PCap file.
+	 * @param sparseInterval number of packets between two sparse
+	 *                       timestamps.
+	 * @return the (in-memory) index of the given PCap file.
+	 * @throws IllegalArgumentException if <code>pcapPath</code> doesn't
+	 *                                  correspond to a valid PCap file.
+	 * @throws IOException if an I/O error prevents the file from being
+	 *                     indexed.
+	 */
+	public static PCapFileIndex build(String pcapPath, int sparseInterval)
+	throws IllegalArgumentException, IOException
+	{
+		PCapFileIndex index = create(new File(pcapPath), sparseInterval);
+		PCapFileParser parser = new PCapFileParser(pcapPath, true);
+		try {
+			int[] header = new int[4];
+			while (index.indexNextRecord(parser, header)) {
+				/* loop until EOF */
+			}
+		} finally {
+			parser.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Load an index from the given index file, memory-mapping it.
+	 *
+	 * @param indexFile the index file to load.
+	 * @return the loaded index.
+	 * @throws IllegalArgumentException if <code>indexFile</code>
+	 *                                  is not a valid index file.
+	 * @throws IOException if an I/O error prevents the file from being
+	 *                     loaded.
+	 */
+	public static PCapFileIndex load(File indexFile)
+	throws IllegalArgumentException, IOException
+	{
+		FileChannel channel = new FileInputStream(indexFile).getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) break;
+			}
+			header.flip();
+			if (header.remaining() < INDEX_HEADER_SIZE
+			    || header.getInt() != INDEX_MAGIC_NUMBER
+			    || header.getInt() != INDEX_VERSION)
+			{
+				throw new IllegalArgumentException(String.format(
+						ERR_BAD_INDEX_FILE,
+						indexFile.getPath()));
+			}
+			long length = header.getLong();
+			long lastModified = header.getLong();
+			long count = header.getLong();
+			int interval = header.getInt();
+			int sparseCount = header.getInt();
+			if (count < 0 || interval <= 0 || sparseCount < 0
+			    || channel.size() != INDEX_HEADER_SIZE
+			                         + 8L * (count + sparseCount))
+			{
+				throw new IllegalArgumentException(String.format(
+						ERR_BAD_INDEX_FILE,
+						indexFile.getPath()));
+			}
+
+			int nbWindows = (int) ((count + OFFSETS_WINDOW_MASK)
+			                       >>> OFFSETS_WINDOW_SHIFT);
+			LongBuffer[] windows = new LongBuffer[nbWindows];
+			for (int w = 0; w < nbWindows; w++) {
+				long first = (long) w << OFFSETS_WINDOW_SHIFT;
+				long n = Math.min(count - first, OFFSETS_WINDOW_MASK + 1);
+				windows[w] = channel.map(FileChannel.MapMode.READ_ONLY,
+				                         INDEX_HEADER_SIZE + 8L * first,
+				                         8L * n).asLongBuffer();
+			}
+			LongBuffer sparse = channel.map(FileChannel.MapMode.READ_ONLY,
+			                                INDEX_HEADER_SIZE + 8L * count,
+			                                8L * sparseCount).asLongBuffer();
+
+			return new PCapFileIndex(length, lastModified, interval, count,
+			                         windows, sparse);
+		} finally {
+			/* mappings remain valid once the channel is closed */
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param pcapPath path to a PCap file.
+	 * @return the index file associated with the given PCap file.
+	 */
+	public static File getIndexFile(String pcapPath) {
+		return new File(pcapPath + INDEX_FILE_EXTENSION);
+	}
+
+	///*** SAUVEGARDE ***///
+
+	/**
+	 * Save this index into the given file. The file is first written
+	 * under a temporary name, then renamed, so that readers never see
+	 * a partially written index.
+	 *
+	 * @param indexFile the file into which this index is saved.
+	 * @throws IOException if an I/O error prevents the file
+	 *                     from being written.
+	 */
+	public void save(File indexFile) throws IOException {
+		long count = getPacketCount();
+		int sparseCount = getSparseCount(count);
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+
+		FileChannel channel = new FileOutputStream(tmpFile).getChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+			buf.putInt(INDEX_MAGIC_NUMBER);
+			buf.putInt(INDEX_VERSION);
+			buf.putLong(this.pcapFileLength);
+			buf.putLong(this.pcapFileLastModified);
+			buf.putLong(count);
+			buf.putInt(this.sparseInterval);
+			buf.putInt(sparseCount);
+			for (long n = 0; n < count; n++) {
+				if (buf.remaining() < 8) flush(channel, buf);
+				buf.putLong(getPacketOffset(n));
+			}
+			for (int i = 0; i < sparseCount; i++) {
+				if (buf.remaining() < 8) flush(channel, buf);
+				buf.putLong(getSparseTime(i));
+			}
+			flush(channel, buf);
+		} finally {
+			channel.close();
+		}
+		Files.move(tmpFile.toPath(), indexFile.toPath(),
+		           StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the number of indexed packets.
+	 */
+	public long getPacketCount() {
+		return this.packetCount;
+	}
+
+	/**
+	 * @return the number of packets between two sparse timestamps.
+	 */
+	public int getSparseInterval() {
+		return this.sparseInterval;
+	}
+
+	/**
+	 * @return the length of the PCap file when it was indexed.
+	 */
+	public long getPCapFileLength() {
+		return this.pcapFileLength;
+	}
+
+	/**
+	 * @return the modification date of the PCap file when it was indexed
+	 *         (as given by <code>File.lastModified()</code>).
+	 */
+	public long getPCapFileLastModified() {
+		return this.pcapFileLastModified;
+	}
+
+	/**
+	 * @param pcapFile the indexed PCap file.
+	 * @return <code>true</code> if the given PCap file has changed since
+	 *         this index was built (i.e.: its size or modification date
+	 *         differ), and thus the index is out of date.
+	 */
+	public boolean isStale(File pcapFile) {
+		return (pcapFile.length() != this.pcapFileLength
+		        || pcapFile.lastModified() != this.pcapFileLastModified);
+	}
+
+	/**
+	 * @param n number of the packet (from 0).
+	 * @return the offset in the PCap file of the record of packet #n.
+	 * @throws IndexOutOfBoundsException if packet #n doesn't exist.
+	 */
+	public long getPacketOffset(long n) throws IndexOutOfBoundsException {
+		if (n < 0 || n >= this.packetCount) {
+			throw new IndexOutOfBoundsException(String.format(
+					ERR_PACKET_NUMBER_OUT_OF_RANGE,
+					n, this.packetCount));
+		}
+		if (this.offsetsWindows != null) {
+			return this.offsetsWindows[(int) (n >>> OFFSETS_WINDOW_SHIFT)]
+					.get((int) (n & OFFSETS_WINDOW_MASK));
+		}
+		return this.offsetsArray[(int) n];
+	}
+
+	/**
+	 * Find the packet from which a sequential scan must begin to find the
+	 * first packet with a timestamp at or after the given time, i.e.: the
+	 * last packet of the sparse table with a timestamp before that time.
+	 * (This assumes that timestamps are increasing in the PCap file.)
+	 *
+	 * @param time a timestamp, in micro- or nanoseconds since the epoch.
+	 * @return the number of the packet from which to scan.
+	 */
+	public long findScanStart(long time) {
+		int lo = 0;
+		int hi = getSparseCount(this.packetCount) - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (getSparseTime(mid) < time) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return (found < 0) ? 0L : (long) found * this.sparseInterval;
+	}
+
+	///*** CONSTRUCTION (USAGE INTERNE) ***///
+
+	/**
+	 * Create a new, empty, in-memory index for the given PCap file;
+	 * it is then filled by <code>indexNextRecord()</code>.
+	 */
+	static PCapFileIndex create(File pcapFile, int sparseInterval) {
+		return new PCapFileIndex(pcapFile.length(), pcapFile.lastModified(),
+		                         sparseInterval);
+	}
+
+	/**
+	 * Read the header of the next record of the given parser,
+	 * and add that record to this (in-memory) index.
+	 *
+	 * @param parser parser of the indexed PCap file, which must not
+	 *               be used for anything else while indexing.
+	 * @param header array of (at least) 4 elements, to be used
+	 *               for reading the record header.
+	 * @return <code>true</code> if a record has been indexed;
+	 *         <code>false</code> if EOF has been attained.
+	 * @throws IOException if an I/O error prevents the record
+	 *                     from being read.
+	 */
+	boolean indexNextRecord(PCapFileParser parser, int[] header)
+	throws IOException
+	{
+		long offset = parser.getNextRecordOffset();
+		if (!(parser.readRecordHeader(header))) return false;
+		addRecord(offset, parser.getRecordTime(header));
+		return true;
+	}
+
+	/**
+	 * Add the next record to this (in-memory) index.
+	 *
+	 * @param offset offset of the record in the PCap file.
+	 * @param time timestamp of the record, in sub-second units.
+	 */
+	void addRecord(long offset, long time) {
+		int n = (int) this.packetCount;
+		long[] offsets = this.offsetsArray;
+		if (n == offsets.length) {
+			long[] bigger = new long[2 * n];
+			System.arraycopy(offsets, 0, bigger, 0, n);
+			offsets = bigger;
+		}
+		offsets[n] = offset;
+		this.offsetsArray = offsets;
+
+		if (n % this.sparseInterval == 0) {
+			int s = n / this.sparseInterval;
+			long[] times = this.sparseTimesArray;
+			if (s == times.length) {
+				long[] bigger = new long[2 * s];
+				System.arraycopy(times, 0, bigger, 0, s);
+				times = bigger;
+			}
+			times[s] = time;
+			this.sparseTimesArray = times;
+		}
+		this.packetCount = n + 1;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private int getSparseCount(long count) {
+		return (int) ((count + this.sparseInterval - 1) / this.sparseInterval);
+	}
+
+	private long getSparseTime(int i) {
+		if (this.sparseTimesBuffer != null) {
+			return this.sparseTimesBuffer.get(i);
+		}
+		return this.sparseTimesArray[i];
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buf)
+	throws IOException
+	{
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+}
@@ -0,0 +1,774 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Merger of the packets of several PCap files (e.g.: the captures of
+ * the sniffer nodes of an IoT-LAB experiment) into a single sequence,
+ * ordered by timestamp.
+ * <br/>
+ * Timestamps are compared in UTC and in nanoseconds: the time zone
+ * delta of each file (<code>getTimeZoneDelta()</code>) is applied to
+ * its timestamps, and microsecond timestamps are converted. Each input
+ * is expected to be ordered by time itself; packets with the same
+ * timestamp are returned in input order.
+ * <br/>
+ * Each input is read ahead by its own thread, into a couple of reusable
+ * batches of bounded size, and the inputs are merged through a min-heap
+ * of primitive keys: the memory used is thus proportional to the number
+ * of inputs, whatever the number of packets.
+ * <br/>
+ * Like <code>PacketCursor</code>, the merger is positioned on a current
+ * packet by <code>next()</code>, whose properties are then given by the
+ * merger itself without any allocation. Merged packets can also be
+ * iterated over or streamed as <code>PCapSniffedPacket</code>s, or
+ * written to a <code>PCapFileWriter</code>.
+ *
+ * @author KR
+ */
+public class PCapFileMerger
+implements Iterable<PCapSniffedPacket>, Closeable
+{
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Batch of packets read ahead from an input: primitive arrays
+	 * holding the packet properties, and a slab holding their data.
+	 */
+	private static final class Batch {
+
+		final long[] times;
+		final int[] lengths;
+		final int[] originalLengths;
+		final int[] linkTypes;
+		final int[] dataOffsets;
+		byte[] data;
+		ByteBuffer dataView;
+
+		int count;
+		int dataSize;
+		boolean last;
+		Exception failure;
+
+		Batch(int maxPackets, int dataSize) {
+			this.times = new long[maxPackets];
+			this.lengths = new int[maxPackets];
+			this.originalLengths = new int[maxPackets];
+			this.linkTypes = new int[maxPackets];
+			this.dataOffsets = new int[maxPackets];
+			this.data = new byte[dataSize];
+			this.dataView = ByteBuffer.wrap(this.data).asReadOnlyBuffer();
+		}
+
+		void clear() {
+			this.count = 0;
+			this.dataSize = 0;
+		}
+
+		boolean canHold(int length) {
+			return (this.count < this.times.length
+			        && (this.count == 0
+			            || this.dataSize + length <= this.data.length));
+		}
+
+		void add(long time, PacketCursor cursor) throws IOException {
+			ByteBuffer packet = cursor.getPacketData();
+			int length = packet.remaining();
+			if (this.dataSize + length > this.data.length) {
+				/* packet larger than the slab */
+				this.data = new byte[this.dataSize + length];
+				this.dataView = ByteBuffer.wrap(this.data).asReadOnlyBuffer();
+			}
+			packet.get(this.data, this.dataSize, length);
+			int n = this.count++;
+			this.times[n] = time;
+			this.lengths[n] = length;
+			this.originalLengths[n] = cursor.getOriginalPacketLength();
+			this.linkTypes[n] = cursor.getLinkTypeID();
+			this.dataOffsets[n] = this.dataSize;
+			this.dataSize += length;
+		}
+
+	}
+
+	/**
+	 * Input of the merger, with its read-ahead thread and batches.
+	 */
+	private final class Input {
+
+		final int index;
+		final PCapFileParser parser;
+		final long timeZoneDelta;
+		final long fractionScale;
+
+		/* batches read ahead, and batches to be filled */
+		final BlockingQueue<Batch> fullBatches;
+		final BlockingQueue<Batch> freeBatches;
+		Thread thread;
+
+		/* batch being merged, and position of the current packet in it */
+		Batch batch;
+		int position;
+
+		Input(int index, PCapFileParser parser, int batchSize) {
+			this.index = index;
+			this.parser = parser;
+			this.timeZoneDelta = parser.getTimeZoneDelta();
+			this.fractionScale = (parser.hasExtendedTimeResolution() ?
+			                      1L : 1000L);
+			this.fullBatches = new ArrayBlockingQueue<Batch>(BATCHES_PER_INPUT);
+			this.freeBatches = new ArrayBlockingQueue<Batch>(BATCHES_PER_INPUT);
+			for (int i = 0; i < BATCHES_PER_INPUT; i++) {
+				this.freeBatches.add(new Batch(
+						Math.max(1, batchSize / MIN_PACKET_FOOTPRINT),
+						batchSize));
+			}
+		}
+
+		/**
+		 * Body of the read-ahead thread.
+		 */
+		void readAhead() {
+			Batch filled = null;
+			try {
+				PacketCursor cursor = this.parser.getPacketCursor();
+				filled = this.freeBatches.take();
+				filled.clear();
+				while (cursor.next()) {
+					if (!(filled.canHold(cursor.getPacketLength()))) {
+						this.fullBatches.put(filled);
+						filled = this.freeBatches.take();
+						filled.clear();
+					}
+					long seconds = cursor.getTimestampSeconds()
+					               + this.timeZoneDelta;
+					filled.add(seconds * NANOSECONDS_PER_SECOND
+					           + cursor.getTimestampFraction()
+					             * this.fractionScale,
+					           cursor);
+				}
+				filled.last = true;
+				this.fullBatches.put(filled);
+			} catch (InterruptedException exc) {
+				/* closed */
+			} catch (Exception exc) {
+				if (filled == null) return;
+				/* reported by the merging thread */
+				filled.failure = exc;
+				filled.last = true;
+				try {
+					this.fullBatches.put(filled);
+				} catch (InterruptedException exc2) {
+					/* closed */
+				}
+			}
+		}
+
+		/**
+		 * Move to the next packet of this input, waiting for it to be
+		 * read ahead if needed.
+		 *
+		 * @return <code>true</code> if there is a next packet;
+		 *         <code>false</code> if the input is exhausted.
+		 */
+		boolean advance() throws IOException {
+			this.position++;
+			while (this.batch == null || this.position >= this.batch.count) {
+				if (this.batch != null) {
+					if (this.batch.last) {
+						checkFailure();
+						return false;
+					}
+					this.freeBatches.add(this.batch);
+				}
+				try {
+					this.batch = this.fullBatches.take();
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				this.position = 0;
+				if (this.batch.count == 0) checkFailure();
+			}
+			return true;
+		}
+
+		private void checkFailure() throws IOException {
+			Exception failure = this.batch.failure;
+			if (failure == null) return;
+			if (failure instanceof IOException) {
+				throw new IOException(String.format(
+						ERR_INPUT_FAILED,
+						this.index),
+						failure);
+			}
+			throw new IllegalStateException(String.format(
+					ERR_INPUT_FAILED,
+					this.index),
+					failure);
+		}
+
+	}
+
+	/**
+	 * <code>Iterator</code> over the remaining merged packets.
+	 * I/O errors are reported as <code>UncheckedIOException</code>s.
+	 */
+	private class PacketIterator implements Iterator<PCapSniffedPacket> {
+
+		@Override
+		public boolean hasNext() {
+			try {
+				return !(isAtEnd());
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+		}
+
+		@Override
+		public PCapSniffedPacket next() {
+			if (!(hasNext())) {
+				throw new NoSuchElementException();
+			}
+			try {
+				PCapFileMerger.this.next();
+				return toPacket();
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Default size of the data of the batches read ahead, in bytes. */
+	public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+	/** Number of batches per input: one being filled, one being merged. */
+	private static final int BATCHES_PER_INPUT = 2;
+
+	/**
+	 * Smallest expected footprint of a packet in a batch, in bytes,
+	 * giving the maximal number of packets per batch.
+	 */
+	private static final int MIN_PACKET_FOOTPRINT = 16;
+
+	private static final long NANOSECONDS_PER_SECOND = 1000000000L;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_NO_INPUT =
+			"At least one input is needed to merge PCap files!";
+	private static final String ERR_BAD_BATCH_SIZE =
+			"Batch size must be strictly positive (got %d)!";
+	private static final String ERR_INPUT_FAILED =
+			"Reading of input #%d failed!";
+	private static final String ERR_NO_CURRENT_PACKET =
+			"The merger is not positioned on a packet!";
+
+	///*** ATTRIBUTS ***///
+
+	private final Input[] inputs;
+
+	/* min-heap of the inputs, by time of their current packet
+	   (then by input number), as parallel arrays */
+	private final long[] heapTimes;
+	private final int[] heapInputs;
+	private int heapSize;
+
+	/* merging state: whether the heap has been filled, input of the
+	   current packet, and whether the merger has already been moved
+	   to the next packet (by isAtEnd()) */
+	private boolean started;
+	private Input current;
+	private boolean ahead;
+	private long packetsMerged;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a merger of the given PCap files, read through
+	 * memory mapping.
+	 *
+	 * @param filePaths paths to the PCap files to merge.
+	 *
+	 * @throws IllegalArgumentException if no file is given, or if one
+	 *                                  of them is not a valid PCap file.
+	 * @throws IOException if some I/O error prevents the file headers
+	 *                     from being read.
+	 */
+	public PCapFileMerger(String... filePaths)
+	throws IllegalArgumentException, IOException
+	{
+		this(openAll(filePaths), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor for a merger of the packets read by the given parsers,
+	 * with batches of default size.
+	 *
+	 * @param parsers the parsers of the inputs.
+	 *
+	 * @throws IllegalArgumentException if no parser is given.
+	 * @see #PCapFileMerger(List, int)
+	 */
+	public PCapFileMerger(List<PCapFileParser> parsers)
+	throws IllegalArgumentException
+	{
+		this(parsers, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor for a merger of the packets read by the given parsers.
+	 * <br/>
+	 * The parsers belong to the merger from then on: they are read
+	 * (from their current position, and through their filters if any)
+	 * by the read-ahead threads, which are started right away, and they
+	 * are closed by <code>close()</code>.
+	 *
+	 * @param parsers the parsers of the inputs.
+	 * @param batchSize size of the data of the batches read ahead
+	 *                  from each input, in bytes.
+	 *
+	 * @throws IllegalArgumentException if no parser is given, or if
+	 *                                  <code>batchSize</code> is not
+	 *                                  strictly positive.
+	 */
+	public PCapFileMerger(List<PCapFileParser> parsers, int batchSize)
+	throws IllegalArgumentException
+	{
+		if (parsers.isEmpty()) {
+			throw new IllegalArgumentException(ERR_NO_INPUT);
+		}
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_BATCH_SIZE,
+					batchSize));
+		}
+		int n = parsers.size();
+		this.inputs = new Input[n];
+		this.heapTimes = new long[n];
+		this.heapInputs = new int[n];
+		for (int i = 0; i < n; i++) {
+			this.inputs[i] = new Input(i, parsers.get(i), batchSize);
+		}
+		for (final Input input: this.inputs) {
+			input.thread = new Thread(new Runnable() {
+				public void run() {
+					input.readAhead();
+				}
+			}, "PCap merger input #" + input.index);
+			input.thread.setDaemon(true);
+			input.thread.start();
+		}
+	}
+
+	private static List<PCapFileParser> openAll(String[] filePaths)
+	throws IllegalArgumentException, IOException
+	{
+		List<PCapFileParser> parsers = new ArrayList<PCapFileParser>();
+		try {
+			for (String path: filePaths) {
+				parsers.add(new PCapFileParser(path, true));
+			}
+		} catch (IOException exc) {
+			closeAll(parsers);
+			throw exc;
+		} catch (IllegalArgumentException exc) {
+			closeAll(parsers);
+			throw exc;
+		}
+		return parsers;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the number of merged inputs.
+	 */
+	public int getInputCount() {
+		return this.inputs.length;
+	}
+
+	/**
+	 * @param n the number of an input (from 0).
+	 * @return the parser of the given input.
+	 */
+	public PCapFileParser getInput(int n) {
+		return this.inputs[n].parser;
+	}
+
+	/**
+	 * @return the data link type of the merged packets, or
+	 *         <code>null</code> if the inputs don't all have the same.
+	 */
+	public NetworkType getNetworkType() {
+		NetworkType netType = this.inputs[0].parser.getNetworkType();
+		for (Input input: this.inputs) {
+			if (input.parser.getNetworkType() != netType) return null;
+		}
+		return netType;
+	}
+
+	/**
+	 * @return the number of packets merged so far.
+	 */
+	public long getPacketsMerged() {
+		return this.packetsMerged;
+	}
+
+	///*** FUSION ***///
+
+	/**
+	 * Move to the next packet, in timestamp order.
+	 *
+	 * @return <code>true</code> if the merger is now positioned on the
+	 *         next packet; <code>false</code> if all the inputs are
+	 *         exhausted.
+	 * @throws IOException if an I/O error prevented an input from being
+	 *                     read.
+	 */
+	public boolean next() throws IOException {
+		if (this.ahead) {
+			this.ahead = false;
+			return true;
+		}
+		if (!(this.started)) {
+			this.started = true;
+			for (Input input: this.inputs) {
+				input.position = -1;
+				if (input.advance()) {
+					heapAdd(input.batch.times[0], input.index);
+				}
+			}
+		} else if (this.current != null) {
+			/* replace the input of the previous packet in the heap */
+			if (this.current.advance()) {
+				heapReplaceTop(this.current.batch.times[
+						this.current.position]);
+			} else {
+				heapRemoveTop();
+			}
+		}
+		if (this.heapSize == 0) {
+			this.current = null;
+			return false;
+		}
+		this.current = this.inputs[this.heapInputs[0]];
+		this.packetsMerged++;
+		return true;
+	}
+
+	/**
+	 * @return the number of the input of the current packet.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public int getInputIndex() {
+		return checkPositioned().index;
+	}
+
+	/**
+	 * @return the UTC timestamp of the current packet,
+	 *         in nanoseconds since the Unix epoch.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public long getTime() {
+		Input input = checkPositioned();
+		return input.batch.times[input.position];
+	}
+
+	/**
+	 * @return The UTC timestamp of the current packet, in Unix epoch
+	 *         (i.e.: number of seconds since 1/1/1970 00:00:00 GMT).
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public long getTimestampSeconds() {
+		return Math.floorDiv(getTime(), NANOSECONDS_PER_SECOND);
+	}
+
+	/**
+	 * @return The sub-second fraction of the current packet timestamp,
+	 *         always in nanoseconds.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public int getTimestampFraction() {
+		return (int) Math.floorMod(getTime(), NANOSECONDS_PER_SECOND);
+	}
+
+	/**
+	 * @return the current packet's data length.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public int getPacketLength() {
+		Input input = checkPositioned();
+		return input.batch.lengths[input.position];
+	}
+
+	/**
+	 * @return the current packet's original length.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public int getOriginalPacketLength() {
+		Input input = checkPositioned();
+		return input.batch.originalLengths[input.position];
+	}
+
+	/**
+	 * @return the numeric identifier of the data link type of the
+	 *         current packet (in pcapng inputs, that of its capture
+	 *         interface).
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public int getLinkTypeID() {
+		Input input = checkPositioned();
+		return input.batch.linkTypes[input.position];
+	}
+
+	/**
+	 * Get the current packet's contents.
+	 * <br/>
+	 * The returned buffer is read-only, and positioned on the first
+	 * byte of the packet, with its limit just after the last one.
+	 * It is shared, and only valid until the merger is moved.
+	 *
+	 * @return The current packet's contents, as a read-only buffer.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public ByteBuffer getPacketData() {
+		Input input = checkPositioned();
+		Batch batch = input.batch;
+		int start = batch.dataOffsets[input.position];
+		batch.dataView.limit(start + batch.lengths[input.position]);
+		batch.dataView.position(start);
+		return batch.dataView;
+	}
+
+	/**
+	 * Copy the current packet into a new, standalone
+	 * <code>PCapSniffedPacket</code> instance, with its UTC timestamp
+	 * in nanosecond precision.
+	 *
+	 * @return the current packet in parsed form.
+	 * @throws IllegalStateException if the merger is not positioned
+	 *                               on a packet.
+	 */
+	public PCapSniffedPacket toPacket() {
+		Input input = checkPositioned();
+		Batch batch = input.batch;
+		int n = input.position;
+		byte[] copy = new byte[batch.lengths[n]];
+		System.arraycopy(batch.data, batch.dataOffsets[n],
+		                 copy, 0, copy.length);
+		return new PCapSniffedPacket(
+				(int) getTimestampSeconds(),
+				getTimestampFraction(),
+				true,
+				batch.lengths[n],
+				batch.originalLengths[n],
+				copy,
+				false);
+	}
+
+	/**
+	 * Write all the remaining merged packets to the given writer,
+	 * without building any packet object.
+	 *
+	 * @param writer the writer of the merged packets; its network type
+	 *               should match that of the inputs.
+	 * @return the number of packets written.
+	 * @throws IOException if an I/O error prevents the packets from being
+	 *                     read or written.
+	 */
+	public long writeTo(PCapFileWriter writer) throws IOException {
+		long count = 0L;
+		while (next()) {
+			Batch batch = this.current.batch;
+			int n = this.current.position;
+			long time = batch.times[n];
+			writer.writePacket(Math.floorDiv(time, NANOSECONDS_PER_SECOND),
+			                   (int) Math.floorMod(time, NANOSECONDS_PER_SECOND),
+			                   true,
+			                   batch.originalLengths[n],
+			                   batch.data, batch.dataOffsets[n],
+			                   batch.lengths[n]);
+			count++;
+		}
+		return count;
+	}
+
+	///*** ITERATION ***///
+
+	/**
+	 * Get an <code>Iterator</code> over the remaining merged packets.
+	 * As the iterator moves the merger, only one iteration can be done.
+	 *
+	 * @return an iterator over the remaining merged packets.
+	 * @see #toPacket()
+	 */
+	@Override
+	public Iterator<PCapSniffedPacket> iterator() {
+		return new PacketIterator();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Iterable#spliterator()
+	 */
+	@Override
+	public Spliterator<PCapSniffedPacket> spliterator() {
+		return Spliterators.spliteratorUnknownSize(iterator(),
+				Spliterator.ORDERED | Spliterator.NONNULL);
+	}
+
+	/**
+	 * Get a sequential <code>Stream</code> over the remaining merged
+	 * packets. Closing the stream also closes this merger.
+	 *
+	 * @return a stream of the remaining merged packets.
+	 */
+	public Stream<PCapSniffedPacket> stream() {
+		return StreamSupport.stream(spliterator(), false).onClose(
+				new Runnable() {
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	///*** FERMETURE ***///
+
+	/**
+	 * Stop the read-ahead threads, and close all the input parsers.
+	 */
+	@Override
+	public void close() {
+		for (Input input: this.inputs) {
+			if (input.thread != null) input.thread.interrupt();
+		}
+		for (Input input: this.inputs) {
+			if (input.thread == null) continue;
+			try {
+				input.thread.join();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		List<PCapFileParser> parsers = new ArrayList<PCapFileParser>();
+		for (Input input: this.inputs) {
+			parsers.add(input.parser);
+		}
+		closeAll(parsers);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * @return <code>true</code> if no more packets can be merged.
+	 */
+	private boolean isAtEnd() throws IOException {
+		if (!(this.ahead)) {
+			this.ahead = next();
+		}
+		return !(this.ahead);
+	}
+
+	private Input checkPositioned() {
+		if (this.current == null || this.ahead) {
+			throw new IllegalStateException(ERR_NO_CURRENT_PACKET);
+		}
+		return this.current;
+	}
+
+	private static void closeAll(List<PCapFileParser> parsers) {
+		for (PCapFileParser parser: parsers) {
+			try {
+				parser.close();
+			} catch (IOException exc) {
+				/* ignore */
+			}
+		}
+	}
+
+	/* min-heap operations */
+
+	private boolean heapLess(int i, int j) {
+		long ti = this.heapTimes[i];
+		long tj = this.heapTimes[j];
+		return (ti < tj || (ti == tj && this.heapInputs[i] < this.heapInputs[j]));
+	}
+
+	private void heapSwap(int i, int j) {
+		long t = this.heapTimes[i];
+		this.heapTimes[i] = this.heapTimes[j];
+		this.heapTimes[j] = t;
+		int n = this.heapInputs[i];
+		this.heapInputs[i] = this.heapInputs[j];
+		this.heapInputs[j] = n;
+	}
+
+	private void heapAdd(long time, int input) {
+		int i = this.heapSize++;
+		this.heapTimes[i] = time;
+		this.heapInputs[i] = input;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!(heapLess(i, parent))) break;
+			heapSwap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void heapReplaceTop(long time) {
+		this.heapTimes[0] = time;
+		heapSiftDown();
+	}
+
+	private void heapRemoveTop() {
+		int last = --this.heapSize;
+		this.heapTimes[0] = this.heapTimes[last];
+		this.heapInputs[0] = this.heapInputs[last];
+		heapSiftDown();
+	}
+
+	private void heapSiftDown() {
+		int i = 0;
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= this.heapSize) break;
+			int smallest = left;
+			int right = left + 1;
+			if (right < this.heapSize && heapLess(right, left)) {
+				smallest = right;
+			}
+			if (!(heapLess(smallest, i))) break;
+			heapSwap(i, smallest);
+			i = smallest;
+		}
+	}
+
+}
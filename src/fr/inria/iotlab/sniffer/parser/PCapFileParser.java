@@ -1,22 +1,90 @@
 package fr.inria.iotlab.sniffer.parser;
 
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import fr.inria.iotlab.sniffer.compress.CompressionFormat;
+import fr.inria.iotlab.sniffer.compress.DecompressingInputStream;
 
 
 /**
  * Parser class for PCap files.
+ * <br/>
+ * Packets can be read one by one (<code>readNextPacket()</code>,
+ * <code>getPacketCursor()</code>), iterated over, or streamed
+ * (<code>stream()</code>): all these ways only keep the current packet
+ * in memory, whatever the size of the file. The packets of a time range
+ * can also be extracted without reading the whole file
+ * (<code>slice()</code>).
+ * <br/>
+ * Besides files, PCap data can be read from any <code>InputStream</code>
+ * or <code>ReadableByteChannel</code> (pipe, socket, standard input...):
+ * packets are then parsed as they arrive, without random access.
+ * <br/>
+ * Besides classic PCap files, pcapng files are read too: their packet
+ * blocks are returned as records through the same methods, with
+ * nanosecond timestamps; the global properties of the file are then
+ * those of its first section and first interface, while
+ * <code>PacketCursor.getNetworkType()</code> gives the network type
+ * of each packet's own interface.
+ * <br/>
+ * Files and streams compressed with gzip, zstd or LZ4 (as detected from
+ * their magic number) are decompressed on the fly, by a pipeline of
+ * threads; like streams, they are read without random access.
  * 
  * @author KR
  */
-public class PCapFileParser {
+public class PCapFileParser
+implements Iterable<PCapSniffedPacket>, Closeable
+{
 
 	///*** CLASSES INTERNES ***///
 
+	/**
+	 * <code>Iterator</code> over the remaining packets of the file.
+	 * I/O errors are reported as <code>UncheckedIOException</code>s.
+	 */
+	private class PacketIterator implements Iterator<PCapSniffedPacket> {
+
+		@Override
+		public boolean hasNext() {
+			try {
+				return !(isAtEnd());
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+		}
+
+		@Override
+		public PCapSniffedPacket next() {
+			if (!(hasNext())) {
+				throw new NoSuchElementException();
+			}
+			try {
+				return readNextPacket();
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+		}
+
+	}
+
 	///*** CONSTANTES ***///
 
 	/** Size of the global header of a valid PCap file, in bytes. */
@@ -46,7 +114,51 @@ public class PCapFileParser {
 	 *  from a platform with inverse byte endianness).
 	 */
 	public static final int PCAP_MAGIC_NUMBER_NANOSEC_SWAPPED = 0x4d3cb2a1;
+	/**
+	 *  Type of the Section Header Block starting pcapng files, taking
+	 *  the place of the magic number (same value in both byte orders).
+	 */
+	public static final int PCAPNG_SECTION_HEADER_BLOCK_TYPE =
+			PCapNgBlockReader.BLOCK_SECTION_HEADER;
+
 
+	/** Size of the header of each packet record, in bytes. */
+	public static final int PCAP_RECORD_HEADER_SIZE = 16;
+
+	/**
+	 * Size of the buffer used to read PCap data from a stream or a channel,
+	 * in bytes: larger than for files, to amortize the cost of reading
+	 * from pipes and sockets.
+	 */
+	private static final int STREAM_BUFFER_SIZE = 65536;
+	/** Name of non-file sources, as given in error messages. */
+	private static final String STREAM_SOURCE_NAME = "<input stream>";
+
+	/**
+	 * Number of consecutive records that must look valid for an offset
+	 * to be accepted as a record boundary when resynchronizing.
+	 */
+	private static final int RESYNC_CHECKED_RECORDS = 8;
+	/**
+	 * Maximal plausible packet length, used when resynchronizing
+	 * on files whose global header gives no maximal packet length.
+	 */
+	private static final int RESYNC_MAX_PACKET_LENGTH = 262144;
+	/**
+	 * Maximal plausible original packet length, used when resynchronizing.
+	 */
+	private static final int RESYNC_MAX_ORIGINAL_LENGTH = 16 * 1024 * 1024;
+	/**
+	 * Maximal plausible time step backwards or forwards between
+	 * consecutive records, in seconds, used when resynchronizing.
+	 */
+	private static final long RESYNC_MAX_TIME_STEP_BACK = 1L;
+	private static final long RESYNC_MAX_TIME_STEP_FORTH = 86400L;
+	/**
+	 * Size of the part of the file below which the search of a time
+	 * (by <code>slice()</code>) stops probing the file, and scans it.
+	 */
+	private static final long SEARCH_SCAN_THRESHOLD = 32 * 1024;
 
 	// MESSAGES D'ERREUR //
 
@@ -59,6 +171,22 @@ public class PCapFileParser {
 					PCAP_FILE_GLOBAL_HEADER_SIZE + " bytes)!";
 	private static final String ERR_FILE_BAD_MAGIC_NUM =
 			"File %s doesn't have a valid PCap magic number in header!";
+	private static final String ERR_STALE_INDEX =
+			"The given index does not match file %s (out of date?)!";
+	private static final String ERR_NO_INDEX =
+			"No packet index has been set for this file!";
+	private static final String ERR_NO_MORE_PACKETS =
+			"No more packets selected by the filter in this file!";
+	private static final String ERR_NOT_A_FILE =
+			"Packet indexes can only be used when reading from a file!";
+	private static final String ERR_NOT_MEMORY_MAPPED =
+			"Packet indexes can only be used in memory-mapped mode!";
+	private static final String ERR_SLICE_NOT_A_FILE =
+			"Time ranges can only be extracted when reading from a file!";
+	private static final String ERR_COMPRESSED_FILE =
+			"Random access is not supported in %s-compressed files!";
+	private static final String ERR_BAD_RECORD_LENGTH =
+			"Corrupt record #%d at offset %d (negative length %d)!";
 	private static final String ERR_TRUNCATED_PACKET =
 			"Encountered EOF while reading packet data" +
 			" (could only read %d bytes instead of expected %d)!";
@@ -67,11 +195,14 @@ public class PCapFileParser {
 
 	/* source file reference */
 	private File pcapSrcFile;
-	private NumberInputStream pcapInputStream;
+	private PCapRecordSource pcapSource;
+	private boolean memoryMapped;
+	private CompressionFormat compression;
 
 	/* source file format properties */
 	private boolean byteSwapped;
 	private boolean extendedTimeRes;
+	private PCapNgBlockReader pcapng;
 
 	/* file properties, read from its global header */
 	private int magicNumber;
@@ -80,12 +211,30 @@ public class PCapFileParser {
 	private int timeZoneDelta;
 	private int timeStampAccuracy;
 	private int maxPacketLength;
+	private int linkTypeID;
 	private NetworkType netType;
 
-	///*** CONSTRUCTEUR ***///
+	/* reading state: number of record headers read so far, offset of
+	   the last one, and number of data bytes of the current record not
+	   yet consumed */
+	private long recordsRead;
+	private long recordOffset;
+	private int pendingDataLength;
+	private PacketCursor packetCursor;
+
+	/* optional filter of the packets, and whether the cursor has been
+	   moved ahead to the next selected packet (by isAtEnd()) */
+	private PacketFilter packetFilter;
+	private boolean filteredAhead;
+
+	/* optional index of the file's packets, for random access */
+	private PCapFileIndex packetIndex;
+
+	///*** CONSTRUCTEURS ***///
 
 	/**
-	 * Constructor for PCap file parser.
+	 * Constructor for PCap file parser, reading the file
+	 * through a stream.
 	 * 
 	 * @param filePath path to the PCap file to read and parse.
 	 *                 This file must exist and be readable.
@@ -99,6 +248,33 @@ public class PCapFileParser {
 	 */
 	public PCapFileParser(String filePath)
 	throws IllegalArgumentException, IOException
+	{
+		this(filePath, false);
+	}
+
+	/**
+	 * Constructor for PCap file parser.
+	 * <br/>
+	 * In memory-mapped mode, the file is read through (windowed)
+	 * <code>MappedByteBuffer</code>s instead of a stream: this avoids
+	 * a system call per read, and is much faster on large files.
+	 * Compressed files are always read through a stream.
+	 * 
+	 * @param filePath path to the PCap file to read and parse.
+	 *                 This file must exist and be readable.
+	 * @param memoryMapped <code>true</code> to read the file through
+	 *                     memory mapping; <code>false</code> to read
+	 *                     it through a stream.
+	 * 
+	 * @throws IllegalArgumentException if <code>filePath</code> doesn't
+	 *                                  correspond to an existing and
+	 *                                  readable file, or is not a valid
+	 *                                  PCap file (bad format).
+	 * @throws IOException if some I/O error prevents the file header
+	 *                     from being read.
+	 */
+	public PCapFileParser(String filePath, boolean memoryMapped)
+	throws IllegalArgumentException, IOException
 	{
 		/* check whether source file is basically valid */
 		pcapSrcFile = new File(filePath);
@@ -119,11 +295,88 @@ public class PCapFileParser {
 		}
 
 		/* parse global file header */
-		this.pcapInputStream =
-				new NumberInputStream(new FileInputStream(pcapSrcFile));
+		this.compression = CompressionFormat.detect(pcapSrcFile);
+		this.memoryMapped = memoryMapped
+		                    && this.compression == CompressionFormat.NONE;
+		if (this.compression != CompressionFormat.NONE) {
+			this.pcapSource = new StreamRecordSource(new NumberInputStream(
+					new DecompressingInputStream(
+							new FileInputStream(pcapSrcFile),
+							this.compression),
+					STREAM_BUFFER_SIZE));
+		} else if (this.memoryMapped) {
+			this.pcapSource = new MappedRecordSource(pcapSrcFile);
+		} else {
+			this.pcapSource = new StreamRecordSource(new NumberInputStream(
+					new FileInputStream(pcapSrcFile)));
+		}
+
+		readGlobalHeader(filePath);
+	}
+
+	/**
+	 * Constructor for PCap parser reading its data from a stream
+	 * (e.g.: a pipe, a socket, or the standard input).
+	 * <br/>
+	 * The stream is read through a buffer, and only when packets are
+	 * requested: data is thus parsed as it arrives, and the writer
+	 * of the stream is slowed down (by the stream's own flow control)
+	 * when packets aren't consumed fast enough. As the stream is not
+	 * seekable, packet indexes can't be used.
+	 * <br/>
+	 * The stream belongs to the parser, and is closed by
+	 * <code>close()</code>.
+	 * 
+	 * @param input the stream from which PCap data is read, starting
+	 *              with the PCap global header.
+	 * 
+	 * @throws IllegalArgumentException if the stream doesn't contain
+	 *                                  valid PCap data (bad format).
+	 * @throws IOException if some I/O error prevents the global header
+	 *                     from being read.
+	 */
+	public PCapFileParser(InputStream input)
+	throws IllegalArgumentException, IOException
+	{
+		this.pcapSrcFile = null;
+		this.memoryMapped = false;
+		input = DecompressingInputStream.open(input);
+		this.compression = (input instanceof DecompressingInputStream ?
+		                    ((DecompressingInputStream) input).getFormat() :
+		                    CompressionFormat.NONE);
+		this.pcapSource = new StreamRecordSource(new NumberInputStream(
+				input, STREAM_BUFFER_SIZE));
+		readGlobalHeader(STREAM_SOURCE_NAME);
+	}
 
+	/**
+	 * Constructor for PCap parser reading its data from a channel
+	 * (which must be in blocking mode).
+	 * 
+	 * @param channel the channel from which PCap data is read, starting
+	 *                with the PCap global header.
+	 * 
+	 * @throws IllegalArgumentException if the channel doesn't provide
+	 *                                  valid PCap data (bad format).
+	 * @throws IOException if some I/O error prevents the global header
+	 *                     from being read.
+	 * @see #PCapFileParser(InputStream)
+	 */
+	public PCapFileParser(ReadableByteChannel channel)
+	throws IllegalArgumentException, IOException
+	{
+		this(Channels.newInputStream(channel));
+	}
+
+	/**
+	 * Read and check the global header of the PCap data.
+	 * The source is closed if this header is not valid.
+	 */
+	private void readGlobalHeader(String sourceName)
+	throws IllegalArgumentException, IOException
+	{
 		try {
-			this.magicNumber = this.pcapInputStream.readInt();
+			this.magicNumber = this.pcapSource.readInt();
 			switch (this.magicNumber) {
 			case PCAP_MAGIC_NUMBER_MICROSEC:
 				this.extendedTimeRes = false;
@@ -141,28 +394,60 @@ public class PCapFileParser {
 				this.extendedTimeRes = true;
 				this.byteSwapped = true;
 				break;
+			case PCAPNG_SECTION_HEADER_BLOCK_TYPE:
+				readPCapNgHeader(sourceName);
+				return;
 			default:
+				this.pcapSource.close();
 				throw new IllegalArgumentException(String.format(
 						ERR_FILE_BAD_MAGIC_NUM,
-						filePath));
+						sourceName));
 			}
-			this.pcapInputStream.setByteSwapped(this.byteSwapped);
+			this.pcapSource.setByteSwapped(this.byteSwapped);
 
-			this.versionMajor = this.pcapInputStream.readShort();
-			this.versionMinor = this.pcapInputStream.readShort();
-			this.timeZoneDelta = this.pcapInputStream.readInt();
-			this.timeStampAccuracy = this.pcapInputStream.readInt();
-			this.maxPacketLength = this.pcapInputStream.readInt();
-			int netTypeID = this.pcapInputStream.readInt();
-			this.netType = NetworkType.getNetworkTypeFromID(netTypeID);
+			this.versionMajor = this.pcapSource.readShort();
+			this.versionMinor = this.pcapSource.readShort();
+			this.timeZoneDelta = this.pcapSource.readInt();
+			this.timeStampAccuracy = this.pcapSource.readInt();
+			this.maxPacketLength = this.pcapSource.readInt();
+			this.linkTypeID = this.pcapSource.readInt();
+			this.netType = NetworkType.getNetworkTypeFromID(this.linkTypeID);
 
 		} catch (EOFException exc) {
+			this.pcapSource.close();
 			throw new IllegalArgumentException(String.format(
 					ERR_FILE_TOO_SHORT,
-					filePath));
+					sourceName));
 		}
 	}
 
+	/**
+	 * Read the first section header and interface description
+	 * of a pcapng file, and set the file properties from them.
+	 */
+	private void readPCapNgHeader(String sourceName)
+	throws IllegalArgumentException, IOException
+	{
+		try {
+			this.pcapng = new PCapNgBlockReader(this.pcapSource, sourceName);
+		} catch (IllegalArgumentException exc) {
+			this.pcapSource.close();
+			throw exc;
+		} catch (IOException exc) {
+			this.pcapSource.close();
+			throw exc;
+		}
+		this.extendedTimeRes = true;
+		this.byteSwapped = this.pcapng.isByteSwapped();
+		this.versionMajor = this.pcapng.getVersionMajor();
+		this.versionMinor = this.pcapng.getVersionMinor();
+		this.timeZoneDelta = 0;
+		this.timeStampAccuracy = 0;
+		this.maxPacketLength = this.pcapng.getInterfaceSnapLength(0);
+		this.linkTypeID = this.pcapng.getInterfaceLinkType(0);
+		this.netType = this.pcapng.getInterfaceNetworkType(0);
+	}
+
 	///*** ACCESSEURS ***///
 
 	/**
@@ -215,6 +500,15 @@ public class PCapFileParser {
 		return this.netType;
 	}
 
+	/**
+	 * @return the numeric identifier of the data link type of the network
+	 *         from which this file was "sniffed", as found in the file
+	 *         (even if unknown to <code>NetworkType</code>).
+	 */
+	public int getLinkTypeID() {
+		return this.linkTypeID;
+	}
+
 	/**
 	 * @return <code>true</code> if the platform on which this file
 	 *         was "sniffed" has a different byte endianness from this
@@ -237,6 +531,55 @@ public class PCapFileParser {
 		return this.extendedTimeRes;
 	}
 
+	/**
+	 * @return <code>true</code> if this file is in the pcapng format;
+	 *         <br/>
+	 *         <code>false</code> if it is a classic PCap file.
+	 */
+	public boolean isPcapNg() {
+		return (this.pcapng != null);
+	}
+
+	/**
+	 * @return the number of capture interfaces known so far: for pcapng
+	 *         files, that of the Interface Description Blocks read in
+	 *         the current section; always 1 for classic PCap files.
+	 */
+	public int getInterfaceCount() {
+		return (this.pcapng == null ? 1 : this.pcapng.getInterfaceCount());
+	}
+
+	/**
+	 * @param id the number of the interface (from 0).
+	 * @return the data link type of the given capture interface.
+	 * @throws IndexOutOfBoundsException if the interface is not known.
+	 * @see #getInterfaceCount()
+	 */
+	public NetworkType getInterfaceNetworkType(int id) {
+		if (this.pcapng != null) {
+			return this.pcapng.getInterfaceNetworkType(id);
+		}
+		if (id != 0) throw new IndexOutOfBoundsException(String.valueOf(id));
+		return this.netType;
+	}
+
+	/**
+	 * @return <code>true</code> if this parser reads its file through
+	 *         memory mapping; <br/>
+	 *         <code>false</code> if it reads it through a stream.
+	 */
+	public boolean isMemoryMapped() {
+		return this.memoryMapped;
+	}
+
+	/**
+	 * @return the compression of the PCap data, decompressed on the fly
+	 *         (<code>CompressionFormat.NONE</code> if not compressed).
+	 */
+	public CompressionFormat getCompressionFormat() {
+		return this.compression;
+	}
+
 	///*** METHODES DE LECTURE ***///
 
 	/**
@@ -250,12 +593,23 @@ public class PCapFileParser {
 	 * @see PCapSniffedPacket
 	 */
 	public PCapSniffedPacket readNextPacket() throws IOException {
-		int ts = this.pcapInputStream.readInt();
-		int ssec = this.pcapInputStream.readInt();
-		int len = this.pcapInputStream.readInt();
-		int origLen = this.pcapInputStream.readInt();
+		if (this.packetFilter != null || this.pcapng != null) {
+			PacketCursor cursor = getPacketCursor();
+			if (!(cursor.next())) {
+				throw new EOFException(ERR_NO_MORE_PACKETS);
+			}
+			return cursor.toPacket();
+		}
+		skipPendingData();
+		this.recordOffset = this.pcapSource.position();
+		int ts = this.pcapSource.readInt();
+		int ssec = this.pcapSource.readInt();
+		int len = this.pcapSource.readInt();
+		int origLen = this.pcapSource.readInt();
+		checkRecordLength(len);
+		this.recordsRead++;
 		byte[] data = new byte[len];
-		int bytesRead = this.pcapInputStream.read(data);
+		int bytesRead = this.pcapSource.read(data, 0, len);
 		if (bytesRead != len) {
 			throw new EOFException(String.format(
 					ERR_TRUNCATED_PACKET,
@@ -267,11 +621,387 @@ public class PCapFileParser {
 				this.extendedTimeRes,
 				len,
 				origLen,
-				data);
+				data,
+				false);
+	}
+
+	/**
+	 * Get the (unique) reusable cursor over the packets of this file.
+	 * <br/>
+	 * The cursor shares the reading position of this parser: it starts
+	 * on the packet following the last one read, and advancing it
+	 * consumes packets from the file. It is an allocation-free
+	 * alternative to <code>readNextPacket()</code>.
+	 * 
+	 * @return the packet cursor associated with this parser.
+	 * @see PacketCursor
+	 */
+	public PacketCursor getPacketCursor() {
+		if (this.packetCursor == null) {
+			this.packetCursor = new PacketCursor(this);
+		}
+		return this.packetCursor;
+	}
+
+	///*** FILTRAGE ***///
+
+	/**
+	 * Set the filter selecting the packets read from this file.
+	 * <br/>
+	 * Records rejected by the filter are skipped by all the reading
+	 * methods (<code>readNextPacket()</code>, the packet cursor, the
+	 * iterators and streams), without any packet object being built;
+	 * the data of the records rejected on their header alone is not
+	 * even read. Random access methods (<code>getPacket()</code>,
+	 * <code>seekToTime()</code>), as well as the rows of
+	 * <code>PacketsTableModel</code>, ignore the filter.
+	 * <br/>
+	 * Note that, to tell whether packets remain, <code>lastPacketRead()</code>
+	 * (and thus iterators) must then move the packet cursor ahead
+	 * to the next selected packet.
+	 * 
+	 * @param filter the filter of the packets,
+	 *               or <code>null</code> to read all packets.
+	 */
+	public void setPacketFilter(PacketFilter filter) {
+		this.packetFilter = filter;
+	}
+
+	/**
+	 * @return the filter selecting the packets read from this file,
+	 *         or <code>null</code> if all packets are read.
+	 */
+	public PacketFilter getPacketFilter() {
+		return this.packetFilter;
+	}
+
+	///*** ACCES DIRECT ***///
+
+	/**
+	 * Set the index giving random access to the packets of this file.
+	 * <br/>
+	 * Random access is only supported in memory-mapped mode.
+	 * 
+	 * @param index the index of the currently open PCap file.
+	 * @throws IllegalArgumentException if the given index is out of date
+	 *                                  regarding the current PCap file.
+	 * @throws UnsupportedOperationException if the PCap data is not read
+	 *                                       from an uncompressed file,
+	 *                                       through memory mapping.
+	 * @see PCapFileIndex#open(String)
+	 */
+	public void setPacketIndex(PCapFileIndex index)
+	throws IllegalArgumentException
+	{
+		if (index != null && this.pcapSrcFile == null) {
+			throw new UnsupportedOperationException(ERR_NOT_A_FILE);
+		}
+		if (index != null && this.compression != CompressionFormat.NONE) {
+			throw new UnsupportedOperationException(String.format(
+					ERR_COMPRESSED_FILE,
+					this.compression));
+		}
+		if (index != null && !(this.memoryMapped)) {
+			throw new UnsupportedOperationException(ERR_NOT_MEMORY_MAPPED);
+		}
+		if (index != null && index.isStale(this.pcapSrcFile)) {
+			throw new IllegalArgumentException(String.format(
+					ERR_STALE_INDEX,
+					this.pcapSrcFile.getPath()));
+		}
+		this.packetIndex = index;
+	}
+
+	/**
+	 * @return the index giving random access to the packets of this file,
+	 *         or <code>null</code> if none has been set.
+	 */
+	public PCapFileIndex getPacketIndex() {
+		return this.packetIndex;
+	}
+
+	/**
+	 * Read and parse the packet with the given number (from 0), thanks to
+	 * the packet index. The reading position is then set on the following
+	 * packet.
+	 * 
+	 * @param n the number of the packet to read.
+	 * @return packet #n in parsed form.
+	 * @throws IllegalStateException if no packet index has been set.
+	 * @throws IndexOutOfBoundsException if packet #n doesn't exist.
+	 * @throws UnsupportedOperationException if the file is not read
+	 *                                       through memory mapping.
+	 * @throws IOException if an I/O error prevents the packet
+	 *                     from being correctly read.
+	 */
+	public PCapSniffedPacket getPacket(long n) throws IOException {
+		PCapFileIndex index = checkPacketIndex();
+		seekToRecord(index.getPacketOffset(n), n);
+		/* random access ignores the packet filter */
+		PacketCursor cursor = getPacketCursor();
+		if (!(cursor.nextRecord())) {
+			throw new EOFException(ERR_NO_MORE_PACKETS);
+		}
+		return cursor.toPacket();
+	}
+
+	/**
+	 * Set the reading position, thanks to the packet index, on the first
+	 * packet whose timestamp is at or after the given time (assuming that
+	 * timestamps are increasing in the PCap file).
+	 * 
+	 * @param seconds the seconds of the timestamp (in Unix epoch).
+	 * @param fraction the sub-second fraction of the timestamp, in either
+	 *                 microseconds or nanoseconds according to the PCap
+	 *                 file format.
+	 * @return the number of the packet on which the reading position
+	 *         is set, or the number of packets in the file if all
+	 *         packets are before the given time.
+	 * @throws IllegalStateException if no packet index has been set.
+	 * @throws UnsupportedOperationException if the file is not read
+	 *                                       through memory mapping.
+	 * @throws IOException if an I/O error prevents the packet headers
+	 *                     from being correctly read.
+	 */
+	public long seekToTime(long seconds, int fraction) throws IOException {
+		PCapFileIndex index = checkPacketIndex();
+		long n = findIndexedRecord(index, toTimeUnits(seconds, fraction));
+		if (n < index.getPacketCount()) {
+			seekToRecord(index.getPacketOffset(n), n);
+		} else {
+			seekToRecord(this.pcapSource.length(), n);
+		}
+		return n;
+	}
+
+	private PCapFileIndex checkPacketIndex() {
+		if (this.packetIndex == null) {
+			throw new IllegalStateException(ERR_NO_INDEX);
+		}
+		return this.packetIndex;
+	}
+
+	/**
+	 * @return the number of the first indexed packet whose timestamp is
+	 *         at or after the given time, or the number of packets in the
+	 *         file if all packets are before that time.
+	 */
+	private long findIndexedRecord(PCapFileIndex index, long time)
+	throws IOException
+	{
+		long count = index.getPacketCount();
+		int[] header = new int[4];
+		for (long n = index.findScanStart(time); n < count; n++) {
+			seekToRecord(index.getPacketOffset(n), n);
+			readRecordHeader(header);
+			if (getRecordTime(header) >= time) {
+				return n;
+			}
+		}
+		return count;
+	}
+
+	///*** EXTRACTION PAR PLAGE DE TEMPS ***///
+
+	/**
+	 * Give the packets whose timestamps are in the given time range
+	 * to a listener, in file order.
+	 * <br/>
+	 * Only the part of the file holding that time range is read: its
+	 * bounds are found through the packet index if one has been set,
+	 * or else by a binary search over the file offsets, each probe
+	 * resynchronizing on the next record boundary (see
+	 * <code>ParallelPCapFileParser</code>). This assumes that
+	 * timestamps are (almost) increasing in the file: packets slightly
+	 * out of order around the bounds of the range may be missed.
+	 * <br/>
+	 * Like the other random access methods, this ignores the packet
+	 * filter; the reading position is then set after the range. With
+	 * a packet index, the numbering of the packets is kept; otherwise,
+	 * the packets following the range are numbered from 0.
+	 * 
+	 * @param fromSeconds the seconds of the start of the range
+	 *                    (in Unix epoch), included.
+	 * @param fromFraction the sub-second fraction of the start of the
+	 *                     range, in either microseconds or nanoseconds
+	 *                     according to the PCap file format.
+	 * @param toSeconds the seconds of the end of the range, excluded.
+	 * @param toFraction the sub-second fraction of the end of the range.
+	 * @param listener the listener to which the packets of the range
+	 *                 are given, in parsed form.
+	 * @return the number of packets given to the listener.
+	 * @throws UnsupportedOperationException if the file is not read
+	 *                                       through memory mapping.
+	 * @throws IOException if an I/O error prevents the packets
+	 *                     from being correctly read.
+	 */
+	public long slice(long fromSeconds, int fromFraction,
+	                  long toSeconds, int toFraction,
+	                  PCapPacketListener listener)
+	throws IOException
+	{
+		return slice(toTimeUnits(fromSeconds, fromFraction),
+		             toTimeUnits(toSeconds, toFraction), listener, null);
+	}
+
+	/**
+	 * Write the packets whose timestamps are in the given time range,
+	 * in file order: the packet data is copied directly from the file,
+	 * without building any packet object.
+	 * 
+	 * @param writer the writer of the packets of the range.
+	 * @return the number of packets written.
+	 * @throws IllegalArgumentException if the timestamp of a packet
+	 *                                  is out of the range of the
+	 *                                  writer's format.
+	 * @throws UnsupportedOperationException if the file is not read
+	 *                                       through memory mapping.
+	 * @throws IOException if an I/O error prevents the packets
+	 *                     from being read or written.
+	 * @see #slice(long, int, long, int, PCapPacketListener)
+	 */
+	public long slice(long fromSeconds, int fromFraction,
+	                  long toSeconds, int toFraction,
+	                  PCapFileWriter writer)
+	throws IllegalArgumentException, IOException
+	{
+		return slice(toTimeUnits(fromSeconds, fromFraction),
+		             toTimeUnits(toSeconds, toFraction), null, writer);
+	}
+
+	/**
+	 * Give the packets of the time range [from, to[ (in sub-second units)
+	 * to either the listener or the writer.
+	 */
+	private long slice(long from, long to,
+	                   PCapPacketListener listener, PCapFileWriter writer)
+	throws IOException
+	{
+		if (this.pcapSrcFile == null) {
+			throw new UnsupportedOperationException(ERR_SLICE_NOT_A_FILE);
+		}
+		if (this.compression != CompressionFormat.NONE) {
+			throw new UnsupportedOperationException(String.format(
+					ERR_COMPRESSED_FILE,
+					this.compression));
+		}
+		if (to <= from) return 0L;
+		long start;
+		long end;
+		long first = 0L;
+		long last = 0L;
+		if (this.packetIndex != null) {
+			/* keep the numbering of the packets, as seekToTime() does */
+			first = findIndexedRecord(this.packetIndex, from);
+			last = Math.max(findIndexedRecord(this.packetIndex, to), first);
+			start = getIndexedRecordOffset(first);
+			end = getIndexedRecordOffset(last);
+		} else {
+			end = findRecordOffset(to);
+			start = findRecordOffset(from);
+		}
+		seekToRecord(start, first);
+
+		long count = 0L;
+		int[] header = new int[4];
+		while (getNextRecordOffset() < end && readRecordHeader(header)) {
+			long time = getRecordTime(header);
+			if (time < from || time >= to) continue;
+			ByteBuffer data = readRecordData();
+			if (writer != null) {
+				/* seconds are signed, as in getRecordTime() */
+				writer.writePacket(header[0], header[1],
+				                   this.extendedTimeRes, header[3], data);
+			} else {
+				byte[] bytes = new byte[header[2]];
+				data.get(bytes);
+				listener.packetReceived(new PCapSniffedPacket(
+						header[0], header[1], this.extendedTimeRes,
+						header[2], header[3], bytes, false));
+			}
+			count++;
+		}
+		seekToRecord(Math.max(end, start), last);
+		return count;
+	}
+
+	/**
+	 * @return the offset of the given indexed packet, or the file length
+	 *         if it is the number of packets in the file.
+	 */
+	private long getIndexedRecordOffset(long n) {
+		return (n < this.packetIndex.getPacketCount()
+		        ? this.packetIndex.getPacketOffset(n)
+		        : this.pcapSource.length());
+	}
+
+	/**
+	 * Find the offset of the first record whose timestamp is at or after
+	 * the given time, by a binary search over the file offsets.
+	 * <br/>
+	 * The search keeps a range of offsets whose lower bound is a record
+	 * boundary preceded by records before the given time only: each
+	 * probe resynchronizes on the first record boundary after the middle
+	 * of the range, and reads the timestamp of that record to halve the
+	 * range. Once the range is small enough, it is scanned from its
+	 * lower bound.
+	 * <br/>
+	 * The reading position is undefined after this call:
+	 * <code>seekToRecord()</code> must be called before reading again.
+	 * 
+	 * @param time a timestamp, in sub-second units.
+	 * @return the offset of the first record at or after
+	 *         <code>time</code>, or the file length if there is none.
+	 */
+	private long findRecordOffset(long time) throws IOException {
+		long size = this.pcapSource.length();
+		int[] header = new int[4];
+		long lo = (this.pcapng != null ? 0L : PCAP_FILE_GLOBAL_HEADER_SIZE);
+		long hi = size;
+		while (hi - lo > SEARCH_SCAN_THRESHOLD) {
+			long mid = lo + (hi - lo) / 2;
+			long boundary = findRecordBoundary(mid);
+			if (boundary < 0 || boundary >= hi) {
+				/* no record starts in [mid, hi[ */
+				hi = mid;
+				continue;
+			}
+			/* probe the first record with its own timestamp */
+			seekToRecord(boundary, 0L);
+			long offset = boundary;
+			boolean found;
+			while ((found = readRecordHeader(header))
+			       && !(hasRecordTimestamp()))
+			{
+				offset = getNextRecordOffset();
+			}
+			if (!(found) || offset >= hi) {
+				hi = mid;
+			} else if (getRecordTime(header) < time) {
+				lo = getNextRecordOffset();
+			} else {
+				hi = offset;
+			}
+		}
+
+		/* records without their own timestamp share that of the
+		   previous record, which is before the given time */
+		seekToRecord(lo, 0L);
+		while (true) {
+			long offset = getNextRecordOffset();
+			if (!(readRecordHeader(header))) return size;
+			if (hasRecordTimestamp() && getRecordTime(header) >= time) {
+				return offset;
+			}
+		}
 	}
 
 	/**
 	 * Read and parse all packets stored in the currently open PCap file.
+	 * <br/>
+	 * Note that all the packets are then kept in memory: big files
+	 * should rather be processed through <code>iterator()</code>
+	 * or <code>stream()</code>.
 	 * 
 	 * @return the <code>List</code> of all the packets
 	 *         stored in the current PCap file in parsed form
@@ -298,10 +1028,365 @@ public class PCapFileParser {
 	 */
 	public boolean lastPacketRead() {
 		try {
-			return (this.pcapInputStream.available() > 0);
+			return isAtEnd();
 		} catch (IOException e) {
 			return true;
 		}
 	}
 
+	///*** ITERATION ***///
+
+	/**
+	 * Get an <code>Iterator</code> over the packets remaining in the
+	 * currently open PCap file. Packets are read lazily, one at a time.
+	 * <br/>
+	 * As the iterator consumes packets from this parser, only one
+	 * iteration can be done over a given file.
+	 * 
+	 * @return an iterator over the remaining packets.
+	 * @see #readNextPacket()
+	 */
+	@Override
+	public Iterator<PCapSniffedPacket> iterator() {
+		return new PacketIterator();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Iterable#spliterator()
+	 */
+	@Override
+	public Spliterator<PCapSniffedPacket> spliterator() {
+		return Spliterators.spliteratorUnknownSize(iterator(),
+				Spliterator.ORDERED | Spliterator.NONNULL);
+	}
+
+	/**
+	 * Get a sequential <code>Stream</code> over the packets remaining in
+	 * the currently open PCap file. Packets are read lazily, one at a time.
+	 * <br/>
+	 * Closing the stream (e.g.: through a try-with-resources statement)
+	 * also closes this parser.
+	 * 
+	 * @return a stream of the remaining packets.
+	 */
+	public Stream<PCapSniffedPacket> stream() {
+		return StreamSupport.stream(spliterator(), false).onClose(
+				new Runnable() {
+					public void run() {
+						try {
+							close();
+						} catch (IOException exc) {
+							throw new UncheckedIOException(exc);
+						}
+					}
+				});
+	}
+
+	///*** LECTURE PAR ENREGISTREMENT (USAGE INTERNE) ***///
+
+	/**
+	 * @return the number of record headers read so far.
+	 */
+	long getRecordsRead() {
+		return this.recordsRead;
+	}
+
+	/**
+	 * Tell whether the packet cursor has already been moved to the next
+	 * selected packet by <code>isAtEnd()</code>, and clear this state.
+	 */
+	boolean takeFilteredAhead() {
+		boolean ahead = this.filteredAhead;
+		this.filteredAhead = false;
+		return ahead;
+	}
+
+	/**
+	 * Convert a timestamp into a single number of sub-second units
+	 * (micro- or nanoseconds, according to the file format) since the
+	 * Unix epoch. This needs no normalization of the fraction.
+	 */
+	long toTimeUnits(long seconds, long fraction) {
+		return seconds * (this.extendedTimeRes ? 1000000000L : 1000000L)
+		       + fraction;
+	}
+
+	/**
+	 * @return the timestamp of the record whose header is given (as read
+	 *         by <code>readRecordHeader()</code>), in sub-second units.
+	 * @see #toTimeUnits(long, long)
+	 */
+	long getRecordTime(int[] header) {
+		return toTimeUnits(header[0], (long)header[1] & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Read the header of the next record into the given array (as
+	 * timestamp seconds, timestamp fraction, length, original length),
+	 * skipping first the data of the current record if it has not been
+	 * consumed.
+	 * 
+	 * @return <code>true</code> if a record header has been read;
+	 *         <code>false</code> if EOF has been attained.
+	 * @throws IOException if an I/O error prevents the header from being
+	 *                     read (like for example an unexpected EOF).
+	 */
+	boolean readRecordHeader(int[] header) throws IOException {
+		skipPendingData();
+		if (this.pcapng != null) {
+			if (!(this.pcapng.readPacketHeader(header))) return false;
+			this.recordOffset = this.pcapng.getPacketOffset();
+		} else {
+			if (this.pcapSource.isAtEnd()) return false;
+			this.recordOffset = this.pcapSource.position();
+			header[0] = this.pcapSource.readInt();
+			header[1] = this.pcapSource.readInt();
+			header[2] = this.pcapSource.readInt();
+			header[3] = this.pcapSource.readInt();
+		}
+		checkRecordLength(header[2]);
+		this.recordsRead++;
+		this.pendingDataLength = header[2];
+		return true;
+	}
+
+	/**
+	 * Check the length of the record whose header has just been read,
+	 * which would otherwise move the reading position backwards.
+	 *
+	 * @throws IOException if the length is negative.
+	 */
+	private void checkRecordLength(int len) throws IOException {
+		if (len < 0) {
+			throw new IOException(String.format(
+					ERR_BAD_RECORD_LENGTH,
+					this.recordsRead,
+					this.recordOffset,
+					len));
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the record whose header has just been
+	 *         read has its own timestamp; <code>false</code> if it is
+	 *         given the timestamp of the previous record read (i.e.: for
+	 *         Simple Packet Blocks of pcapng files).
+	 */
+	boolean hasRecordTimestamp() {
+		return (this.pcapng == null || this.pcapng.hasPacketTimestamp());
+	}
+
+	/**
+	 * @return the data link type of the record whose header has just
+	 *         been read (which, in pcapng files, depends on its
+	 *         capture interface).
+	 */
+	NetworkType getRecordNetworkType() {
+		if (this.pcapng != null) return this.pcapng.getPacketNetworkType();
+		return this.netType;
+	}
+
+	/**
+	 * @return the numeric identifier of the data link type of the record
+	 *         whose header has just been read.
+	 */
+	int getRecordLinkTypeID() {
+		if (this.pcapng != null) return this.pcapng.getPacketLinkType();
+		return this.linkTypeID;
+	}
+
+	/**
+	 * @return the number of the capture interface of the record whose
+	 *         header has just been read (always 0 in classic PCap files).
+	 */
+	int getRecordInterfaceId() {
+		if (this.pcapng != null) return this.pcapng.getPacketInterfaceId();
+		return 0;
+	}
+
+	/**
+	 * Read the data of the record whose header has just been read by
+	 * <code>readRecordHeader()</code>.
+	 * 
+	 * @return a read-only view of the record data,
+	 *         valid until the next read on this parser.
+	 * @throws IOException if an I/O error prevents the data from being
+	 *                     read (like for example an unexpected EOF).
+	 */
+	ByteBuffer readRecordData() throws IOException {
+		int len = this.pendingDataLength;
+		this.pendingDataLength = 0;
+		ByteBuffer data = this.pcapSource.view(len);
+		if (data.remaining() != len) {
+			throw new EOFException(String.format(
+					ERR_TRUNCATED_PACKET,
+					data.remaining(), len));
+		}
+		return data;
+	}
+
+	/**
+	 * @return the offset in the file of the next record to be read.
+	 * @throws IOException if an I/O error prevents the data of the current
+	 *                     record from being skipped.
+	 */
+	long getNextRecordOffset() throws IOException {
+		skipPendingData();
+		return this.pcapSource.position();
+	}
+
+	/**
+	 * @return the offset in the file of the record whose header has just
+	 *         been read by <code>readRecordHeader()</code> (in pcapng
+	 *         files, that of its packet block, the blocks of other types
+	 *         preceding it having been skipped).
+	 */
+	long getRecordOffset() {
+		return this.recordOffset;
+	}
+
+	/**
+	 * @return the total length of the file, in bytes,
+	 *         or <code>-1</code> if it is not known.
+	 */
+	long getSourceLength() {
+		return this.pcapSource.length();
+	}
+
+	/**
+	 * Move the reading position to the record starting at the given
+	 * offset in the file (which must be a valid record boundary).
+	 * 
+	 * @param offset the offset of the record in the file.
+	 * @param recordNumber the number of records preceding
+	 *                     that record in the file.
+	 * @throws UnsupportedOperationException if the file is not read in
+	 *                                       a way allowing random access.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void seekToRecord(long offset, long recordNumber) throws IOException {
+		this.pcapSource.seek(offset);
+		this.pendingDataLength = 0;
+		this.recordsRead = recordNumber;
+		this.filteredAhead = false;
+		if (this.pcapng != null) this.pcapng.seek(offset);
+	}
+
+	/**
+	 * Find the first record boundary at or after the given offset,
+	 * by scanning the file for a position from which a chain of plausible
+	 * record headers begins: lengths consistent with each other and with
+	 * <code>getMaxPacketLength()</code>, valid sub-second fractions,
+	 * and (almost) monotonic timestamps. In pcapng files, the boundary
+	 * found is that of a block (not necessarily a packet block).
+	 * <br/>
+	 * The reading position is undefined after this call:
+	 * <code>seekToRecord()</code> must be called before reading again.
+	 * 
+	 * @param from the offset at which the search begins.
+	 * @return the offset of the first record boundary found,
+	 *         or <code>-1</code> if none could be found before EOF.
+	 * @throws UnsupportedOperationException if the file is not read in
+	 *                                       a way allowing random access.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	long findRecordBoundary(long from) throws IOException {
+		if (this.pcapng != null) return this.pcapng.findBlockBoundary(from);
+		long size = this.pcapSource.length();
+		long start = Math.max(from, PCAP_FILE_GLOBAL_HEADER_SIZE);
+		for (long pos = start; pos + PCAP_RECORD_HEADER_SIZE <= size; pos++) {
+			if (isPlausibleRecordChain(pos, size)) {
+				return pos;
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * @return <code>true</code> if a chain of plausible records begins at
+	 *         the given offset, and either goes on for
+	 *         <code>RESYNC_CHECKED_RECORDS</code> records,
+	 *         or ends exactly at EOF.
+	 */
+	private boolean isPlausibleRecordChain(long offset, long size)
+	throws IOException
+	{
+		long maxLen = (this.maxPacketLength > 0 ? this.maxPacketLength
+		                                        : RESYNC_MAX_PACKET_LENGTH);
+		long fractionLimit = (this.extendedTimeRes ? 1000000000 : 1000000);
+		long prevSeconds = -1L;
+		long pos = offset;
+		for (int i = 0; i < RESYNC_CHECKED_RECORDS; i++) {
+			if (pos == size) return true;
+			if (pos + PCAP_RECORD_HEADER_SIZE > size) return false;
+
+			this.pcapSource.seek(pos);
+			long seconds = (long)this.pcapSource.readInt() & 0xFFFFFFFFL;
+			long fraction = (long)this.pcapSource.readInt() & 0xFFFFFFFFL;
+			int len = this.pcapSource.readInt();
+			int origLen = this.pcapSource.readInt();
+
+			if (fraction >= fractionLimit) return false;
+			if (len < 0 || len > maxLen) return false;
+			if (origLen < len || origLen > RESYNC_MAX_ORIGINAL_LENGTH) {
+				return false;
+			}
+			if (prevSeconds >= 0 &&
+				(seconds < prevSeconds - RESYNC_MAX_TIME_STEP_BACK ||
+				 seconds > prevSeconds + RESYNC_MAX_TIME_STEP_FORTH))
+			{
+				return false;
+			}
+			prevSeconds = seconds;
+			pos += PCAP_RECORD_HEADER_SIZE + len;
+		}
+		return (pos <= size);
+	}
+
+	/**
+	 * @return <code>true</code> if no more records can be read.
+	 */
+	private boolean isAtEnd() throws IOException {
+		/* pcapng files may end with blocks other than packets */
+		if (this.packetFilter != null || this.pcapng != null) {
+			if (!(this.filteredAhead)) {
+				this.filteredAhead = getPacketCursor().next();
+			}
+			return !(this.filteredAhead);
+		}
+		skipPendingData();
+		return this.pcapSource.isAtEnd();
+	}
+
+	/**
+	 * Skip the data of the current record, if it has not been consumed.
+	 */
+	private void skipPendingData() throws IOException {
+		int len = this.pendingDataLength;
+		if (len != 0) {
+			this.pendingDataLength = 0;
+			int bytesSkipped = this.pcapSource.skip(len);
+			if (bytesSkipped != len) {
+				throw new EOFException(String.format(
+						ERR_TRUNCATED_PACKET,
+						bytesSkipped, len));
+			}
+		}
+		if (this.pcapng != null) this.pcapng.skipBlockEnd();
+	}
+
+	///*** FERMETURE ***///
+
+	/**
+	 * Close the currently open PCap file, releasing
+	 * all the resources associated with this parser.
+	 * 
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.pcapSource.close();
+	}
+
 }
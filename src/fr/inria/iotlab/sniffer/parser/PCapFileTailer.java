@@ -0,0 +1,370 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import fr.inria.iotlab.sniffer.compress.CompressionFormat;
+
+/**
+ * "Follower" of a PCap file that is still being written (like
+ * <tt>tail -f</tt>), typically by the IoT-LAB sniffer during an
+ * experiment.
+ * <br/>
+ * A background thread reads the packets as they are appended to the file,
+ * and hands them to the registered <code>PCapPacketListener</code>s.
+ * Changes to the file are detected through a <code>WatchService</code>
+ * on its directory when available, with periodic polling as a fallback:
+ * new packets are thus delivered at most one polling interval after
+ * being written. A record that is only partially written is not an
+ * error: it is simply read once complete.
+ * <br/>
+ * If the file is truncated (e.g.: overwritten by a new capture),
+ * it is read again from its beginning.
+ * <br/>
+ * Only uncompressed, classic PCap files can be followed: the thread
+ * stops with an <code>IllegalArgumentException</code> (reported by
+ * <code>getFailure()</code>) on pcapng or compressed files.
+ *
+ * @author KR
+ */
+public class PCapFileTailer implements Closeable {
+
+	///*** CONSTANTES ***///
+
+	/** Default interval between two checks of the file, in milliseconds. */
+	public static final long DEFAULT_POLL_INTERVAL = 200L;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_POLL_INTERVAL =
+			"Polling interval must be strictly positive (got %d)!";
+	private static final String ERR_FILE_SHRUNK =
+			"EOF encountered: the followed file has shrunk while being read!";
+	private static final String ERR_ALREADY_STARTED =
+			"This tailer has already been started!";
+	private static final String ERR_PCAPNG_FILE =
+			"File %s is a pcapng file, which cannot be followed!";
+	private static final String ERR_COMPRESSED_FILE =
+			"File %s is %s-compressed, and cannot be followed!";
+
+	///*** ATTRIBUTS ***///
+
+	private final File pcapFile;
+	private final long pollInterval;
+	private final List<PCapPacketListener> listeners =
+			new CopyOnWriteArrayList<PCapPacketListener>();
+
+	private Thread tailingThread;
+	private volatile boolean running;
+	private volatile Exception failure;
+	private volatile long packetsRead;
+
+	/* file being followed (only used by the tailing thread) */
+	private FileChannel channel;
+	private long readOffset;
+	private final ByteBuffer recordHeader;
+
+	/* file properties, read from its global header */
+	private volatile PCapFileParser headerInfo;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a tailer with the default polling interval.
+	 *
+	 * @param filePath path to the PCap file to follow (it may not
+	 *                 exist yet when the tailer is started).
+	 */
+	public PCapFileTailer(String filePath) {
+		this(filePath, DEFAULT_POLL_INTERVAL);
+	}
+
+	/**
+	 * Constructor for a tailer.
+	 *
+	 * @param filePath path to the PCap file to follow (it may not
+	 *                 exist yet when the tailer is started).
+	 * @param pollInterval maximal interval between two checks of the file,
+	 *                     in milliseconds (and thus maximal latency of
+	 *                     the delivery of new packets).
+	 * @throws IllegalArgumentException if <code>pollInterval</code>
+	 *                                  is not strictly positive.
+	 */
+	public PCapFileTailer(String filePath, long pollInterval)
+	throws IllegalArgumentException
+	{
+		if (pollInterval <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_POLL_INTERVAL,
+					pollInterval));
+		}
+		this.pcapFile = new File(filePath);
+		this.pollInterval = pollInterval;
+		this.recordHeader =
+				ByteBuffer.allocate(PCapFileParser.PCAP_RECORD_HEADER_SIZE);
+	}
+
+	///*** ECOUTEURS ***///
+
+	/**
+	 * Register a listener, to be notified (in the tailing thread)
+	 * of each new packet appended to the file.
+	 *
+	 * @param listener the listener to register.
+	 */
+	public void addPacketListener(PCapPacketListener listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Unregister a listener.
+	 *
+	 * @param listener the listener to unregister.
+	 */
+	public void removePacketListener(PCapPacketListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return a (closed) parser giving the properties read from the global
+	 *         header of the followed file, or <code>null</code> if that
+	 *         header has not been written yet.
+	 */
+	public PCapFileParser getHeaderInfo() {
+		return this.headerInfo;
+	}
+
+	/**
+	 * @return the number of packets read (and delivered) so far.
+	 */
+	public long getPacketsRead() {
+		return this.packetsRead;
+	}
+
+	/**
+	 * @return <code>true</code> if the tailing thread is running.
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * @return the error that stopped the tailing thread,
+	 *         or <code>null</code> if no error occurred.
+	 */
+	public Exception getFailure() {
+		return this.failure;
+	}
+
+	///*** CONTROLE ***///
+
+	/**
+	 * Start following the file, in a new (daemon) thread.
+	 *
+	 * @throws IllegalStateException if this tailer was already started.
+	 */
+	public synchronized void start() throws IllegalStateException {
+		if (this.tailingThread != null) {
+			throw new IllegalStateException(ERR_ALREADY_STARTED);
+		}
+		this.running = true;
+		this.tailingThread = new Thread(new Runnable() {
+			public void run() {
+				tail();
+			}
+		}, "PCap tailer: " + this.pcapFile.getName());
+		this.tailingThread.setDaemon(true);
+		this.tailingThread.start();
+	}
+
+	/**
+	 * Stop following the file, and wait for the tailing thread to end.
+	 */
+	@Override
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			this.running = false;
+			thread = this.tailingThread;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Body of the tailing thread.
+	 */
+	private void tail() {
+		WatchService watcher = createWatcher();
+		try {
+			while (this.running) {
+				if (!(readAvailablePackets())) {
+					waitForChange(watcher);
+				}
+			}
+		} catch (InterruptedException exc) {
+			/* closed */
+		} catch (Exception exc) {
+			if (this.running) this.failure = exc;
+		} finally {
+			this.running = false;
+			closeQuietly(this.channel);
+			closeQuietly(watcher);
+		}
+	}
+
+	/**
+	 * Read the complete packets appended to the file since last call.
+	 *
+	 * @return <code>true</code> if some progress was made.
+	 */
+	private boolean readAvailablePackets() throws IOException {
+		if (this.channel == null) {
+			if (!(this.pcapFile.isFile())) return false;
+			this.channel = new FileInputStream(this.pcapFile).getChannel();
+		}
+		long size = this.channel.size();
+		if (size < this.readOffset) {
+			/* truncated file: start again from its beginning */
+			this.headerInfo = null;
+		}
+		if (this.headerInfo == null) {
+			if (size <= PCapFileParser.PCAP_FILE_GLOBAL_HEADER_SIZE) {
+				return false;
+			}
+			readGlobalHeader();
+		}
+
+		boolean progress = false;
+		boolean nanoPrec = this.headerInfo.hasExtendedTimeResolution();
+		while (this.running) {
+			long left = size - this.readOffset;
+			if (left < PCapFileParser.PCAP_RECORD_HEADER_SIZE) break;
+			this.recordHeader.clear();
+			readFully(this.recordHeader, this.readOffset);
+			int ts = this.recordHeader.getInt(0);
+			int ssec = this.recordHeader.getInt(4);
+			int len = this.recordHeader.getInt(8);
+			int origLen = this.recordHeader.getInt(12);
+			if (left < PCapFileParser.PCAP_RECORD_HEADER_SIZE + len) {
+				/* record not completely written yet */
+				break;
+			}
+
+			byte[] data = new byte[len];
+			readFully(ByteBuffer.wrap(data),
+			          this.readOffset + PCapFileParser.PCAP_RECORD_HEADER_SIZE);
+			this.readOffset += PCapFileParser.PCAP_RECORD_HEADER_SIZE + len;
+			PCapSniffedPacket packet = new PCapSniffedPacket(
+					ts, ssec, nanoPrec, len, origLen, data, false);
+			this.packetsRead++;
+			for (PCapPacketListener listener: this.listeners) {
+				listener.packetReceived(packet);
+			}
+			progress = true;
+		}
+		return progress;
+	}
+
+	private void readGlobalHeader()
+	throws IllegalArgumentException, IOException
+	{
+		PCapFileParser parser = new PCapFileParser(this.pcapFile.getPath());
+		parser.close();
+		/* records are read with fixed-size headers, at known offsets */
+		if (parser.getCompressionFormat() != CompressionFormat.NONE) {
+			throw new IllegalArgumentException(String.format(
+					ERR_COMPRESSED_FILE,
+					this.pcapFile.getName(),
+					parser.getCompressionFormat()));
+		}
+		if (parser.isPcapNg()) {
+			throw new IllegalArgumentException(String.format(
+					ERR_PCAPNG_FILE,
+					this.pcapFile.getName()));
+		}
+		this.recordHeader.order(parser.isByteSwapped() ?
+		                        ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		this.readOffset = PCapFileParser.PCAP_FILE_GLOBAL_HEADER_SIZE;
+		this.headerInfo = parser;
+	}
+
+	private void readFully(ByteBuffer dst, long offset) throws IOException {
+		long pos = offset;
+		while (dst.hasRemaining()) {
+			int n = this.channel.read(dst, pos);
+			if (n < 0) throw new EOFException(ERR_FILE_SHRUNK);
+			pos += n;
+		}
+	}
+
+	private WatchService createWatcher() {
+		try {
+			File dir = this.pcapFile.getAbsoluteFile().getParentFile();
+			WatchService watcher = FileSystems.getDefault().newWatchService();
+			Path dirPath = dir.toPath();
+			dirPath.register(watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			return watcher;
+		} catch (IOException exc) {
+			/* polling only */
+			return null;
+		} catch (UnsupportedOperationException exc) {
+			/* polling only */
+			return null;
+		}
+	}
+
+	/**
+	 * Wait until the file may have changed, or the polling interval
+	 * has elapsed.
+	 */
+	private void waitForChange(WatchService watcher)
+	throws InterruptedException
+	{
+		if (watcher == null) {
+			Thread.sleep(this.pollInterval);
+			return;
+		}
+		WatchKey key = watcher.poll(this.pollInterval, TimeUnit.MILLISECONDS);
+		if (key != null) {
+			key.pollEvents();
+			key.reset();
+		}
+	}
+
+	private static void closeQuietly(Closeable res) {
+		if (res == null) return;
+		try {
+			res.close();
+		} catch (IOException exc) {
+			/* nothing more to release */
+		}
+	}
+
+}
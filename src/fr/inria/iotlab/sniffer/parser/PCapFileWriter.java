@@ -0,0 +1,827 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Writer class for PCap files: counterpart of <code>PCapFileParser</code>,
+ * e.g. to save filtered, merged or anonymized subsets of captures.
+ * <br/>
+ * Files can be written with either microsecond or nanosecond timestamps
+ * (the timestamps of the packets being converted as needed), and in either
+ * byte order. Records are accumulated in a large, reusable direct buffer,
+ * written in one go when full; packets too large for the remaining space
+ * are written along with the buffer by a single gathering write, without
+ * being copied.
+ * <br/>
+ * In asynchronous mode, full buffers are handed over to a dedicated thread
+ * which writes them while the next ones are being filled, so that the
+ * production of packets (parsing, filtering...) overlaps with the disk
+ * writes. I/O errors of this thread are reported by the next calls to
+ * the writer.
+ * <br/>
+ * The global header is written along with the first packet (or when the
+ * writer is flushed or closed): until then, the maximal packet length and
+ * time zone of the file can be changed. Data is only guaranteed to be
+ * written once the writer has been closed.
+ *
+ * @author KR
+ * @see PCapFileParser
+ */
+public class PCapFileWriter implements Closeable, Flushable {
+
+	///*** CONSTANTES ***///
+
+	/** Default size of the output buffers, in bytes. */
+	public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	/** Default maximal length of the packets, in bytes. */
+	public static final int DEFAULT_MAX_PACKET_LENGTH = 262144;
+
+	/** Version of the PCap format written. */
+	public static final short PCAP_VERSION_MAJOR = 2;
+	public static final short PCAP_VERSION_MINOR = 4;
+
+	/**
+	 * Number of buffers in asynchronous mode: one being filled,
+	 * the others being written or waiting to be.
+	 */
+	private static final int ASYNC_BUFFER_COUNT = 3;
+
+	/** Marker of the end of the data, for the writing thread. */
+	private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+
+	/** Name of non-file destinations, as given to the writing thread. */
+	private static final String STREAM_DESTINATION_NAME = "<output stream>";
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_NULL_NETWORK_TYPE =
+			"The network type of the written packets must be known!";
+	private static final String ERR_BAD_BUFFER_SIZE =
+			"Buffer size must be at least %d bytes (got %d)!";
+	private static final String ERR_BAD_MAX_PACKET_LENGTH =
+			"Maximal packet length must be strictly positive (got %d)!";
+	private static final String ERR_HEADER_WRITTEN =
+			"The global header of the file has already been written!";
+	private static final String ERR_TIMESTAMP_OUT_OF_RANGE =
+			"Timestamp %d cannot be stored in a PCap file" +
+			" (32-bit unsigned number of seconds)!";
+	private static final String ERR_WRITER_CLOSED =
+			"This PCap writer has been closed!";
+	private static final String ERR_ASYNC_WRITE_FAILED =
+			"Writing to %s failed in the writing thread!";
+
+	///*** ATTRIBUTS ***///
+
+	/* destination, and its name (for messages) */
+	private final WritableByteChannel channel;
+	private final GatheringByteChannel gatheringChannel;
+	private final String destinationName;
+
+	/* format of the file */
+	private final NetworkType netType;
+	private final boolean nanosecondPrecision;
+	private final ByteOrder byteOrder;
+	private int maxPacketLength;
+	private int timeZoneDelta;
+
+	/* writing state */
+	private ByteBuffer buffer;
+	private final ByteBuffer[] gatheredBuffers;
+	private boolean headerWritten;
+	private boolean closed;
+	private long packetsWritten;
+	private long bytesWritten;
+
+	/* asynchronous mode: buffers to write and buffers to fill,
+	   writing thread, and its first I/O error */
+	private final BlockingQueue<ByteBuffer> fullBuffers;
+	private final BlockingQueue<ByteBuffer> freeBuffers;
+	private final Thread writingThread;
+	private volatile IOException writeFailure;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a PCap file writer, with microsecond timestamps,
+	 * in the native byte order, and synchronous writes.
+	 *
+	 * @param filePath path to the PCap file to write
+	 *                 (replaced if it already exists).
+	 * @param netType data link type of the written packets.
+	 *
+	 * @throws IllegalArgumentException if <code>netType</code>
+	 *                                  is <code>null</code>.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public PCapFileWriter(String filePath, NetworkType netType)
+	throws IllegalArgumentException, IOException
+	{
+		this(filePath, netType, false, ByteOrder.nativeOrder(), false);
+	}
+
+	/**
+	 * Constructor for a PCap file writer.
+	 *
+	 * @param filePath path to the PCap file to write
+	 *                 (replaced if it already exists).
+	 * @param netType data link type of the written packets.
+	 * @param nanosecondPrecision <code>true</code> to write timestamps
+	 *                            with nanosecond precision;
+	 *                            <code>false</code> for microseconds.
+	 * @param byteOrder byte order of the file's numeric values.
+	 * @param asynchronous <code>true</code> to write the data
+	 *                     in a dedicated thread.
+	 *
+	 * @throws IllegalArgumentException if <code>netType</code>
+	 *                                  is <code>null</code>.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public PCapFileWriter(String filePath, NetworkType netType,
+	                      boolean nanosecondPrecision, ByteOrder byteOrder,
+	                      boolean asynchronous)
+	throws IllegalArgumentException, IOException
+	{
+		this(openFile(filePath, netType), new File(filePath).getName(),
+		     netType, nanosecondPrecision, byteOrder, asynchronous,
+		     DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor for a PCap file writer, using the same format
+	 * (network type, timestamp precision, byte order, time zone and
+	 * maximal packet length) as the file read by the given parser.
+	 *
+	 * @param filePath path to the PCap file to write
+	 *                 (replaced if it already exists).
+	 * @param format the parser from which the format is copied.
+	 * @param asynchronous <code>true</code> to write the data
+	 *                     in a dedicated thread.
+	 *
+	 * @throws IllegalArgumentException if the network type
+	 *                                  of <code>format</code>
+	 *                                  is unknown.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public PCapFileWriter(String filePath, PCapFileParser format,
+	                      boolean asynchronous)
+	throws IllegalArgumentException, IOException
+	{
+		this(filePath, format.getNetworkType(),
+		     format.hasExtendedTimeResolution(),
+		     (format.isByteSwapped() ?
+		      ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN),
+		     asynchronous);
+		if (format.getMaxPacketLength() > 0) {
+			this.maxPacketLength = format.getMaxPacketLength();
+		}
+		this.timeZoneDelta = format.getTimeZoneDelta();
+	}
+
+	/**
+	 * Constructor for a PCap writer writing its data to a stream
+	 * (e.g.: a pipe, a socket, or the standard output).
+	 * <br/>
+	 * The stream belongs to the writer, and is closed by
+	 * <code>close()</code>.
+	 *
+	 * @param output the stream to which PCap data is written.
+	 * @param netType data link type of the written packets.
+	 * @param nanosecondPrecision <code>true</code> to write timestamps
+	 *                            with nanosecond precision;
+	 *                            <code>false</code> for microseconds.
+	 * @param byteOrder byte order of the written numeric values.
+	 * @param asynchronous <code>true</code> to write the data
+	 *                     in a dedicated thread.
+	 *
+	 * @throws IllegalArgumentException if <code>netType</code>
+	 *                                  is <code>null</code>.
+	 */
+	public PCapFileWriter(OutputStream output, NetworkType netType,
+	                      boolean nanosecondPrecision, ByteOrder byteOrder,
+	                      boolean asynchronous)
+	throws IllegalArgumentException
+	{
+		this(Channels.newChannel(output), netType, nanosecondPrecision,
+		     byteOrder, asynchronous);
+	}
+
+	/**
+	 * Constructor for a PCap writer writing its data to a channel
+	 * (which must be in blocking mode).
+	 * <br/>
+	 * The channel belongs to the writer, and is closed by
+	 * <code>close()</code>.
+	 *
+	 * @param channel the channel to which PCap data is written.
+	 * @param netType data link type of the written packets.
+	 * @param nanosecondPrecision <code>true</code> to write timestamps
+	 *                            with nanosecond precision;
+	 *                            <code>false</code> for microseconds.
+	 * @param byteOrder byte order of the written numeric values.
+	 * @param asynchronous <code>true</code> to write the data
+	 *                     in a dedicated thread.
+	 *
+	 * @throws IllegalArgumentException if <code>netType</code>
+	 *                                  is <code>null</code>.
+	 */
+	public PCapFileWriter(WritableByteChannel channel, NetworkType netType,
+	                      boolean nanosecondPrecision, ByteOrder byteOrder,
+	                      boolean asynchronous)
+	throws IllegalArgumentException
+	{
+		this(channel, STREAM_DESTINATION_NAME, netType, nanosecondPrecision,
+		     byteOrder, asynchronous, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor for a PCap writer writing its data to a channel,
+	 * through buffers of the given size.
+	 *
+	 * @param channel the channel to which PCap data is written.
+	 * @param netType data link type of the written packets.
+	 * @param nanosecondPrecision <code>true</code> to write timestamps
+	 *                            with nanosecond precision;
+	 *                            <code>false</code> for microseconds.
+	 * @param byteOrder byte order of the written numeric values.
+	 * @param asynchronous <code>true</code> to write the data
+	 *                     in a dedicated thread.
+	 * @param bufferSize size of the output buffer(s), in bytes.
+	 *
+	 * @throws IllegalArgumentException if <code>netType</code>
+	 *                                  is <code>null</code>, or if
+	 *                                  <code>bufferSize</code> is too
+	 *                                  small to hold a global header.
+	 */
+	public PCapFileWriter(WritableByteChannel channel, NetworkType netType,
+	                      boolean nanosecondPrecision, ByteOrder byteOrder,
+	                      boolean asynchronous, int bufferSize)
+	throws IllegalArgumentException
+	{
+		this(channel, STREAM_DESTINATION_NAME, netType, nanosecondPrecision,
+		     byteOrder, asynchronous, bufferSize);
+	}
+
+	private PCapFileWriter(WritableByteChannel channel,
+	                       String destinationName, NetworkType netType,
+	                       boolean nanosecondPrecision, ByteOrder byteOrder,
+	                       boolean asynchronous, int bufferSize)
+	throws IllegalArgumentException
+	{
+		if (netType == null) {
+			throw new IllegalArgumentException(ERR_NULL_NETWORK_TYPE);
+		}
+		if (bufferSize < PCapFileParser.PCAP_FILE_GLOBAL_HEADER_SIZE) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_BUFFER_SIZE,
+					PCapFileParser.PCAP_FILE_GLOBAL_HEADER_SIZE,
+					bufferSize));
+		}
+		this.channel = channel;
+		this.gatheringChannel = (channel instanceof GatheringByteChannel ?
+		                         (GatheringByteChannel) channel : null);
+		this.destinationName = destinationName;
+		this.netType = netType;
+		this.nanosecondPrecision = nanosecondPrecision;
+		this.byteOrder = byteOrder;
+		this.maxPacketLength = DEFAULT_MAX_PACKET_LENGTH;
+		this.timeZoneDelta = 0;
+
+		this.buffer = newBuffer(bufferSize);
+		this.gatheredBuffers = new ByteBuffer[2];
+		if (asynchronous) {
+			this.fullBuffers = new ArrayBlockingQueue<ByteBuffer>(
+					ASYNC_BUFFER_COUNT);
+			this.freeBuffers = new ArrayBlockingQueue<ByteBuffer>(
+					ASYNC_BUFFER_COUNT);
+			for (int i = 1; i < ASYNC_BUFFER_COUNT; i++) {
+				this.freeBuffers.add(newBuffer(bufferSize));
+			}
+			this.writingThread = new Thread(new Runnable() {
+				public void run() {
+					writeBuffers();
+				}
+			}, "PCap writer: " + destinationName);
+			this.writingThread.setDaemon(true);
+			this.writingThread.start();
+		} else {
+			this.fullBuffers = null;
+			this.freeBuffers = null;
+			this.writingThread = null;
+		}
+	}
+
+	private static WritableByteChannel openFile(String filePath,
+	                                            NetworkType netType)
+	throws IllegalArgumentException, IOException
+	{
+		/* check before creating the file */
+		if (netType == null) {
+			throw new IllegalArgumentException(ERR_NULL_NETWORK_TYPE);
+		}
+		return new FileOutputStream(filePath).getChannel();
+	}
+
+	private ByteBuffer newBuffer(int size) {
+		return ByteBuffer.allocateDirect(size).order(this.byteOrder);
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the data link type of the written packets.
+	 */
+	public NetworkType getNetworkType() {
+		return this.netType;
+	}
+
+	/**
+	 * @return <code>true</code> if timestamps are written with
+	 *         nanosecond precision; <br/>
+	 *         <code>false</code> if they are written with
+	 *         microsecond precision.
+	 */
+	public boolean hasNanosecondPrecision() {
+		return this.nanosecondPrecision;
+	}
+
+	/**
+	 * @return the byte order of the file's numeric values.
+	 */
+	public ByteOrder getByteOrder() {
+		return this.byteOrder;
+	}
+
+	/**
+	 * @return <code>true</code> if data is written in a dedicated thread.
+	 */
+	public boolean isAsynchronous() {
+		return (this.writingThread != null);
+	}
+
+	/**
+	 * @return the maximal length of the packets in the file, in bytes.
+	 */
+	public int getMaxPacketLength() {
+		return this.maxPacketLength;
+	}
+
+	/**
+	 * Set the maximal length of the packets in the file: longer packets
+	 * are truncated (their original length being kept).
+	 *
+	 * @param maxPacketLength maximal length of packets, in bytes.
+	 * @throws IllegalArgumentException if <code>maxPacketLength</code>
+	 *                                  is not strictly positive.
+	 * @throws IllegalStateException if the global header
+	 *                               has already been written.
+	 */
+	public void setMaxPacketLength(int maxPacketLength)
+	throws IllegalArgumentException, IllegalStateException
+	{
+		if (maxPacketLength <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_MAX_PACKET_LENGTH,
+					maxPacketLength));
+		}
+		checkHeaderNotWritten();
+		this.maxPacketLength = maxPacketLength;
+	}
+
+	/**
+	 * @return the file's time zone ("correction"/delta from GMT in seconds).
+	 */
+	public int getTimeZoneDelta() {
+		return this.timeZoneDelta;
+	}
+
+	/**
+	 * Set the file's time zone.
+	 *
+	 * @param timeZoneDelta delta from GMT, in seconds.
+	 * @throws IllegalStateException if the global header
+	 *                               has already been written.
+	 */
+	public void setTimeZoneDelta(int timeZoneDelta)
+	throws IllegalStateException
+	{
+		checkHeaderNotWritten();
+		this.timeZoneDelta = timeZoneDelta;
+	}
+
+	/**
+	 * @return the number of packets written so far.
+	 */
+	public long getPacketsWritten() {
+		return this.packetsWritten;
+	}
+
+	/**
+	 * @return the number of bytes written so far (including
+	 *         those still in the buffers), headers included.
+	 */
+	public long getBytesWritten() {
+		return this.bytesWritten;
+	}
+
+	///*** METHODES D'ECRITURE ***///
+
+	/**
+	 * Write a packet.
+	 *
+	 * @param packet the packet to write.
+	 * @throws IllegalArgumentException if the timestamp of the packet
+	 *                                  is out of the PCap format range.
+	 * @throws IOException if an I/O error prevents the data from being
+	 *                     written (possibly in the writing thread,
+	 *                     for previous packets).
+	 */
+	public void writePacket(PCapSniffedPacket packet)
+	throws IllegalArgumentException, IOException
+	{
+		byte[] data = packet.getPacketData();
+		writePacket(packet.getTimestampSeconds(),
+		            packet.getTimestampFraction(),
+		            packet.hasNanosecondPrecision(),
+		            packet.getOriginalPacketLength(),
+		            data, 0, data.length);
+	}
+
+	/**
+	 * Write the current packet of the given cursor, without building
+	 * any packet object: the data is copied directly from the parser's
+	 * buffer.
+	 *
+	 * @param cursor the cursor, positioned on the packet to write.
+	 * @throws IllegalArgumentException if the timestamp of the packet
+	 *                                  is out of the PCap format range.
+	 * @throws IllegalStateException if the cursor is not positioned on
+	 *                               a packet.
+	 * @throws IOException if an I/O error prevents the packet from being
+	 *                     read, or the data from being written.
+	 */
+	public void writePacket(PacketCursor cursor)
+	throws IllegalArgumentException, IOException
+	{
+		writePacket(cursor.getTimestampSeconds(),
+		            cursor.getTimestampFraction(),
+		            cursor.hasNanosecondPrecision(),
+		            cursor.getOriginalPacketLength(),
+		            cursor.getPacketData());
+	}
+
+	/**
+	 * Write a packet, given as a buffer.
+	 *
+	 * @param seconds timestamp of the packet, in seconds
+	 *                since the Unix epoch.
+	 * @param fraction sub-second fraction of the timestamp.
+	 * @param nanosecondFraction <code>true</code> if <code>fraction</code>
+	 *                           is in nanoseconds; <code>false</code>
+	 *                           if it is in microseconds.
+	 * @param originalLength original length of the packet.
+	 * @param data the packet data, from its position to its limit
+	 *             (the position of the buffer is left unchanged).
+	 * @throws IllegalArgumentException if the timestamp of the packet
+	 *                                  is out of the PCap format range.
+	 * @throws IOException if an I/O error prevents the data from being
+	 *                     written.
+	 */
+	public void writePacket(long seconds, int fraction,
+	                        boolean nanosecondFraction, int originalLength,
+	                        ByteBuffer data)
+	throws IllegalArgumentException, IOException
+	{
+		int available = data.remaining();
+		int length = Math.min(available, this.maxPacketLength);
+		writeRecordHeader(seconds, fraction, nanosecondFraction,
+		                  length, Math.max(available, originalLength));
+		int limit = data.limit();
+		int position = data.position();
+		data.limit(position + length);
+		try {
+			writeData(data);
+		} finally {
+			data.limit(limit);
+			data.position(position);
+		}
+		this.packetsWritten++;
+	}
+
+	/**
+	 * Write a packet, given as an array.
+	 *
+	 * @param seconds timestamp of the packet, in seconds
+	 *                since the Unix epoch.
+	 * @param fraction sub-second fraction of the timestamp.
+	 * @param nanosecondFraction <code>true</code> if <code>fraction</code>
+	 *                           is in nanoseconds; <code>false</code>
+	 *                           if it is in microseconds.
+	 * @param originalLength original length of the packet.
+	 * @param data array holding the packet data.
+	 * @param offset offset of the packet data in <code>data</code>.
+	 * @param length length of the packet data.
+	 * @throws IllegalArgumentException if the timestamp of the packet
+	 *                                  is out of the PCap format range.
+	 * @throws IOException if an I/O error prevents the data from being
+	 *                     written.
+	 */
+	public void writePacket(long seconds, int fraction,
+	                        boolean nanosecondFraction, int originalLength,
+	                        byte[] data, int offset, int length)
+	throws IllegalArgumentException, IOException
+	{
+		int written = Math.min(length, this.maxPacketLength);
+		if (written > this.buffer.capacity() / 2) {
+			/* large packet: avoid copying it */
+			writePacket(seconds, fraction, nanosecondFraction,
+			            Math.max(length, originalLength),
+			            ByteBuffer.wrap(data, offset, written));
+			return;
+		}
+		writeRecordHeader(seconds, fraction, nanosecondFraction,
+		                  written, Math.max(length, originalLength));
+		if (written > this.buffer.remaining()) {
+			flushBuffer();
+		}
+		this.buffer.put(data, offset, written);
+		this.bytesWritten += written;
+		this.packetsWritten++;
+	}
+
+	/**
+	 * Write all the remaining packets read by the given parser
+	 * (i.e.: those selected by its filter, if any).
+	 *
+	 * @param parser the parser from which the packets are read.
+	 * @return the number of packets written.
+	 * @throws IOException if an I/O error prevents the packets from being
+	 *                     read or written.
+	 */
+	public long writePackets(PCapFileParser parser) throws IOException {
+		long count = 0L;
+		PacketCursor cursor = parser.getPacketCursor();
+		while (cursor.next()) {
+			writePacket(cursor);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Write the buffered data. In asynchronous mode, this waits
+	 * until the writing thread has written it.
+	 *
+	 * @throws IOException if an I/O error prevents the data from being
+	 *                     written.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		writeGlobalHeaderIfNeeded();
+		flushBuffer();
+		if (this.writingThread != null) {
+			awaitWrites();
+		}
+	}
+
+	/**
+	 * Write the buffered data, stop the writing thread (if any),
+	 * and close the destination.
+	 *
+	 * @throws IOException if an I/O error prevents the data from being
+	 *                     written, or the destination from being closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) return;
+		try {
+			writeGlobalHeaderIfNeeded();
+			flushBuffer();
+			if (this.writingThread != null) {
+				handOver(END_OF_DATA);
+				joinWritingThread();
+				checkWriteFailure();
+			}
+		} finally {
+			this.closed = true;
+			if (this.writingThread != null) {
+				this.writingThread.interrupt();
+			}
+			this.channel.close();
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void writeGlobalHeaderIfNeeded() {
+		if (this.headerWritten) return;
+		this.buffer.putInt(this.nanosecondPrecision ?
+		                   PCapFileParser.PCAP_MAGIC_NUMBER_NANOSEC :
+		                   PCapFileParser.PCAP_MAGIC_NUMBER_MICROSEC);
+		this.buffer.putShort(PCAP_VERSION_MAJOR);
+		this.buffer.putShort(PCAP_VERSION_MINOR);
+		this.buffer.putInt(this.timeZoneDelta);
+		this.buffer.putInt(0);
+		this.buffer.putInt(this.maxPacketLength);
+		this.buffer.putInt(this.netType.getID());
+		this.bytesWritten += PCapFileParser.PCAP_FILE_GLOBAL_HEADER_SIZE;
+		this.headerWritten = true;
+	}
+
+	private void writeRecordHeader(long seconds, int fraction,
+	                               boolean nanosecondFraction,
+	                               int length, int originalLength)
+	throws IllegalArgumentException, IOException
+	{
+		checkOpen();
+		if (seconds < 0L || seconds > 0xFFFFFFFFL) {
+			throw new IllegalArgumentException(String.format(
+					ERR_TIMESTAMP_OUT_OF_RANGE,
+					seconds));
+		}
+		if (nanosecondFraction != this.nanosecondPrecision) {
+			fraction = (nanosecondFraction ? fraction / 1000 : fraction * 1000);
+		}
+		writeGlobalHeaderIfNeeded();
+		if (this.buffer.remaining() < PCapFileParser.PCAP_RECORD_HEADER_SIZE) {
+			flushBuffer();
+		}
+		this.buffer.putInt((int) seconds);
+		this.buffer.putInt(fraction);
+		this.buffer.putInt(length);
+		this.buffer.putInt(originalLength);
+		this.bytesWritten += PCapFileParser.PCAP_RECORD_HEADER_SIZE;
+	}
+
+	/**
+	 * Write the given data, which follows the data of the buffer.
+	 */
+	private void writeData(ByteBuffer data) throws IOException {
+		int length = data.remaining();
+		this.bytesWritten += length;
+		if (length <= this.buffer.remaining()) {
+			this.buffer.put(data);
+			return;
+		}
+		if (this.gatheringChannel != null && this.writingThread == null) {
+			/* write the buffer and the data together, without copying */
+			this.buffer.flip();
+			this.gatheredBuffers[0] = this.buffer;
+			this.gatheredBuffers[1] = data;
+			try {
+				while (this.buffer.hasRemaining() || data.hasRemaining()) {
+					this.gatheringChannel.write(this.gatheredBuffers);
+				}
+			} finally {
+				this.gatheredBuffers[1] = null;
+				this.buffer.clear();
+			}
+			return;
+		}
+		/* copy the data through as many buffers as needed */
+		int limit = data.limit();
+		while (data.hasRemaining()) {
+			if (!(this.buffer.hasRemaining())) {
+				flushBuffer();
+			}
+			data.limit(Math.min(limit,
+			                    data.position() + this.buffer.remaining()));
+			this.buffer.put(data);
+			data.limit(limit);
+		}
+	}
+
+	/**
+	 * Write the contents of the buffer, or hand it over to the writing
+	 * thread (and take an empty one).
+	 */
+	private void flushBuffer() throws IOException {
+		if (this.buffer.position() == 0) return;
+		this.buffer.flip();
+		if (this.writingThread == null) {
+			writeFully(this.channel, this.buffer);
+			this.buffer.clear();
+			return;
+		}
+		checkWriteFailure();
+		handOver(this.buffer);
+		try {
+			this.buffer = this.freeBuffers.take();
+		} catch (InterruptedException exc) {
+			throw interrupted();
+		}
+	}
+
+	private void handOver(ByteBuffer full) throws IOException {
+		try {
+			this.fullBuffers.put(full);
+		} catch (InterruptedException exc) {
+			throw interrupted();
+		}
+	}
+
+	/**
+	 * Wait until the writing thread has written all the buffers
+	 * handed over so far.
+	 */
+	private void awaitWrites() throws IOException {
+		ByteBuffer[] spare = new ByteBuffer[ASYNC_BUFFER_COUNT - 1];
+		int taken = 0;
+		try {
+			while (taken < spare.length) {
+				spare[taken] = this.freeBuffers.take();
+				taken++;
+			}
+		} catch (InterruptedException exc) {
+			throw interrupted();
+		} finally {
+			for (int i = 0; i < taken; i++) {
+				this.freeBuffers.add(spare[i]);
+			}
+		}
+		checkWriteFailure();
+	}
+
+	private void joinWritingThread() throws IOException {
+		try {
+			this.writingThread.join();
+		} catch (InterruptedException exc) {
+			throw interrupted();
+		}
+	}
+
+	/**
+	 * Body of the writing thread.
+	 */
+	private void writeBuffers() {
+		try {
+			while (true) {
+				ByteBuffer full = this.fullBuffers.take();
+				if (full == END_OF_DATA) break;
+				if (this.writeFailure == null) {
+					try {
+						writeFully(this.channel, full);
+					} catch (IOException exc) {
+						/* reported by the next call to the writer */
+						this.writeFailure = exc;
+					}
+				}
+				full.clear();
+				this.freeBuffers.put(full);
+			}
+		} catch (InterruptedException exc) {
+			/* closed */
+		}
+	}
+
+	private static void writeFully(WritableByteChannel channel,
+	                               ByteBuffer src)
+	throws IOException
+	{
+		while (src.hasRemaining()) {
+			channel.write(src);
+		}
+	}
+
+	private void checkWriteFailure() throws IOException {
+		if (this.writeFailure != null) {
+			throw new IOException(String.format(
+					ERR_ASYNC_WRITE_FAILED,
+					this.destinationName),
+					this.writeFailure);
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException(ERR_WRITER_CLOSED);
+		}
+	}
+
+	private void checkHeaderNotWritten() throws IllegalStateException {
+		if (this.headerWritten) {
+			throw new IllegalStateException(ERR_HEADER_WRITTEN);
+		}
+	}
+
+	private static InterruptedIOException interrupted() {
+		Thread.currentThread().interrupt();
+		return new InterruptedIOException();
+	}
+
+}
@@ -0,0 +1,748 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader of the blocks of a pcapng file, turning its packet blocks into
+ * the same records as those of classic PCap files, for a
+ * <code>PCapFileParser</code>.
+ * <br/>
+ * Blocks are read one at a time from the parser's
+ * <code>PCapRecordSource</code>, so that pcapng files are streamed just
+ * like classic ones, and packet data goes through the same (zero-copy)
+ * views. Section Header Blocks set the byte order of the blocks that
+ * follow; Interface Description Blocks define the link type, maximal
+ * packet length and timestamp resolution (<tt>if_tsresol</tt>) and
+ * offset (<tt>if_tsoffset</tt>) of each interface; Enhanced, Simple and
+ * (obsolete) Packet Blocks are returned as records, their timestamps
+ * being converted into seconds and nanoseconds. Other blocks (name
+ * resolution, statistics...) are skipped.
+ * <br/>
+ * Simple Packet Blocks have no timestamp: they are given the timestamp
+ * of the previous packet, so that timestamps remain ordered.
+ * <br/>
+ * The interfaces of the sections read so far are kept, so that reading
+ * can be resumed at any block boundary (e.g.: through a packet index);
+ * when a packet then refers to an interface described further than what
+ * has been read, the section is scanned for its description.
+ *
+ * @author KR
+ */
+final class PCapNgBlockReader {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Interface described by an Interface Description Block.
+	 */
+	private static final class Interface {
+
+		final long blockOffset;
+		final int linkType;
+		final NetworkType netType;
+		final int snapLength;
+
+		/* timestamp conversion: units per second (decimal resolutions),
+		   or number of fractional bits (binary resolutions) */
+		final long unitsPerSecond;
+		final int binaryShift;
+		final long timeOffset;
+
+		Interface(long blockOffset, int linkType, int snapLength,
+		          long unitsPerSecond, int binaryShift, long timeOffset)
+		{
+			this.blockOffset = blockOffset;
+			this.linkType = linkType;
+			this.netType = NetworkType.getNetworkTypeFromID(linkType);
+			this.snapLength = snapLength;
+			this.unitsPerSecond = unitsPerSecond;
+			this.binaryShift = binaryShift;
+			this.timeOffset = timeOffset;
+		}
+
+	}
+
+	/**
+	 * Section of the file, started by a Section Header Block.
+	 */
+	private static final class Section {
+
+		final long blockOffset;
+		final boolean byteSwapped;
+		final short versionMajor;
+		final short versionMinor;
+		final List<Interface> interfaces;
+
+		/* offset up to which the section has been scanned
+		   for interfaces, after a seek */
+		long scannedOffset;
+
+		Section(long blockOffset, boolean byteSwapped,
+		        short versionMajor, short versionMinor)
+		{
+			this.blockOffset = blockOffset;
+			this.byteSwapped = byteSwapped;
+			this.versionMajor = versionMajor;
+			this.versionMinor = versionMinor;
+			this.interfaces = new ArrayList<Interface>();
+			this.scannedOffset = blockOffset;
+		}
+
+		long getLastInterfaceOffset() {
+			if (this.interfaces.isEmpty()) return this.blockOffset;
+			return this.interfaces.get(this.interfaces.size() - 1).blockOffset;
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/* block types */
+	static final int BLOCK_SECTION_HEADER = 0x0A0D0D0A;
+	static final int BLOCK_INTERFACE_DESCRIPTION = 0x00000001;
+	static final int BLOCK_PACKET = 0x00000002;
+	static final int BLOCK_SIMPLE_PACKET = 0x00000003;
+	static final int BLOCK_ENHANCED_PACKET = 0x00000006;
+
+	/** Byte-order magic of Section Header Blocks. */
+	private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+	private static final int BYTE_ORDER_MAGIC_SWAPPED = 0x4D3C2B1A;
+
+	/* interface options */
+	private static final int OPTION_END = 0;
+	private static final int OPTION_IF_TSRESOL = 9;
+	private static final int OPTION_IF_TSOFFSET = 14;
+
+	/** Default timestamp resolution: microseconds. */
+	private static final long DEFAULT_UNITS_PER_SECOND = 1000000L;
+	private static final long NANOSECONDS_PER_SECOND = 1000000000L;
+
+	/* sizes of the fixed parts of blocks, including their type,
+	   their total length and their trailing total length */
+	private static final int BLOCK_MIN_LENGTH = 12;
+	private static final int SECTION_HEADER_FIXED_LENGTH = 28;
+	private static final int INTERFACE_DESCRIPTION_FIXED_LENGTH = 20;
+	private static final int PACKET_FIXED_LENGTH = 32;
+	private static final int SIMPLE_PACKET_FIXED_LENGTH = 16;
+	private static final int BLOCK_TRAILER_LENGTH = 4;
+
+	/**
+	 * Number of consecutive blocks that must look valid for an offset
+	 * to be accepted as a block boundary when resynchronizing.
+	 */
+	private static final int RESYNC_CHECKED_BLOCKS = 8;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_BYTE_ORDER_MAGIC =
+			"Invalid byte-order magic in pcapng section header" +
+			" at offset %d!";
+	private static final String ERR_BAD_BLOCK_LENGTH =
+			"Invalid pcapng block length %d at offset %d!";
+	private static final String ERR_BAD_CAPTURED_LENGTH =
+			"Captured length %d of pcapng packet block at offset %d" +
+			" exceeds its block length!";
+	private static final String ERR_UNKNOWN_INTERFACE =
+			"Pcapng packet block at offset %d refers to" +
+			" undefined interface #%d!";
+	private static final String ERR_BAD_TIMESTAMP_RESOLUTION =
+			"Unsupported pcapng timestamp resolution 0x%02x" +
+			" for interface at offset %d!";
+	private static final String ERR_NO_INTERFACE =
+			"No interface is described in pcapng file %s!";
+
+	///*** ATTRIBUTS ***///
+
+	private final PCapRecordSource source;
+
+	/* sections read so far (in file order), and current section */
+	private final List<Section> sections;
+	private Section section;
+
+	/* current packet block: offset, interface, number of bytes left in
+	   the block after the packet data, and whether it has a timestamp */
+	private long packetOffset;
+	private Interface packetInterface;
+	private int pendingBlockEnd;
+	private boolean packetTimestamped;
+	private int lastSeconds;
+	private int lastNanoseconds;
+
+	/* option buffer */
+	private final byte[] optionValue;
+
+	///*** CONSTRUCTEUR ***///
+
+	/**
+	 * Constructor for a reader of the blocks of the given source, whose
+	 * first 4 bytes (the type of the first Section Header Block) have
+	 * just been read.
+	 * <br/>
+	 * The first section header is read, along with the blocks following
+	 * it up to the first Interface Description Block.
+	 *
+	 * @throws IllegalArgumentException if the file doesn't describe
+	 *                                  any interface before its first
+	 *                                  packet.
+	 * @throws IOException if an I/O error occurs, or if the blocks
+	 *                     are not valid.
+	 */
+	PCapNgBlockReader(PCapRecordSource source, String sourceName)
+	throws IllegalArgumentException, IOException
+	{
+		this.source = source;
+		this.sections = new ArrayList<Section>();
+		this.optionValue = new byte[8];
+		readSectionHeader(0L);
+		while (this.section.interfaces.isEmpty()) {
+			long offset = this.source.position();
+			int type = this.source.readInt();
+			if (type == BLOCK_SECTION_HEADER) {
+				readSectionHeader(offset);
+				continue;
+			}
+			int length = readBlockLength(offset);
+			if (type == BLOCK_INTERFACE_DESCRIPTION) {
+				readInterfaceDescription(offset, length);
+			} else if (type == BLOCK_ENHANCED_PACKET
+			           || type == BLOCK_SIMPLE_PACKET
+			           || type == BLOCK_PACKET)
+			{
+				throw new IllegalArgumentException(String.format(
+						ERR_NO_INTERFACE,
+						sourceName));
+			} else {
+				skipFully(length - 8);
+			}
+		}
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return <code>true</code> if the current section is little-endian.
+	 */
+	boolean isByteSwapped() {
+		return this.section.byteSwapped;
+	}
+
+	/**
+	 * @return the major version of the current section.
+	 */
+	short getVersionMajor() {
+		return this.section.versionMajor;
+	}
+
+	/**
+	 * @return the minor version of the current section.
+	 */
+	short getVersionMinor() {
+		return this.section.versionMinor;
+	}
+
+	/**
+	 * @return the number of interfaces described so far
+	 *         in the current section.
+	 */
+	int getInterfaceCount() {
+		return this.section.interfaces.size();
+	}
+
+	/**
+	 * @return the network type of the given interface
+	 *         of the current section.
+	 */
+	NetworkType getInterfaceNetworkType(int id) {
+		return this.section.interfaces.get(id).netType;
+	}
+
+	/**
+	 * @return the link type identifier of the given interface
+	 *         of the current section.
+	 */
+	int getInterfaceLinkType(int id) {
+		return this.section.interfaces.get(id).linkType;
+	}
+
+	/**
+	 * @return the maximal packet length of the given interface
+	 *         of the current section.
+	 */
+	int getInterfaceSnapLength(int id) {
+		return this.section.interfaces.get(id).snapLength;
+	}
+
+	/**
+	 * @return the offset in the file of the current packet block
+	 *         (other blocks before it having been skipped).
+	 */
+	long getPacketOffset() {
+		return this.packetOffset;
+	}
+
+	/**
+	 * @return the number of the interface of the current packet
+	 *         in its section.
+	 */
+	int getPacketInterfaceId() {
+		if (this.packetInterface == null) return 0;
+		return this.section.interfaces.indexOf(this.packetInterface);
+	}
+
+	/**
+	 * @return <code>true</code> if the current packet block has its own
+	 *         timestamp; <code>false</code> for a Simple Packet Block
+	 *         (whose timestamp is that of the previous packet read).
+	 */
+	boolean hasPacketTimestamp() {
+		return this.packetTimestamped;
+	}
+
+	/**
+	 * @return the network type of the interface of the current packet.
+	 */
+	NetworkType getPacketNetworkType() {
+		if (this.packetInterface == null) {
+			return getInterfaceNetworkType(0);
+		}
+		return this.packetInterface.netType;
+	}
+
+	/**
+	 * @return the link type identifier of the interface
+	 *         of the current packet.
+	 */
+	int getPacketLinkType() {
+		if (this.packetInterface == null) {
+			return getInterfaceLinkType(0);
+		}
+		return this.packetInterface.linkType;
+	}
+
+	///*** LECTURE ***///
+
+	/**
+	 * Read blocks up to the next packet block, and fill the given array
+	 * with its header (as timestamp seconds, timestamp nanoseconds,
+	 * captured length, original length). The packet data is then the
+	 * next bytes of the source; the rest of the block is skipped by
+	 * <code>skipBlockEnd()</code>, which must be called once the data
+	 * has been read or skipped.
+	 *
+	 * @return <code>true</code> if a packet block has been read;
+	 *         <code>false</code> if EOF has been attained.
+	 * @throws IOException if an I/O error occurs, or if the blocks
+	 *                     are not valid.
+	 */
+	boolean readPacketHeader(int[] header) throws IOException {
+		skipBlockEnd();
+		while (!(this.source.isAtEnd())) {
+			long offset = this.source.position();
+			int type = this.source.readInt();
+			if (type == BLOCK_SECTION_HEADER) {
+				readSectionHeader(offset);
+				continue;
+			}
+			int length = readBlockLength(offset);
+			switch (type) {
+			case BLOCK_ENHANCED_PACKET:
+				readEnhancedPacket(offset, length, header);
+				this.packetOffset = offset;
+				return true;
+			case BLOCK_SIMPLE_PACKET:
+				readSimplePacket(offset, length, header);
+				this.packetOffset = offset;
+				return true;
+			case BLOCK_PACKET:
+				readObsoletePacket(offset, length, header);
+				this.packetOffset = offset;
+				return true;
+			case BLOCK_INTERFACE_DESCRIPTION:
+				readInterfaceDescription(offset, length);
+				break;
+			default:
+				skipFully(length - 8);
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Skip the end of the current packet block (padding, options and
+	 * trailing length), if it has not been done yet.
+	 */
+	void skipBlockEnd() throws IOException {
+		int len = this.pendingBlockEnd;
+		if (len == 0) return;
+		this.pendingBlockEnd = 0;
+		skipFully(len);
+	}
+
+	/**
+	 * Take into account that the reading position of the source
+	 * has been moved to the given block boundary.
+	 */
+	void seek(long offset) {
+		this.pendingBlockEnd = 0;
+		for (Section s: this.sections) {
+			if (s.blockOffset > offset) break;
+			this.section = s;
+		}
+		this.source.setByteSwapped(this.section.byteSwapped);
+	}
+
+	/**
+	 * Find the first block boundary at or after the given offset,
+	 * by scanning the file for a position from which a chain of blocks
+	 * with consistent lengths (repeated at the end of each block) begins.
+	 * <br/>
+	 * The reading position is undefined after this call.
+	 *
+	 * @return the offset of the first block boundary found,
+	 *         or <code>-1</code> if none could be found before EOF.
+	 */
+	long findBlockBoundary(long from) throws IOException {
+		long size = this.source.length();
+		/* blocks are 32-bit aligned */
+		long start = (Math.max(from, 0L) + 3L) & ~3L;
+		for (long pos = start; pos + BLOCK_MIN_LENGTH <= size; pos += 4) {
+			seek(pos);
+			if (isPlausibleBlockChain(pos, size)) {
+				return pos;
+			}
+		}
+		return -1L;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * Read a Section Header Block, whose type has just been read.
+	 */
+	private void readSectionHeader(long offset) throws IOException {
+		int length = this.source.readInt();
+		int magic = this.source.readInt();
+		boolean swapped;
+		if (magic == BYTE_ORDER_MAGIC) {
+			swapped = (this.section == null ? false
+			                                : this.section.byteSwapped);
+		} else if (magic == BYTE_ORDER_MAGIC_SWAPPED) {
+			swapped = (this.section == null ? true
+			                                : !(this.section.byteSwapped));
+			length = Integer.reverseBytes(length);
+		} else {
+			throw new IOException(String.format(
+					ERR_BAD_BYTE_ORDER_MAGIC,
+					offset));
+		}
+		this.source.setByteSwapped(swapped);
+		checkBlockLength(length, SECTION_HEADER_FIXED_LENGTH, offset);
+		short versionMajor = this.source.readShort();
+		short versionMinor = this.source.readShort();
+		skipFully(length - 16);
+
+		/* sections already read are kept, with their interfaces */
+		Section known = null;
+		int pos = 0;
+		for (Section s: this.sections) {
+			if (s.blockOffset == offset) known = s;
+			if (s.blockOffset < offset) pos++;
+		}
+		if (known == null) {
+			known = new Section(offset, swapped, versionMajor, versionMinor);
+			this.sections.add(pos, known);
+		}
+		this.section = known;
+		this.packetInterface = null;
+	}
+
+	/**
+	 * Read an Interface Description Block, whose type
+	 * and length have just been read.
+	 */
+	private void readInterfaceDescription(long offset, int length)
+	throws IOException
+	{
+		checkBlockLength(length, INTERFACE_DESCRIPTION_FIXED_LENGTH, offset);
+		int linkType = this.source.readShort() & 0xFFFF;
+		this.source.readShort();
+		int snapLength = this.source.readInt();
+
+		long unitsPerSecond = DEFAULT_UNITS_PER_SECOND;
+		int binaryShift = -1;
+		long timeOffset = 0L;
+		int left = length - INTERFACE_DESCRIPTION_FIXED_LENGTH;
+		while (left >= 4) {
+			int code = this.source.readShort() & 0xFFFF;
+			int valueLength = this.source.readShort() & 0xFFFF;
+			int paddedLength = (valueLength + 3) & ~3;
+			left -= 4;
+			if (code == OPTION_END || paddedLength > left) break;
+			left -= paddedLength;
+			if (code == OPTION_IF_TSRESOL && valueLength == 1) {
+				readFully(this.optionValue, 4);
+				int resolution = this.optionValue[0] & 0xFF;
+				if ((resolution & 0x80) != 0) {
+					binaryShift = resolution & 0x7F;
+					if (binaryShift > 62) {
+						throw new IOException(String.format(
+								ERR_BAD_TIMESTAMP_RESOLUTION,
+								resolution, offset));
+					}
+				} else {
+					if (resolution > 18) {
+						throw new IOException(String.format(
+								ERR_BAD_TIMESTAMP_RESOLUTION,
+								resolution, offset));
+					}
+					unitsPerSecond = 1L;
+					for (int i = 0; i < resolution; i++) unitsPerSecond *= 10;
+				}
+			} else if (code == OPTION_IF_TSOFFSET && valueLength == 8) {
+				int first = this.source.readInt();
+				int second = this.source.readInt();
+				timeOffset = (this.section.byteSwapped ?
+				              ((long) second << 32) | (first & 0xFFFFFFFFL) :
+				              ((long) first << 32) | (second & 0xFFFFFFFFL));
+			} else {
+				skipFully(paddedLength);
+			}
+		}
+		skipFully(left + BLOCK_TRAILER_LENGTH);
+
+		/* interfaces already read are kept */
+		if (offset > this.section.getLastInterfaceOffset()) {
+			this.section.interfaces.add(new Interface(offset, linkType,
+					snapLength, unitsPerSecond, binaryShift, timeOffset));
+		}
+	}
+
+	/**
+	 * Read the header of an Enhanced Packet Block, whose type
+	 * and length have just been read.
+	 */
+	private void readEnhancedPacket(long offset, int length, int[] header)
+	throws IOException
+	{
+		checkBlockLength(length, PACKET_FIXED_LENGTH, offset);
+		int interfaceId = this.source.readInt();
+		int timeHigh = this.source.readInt();
+		int timeLow = this.source.readInt();
+		readPacketLengths(offset, length, PACKET_FIXED_LENGTH,
+		                  interfaceId, header);
+		setTimestamp(header, timeHigh, timeLow);
+	}
+
+	/**
+	 * Read the header of an (obsolete) Packet Block, whose type
+	 * and length have just been read.
+	 */
+	private void readObsoletePacket(long offset, int length, int[] header)
+	throws IOException
+	{
+		checkBlockLength(length, PACKET_FIXED_LENGTH, offset);
+		int interfaceId = this.source.readShort() & 0xFFFF;
+		this.source.readShort();
+		int timeHigh = this.source.readInt();
+		int timeLow = this.source.readInt();
+		readPacketLengths(offset, length, PACKET_FIXED_LENGTH,
+		                  interfaceId, header);
+		setTimestamp(header, timeHigh, timeLow);
+	}
+
+	/**
+	 * Read the captured and original lengths of a packet block.
+	 */
+	private void readPacketLengths(long offset, int length, int fixedLength,
+	                               int interfaceId, int[] header)
+	throws IOException
+	{
+		this.packetInterface = getInterface(interfaceId, offset);
+		int capturedLength = this.source.readInt();
+		int originalLength = this.source.readInt();
+		if (capturedLength < 0 || capturedLength > length - fixedLength) {
+			throw new IOException(String.format(
+					ERR_BAD_CAPTURED_LENGTH,
+					capturedLength, offset));
+		}
+		header[2] = capturedLength;
+		header[3] = originalLength;
+		this.pendingBlockEnd = length - (fixedLength - BLOCK_TRAILER_LENGTH)
+		                       - capturedLength;
+	}
+
+	/**
+	 * Read the header of a Simple Packet Block, whose type
+	 * and length have just been read.
+	 */
+	private void readSimplePacket(long offset, int length, int[] header)
+	throws IOException
+	{
+		checkBlockLength(length, SIMPLE_PACKET_FIXED_LENGTH, offset);
+		this.packetInterface = getInterface(0, offset);
+		int originalLength = this.source.readInt();
+		/* the captured length is implied by the block length */
+		int capturedLength = length - SIMPLE_PACKET_FIXED_LENGTH;
+		if (originalLength >= 0 && originalLength < capturedLength) {
+			capturedLength = originalLength;
+		}
+		int snapLength = this.packetInterface.snapLength;
+		if (snapLength > 0 && snapLength < capturedLength) {
+			capturedLength = snapLength;
+		}
+		header[0] = this.lastSeconds;
+		header[1] = this.lastNanoseconds;
+		this.packetTimestamped = false;
+		header[2] = capturedLength;
+		header[3] = originalLength;
+		this.pendingBlockEnd = length - (SIMPLE_PACKET_FIXED_LENGTH
+		                                 - BLOCK_TRAILER_LENGTH)
+		                       - capturedLength;
+	}
+
+	/**
+	 * Convert a 64-bit timestamp, in the units of the interface
+	 * of the current packet, into seconds and nanoseconds.
+	 */
+	private void setTimestamp(int[] header, int timeHigh, int timeLow) {
+		Interface itf = this.packetInterface;
+		long time = ((long) timeHigh << 32) | (timeLow & 0xFFFFFFFFL);
+		long seconds;
+		long nanoseconds;
+		if (itf.binaryShift < 0) {
+			seconds = Long.divideUnsigned(time, itf.unitsPerSecond);
+			long units = Long.remainderUnsigned(time, itf.unitsPerSecond);
+			if (itf.unitsPerSecond <= NANOSECONDS_PER_SECOND) {
+				nanoseconds = units * (NANOSECONDS_PER_SECOND
+				                       / itf.unitsPerSecond);
+			} else {
+				nanoseconds = units / (itf.unitsPerSecond
+				                       / NANOSECONDS_PER_SECOND);
+			}
+		} else {
+			int shift = itf.binaryShift;
+			seconds = time >>> shift;
+			long units = time & ((1L << shift) - 1);
+			if (shift <= 33) {
+				nanoseconds = (units * NANOSECONDS_PER_SECOND) >>> shift;
+			} else {
+				nanoseconds = (long) (units * (double) NANOSECONDS_PER_SECOND
+				                      / (double) (1L << shift));
+			}
+		}
+		seconds += itf.timeOffset;
+		header[0] = (int) seconds;
+		header[1] = (int) nanoseconds;
+		this.lastSeconds = header[0];
+		this.lastNanoseconds = header[1];
+		this.packetTimestamped = true;
+	}
+
+	private Interface getInterface(int id, long offset) throws IOException {
+		if (id >= this.section.interfaces.size()
+		    && offset > this.section.scannedOffset
+		    && this.source.length() >= 0L)
+		{
+			scanForInterfaces(offset);
+		}
+		if (id < 0 || id >= this.section.interfaces.size()) {
+			throw new IOException(String.format(
+					ERR_UNKNOWN_INTERFACE,
+					offset, id));
+		}
+		return this.section.interfaces.get(id);
+	}
+
+	/**
+	 * Read the Interface Description Blocks of the current section
+	 * located before the given block (the reading position being then
+	 * restored), after a seek has skipped them.
+	 */
+	private void scanForInterfaces(long blockOffset) throws IOException {
+		long position = this.source.position();
+		Section current = this.section;
+		long offset = Math.max(current.getLastInterfaceOffset(),
+		                       current.scannedOffset);
+		this.source.seek(offset);
+		while (offset < blockOffset) {
+			int type = this.source.readInt();
+			int length = readBlockLength(offset);
+			if (type == BLOCK_INTERFACE_DESCRIPTION) {
+				readInterfaceDescription(offset, length);
+			} else {
+				skipFully(length - 8);
+			}
+			offset += length;
+		}
+		current.scannedOffset = blockOffset;
+		this.source.seek(position);
+	}
+
+	private int readBlockLength(long offset) throws IOException {
+		int length = this.source.readInt();
+		checkBlockLength(length, BLOCK_MIN_LENGTH, offset);
+		return length;
+	}
+
+	private static void checkBlockLength(int length, int minLength,
+	                                     long offset)
+	throws IOException
+	{
+		if (length < minLength || (length & 3) != 0) {
+			throw new IOException(String.format(
+					ERR_BAD_BLOCK_LENGTH,
+					length, offset));
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a chain of blocks with consistent
+	 *         lengths begins at the given offset, and either goes on for
+	 *         <code>RESYNC_CHECKED_BLOCKS</code> blocks,
+	 *         or ends exactly at EOF.
+	 */
+	private boolean isPlausibleBlockChain(long offset, long size)
+	throws IOException
+	{
+		long pos = offset;
+		for (int i = 0; i < RESYNC_CHECKED_BLOCKS; i++) {
+			if (pos == size) return true;
+			if (pos + BLOCK_MIN_LENGTH > size) return false;
+			this.source.seek(pos);
+			int type = this.source.readInt();
+			if (type == BLOCK_SECTION_HEADER) {
+				/* new section, whose byte order may differ */
+				if (pos + SECTION_HEADER_FIXED_LENGTH > size) return false;
+				this.source.readInt();
+				int magic = this.source.readInt();
+				return (magic == BYTE_ORDER_MAGIC
+				        || magic == BYTE_ORDER_MAGIC_SWAPPED);
+			}
+			int length = this.source.readInt();
+			if (length < BLOCK_MIN_LENGTH || (length & 3) != 0
+			    || pos + length > size)
+			{
+				return false;
+			}
+			this.source.seek(pos + length - BLOCK_TRAILER_LENGTH);
+			if (this.source.readInt() != length) return false;
+			pos += length;
+		}
+		return true;
+	}
+
+	private void readFully(byte[] dst, int len) throws IOException {
+		int n = this.source.read(dst, 0, len);
+		if (n != len) throw new EOFException();
+	}
+
+	private void skipFully(int len) throws IOException {
+		int n = this.source.skip(len);
+		if (n != len) throw new EOFException();
+	}
+
+}
@@ -0,0 +1,18 @@
+package fr.inria.iotlab.sniffer.parser;
+
+/**
+ * Listener notified of the packets read from a PCap source,
+ * as they are read.
+ *
+ * @author KR
+ */
+public interface PCapPacketListener {
+
+	/**
+	 * Called for each packet read from the source, in order.
+	 *
+	 * @param packet the latest packet read, in parsed form.
+	 */
+	void packetReceived(PCapSniffedPacket packet);
+
+}
@@ -0,0 +1,129 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Low-level source of the raw bytes parsed by a <code>PCapFileParser</code>.
+ * <br/>
+ * Implementations hide whether bytes come from a (buffered) stream
+ * or from a memory-mapped view of the file; the parser only needs
+ * to read numeric values in the file's byte order, and bulk data.
+ *
+ * @author KR
+ */
+abstract class PCapRecordSource {
+
+	///*** CONSTANTES ***///
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_NOT_SEEKABLE =
+			"This PCap source does not support random access!";
+
+	///*** METHODES ***///
+
+	/**
+	 * Set whether the numeric values read from this source must have
+	 * their bytes swapped (i.e.: whether the file's byte order is
+	 * little-endian rather than big-endian).
+	 *
+	 * @param swap <code>true</code> to swap the bytes of read values.
+	 */
+	abstract void setByteSwapped(boolean swap);
+
+	/**
+	 * Read a 16-bit value.
+	 *
+	 * @throws java.io.EOFException if less than 2 bytes are left.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract short readShort() throws IOException;
+
+	/**
+	 * Read a 32-bit value.
+	 *
+	 * @throws java.io.EOFException if less than 4 bytes are left.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract int readInt() throws IOException;
+
+	/**
+	 * Read up to <code>len</code> bytes into the given array,
+	 * only stopping short of <code>len</code> bytes at EOF.
+	 *
+	 * @return the number of bytes actually read.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract int read(byte[] dst, int off, int len) throws IOException;
+
+	/**
+	 * Read up to <code>len</code> bytes, returning them as a read-only
+	 * <code>ByteBuffer</code> view, only stopping short of
+	 * <code>len</code> bytes at EOF.
+	 * <br/>
+	 * The returned buffer (positioned on the first byte read, with its
+	 * limit just after the last one) is shared, and only remains valid
+	 * until the next read on this source.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract ByteBuffer view(int len) throws IOException;
+
+	/**
+	 * Skip up to <code>len</code> bytes,
+	 * only stopping short of <code>len</code> bytes at EOF.
+	 *
+	 * @return the number of bytes actually skipped.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract int skip(int len) throws IOException;
+
+	/**
+	 * @return <code>true</code> if no more bytes can be read from this
+	 *         source (i.e.: EOF has been attained).
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract boolean isAtEnd() throws IOException;
+
+	/**
+	 * @return an estimate of the number of bytes
+	 *         that can still be read from this source.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract int available() throws IOException;
+
+	/**
+	 * @return the offset in the source of the next byte to be read.
+	 */
+	abstract long position();
+
+	/**
+	 * @return the total length of the source, in bytes,
+	 *         or <code>-1</code> if it is not known.
+	 */
+	long length() {
+		return -1L;
+	}
+
+	/**
+	 * Move the reading position to the given offset in the source.
+	 * Only seekable sources (files) support this operation.
+	 *
+	 * @param offset the offset of the next byte to be read.
+	 * @throws UnsupportedOperationException if this source
+	 *                                       is not seekable.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void seek(long offset) throws IOException {
+		throw new UnsupportedOperationException(ERR_NOT_SEEKABLE);
+	}
+
+	/**
+	 * Release the resources associated with this source.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	abstract void close() throws IOException;
+
+}
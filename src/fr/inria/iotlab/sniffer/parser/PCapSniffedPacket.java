@@ -31,15 +31,27 @@ public class PCapSniffedPacket {
 	private final int packetOriginalLength;
 	private final byte[] packetData;
 
-	///*** CONSTRUCTEUR ***///
+	///*** CONSTRUCTEURS ***///
 
 	public PCapSniffedPacket(int ts, int ssec, boolean nanoPrec,
 			int len, int origLen,
 			byte[] data)
+	{
+		this(ts, ssec, nanoPrec, len, origLen, data, true);
+	}
+
+	/**
+	 * Constructor that may take ownership of the given data array
+	 * instead of copying it: this is only meant for callers that
+	 * allocated the array themselves, and never modify it afterwards.
+	 */
+	PCapSniffedPacket(int ts, int ssec, boolean nanoPrec,
+			int len, int origLen,
+			byte[] data, boolean copyData)
 	{
 		long fraction = (long)ssec & 0x00000000FFFFFFFFL;
 		long fractionLimit = (nanoPrec ? 1000000000 : 1000000);
-		while (fraction > fractionLimit) {
+		while (fraction >= fractionLimit) {
 			ts++;
 			fraction -= fractionLimit;
 		}
@@ -64,8 +76,12 @@ public class PCapSniffedPacket {
 					data.length, this.actualLength));
 		}
 
-		this.packetData = new byte[this.actualLength];
-		System.arraycopy(data, 0, this.packetData, 0, this.actualLength);
+		if (copyData || data.length != this.actualLength) {
+			this.packetData = new byte[this.actualLength];
+			System.arraycopy(data, 0, this.packetData, 0, this.actualLength);
+		} else {
+			this.packetData = data;
+		}
 	}
 
 	///*** ACCESSEURS ***///
@@ -0,0 +1,258 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable ("flyweight") cursor over the packets of a PCap file.
+ * <br/>
+ * Contrary to <code>PCapFileParser.readNextPacket()</code>, advancing
+ * the cursor allocates nothing: the properties of the current packet are
+ * held by the cursor itself, and its data is only read on demand, as a
+ * read-only view into a buffer shared with the parser. This view is only
+ * valid until the next call to <code>next()</code>; packets that must be
+ * kept longer have to be copied with <code>toPacket()</code>.
+ * <br/>
+ * When only the packet properties are examined (i.e.: when
+ * <code>getPacketData()</code> isn't called), the packet data is
+ * simply skipped over in the source file.
+ * <br/>
+ * When the parser has a <code>PacketFilter</code>, the cursor only
+ * stops on the packets selected by this filter.
+ *
+ * @author KR
+ * @see PCapFileParser#getPacketCursor()
+ */
+public final class PacketCursor {
+
+	///*** CONSTANTES ***///
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_NO_CURRENT_PACKET =
+			"The cursor is not positioned on a packet!";
+	private static final String ERR_CURSOR_MOVED =
+			"The parser has been advanced since the cursor's last move!";
+
+	///*** ATTRIBUTS ***///
+
+	private final PCapFileParser parser;
+
+	/* raw record header, as read from the file */
+	private final int[] header;
+
+	/* properties of the current packet */
+	private boolean positioned;
+	private long recordNumber;
+	private long timestamp;
+	private int subSecondFraction;
+
+	/* data of the current packet, once read */
+	private ByteBuffer packetData;
+	private int dataStart;
+	private int dataEnd;
+
+	///*** CONSTRUCTEUR ***///
+
+	/**
+	 * Cursors are obtained through
+	 * <code>PCapFileParser.getPacketCursor()</code>.
+	 */
+	PacketCursor(PCapFileParser parser) {
+		this.parser = parser;
+		this.header = new int[4];
+		this.positioned = false;
+	}
+
+	///*** DEPLACEMENT ***///
+
+	/**
+	 * Move the cursor to the next packet in the PCap file.
+	 *
+	 * @return <code>true</code> if the cursor is now positioned on the
+	 *         next packet; <code>false</code> if there are no more packets
+	 *         available (i.e.: EOF has been attained).
+	 * @throws IOException if an I/O error prevents the next packet
+	 *                     from being correctly read (like for example
+	 *                     an unexpected EOF in the middle of its header,
+	 *                     or of the previous packet's data).
+	 */
+	public boolean next() throws IOException {
+		if (this.parser.takeFilteredAhead()) return true;
+		PacketFilter filter = this.parser.getPacketFilter();
+		while (nextRecord()) {
+			if (filter == null || filter.accept(this)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Move the cursor to the next record, whether it is selected by the
+	 * packet filter or not (for random access, which ignores the filter).
+	 *
+	 * @return <code>false</code> if EOF has been attained.
+	 */
+	boolean nextRecord() throws IOException {
+		this.packetData = null;
+		this.positioned = this.parser.readRecordHeader(this.header);
+		if (!(this.positioned)) return false;
+		this.recordNumber = this.parser.getRecordsRead();
+
+		/* same normalization as done by PCapSniffedPacket */
+		long ts = this.header[0];
+		long fraction = (long)this.header[1] & 0x00000000FFFFFFFFL;
+		long fractionLimit = (this.parser.hasExtendedTimeResolution() ?
+		                      1000000000 : 1000000);
+		while (fraction >= fractionLimit) {
+			ts++;
+			fraction -= fractionLimit;
+		}
+		this.timestamp = ts;
+		this.subSecondFraction = (int) fraction;
+		return true;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return The timestamp of the current packet, in Unix epoch
+	 *         (i.e.: number of seconds since 1/1/1970 00:00:00 GMT).
+	 * @see PCapSniffedPacket#getTimestampSeconds()
+	 */
+	public long getTimestampSeconds() {
+		return this.timestamp;
+	}
+
+	/**
+	 * @return The sub-second fraction of the current packet timestamp,
+	 *         in either microseconds or nanoseconds, according
+	 *         to the original PCap file format.
+	 * @see #hasNanosecondPrecision()
+	 */
+	public int getTimestampFraction() {
+		return this.subSecondFraction;
+	}
+
+	/**
+	 * @return <code>true</code> true if the sub-second fraction
+	 *         of the packets' timestamps has a nanosecond (i.e.: extended)
+	 *         precision;
+	 *         <code>false</code> true if it has standard microsecond
+	 *         precision.
+	 */
+	public boolean hasNanosecondPrecision() {
+		return this.parser.hasExtendedTimeResolution();
+	}
+
+	/**
+	 * @return the data link type of the network from which the current
+	 *         packet was "sniffed" (in pcapng files, that of its capture
+	 *         interface).
+	 */
+	public NetworkType getNetworkType() {
+		return this.parser.getRecordNetworkType();
+	}
+
+	/**
+	 * @return the numeric identifier of the data link type of the current
+	 *         packet, as found in the file (even if unknown to
+	 *         <code>NetworkType</code>).
+	 */
+	public int getLinkTypeID() {
+		return this.parser.getRecordLinkTypeID();
+	}
+
+	/**
+	 * @return the number of the capture interface of the current packet
+	 *         (always 0 in classic PCap files).
+	 * @see PCapFileParser#getInterfaceNetworkType(int)
+	 */
+	public int getInterfaceId() {
+		return this.parser.getRecordInterfaceId();
+	}
+
+	/**
+	 * @return the current packet's data length, as read from the actual
+	 *         PCap file.
+	 * @see #getOriginalPacketLength()
+	 */
+	public int getPacketLength() {
+		return this.header[2];
+	}
+
+	/**
+	 * @return the current packet's original length; if this value differs
+	 *         from the result of <code>getPacketLength</code>, it means
+	 *         that the packet data had to be truncated when being sniffed
+	 *         into the PCap file.
+	 * @see #getPacketLength()
+	 */
+	public int getOriginalPacketLength() {
+		return this.header[3];
+	}
+
+	/**
+	 * Get the current packet's contents, reading them if needed.
+	 * <br/>
+	 * The returned buffer is read-only, and positioned on the first
+	 * byte of the packet, with its limit just after the last one.
+	 * It is shared, and only valid until the cursor is moved.
+	 *
+	 * @return The current packet's contents, as a read-only buffer.
+	 * @throws IllegalStateException if the cursor is not positioned on
+	 *                               a packet, or if the parser has been
+	 *                               advanced by other means since.
+	 * @throws IOException if an I/O error prevents the packet data from
+	 *                     being read (e.g.: an unexpected EOF).
+	 */
+	public ByteBuffer getPacketData() throws IOException {
+		if (this.packetData == null) {
+			checkPositioned();
+			this.packetData = this.parser.readRecordData();
+			this.dataStart = this.packetData.position();
+			this.dataEnd = this.packetData.limit();
+		} else {
+			this.packetData.limit(this.dataEnd);
+			this.packetData.position(this.dataStart);
+		}
+		return this.packetData;
+	}
+
+	/**
+	 * Copy the current packet into a new, standalone
+	 * <code>PCapSniffedPacket</code> instance.
+	 *
+	 * @return the current packet in parsed form.
+	 * @throws IllegalStateException if the cursor is not positioned on
+	 *                               a packet, or if the parser has been
+	 *                               advanced by other means since.
+	 * @throws IOException if an I/O error prevents the packet data from
+	 *                     being read (e.g.: an unexpected EOF).
+	 */
+	public PCapSniffedPacket toPacket() throws IOException {
+		ByteBuffer data = getPacketData();
+		byte[] copy = new byte[data.remaining()];
+		data.get(copy);
+		data.position(this.dataStart);
+		return new PCapSniffedPacket(
+				this.header[0],
+				this.header[1],
+				this.parser.hasExtendedTimeResolution(),
+				this.header[2],
+				this.header[3],
+				copy,
+				false);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void checkPositioned() {
+		if (!(this.positioned)) {
+			throw new IllegalStateException(ERR_NO_CURRENT_PACKET);
+		}
+		if (this.recordNumber != this.parser.getRecordsRead()) {
+			throw new IllegalStateException(ERR_CURSOR_MOVED);
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.IOException;
+
+/**
+ * Filter selecting the packets returned by a <code>PCapFileParser</code>.
+ * <br/>
+ * Filters are evaluated on the parser's <code>PacketCursor</code>, right
+ * after each record header has been read, and before any packet object
+ * is built: a filter deciding from the record header alone (timestamp,
+ * lengths) never calls <code>getPacketData()</code>, so that the data
+ * of the records it rejects is simply skipped over in the file.
+ *
+ * @author KR
+ * @see PCapFileParser#setPacketFilter(PacketFilter)
+ */
+public interface PacketFilter {
+
+	/**
+	 * Tell whether the current packet of the given cursor is selected.
+	 *
+	 * @param packet the cursor, positioned on the packet to test.
+	 *               It must not be moved by the filter.
+	 * @return <code>true</code> if the packet is selected.
+	 * @throws IOException if an I/O error prevents the packet data
+	 *                     from being read.
+	 */
+	boolean accept(PacketCursor packet) throws IOException;
+
+}
@@ -1,14 +1,69 @@
 package fr.inria.iotlab.sniffer.parser;
 
-import javax.swing.event.TableModelListener;
-import javax.swing.table.TableModel;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
 
 /**
  * Model for the packets' table (in the second window tab).
- * 
+ * <br/>
+ * This model is "virtual": packets are not held in memory, but read on
+ * demand from the PCap file, thanks to its packet index, when the table
+ * displays them. Packets are read by pages of consecutive rows, and a
+ * bounded number of pages is kept in a LRU cache, so that the memory
+ * used by the model doesn't depend on the size of the file. Only the
+ * first bytes of each packet are kept for the "Data" column, and they
+ * are formatted (in hexadecimal) only when a cell is displayed.
+ * <br/>
+ * The packet index may still be in construction (in another thread):
+ * rows are then added to the table by <code>refreshRowCount()</code>.
+ *
  * @author KR
  */
-public class PacketsTableModel implements TableModel {
+public class PacketsTableModel extends AbstractTableModel {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Page of consecutive rows, holding the properties
+	 * of their packets in primitive arrays.
+	 */
+	private static final class RowsPage {
+
+		final long[] seconds = new long[PAGE_SIZE];
+		final int[] fractions = new int[PAGE_SIZE];
+		final int[] lengths = new int[PAGE_SIZE];
+		final int[] origLengths = new int[PAGE_SIZE];
+		final byte[] data = new byte[PAGE_SIZE * MAX_DISPLAYED_BYTES];
+		final int[] dataLengths = new int[PAGE_SIZE];
+		int rowCount;
+
+	}
+
+	///*** CONSTANTES ***///
+
+	private static final long serialVersionUID = 1L;
+
+	/** Number of rows in each page read from the PCap file. */
+	private static final int PAGE_SIZE = 256;
+
+	/** Maximal number of pages kept in cache. */
+	private static final int MAX_CACHED_PAGES = 64;
+
+	/** Maximal number of bytes displayed in the "Data" column. */
+	private static final int MAX_DISPLAYED_BYTES = 64;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_PARSER_WITHOUT_INDEX =
+			"The parser must have its packet index set!";
+
+	///*** ATTRIBUTS ***///
 
 	private String[] colNames = {
 			"#", "Timestamp", "Length", "Data"
@@ -17,10 +72,77 @@ public class PacketsTableModel implements TableModel {
 			Long.class, String.class, String.class, String.class
 	};
 
+	/* source of the packets (with its packet index) */
+	private PCapFileParser parser;
+	private PCapFileIndex index;
+	private int rowCount;
+
+	/* cache of the pages of rows, in access order */
+	private final Map<Long, RowsPage> pagesCache =
+			new LinkedHashMap<Long, RowsPage>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Long, RowsPage> eldest)
+				{
+					return (size() > MAX_CACHED_PAGES);
+				}
+			};
+
+	///*** SOURCE DES DONNEES ***///
+
+	/**
+	 * Set the parser from which the displayed packets are read.
+	 * This parser must be in memory-mapped mode, and have its packet
+	 * index set; it then belongs to this model until another parser
+	 * is set.
+	 *
+	 * @param parser the parser of the PCap file to display,
+	 *               or <code>null</code> to empty the table.
+	 * @throws IllegalArgumentException if the parser has no packet index.
+	 */
+	public void setParser(PCapFileParser parser)
+	throws IllegalArgumentException
+	{
+		if (parser != null && parser.getPacketIndex() == null) {
+			throw new IllegalArgumentException(ERR_PARSER_WITHOUT_INDEX);
+		}
+		this.parser = parser;
+		this.index = (parser != null ? parser.getPacketIndex() : null);
+		this.rowCount = countIndexedRows();
+		this.pagesCache.clear();
+		fireTableDataChanged();
+	}
+
+	/**
+	 * Add to the table the rows of the packets that have been indexed
+	 * since the last call, when the packet index is still being built.
+	 */
+	public void refreshRowCount() {
+		int oldCount = this.rowCount;
+		int newCount = countIndexedRows();
+		if (newCount <= oldCount) return;
+
+		/* the last page may have been read when it was incomplete */
+		this.pagesCache.remove(Long.valueOf(oldCount / PAGE_SIZE));
+		this.rowCount = newCount;
+		fireTableRowsInserted(oldCount, newCount - 1);
+	}
+
+	/**
+	 * @return the parser from which the displayed packets are read,
+	 *         or <code>null</code> if the table is empty.
+	 */
+	public PCapFileParser getParser() {
+		return this.parser;
+	}
+
+	///*** METHODES HERITEES ***///
+
 	@Override
 	public int getRowCount() {
-		// TODO Auto-generated method stub
-		return 0;
+		return this.rowCount;
 	}
 
 	@Override
@@ -45,8 +167,28 @@ public class PacketsTableModel implements TableModel {
 
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
-		// TODO Auto-generated method stub
-		return null;
+		RowsPage page = getPage(rowIndex / PAGE_SIZE);
+		int row = rowIndex % PAGE_SIZE;
+		if (page == null || row >= page.rowCount) return null;
+
+		switch (columnIndex) {
+		case 0:
+			return Long.valueOf(rowIndex + 1L);
+		case 1:
+			return String.format(this.parser.hasExtendedTimeResolution() ?
+			                     "%d.%09d" : "%d.%06d",
+			                     page.seconds[row], page.fractions[row]);
+		case 2:
+			if (page.lengths[row] < page.origLengths[row]) {
+				return String.format("%d (of %d)",
+						page.lengths[row], page.origLengths[row]);
+			}
+			return Integer.toString(page.lengths[row]);
+		case 3:
+			return formatData(page, row);
+		default:
+			return null;
+		}
 	}
 
 	@Override
@@ -54,16 +196,75 @@ public class PacketsTableModel implements TableModel {
 		// not used: no cell is editable
 	}
 
-	@Override
-	public void addTableModelListener(TableModelListener l) {
-		// TODO Auto-generated method stub
+	///*** METHODES INTERNES ***///
 
+	private int countIndexedRows() {
+		if (this.index == null) return 0;
+		return (int) Math.min(this.index.getPacketCount(), Integer.MAX_VALUE);
 	}
 
-	@Override
-	public void removeTableModelListener(TableModelListener l) {
-		// TODO Auto-generated method stub
+	/**
+	 * Get the given page of rows, from the cache if possible,
+	 * or else by reading it from the PCap file.
+	 *
+	 * @return the page, or <code>null</code> if it could not be read.
+	 */
+	private RowsPage getPage(long pageNumber) {
+		Long key = Long.valueOf(pageNumber);
+		RowsPage page = this.pagesCache.get(key);
+		if (page == null) {
+			try {
+				page = readPage(pageNumber);
+			} catch (IOException exc) {
+				return null;
+			}
+			this.pagesCache.put(key, page);
+		}
+		return page;
+	}
+
+	private RowsPage readPage(long pageNumber) throws IOException {
+		RowsPage page = new RowsPage();
+		long first = pageNumber * PAGE_SIZE;
+		int count = (int) Math.min(PAGE_SIZE, this.rowCount - first);
+		if (count <= 0) return page;
+
+		this.parser.seekToRecord(this.index.getPacketOffset(first), first);
+		/* rows match the index: the packet filter is ignored */
+		PacketCursor cursor = this.parser.getPacketCursor();
+		for (int row = 0; row < count && cursor.nextRecord(); row++) {
+			page.seconds[row] = cursor.getTimestampSeconds();
+			page.fractions[row] = cursor.getTimestampFraction();
+			page.lengths[row] = cursor.getPacketLength();
+			page.origLengths[row] = cursor.getOriginalPacketLength();
+
+			ByteBuffer data = cursor.getPacketData();
+			int n = Math.min(data.remaining(), MAX_DISPLAYED_BYTES);
+			data.get(page.data, row * MAX_DISPLAYED_BYTES, n);
+			page.dataLengths[row] = n;
+			page.rowCount = row + 1;
+		}
+		return page;
+	}
 
+	private static String formatData(RowsPage page, int row) {
+		int n = page.dataLengths[row];
+		boolean cut = (n < page.lengths[row]);
+		char[] text = new char[3 * n + (cut ? 4 : 0)];
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			int b = page.data[row * MAX_DISPLAYED_BYTES + i] & 0xff;
+			if (i > 0) text[pos++] = ' ';
+			text[pos++] = HEX_DIGITS[b >>> 4];
+			text[pos++] = HEX_DIGITS[b & 0x0f];
+		}
+		if (cut) {
+			text[pos++] = ' ';
+			text[pos++] = '.';
+			text[pos++] = '.';
+			text[pos++] = '.';
+		}
+		return new String(text, 0, pos);
 	}
 
 }
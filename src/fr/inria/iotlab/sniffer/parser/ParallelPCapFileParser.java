@@ -0,0 +1,356 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Parser processing the packets of a single (large) PCap file
+ * in parallel, on several cores.
+ * <br/>
+ * The file is split into chunks of (roughly) equal size. As packet
+ * records have variable lengths, each chunk boundary is moved forward
+ * to the first offset from which a chain of plausible records begins
+ * (see <code>PCapFileParser.findRecordBoundary()</code>). Each chunk
+ * is then processed by a task of a <code>ForkJoinPool</code>, with its
+ * own memory-mapped <code>PCapFileParser</code> and its own decoder
+ * or accumulator, and the per-chunk results are merged in packet order.
+ * <br/>
+ * Compressed files, which can't be read from an arbitrary offset, make
+ * a single chunk: only their decompression is then parallel (see
+ * <code>DecompressingInputStream</code>).
+ *
+ * @author KR
+ */
+public class ParallelPCapFileParser {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Processing of the packets of one chunk of the file,
+	 * and merging of the results of consecutive chunks.
+	 */
+	private interface ChunkProcessor<A> {
+
+		/**
+		 * Process the packets read by the given parser,
+		 * up to the given offset in the file (excluded).
+		 */
+		A process(PCapFileParser parser, long endOffset) throws IOException;
+
+		/**
+		 * Merge the results of two consecutive chunks.
+		 */
+		A combine(A first, A second);
+
+	}
+
+	/**
+	 * Task processing a range of chunks, split recursively in halves.
+	 */
+	private class ChunkTask<A> extends RecursiveTask<A> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long[] boundaries;
+		private final int firstChunk;
+		private final int lastChunk;
+		private final ChunkProcessor<A> processor;
+
+		ChunkTask(long[] boundaries, int firstChunk, int lastChunk,
+		          ChunkProcessor<A> processor)
+		{
+			this.boundaries = boundaries;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+			this.processor = processor;
+		}
+
+		@Override
+		protected A compute() {
+			if (this.lastChunk - this.firstChunk == 1) {
+				return processChunk();
+			}
+			int middle = (this.firstChunk + this.lastChunk) >>> 1;
+			ChunkTask<A> first = new ChunkTask<A>(this.boundaries,
+					this.firstChunk, middle, this.processor);
+			ChunkTask<A> second = new ChunkTask<A>(this.boundaries,
+					middle, this.lastChunk, this.processor);
+			first.fork();
+			A secondResult = second.compute();
+			return this.processor.combine(first.join(), secondResult);
+		}
+
+		private A processChunk() {
+			try {
+				PCapFileParser parser = new PCapFileParser(filePath, true);
+				try {
+					long start = this.boundaries[this.firstChunk];
+					if (parser.getNextRecordOffset() != start) {
+						parser.seekToRecord(start, 0L);
+					}
+					return this.processor.process(parser,
+							this.boundaries[this.lastChunk]);
+				} finally {
+					parser.close();
+				}
+			} catch (IOException exc) {
+				throw new UncheckedIOException(exc);
+			}
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Default size of the chunks processed in parallel, in bytes. */
+	public static final long DEFAULT_CHUNK_SIZE = 32L * 1024L * 1024L;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_CHUNK_SIZE =
+			"Chunk size must be strictly positive (got %d)!";
+
+	///*** ATTRIBUTS ***///
+
+	private final String filePath;
+	private final ForkJoinPool pool;
+	private final long chunkSize;
+
+	/* offsets of the chunks in the file (computed on first use) */
+	private long[] chunkBoundaries;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for a parallel PCap file parser, using the common
+	 * <code>ForkJoinPool</code> and chunks of default size.
+	 *
+	 * @param filePath path to the PCap file to read and parse.
+	 *
+	 * @throws IllegalArgumentException if <code>filePath</code> doesn't
+	 *                                  correspond to an existing and
+	 *                                  readable file, or is not a valid
+	 *                                  PCap file (bad format).
+	 * @throws IOException if some I/O error prevents the file header
+	 *                     from being read.
+	 */
+	public ParallelPCapFileParser(String filePath)
+	throws IllegalArgumentException, IOException
+	{
+		this(filePath, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor for a parallel PCap file parser.
+	 *
+	 * @param filePath path to the PCap file to read and parse.
+	 * @param pool the pool in which the chunks are processed.
+	 * @param chunkSize size of the chunks processed in parallel, in bytes.
+	 *
+	 * @throws IllegalArgumentException if <code>filePath</code> doesn't
+	 *                                  correspond to an existing and
+	 *                                  readable file, or is not a valid
+	 *                                  PCap file (bad format), or if
+	 *                                  <code>chunkSize</code> is not
+	 *                                  strictly positive.
+	 * @throws IOException if some I/O error prevents the file header
+	 *                     from being read.
+	 */
+	public ParallelPCapFileParser(String filePath, ForkJoinPool pool,
+	                              long chunkSize)
+	throws IllegalArgumentException, IOException
+	{
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_CHUNK_SIZE,
+					chunkSize));
+		}
+		/* check the file right away */
+		new PCapFileParser(filePath, true).close();
+		this.filePath = filePath;
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the path to the parsed PCap file.
+	 */
+	public String getFilePath() {
+		return this.filePath;
+	}
+
+	/**
+	 * Get the offsets at which the file is split into chunks.
+	 * The first offset is that of the first record, the last one
+	 * is the file length; chunk #i spans from offset #i (included)
+	 * to offset #i+1 (excluded). Compressed files make a single chunk,
+	 * whose end is <code>Long.MAX_VALUE</code> (their decompressed
+	 * length being unknown).
+	 *
+	 * @return the offsets of the chunks' boundaries in the file.
+	 * @throws IOException if an I/O error occurs while scanning the file.
+	 */
+	public synchronized long[] getChunkBoundaries() throws IOException {
+		if (this.chunkBoundaries == null) {
+			this.chunkBoundaries = computeChunkBoundaries();
+		}
+		return this.chunkBoundaries.clone();
+	}
+
+	///*** TRAITEMENTS PARALLELES ***///
+
+	/**
+	 * Decode all the packets of the file in parallel.
+	 * <br/>
+	 * Each chunk obtains its own decoder from the given factory,
+	 * so that decoders don't need to be thread-safe.
+	 *
+	 * @param decoderFactory factory providing the decoder
+	 *                       of each chunk of the file.
+	 * @return the results of the decoding of all packets,
+	 *         in the order of the packets in the file.
+	 * @throws IOException if an I/O error prevents the packets
+	 *                     from being correctly read.
+	 */
+	public <R> List<R> decodeAll(
+			final Supplier<? extends Function<? super PCapSniffedPacket,
+			                                  ? extends R>> decoderFactory)
+	throws IOException
+	{
+		return run(new ChunkProcessor<List<R>>() {
+			public List<R> process(PCapFileParser parser, long endOffset)
+			throws IOException
+			{
+				Function<? super PCapSniffedPacket, ? extends R> decoder =
+						decoderFactory.get();
+				List<R> results = new ArrayList<R>();
+				PacketCursor cursor = parser.getPacketCursor();
+				while (nextInChunk(parser, cursor, endOffset)) {
+					results.add(decoder.apply(cursor.toPacket()));
+				}
+				return results;
+			}
+
+			public List<R> combine(List<R> first, List<R> second) {
+				first.addAll(second);
+				return first;
+			}
+		});
+	}
+
+	/**
+	 * Aggregate all the packets of the file in parallel.
+	 * <br/>
+	 * Each chunk fills its own accumulator, through an allocation-free
+	 * <code>PacketCursor</code>; accumulators of consecutive chunks
+	 * are then merged by the given combiner.
+	 *
+	 * @param accumulatorFactory factory providing the (empty)
+	 *                           accumulator of each chunk.
+	 * @param accumulator function adding the current packet
+	 *                    of a cursor to an accumulator.
+	 * @param combiner function merging the accumulators of two
+	 *                 consecutive chunks (the first one being the
+	 *                 earlier in the file).
+	 * @return the accumulator for the whole file.
+	 * @throws IOException if an I/O error prevents the packets
+	 *                     from being correctly read.
+	 */
+	public <A> A aggregate(
+			final Supplier<A> accumulatorFactory,
+			final BiConsumer<? super A, ? super PacketCursor> accumulator,
+			final BinaryOperator<A> combiner)
+	throws IOException
+	{
+		return run(new ChunkProcessor<A>() {
+			public A process(PCapFileParser parser, long endOffset)
+			throws IOException
+			{
+				A acc = accumulatorFactory.get();
+				PacketCursor cursor = parser.getPacketCursor();
+				while (nextInChunk(parser, cursor, endOffset)) {
+					accumulator.accept(acc, cursor);
+				}
+				return acc;
+			}
+
+			public A combine(A first, A second) {
+				return combiner.apply(first, second);
+			}
+		});
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private <A> A run(ChunkProcessor<A> processor) throws IOException {
+		long[] boundaries = getChunkBoundaries();
+		try {
+			return this.pool.invoke(new ChunkTask<A>(boundaries,
+					0, boundaries.length - 1, processor));
+		} catch (UncheckedIOException exc) {
+			throw exc.getCause();
+		}
+	}
+
+	/**
+	 * Move the cursor to the next packet of the chunk ending at the given
+	 * offset. The packet is checked once read: in pcapng files, blocks of
+	 * other types may lie between the end of the previous packet and the
+	 * end of the chunk, and the packet following them belongs to the
+	 * next chunk.
+	 *
+	 * @return <code>false</code> at the end of the chunk.
+	 */
+	private static boolean nextInChunk(PCapFileParser parser,
+	                                   PacketCursor cursor, long endOffset)
+	throws IOException
+	{
+		if (parser.getNextRecordOffset() >= endOffset) return false;
+		return (cursor.next() && parser.getRecordOffset() < endOffset);
+	}
+
+	private long[] computeChunkBoundaries() throws IOException {
+		PCapFileParser parser = new PCapFileParser(this.filePath, true);
+		try {
+			long size = parser.getSourceLength();
+			if (size < 0) {
+				return new long[] { parser.getNextRecordOffset(),
+				                    Long.MAX_VALUE };
+			}
+			List<Long> bounds = new ArrayList<Long>();
+			long prev = parser.getNextRecordOffset();
+			bounds.add(prev);
+			for (long from = this.chunkSize; from < size;
+			     from += this.chunkSize)
+			{
+				if (from <= prev) continue;
+				long bound = parser.findRecordBoundary(from);
+				if (bound < 0) break;
+				if (bound > prev) {
+					bounds.add(bound);
+					prev = bound;
+				}
+			}
+			bounds.add(size);
+
+			long[] result = new long[bounds.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = bounds.get(i);
+			}
+			return result;
+		} finally {
+			parser.close();
+		}
+	}
+
+}
@@ -2,10 +2,16 @@ package fr.inria.iotlab.sniffer.parser;
 
 import java.awt.BorderLayout;
 import java.awt.EventQueue;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -13,13 +19,22 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTable;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.ListSelectionModel;
 
+import fr.inria.iotlab.sniffer.compress.CompressionFormat;
+import fr.inria.iotlab.sniffer.stats.CaptureStatistics;
+import fr.inria.iotlab.sniffer.stats.LogLinearHistogram;
+import fr.inria.iotlab.sniffer.stats.TopKSketch;
+
 /**
  * Main window (and main class) of the PCap file analyzer
  *  for IoT-LAB sniffer sessions' results.
@@ -28,6 +43,125 @@ import javax.swing.ListSelectionModel;
  */
 public class ParserMainWindow {
 
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Background task reading the open PCap file once, so that the Event
+	 * Dispatch Thread is never blocked by a full scan of the file.
+	 * During that single pass, the file is indexed (if its index is not
+	 * up to date) and its statistics are computed. Rows are added to the
+	 * packets' table by batches as soon as they are indexed, statistics
+	 * are refreshed periodically, and the progress (bytes read versus
+	 * file length) is shown in the status bar.
+	 */
+	private class PcapFileLoader
+	extends SwingWorker<CaptureStatistics, Long>
+	{
+
+		/** Number of packets read between two table updates. */
+		private static final int PUBLISH_INTERVAL = 4096;
+
+		/** Minimal delay between two statistics updates, in ns. */
+		private static final long STATS_REFRESH_INTERVAL = 500000000L;
+
+		private final String filePath;
+		private final PCapFileIndex index;
+		private final CaptureStatistics stats;
+
+		/* copy of the statistics, for the Event Dispatch Thread */
+		private volatile CaptureStatistics statsSnapshot;
+
+		PcapFileLoader(String filePath, PCapFileIndex index) {
+			this.filePath = filePath;
+			this.index = index;
+			this.stats = new CaptureStatistics();
+		}
+
+		@Override
+		protected CaptureStatistics doInBackground() throws IOException {
+			PCapFileParser parser = new PCapFileParser(this.filePath, true);
+			try {
+				long length = parser.getSourceLength();
+				long timeScale = (parser.hasExtendedTimeResolution() ?
+				                  1L : 1000L);
+				int[] header = new int[4];
+				long count = 0;
+				long nextSnapshot = System.nanoTime();
+				while (!(isCancelled())) {
+					if (this.index != null) {
+						if (!(this.index.indexNextRecord(parser, header))) {
+							break;
+						}
+					} else if (!(parser.readRecordHeader(header))) {
+						break;
+					}
+					this.stats.add(parser.getRecordTime(header) * timeScale,
+					               header[2], header[3],
+					               parser.getRecordNetworkType(),
+					               parser.readRecordData());
+					if (++count % PUBLISH_INTERVAL == 0) {
+						if (System.nanoTime() - nextSnapshot >= 0) {
+							this.statsSnapshot =
+									new CaptureStatistics(this.stats);
+							nextSnapshot = System.nanoTime()
+							               + STATS_REFRESH_INTERVAL;
+						}
+						publish(Long.valueOf(count));
+						if (length > 0) {
+							setProgress((int) (100L
+							                   * parser.getNextRecordOffset()
+							                   / length));
+						}
+					}
+				}
+			} finally {
+				parser.close();
+			}
+			if (this.index != null && !(isCancelled())) {
+				try {
+					this.index.save(PCapFileIndex.getIndexFile(this.filePath));
+				} catch (IOException exc) {
+					/* read-only location: keep the index in memory only */
+				}
+			}
+			return this.stats;
+		}
+
+		@Override
+		protected void process(List<Long> counts) {
+			/* updates are coalesced: only the latest count matters */
+			if (this == pcapLoader) {
+				modelPackets.refreshRowCount();
+				CaptureStatistics snapshot = this.statsSnapshot;
+				if (snapshot != null) {
+					this.statsSnapshot = null;
+					showStatistics(snapshot);
+				}
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (this != pcapLoader) return;
+			pcapLoader = null;
+			modelPackets.refreshRowCount();
+			showLoading(false);
+			if (isCancelled()) return;
+			try {
+				showStatistics(get());
+			} catch (ExecutionException exc) {
+				JOptionPane.showMessageDialog(
+						frmPcapAnalyzerForm,
+						exc.getCause().getMessage(),
+						"Error",
+						JOptionPane.ERROR_MESSAGE);
+			} catch (InterruptedException exc) {
+				/* cannot happen: the task is done */
+			}
+		}
+
+	}
+
 	///*** COMPOSANTS GRAPHIQUES ***///
 	
 	private JFrame frmPcapAnalyzerForm;
@@ -40,9 +174,14 @@ public class ParserMainWindow {
 	private JLabel lblMaxPktLen;
 	private JLabel lblNetType;
 	private JTable tablePackets;
+	private PacketsTableModel modelPackets;
+	private JTextArea textStats;
+	private JProgressBar progressLoading;
+	private JButton btnCancel;
 
 	///*** AUTRES CHAMPS ***///
 	private PCapFileParser pcapParser;
+	private PcapFileLoader pcapLoader;
 
 	/**
 	 * Launch the application.
@@ -99,6 +238,25 @@ public class ParserMainWindow {
 			}
 		});
 		panelFileSelectTop.add(btnBrowse, BorderLayout.EAST);
+
+		JPanel panelStatusBottom = new JPanel();
+		frmPcapAnalyzerForm.getContentPane().add(panelStatusBottom, BorderLayout.SOUTH);
+		panelStatusBottom.setLayout(new BorderLayout(0, 0));
+
+		progressLoading = new JProgressBar(0, 100);
+		progressLoading.setStringPainted(true);
+		panelStatusBottom.add(progressLoading);
+
+		btnCancel = new JButton("Cancel");
+		btnCancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (pcapLoader != null) {
+					pcapLoader.cancel(false);
+				}
+			}
+		});
+		panelStatusBottom.add(btnCancel, BorderLayout.EAST);
+		showLoading(false);
 		
 		JTabbedPane tabbedPaneMain = new JTabbedPane(JTabbedPane.TOP);
 		frmPcapAnalyzerForm.getContentPane().add(tabbedPaneMain, BorderLayout.CENTER);
@@ -176,15 +334,23 @@ public class ParserMainWindow {
 		tabbedPaneMain.addTab("Packets", null, panelPackets, null);
 		panelPackets.setLayout(new BorderLayout(0, 0));
 		
+		modelPackets = new PacketsTableModel();
 		tablePackets = new JTable();
 		tablePackets.setFillsViewportHeight(true);
 		tablePackets.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-		tablePackets.setModel(new PacketsTableModel());
-		panelPackets.add(tablePackets);
+		tablePackets.setModel(modelPackets);
+		panelPackets.add(new JScrollPane(tablePackets));
 		tabbedPaneMain.setEnabledAt(1, true);
 		
 		JPanel panelStats = new JPanel();
 		tabbedPaneMain.addTab("Stats", null, panelStats, null);
+		panelStats.setLayout(new BorderLayout(0, 0));
+
+		textStats = new JTextArea();
+		textStats.setEditable(false);
+		textStats.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		panelStats.add(new JScrollPane(textStats));
+		showStatistics(null);
 	}
 
 	/**
@@ -197,6 +363,11 @@ public class ParserMainWindow {
 		JFileChooser openDlg = new JFileChooser();
 		openDlg.addChoosableFileFilter(new FileNameExtensionFilter(
 				"PCap files", "pcap"));
+		openDlg.addChoosableFileFilter(new FileNameExtensionFilter(
+				"Compressed PCap files",
+				CompressionFormat.GZIP.getFileExtension(),
+				CompressionFormat.ZSTD.getFileExtension(),
+				CompressionFormat.LZ4.getFileExtension()));
 		String currentPath = textPCapFile.getText();
 		if (currentPath != null) {
 			currentPath = currentPath.trim();
@@ -220,8 +391,9 @@ public class ParserMainWindow {
 	 * @param chosenPath path to PCap file to open as chosen by the user.
 	 */
 	private void openPcapFile(String chosenPath) {
+		closePcapFile();
 		try {
-			this.pcapParser = new PCapFileParser(chosenPath);
+			this.pcapParser = new PCapFileParser(chosenPath, true);
 
 			/* update the first panel: PCap file's global properties */
 			lblMagic.setText(String.format("%x",
@@ -241,6 +413,30 @@ public class ParserMainWindow {
 			NetworkType netType = pcapParser.getNetworkType();
 			lblNetType.setText(String.format("%d (LINKTYPE_%s)",
 					netType.getID(), netType.getLinkType()));
+
+			/* update the second panel: packets' table
+			   (indexing the file in background if needed) */
+			if (pcapParser.getCompressionFormat()
+			    != CompressionFormat.NONE)
+			{
+				/* no random access in compressed files: no table,
+				   third panel only */
+				startLoading(chosenPath, null);
+				return;
+			}
+			PCapFileIndex index = PCapFileIndex.loadIfUpToDate(chosenPath);
+			if (index != null) {
+				pcapParser.setPacketIndex(index);
+				modelPackets.setParser(pcapParser);
+				/* third panel: statistics only */
+				startLoading(chosenPath, null);
+			} else {
+				index = PCapFileIndex.create(new File(chosenPath),
+						PCapFileIndex.DEFAULT_SPARSE_INTERVAL);
+				pcapParser.setPacketIndex(index);
+				modelPackets.setParser(pcapParser);
+				startLoading(chosenPath, index);
+			}
 		} catch (Exception e) {
 			JOptionPane.showMessageDialog(
 					frmPcapAnalyzerForm,
@@ -257,4 +453,143 @@ public class ParserMainWindow {
 		}
 	}
 
+	/**
+	 * Close the currently open PCap file (if any),
+	 * and empty the packets' table.
+	 */
+	private void closePcapFile() {
+		if (this.pcapLoader != null) {
+			this.pcapLoader.cancel(false);
+			this.pcapLoader = null;
+			showLoading(false);
+		}
+		modelPackets.setParser(null);
+		showStatistics(null);
+		if (this.pcapParser != null) {
+			try {
+				this.pcapParser.close();
+			} catch (IOException exc) {
+				/* nothing more to release */
+			}
+			this.pcapParser = null;
+		}
+	}
+
+	/**
+	 * Start reading the open PCap file in background,
+	 * to compute its statistics and (if needed) to index it.
+	 * 
+	 * @param chosenPath path to the open PCap file.
+	 * @param index the (empty) index to fill,
+	 *              or <code>null</code> if it is up to date.
+	 */
+	private void startLoading(String chosenPath, PCapFileIndex index) {
+		this.pcapLoader = new PcapFileLoader(chosenPath, index);
+		this.pcapLoader.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("progress".equals(evt.getPropertyName())) {
+					progressLoading.setValue((Integer) evt.getNewValue());
+				}
+			}
+		});
+		progressLoading.setValue(0);
+		showLoading(true);
+		this.pcapLoader.execute();
+	}
+
+	/**
+	 * Show or hide the loading progress bar and its cancel button.
+	 */
+	private void showLoading(boolean loading) {
+		progressLoading.setVisible(loading);
+		btnCancel.setVisible(loading);
+	}
+
+	/**
+	 * Show the given statistics in the third panel.
+	 *
+	 * @param stats the statistics of the open PCap file (possibly
+	 *              partial), or <code>null</code> if there are none.
+	 */
+	private void showStatistics(CaptureStatistics stats) {
+		if (stats == null) {
+			textStats.setText("--");
+			return;
+		}
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("Packets:            %d%n",
+				stats.getPacketCount()));
+		text.append(String.format("Bytes:              %d"
+				+ " (%d before truncation)%n",
+				stats.getByteCount(), stats.getOriginalByteCount()));
+		text.append(String.format("Truncated packets:  %d%n",
+				stats.getTruncatedPacketCount()));
+		text.append(String.format("Out-of-order:       %d%n",
+				stats.getOutOfOrderPacketCount()));
+		if (stats.getPacketCount() > 0) {
+			text.append(String.format("First packet:       %tF %<tT%n",
+					new Date(stats.getStartTime() / 1000000L)));
+			text.append(String.format("Last packet:        %tF %<tT%n",
+					new Date(stats.getEndTime() / 1000000L)));
+		}
+		text.append(String.format("Duration:           %.3f s%n",
+				stats.getDuration() / 1e9));
+		text.append(String.format("Packets per second: %.1f average,"
+				+ " %d peak%n",
+				stats.getAveragePacketRate(), stats.getPeakPacketRate()));
+		text.append(String.format("Bytes per second:   %.1f average,"
+				+ " %d peak%n",
+				stats.getAverageByteRate(), stats.getPeakByteRate()));
+
+		LogLinearHistogram gaps = stats.getInterArrivalTimes();
+		text.append(String.format("%nInter-arrival times (ms):%n"));
+		text.append(String.format("  min %.3f, mean %.3f, max %.3f%n",
+				gaps.getMin() / 1e6, gaps.getMean() / 1e6,
+				gaps.getMax() / 1e6));
+		double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+		for (double quantile : quantiles) {
+			text.append(String.format("  %5.1f%%  %.3f%n",
+					100.0 * quantile,
+					gaps.getValueAtQuantile(quantile) / 1e6));
+		}
+
+		LogLinearHistogram lengths = stats.getPacketLengths();
+		text.append(String.format("%nPacket lengths (bytes):%n"));
+		text.append(String.format("  min %d, mean %.1f, max %d%n",
+				lengths.getMin(), lengths.getMean(), lengths.getMax()));
+		long step = 16;
+		long maxLength = lengths.getMax();
+		long from = 0;
+		long count = 0;
+		for (int i = 0; i < lengths.getBucketCount()
+		                && lengths.getBucketLowerBound(i) <= maxLength; i++)
+		{
+			count += lengths.getBucketValueCount(i);
+			long upper = lengths.getBucketUpperBound(i);
+			if (upper - from + 1 >= step || upper >= maxLength) {
+				if (count > 0) {
+					text.append(String.format("  %6d - %-6d %d%n",
+							from, upper, count));
+				}
+				from = upper + 1;
+				count = 0;
+				if (from >= 4 * step) step *= 4;
+			}
+		}
+
+		TopKSketch sources = stats.getSourceAddresses();
+		text.append(String.format("%nMost frequent source addresses"
+				+ " (%d frames with a source):%n",
+				stats.getFramesWithSourceCount()));
+		for (int rank = 0; rank < sources.getTopCount(); rank++) {
+			long address = sources.getTopKey(rank);
+			text.append(String.format(address < 0x10000L ?
+					"  %04x              ~%d%n" :
+					"  %016x  ~%d%n",
+					address, sources.getTopEstimate(rank)));
+		}
+		textStats.setText(text.toString());
+		textStats.setCaretPosition(0);
+	}
+
 }
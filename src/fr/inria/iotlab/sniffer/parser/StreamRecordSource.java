@@ -0,0 +1,120 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <code>PCapRecordSource</code> reading its bytes sequentially
+ * from a <code>NumberInputStream</code>.
+ *
+ * @author KR
+ */
+final class StreamRecordSource extends PCapRecordSource {
+
+	///*** ATTRIBUTS ***///
+
+	private final NumberInputStream input;
+	private long position;
+
+	/* shared array backing the views returned by view() */
+	private byte[] viewArray;
+	private ByteBuffer viewBuffer;
+
+	///*** CONSTRUCTEUR ***///
+
+	StreamRecordSource(NumberInputStream input) {
+		this.input = input;
+		this.position = 0L;
+		this.viewArray = new byte[0];
+		this.viewBuffer = ByteBuffer.wrap(this.viewArray).asReadOnlyBuffer();
+	}
+
+	///*** METHODES HERITEES ***///
+
+	@Override
+	void setByteSwapped(boolean swap) {
+		this.input.setByteSwapped(swap);
+	}
+
+	@Override
+	short readShort() throws IOException {
+		short val = this.input.readShort();
+		this.position += 2;
+		return val;
+	}
+
+	@Override
+	int readInt() throws IOException {
+		int val = this.input.readInt();
+		this.position += 4;
+		return val;
+	}
+
+	@Override
+	int read(byte[] dst, int off, int len) throws IOException {
+		int total = 0;
+		while (total < len) {
+			int n = this.input.read(dst, off + total, len - total);
+			if (n < 0) break;
+			total += n;
+		}
+		this.position += total;
+		return total;
+	}
+
+	@Override
+	ByteBuffer view(int len) throws IOException {
+		if (this.viewArray.length < len) {
+			int size = Math.max(len, 2 * this.viewArray.length);
+			this.viewArray = new byte[size];
+			this.viewBuffer =
+					ByteBuffer.wrap(this.viewArray).asReadOnlyBuffer();
+		}
+		int n = read(this.viewArray, 0, len);
+		this.viewBuffer.clear();
+		this.viewBuffer.limit(n);
+		return this.viewBuffer;
+	}
+
+	@Override
+	int skip(int len) throws IOException {
+		if (len <= 0) return 0;
+		/* FileInputStream.skip() succeeds even past EOF: skip all the
+		   bytes but the last one, which is read to check that the data
+		   is really there */
+		int total = 0;
+		while (total < len - 1) {
+			long n = this.input.skip(len - 1 - total);
+			if (n <= 0) {
+				/* skip() may return 0 before EOF: check with a read */
+				if (this.input.read() < 0) break;
+				n = 1;
+			}
+			total += (int) n;
+		}
+		if (total == len - 1 && this.input.read() >= 0) total++;
+		this.position += total;
+		return total;
+	}
+
+	@Override
+	boolean isAtEnd() throws IOException {
+		return this.input.isAtEOF();
+	}
+
+	@Override
+	int available() throws IOException {
+		return this.input.available();
+	}
+
+	@Override
+	long position() {
+		return this.position;
+	}
+
+	@Override
+	void close() throws IOException {
+		this.input.close();
+	}
+
+}
@@ -0,0 +1,479 @@
+package fr.inria.iotlab.sniffer.stats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+import fr.inria.iotlab.sniffer.decoder.IEEE802154Frame;
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+import fr.inria.iotlab.sniffer.parser.ParallelPCapFileParser;
+
+/**
+ * Statistics over the packets of a capture, computed in a single pass
+ * and in constant memory:
+ * <ul>
+ * <li>packet and byte counts, and packets / bytes per second
+ *     (average and peak over one-second intervals);</li>
+ * <li>histogram of the packet lengths, and truncated packets
+ *     (whose captured length is lower than their original length);</li>
+ * <li>quantiles of the inter-arrival times of the packets;</li>
+ * <li>most frequent IEEE 802.15.4 source addresses.</li>
+ * </ul>
+ * Packets must be added in capture order. Statistics computed on
+ * consecutive parts of a capture (e.g.: by a
+ * <code>ParallelPCapFileParser</code>) can then be merged.
+ * <br/>
+ * This class is not thread-safe: a copy must be made to read statistics
+ * from another thread than the one adding packets.
+ *
+ * @author KR
+ * @see #compute(ParallelPCapFileParser)
+ */
+public final class CaptureStatistics {
+
+	///*** CONSTANTES ***///
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	///*** ATTRIBUTS ***///
+
+	/* counts */
+	private long packets;
+	private long bytes;
+	private long originalBytes;
+	private long truncatedPackets;
+	private long outOfOrderPackets;
+
+	/* times (in nanoseconds since the Unix epoch) */
+	private long firstTime;
+	private long lastTime;
+	private long minTime;
+	private long maxTime;
+
+	/* one-second intervals: the first and last ones (which may be
+	   partial in a part of a capture), and the peaks of the others */
+	private long firstSecond;
+	private long firstSecondPackets;
+	private long firstSecondBytes;
+	private long lastSecond;
+	private long lastSecondPackets;
+	private long lastSecondBytes;
+	private long peakPackets;
+	private long peakBytes;
+
+	/* sketches */
+	private final LogLinearHistogram lengths;
+	private final LogLinearHistogram interArrivals;
+	private final TopKSketch sources;
+	private long framesWithSource;
+
+	/* decoder of the source addresses */
+	private final IEEE802154Frame frame;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for empty statistics.
+	 */
+	public CaptureStatistics() {
+		this.lengths = new LogLinearHistogram();
+		this.interArrivals = new LogLinearHistogram();
+		this.sources = new TopKSketch();
+		this.frame = new IEEE802154Frame();
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other the statistics to copy.
+	 */
+	public CaptureStatistics(CaptureStatistics other) {
+		copyScalars(other);
+		this.lengths = new LogLinearHistogram(other.lengths);
+		this.interArrivals = new LogLinearHistogram(other.interArrivals);
+		this.sources = new TopKSketch(other.sources);
+		this.frame = new IEEE802154Frame();
+	}
+
+	/**
+	 * Compute the statistics of a whole capture, with its chunks
+	 * processed in parallel.
+	 *
+	 * @param parser the parallel parser of the capture.
+	 * @return the statistics of the capture.
+	 * @throws IOException if an I/O error prevents the packets
+	 *                     from being correctly read.
+	 */
+	public static CaptureStatistics compute(ParallelPCapFileParser parser)
+	throws IOException
+	{
+		return parser.aggregate(
+				new Supplier<CaptureStatistics>() {
+					public CaptureStatistics get() {
+						return new CaptureStatistics();
+					}
+				},
+				new BiConsumer<CaptureStatistics, PacketCursor>() {
+					public void accept(CaptureStatistics stats,
+					                   PacketCursor cursor)
+					{
+						try {
+							stats.add(cursor);
+						} catch (IOException exc) {
+							throw new UncheckedIOException(exc);
+						}
+					}
+				},
+				new BinaryOperator<CaptureStatistics>() {
+					public CaptureStatistics apply(CaptureStatistics first,
+					                               CaptureStatistics second)
+					{
+						first.merge(second);
+						return first;
+					}
+				});
+	}
+
+	///*** AJOUT DE PAQUETS ***///
+
+	/**
+	 * Add the current packet of a cursor to these statistics.
+	 *
+	 * @param cursor the cursor positioned on the packet to add.
+	 * @throws IOException if an I/O error prevents the packet data
+	 *                     from being read.
+	 */
+	public void add(PacketCursor cursor) throws IOException {
+		long fraction = cursor.getTimestampFraction();
+		if (!(cursor.hasNanosecondPrecision())) fraction *= 1000L;
+		NetworkType netType = cursor.getNetworkType();
+		/* only read the data of the frames that are decoded */
+		ByteBuffer data = (netType != null
+		                   && IEEE802154Frame.isSupported(netType) ?
+		                   cursor.getPacketData() : null);
+		add(cursor.getTimestampSeconds() * NANOS_PER_SECOND + fraction,
+		    cursor.getPacketLength(),
+		    cursor.getOriginalPacketLength(),
+		    netType,
+		    data);
+	}
+
+	/**
+	 * Add a packet to these statistics.
+	 *
+	 * @param time the time of the packet, in nanoseconds
+	 *             since the Unix epoch.
+	 * @param length the captured length of the packet.
+	 * @param originalLength the original length of the packet.
+	 * @param netType the link type of the packet.
+	 * @param data the captured data of the packet (from its position
+	 *             to its limit, which are left unchanged), or
+	 *             <code>null</code> to ignore its contents.
+	 */
+	public void add(long time, int length, int originalLength,
+	                NetworkType netType, ByteBuffer data)
+	{
+		long second = Math.floorDiv(time, NANOS_PER_SECOND);
+		if (this.packets == 0) {
+			this.firstTime = time;
+			this.minTime = time;
+			this.maxTime = time;
+			this.firstSecond = second;
+			this.lastSecond = second;
+		} else {
+			long gap = time - this.lastTime;
+			if (gap >= 0) {
+				this.interArrivals.record(gap);
+			} else {
+				this.outOfOrderPackets++;
+			}
+			if (time < this.minTime) this.minTime = time;
+			if (time > this.maxTime) this.maxTime = time;
+			if (second > this.lastSecond) {
+				/* the last interval is complete */
+				if (this.lastSecond != this.firstSecond) {
+					this.peakPackets = Math.max(this.peakPackets,
+					                            this.lastSecondPackets);
+					this.peakBytes = Math.max(this.peakBytes,
+					                          this.lastSecondBytes);
+				}
+				this.lastSecond = second;
+				this.lastSecondPackets = 0;
+				this.lastSecondBytes = 0;
+			}
+		}
+		this.lastTime = time;
+
+		this.packets++;
+		this.bytes += length;
+		this.originalBytes += Math.max(length, originalLength);
+		if (length < originalLength) this.truncatedPackets++;
+		this.lastSecondPackets++;
+		this.lastSecondBytes += length;
+		if (this.lastSecond == this.firstSecond) {
+			this.firstSecondPackets = this.lastSecondPackets;
+			this.firstSecondBytes = this.lastSecondBytes;
+		}
+		this.lengths.record(length);
+
+		if (data != null && netType != null
+		    && IEEE802154Frame.isSupported(netType)
+		    && this.frame.wrap(data, netType))
+		{
+			switch (this.frame.getSourceAddressMode()) {
+			case IEEE802154Frame.ADDR_MODE_SHORT:
+				this.sources.add(this.frame.getSourceShortAddress());
+				this.framesWithSource++;
+				break;
+			case IEEE802154Frame.ADDR_MODE_EXTENDED:
+				this.sources.add(this.frame.getSourceExtendedAddress());
+				this.framesWithSource++;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Merge the statistics of the next part of the capture
+	 * into these statistics.
+	 *
+	 * @param next the statistics of the packets following those
+	 *             of these statistics.
+	 */
+	public void merge(CaptureStatistics next) {
+		if (next.packets == 0) return;
+		if (this.packets == 0) {
+			copyScalars(next);
+			this.lengths.merge(next.lengths);
+			this.interArrivals.merge(next.interArrivals);
+			this.sources.merge(next.sources);
+			return;
+		}
+
+		/* inter-arrival time between both parts */
+		long gap = next.firstTime - this.lastTime;
+		if (gap >= 0) {
+			this.interArrivals.record(gap);
+		} else {
+			this.outOfOrderPackets++;
+		}
+
+		/* one-second intervals */
+		boolean singleFirst = (this.firstSecond == this.lastSecond);
+		boolean singleNext = (next.firstSecond == next.lastSecond);
+		long peakPackets = Math.max(this.peakPackets, next.peakPackets);
+		long peakBytes = Math.max(this.peakBytes, next.peakBytes);
+		if (this.lastSecond == next.firstSecond) {
+			/* an interval split between both parts */
+			long splitPackets = this.lastSecondPackets
+			                    + next.firstSecondPackets;
+			long splitBytes = this.lastSecondBytes + next.firstSecondBytes;
+			if (singleFirst) {
+				this.firstSecondPackets = splitPackets;
+				this.firstSecondBytes = splitBytes;
+			}
+			if (singleNext) {
+				this.lastSecondPackets = splitPackets;
+				this.lastSecondBytes = splitBytes;
+			} else {
+				this.lastSecondPackets = next.lastSecondPackets;
+				this.lastSecondBytes = next.lastSecondBytes;
+			}
+			if (!(singleFirst) && !(singleNext)) {
+				peakPackets = Math.max(peakPackets, splitPackets);
+				peakBytes = Math.max(peakBytes, splitBytes);
+			}
+		} else {
+			if (!(singleFirst)) {
+				peakPackets = Math.max(peakPackets, this.lastSecondPackets);
+				peakBytes = Math.max(peakBytes, this.lastSecondBytes);
+			}
+			if (!(singleNext)) {
+				peakPackets = Math.max(peakPackets, next.firstSecondPackets);
+				peakBytes = Math.max(peakBytes, next.firstSecondBytes);
+			}
+			this.lastSecondPackets = next.lastSecondPackets;
+			this.lastSecondBytes = next.lastSecondBytes;
+		}
+		this.lastSecond = Math.max(this.lastSecond, next.lastSecond);
+		this.peakPackets = peakPackets;
+		this.peakBytes = peakBytes;
+
+		this.packets += next.packets;
+		this.bytes += next.bytes;
+		this.originalBytes += next.originalBytes;
+		this.truncatedPackets += next.truncatedPackets;
+		this.outOfOrderPackets += next.outOfOrderPackets;
+		this.lastTime = next.lastTime;
+		this.minTime = Math.min(this.minTime, next.minTime);
+		this.maxTime = Math.max(this.maxTime, next.maxTime);
+		this.lengths.merge(next.lengths);
+		this.interArrivals.merge(next.interArrivals);
+		this.sources.merge(next.sources);
+		this.framesWithSource += next.framesWithSource;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the number of packets.
+	 */
+	public long getPacketCount() {
+		return this.packets;
+	}
+
+	/**
+	 * @return the number of captured bytes.
+	 */
+	public long getByteCount() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return the number of bytes of the packets before their
+	 *         (possible) truncation.
+	 */
+	public long getOriginalByteCount() {
+		return this.originalBytes;
+	}
+
+	/**
+	 * @return the number of truncated packets (whose captured length
+	 *         is lower than their original length).
+	 */
+	public long getTruncatedPacketCount() {
+		return this.truncatedPackets;
+	}
+
+	/**
+	 * @return the number of packets whose timestamp is earlier
+	 *         than that of the previous packet.
+	 */
+	public long getOutOfOrderPacketCount() {
+		return this.outOfOrderPackets;
+	}
+
+	/**
+	 * @return the earliest packet time (in nanoseconds since
+	 *         the Unix epoch), or 0 if there are no packets.
+	 */
+	public long getStartTime() {
+		return (this.packets == 0 ? 0L : this.minTime);
+	}
+
+	/**
+	 * @return the latest packet time (in nanoseconds since
+	 *         the Unix epoch), or 0 if there are no packets.
+	 */
+	public long getEndTime() {
+		return (this.packets == 0 ? 0L : this.maxTime);
+	}
+
+	/**
+	 * @return the duration of the capture, in nanoseconds.
+	 */
+	public long getDuration() {
+		return getEndTime() - getStartTime();
+	}
+
+	/**
+	 * @return the average number of packets per second
+	 *         (0 if the capture lasts less than a nanosecond).
+	 */
+	public double getAveragePacketRate() {
+		long duration = getDuration();
+		return (duration == 0 ?
+		        0.0 : this.packets * (double) NANOS_PER_SECOND / duration);
+	}
+
+	/**
+	 * @return the average number of captured bytes per second
+	 *         (0 if the capture lasts less than a nanosecond).
+	 */
+	public double getAverageByteRate() {
+		long duration = getDuration();
+		return (duration == 0 ?
+		        0.0 : this.bytes * (double) NANOS_PER_SECOND / duration);
+	}
+
+	/**
+	 * @return the highest number of packets in a one-second
+	 *         interval (aligned on whole seconds).
+	 */
+	public long getPeakPacketRate() {
+		return Math.max(this.peakPackets,
+		                Math.max(this.firstSecondPackets,
+		                         this.lastSecondPackets));
+	}
+
+	/**
+	 * @return the highest number of captured bytes in a one-second
+	 *         interval (aligned on whole seconds).
+	 */
+	public long getPeakByteRate() {
+		return Math.max(this.peakBytes,
+		                Math.max(this.firstSecondBytes,
+		                         this.lastSecondBytes));
+	}
+
+	/**
+	 * @return the histogram of the captured packet lengths.
+	 */
+	public LogLinearHistogram getPacketLengths() {
+		return this.lengths;
+	}
+
+	/**
+	 * @return the histogram of the inter-arrival times of the packets
+	 *         (in nanoseconds; out-of-order packets being excluded).
+	 */
+	public LogLinearHistogram getInterArrivalTimes() {
+		return this.interArrivals;
+	}
+
+	/**
+	 * @return the most frequent IEEE 802.15.4 source addresses: keys
+	 *         lower than <tt>0x10000</tt> are short addresses, others
+	 *         are extended addresses.
+	 */
+	public TopKSketch getSourceAddresses() {
+		return this.sources;
+	}
+
+	/**
+	 * @return the number of IEEE 802.15.4 frames with a source address.
+	 */
+	public long getFramesWithSourceCount() {
+		return this.framesWithSource;
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void copyScalars(CaptureStatistics other) {
+		this.packets = other.packets;
+		this.bytes = other.bytes;
+		this.originalBytes = other.originalBytes;
+		this.truncatedPackets = other.truncatedPackets;
+		this.outOfOrderPackets = other.outOfOrderPackets;
+		this.firstTime = other.firstTime;
+		this.lastTime = other.lastTime;
+		this.minTime = other.minTime;
+		this.maxTime = other.maxTime;
+		this.firstSecond = other.firstSecond;
+		this.firstSecondPackets = other.firstSecondPackets;
+		this.firstSecondBytes = other.firstSecondBytes;
+		this.lastSecond = other.lastSecond;
+		this.lastSecondPackets = other.lastSecondPackets;
+		this.lastSecondBytes = other.lastSecondBytes;
+		this.peakPackets = other.peakPackets;
+		this.peakBytes = other.peakBytes;
+		this.framesWithSource = other.framesWithSource;
+	}
+
+}
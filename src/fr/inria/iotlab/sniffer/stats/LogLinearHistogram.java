@@ -0,0 +1,320 @@
+package fr.inria.iotlab.sniffer.stats;
+
+import java.util.Arrays;
+
+
+/**
+ * Histogram of non-negative values, with a bounded relative error
+ * (in the manner of HDR histograms).
+ * <br/>
+ * Values lower than <tt>2<sup>precision</sup></tt> are counted exactly;
+ * above, each power of two is split into <tt>2<sup>precision-1</sup></tt>
+ * buckets of equal width, so that the values of a bucket differ by less
+ * than <tt>2<sup>1-precision</sup></tt> of their magnitude. The whole
+ * range of <code>long</code> values is thus covered by a fixed number
+ * of counters, allocated once: memory use doesn't depend on the number
+ * of recorded values.
+ * <br/>
+ * Histograms with the same precision can be merged (e.g.: histograms
+ * computed in parallel on several parts of a capture).
+ * This class is not thread-safe.
+ *
+ * @author KR
+ */
+public final class LogLinearHistogram {
+
+	///*** CONSTANTES ***///
+
+	/** Default precision: relative error lower than 1/64. */
+	public static final int DEFAULT_PRECISION = 7;
+
+	/** Minimal precision (in bits). */
+	public static final int MIN_PRECISION = 1;
+
+	/** Maximal precision (in bits). */
+	public static final int MAX_PRECISION = 16;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_PRECISION =
+			"Precision must be between %d and %d bits (got %d)!";
+	private static final String ERR_NEGATIVE_VALUE =
+			"Cannot record negative value %d!";
+	private static final String ERR_NEGATIVE_COUNT =
+			"Cannot record a negative count (%d)!";
+	private static final String ERR_BAD_QUANTILE =
+			"Quantile must be between 0 and 1 (got %f)!";
+	private static final String ERR_PRECISION_MISMATCH =
+			"Cannot merge histograms of different precisions (%d and %d)!";
+
+	///*** ATTRIBUTS ***///
+
+	private final int precision;
+	private final int halfBuckets;
+	private final long[] counts;
+	private long totalCount;
+	private long totalSum;
+	private long minValue;
+	private long maxValue;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for an empty histogram with the default precision.
+	 */
+	public LogLinearHistogram() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Constructor for an empty histogram.
+	 *
+	 * @param precision number of significant bits of the values kept
+	 *                  by the histogram.
+	 * @throws IllegalArgumentException if <code>precision</code> is not
+	 *                                  between <code>MIN_PRECISION</code>
+	 *                                  and <code>MAX_PRECISION</code>.
+	 */
+	public LogLinearHistogram(int precision)
+	throws IllegalArgumentException
+	{
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_PRECISION,
+					MIN_PRECISION, MAX_PRECISION, precision));
+		}
+		this.precision = precision;
+		this.halfBuckets = 1 << (precision - 1);
+		this.counts = new long[(1 << precision)
+		                       + (63 - precision) * this.halfBuckets];
+		this.minValue = Long.MAX_VALUE;
+		this.maxValue = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other the histogram to copy.
+	 */
+	public LogLinearHistogram(LogLinearHistogram other) {
+		this.precision = other.precision;
+		this.halfBuckets = other.halfBuckets;
+		this.counts = other.counts.clone();
+		this.totalCount = other.totalCount;
+		this.totalSum = other.totalSum;
+		this.minValue = other.minValue;
+		this.maxValue = other.maxValue;
+	}
+
+	///*** ENREGISTREMENT ***///
+
+	/**
+	 * Record a value.
+	 *
+	 * @param value the value to record.
+	 * @throws IllegalArgumentException if <code>value</code> is negative.
+	 */
+	public void record(long value) throws IllegalArgumentException {
+		record(value, 1L);
+	}
+
+	/**
+	 * Record several occurrences of a value.
+	 *
+	 * @param value the value to record.
+	 * @param count its number of occurrences.
+	 * @throws IllegalArgumentException if <code>value</code>
+	 *                                  or <code>count</code> is negative.
+	 */
+	public void record(long value, long count)
+	throws IllegalArgumentException
+	{
+		if (value < 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_NEGATIVE_VALUE,
+					value));
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_NEGATIVE_COUNT,
+					count));
+		}
+		if (count == 0) return;
+		this.counts[bucketIndex(value)] += count;
+		this.totalCount += count;
+		this.totalSum += value * count;
+		if (value < this.minValue) this.minValue = value;
+		if (value > this.maxValue) this.maxValue = value;
+	}
+
+	/**
+	 * Add all the values recorded by another histogram to this one.
+	 *
+	 * @param other the histogram to merge into this one.
+	 * @throws IllegalArgumentException if both histograms don't have
+	 *                                  the same precision.
+	 */
+	public void merge(LogLinearHistogram other)
+	throws IllegalArgumentException
+	{
+		if (other.precision != this.precision) {
+			throw new IllegalArgumentException(String.format(
+					ERR_PRECISION_MISMATCH,
+					this.precision, other.precision));
+		}
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] += other.counts[i];
+		}
+		this.totalCount += other.totalCount;
+		this.totalSum += other.totalSum;
+		this.minValue = Math.min(this.minValue, other.minValue);
+		this.maxValue = Math.max(this.maxValue, other.maxValue);
+	}
+
+	/**
+	 * Remove all the recorded values.
+	 */
+	public void clear() {
+		Arrays.fill(this.counts, 0L);
+		this.totalCount = 0L;
+		this.totalSum = 0L;
+		this.minValue = Long.MAX_VALUE;
+		this.maxValue = Long.MIN_VALUE;
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the number of significant bits of the values kept.
+	 */
+	public int getPrecision() {
+		return this.precision;
+	}
+
+	/**
+	 * @return the number of recorded values.
+	 */
+	public long getCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * @return the sum of the recorded values.
+	 */
+	public long getSum() {
+		return this.totalSum;
+	}
+
+	/**
+	 * @return the lowest recorded value (exactly),
+	 *         or 0 if the histogram is empty.
+	 */
+	public long getMin() {
+		return (this.totalCount == 0 ? 0L : this.minValue);
+	}
+
+	/**
+	 * @return the highest recorded value (exactly),
+	 *         or 0 if the histogram is empty.
+	 */
+	public long getMax() {
+		return (this.totalCount == 0 ? 0L : this.maxValue);
+	}
+
+	/**
+	 * @return the mean of the recorded values (exactly),
+	 *         or 0 if the histogram is empty.
+	 */
+	public double getMean() {
+		return (this.totalCount == 0 ?
+		        0.0 : (double) this.totalSum / this.totalCount);
+	}
+
+	/**
+	 * Get the value under which the given fraction of the recorded
+	 * values lie (e.g.: 0.5 for the median, 0.99 for the 99th
+	 * percentile), within the precision of this histogram.
+	 *
+	 * @param quantile the fraction of the values, between 0 and 1.
+	 * @return the value at that quantile, or 0 if the histogram is empty.
+	 * @throws IllegalArgumentException if <code>quantile</code>
+	 *                                  is not between 0 and 1.
+	 */
+	public long getValueAtQuantile(double quantile)
+	throws IllegalArgumentException
+	{
+		if (!(quantile >= 0.0 && quantile <= 1.0)) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_QUANTILE,
+					quantile));
+		}
+		if (this.totalCount == 0) return 0L;
+		long rank = Math.max(1L, (long) Math.ceil(quantile * this.totalCount));
+		long seen = 0;
+		for (int i = 0; i < this.counts.length; i++) {
+			seen += this.counts[i];
+			if (seen >= rank) {
+				long value = getBucketLowerBound(i)
+				             + (getBucketUpperBound(i)
+				                - getBucketLowerBound(i)) / 2;
+				/* the extreme values are known exactly */
+				return Math.max(this.minValue,
+				                Math.min(this.maxValue, value));
+			}
+		}
+		return this.maxValue;
+	}
+
+	/**
+	 * @return the number of buckets of this histogram.
+	 */
+	public int getBucketCount() {
+		return this.counts.length;
+	}
+
+	/**
+	 * @param bucket the number of a bucket.
+	 * @return the number of values recorded in that bucket.
+	 */
+	public long getBucketValueCount(int bucket) {
+		return this.counts[bucket];
+	}
+
+	/**
+	 * @param bucket the number of a bucket.
+	 * @return the lowest value counted in that bucket.
+	 */
+	public long getBucketLowerBound(int bucket) {
+		int linear = 1 << this.precision;
+		if (bucket < linear) return bucket;
+		int k = bucket - linear;
+		int shift = k / this.halfBuckets + 1;
+		long top = this.halfBuckets + (k % this.halfBuckets);
+		return top << shift;
+	}
+
+	/**
+	 * @param bucket the number of a bucket.
+	 * @return the highest value counted in that bucket.
+	 */
+	public long getBucketUpperBound(int bucket) {
+		int linear = 1 << this.precision;
+		if (bucket < linear) return bucket;
+		int shift = (bucket - linear) / this.halfBuckets + 1;
+		return getBucketLowerBound(bucket) + ((1L << shift) - 1L);
+	}
+
+	/**
+	 * @param value a non-negative value.
+	 * @return the number of the bucket counting that value.
+	 */
+	public int bucketIndex(long value) {
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		if (msb < this.precision) return (int) value;
+		int shift = msb - this.precision + 1;
+		int top = (int) (value >>> shift);
+		return (1 << this.precision) + (shift - 1) * this.halfBuckets
+		       + (top - this.halfBuckets);
+	}
+
+}
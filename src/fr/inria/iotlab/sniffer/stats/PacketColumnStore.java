@@ -0,0 +1,729 @@
+package fr.inria.iotlab.sniffer.stats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import fr.inria.iotlab.sniffer.decoder.IEEE802154Frame;
+import fr.inria.iotlab.sniffer.parser.NetworkType;
+import fr.inria.iotlab.sniffer.parser.PCapFileParser;
+import fr.inria.iotlab.sniffer.parser.PCapSniffedPacket;
+import fr.inria.iotlab.sniffer.parser.PacketCursor;
+
+/**
+ * In-memory store of the packets of a capture, in columnar form,
+ * for repeated analytics queries.
+ * <br/>
+ * Instead of one object (and one data array) per packet, packet
+ * properties are held in parallel primitive arrays (timestamp seconds,
+ * timestamp nanoseconds, original lengths), and the data of all the
+ * packets in a single contiguous slab, on the Java heap or off-heap,
+ * each packet's data being delimited by an array of offsets. This costs
+ * 20 bytes per packet besides its data, and the scans and aggregations
+ * of this class are tight loops over primitive arrays.
+ * <br/>
+ * Packets are numbered (as rows) in their order of addition, from 0.
+ * Timestamps are stored with a nanosecond precision. The data slab
+ * is limited to 2 GiB. This class is not thread-safe.
+ *
+ * @author KR
+ */
+public final class PacketColumnStore {
+
+	///*** CLASSES INTERNES ***///
+
+	/**
+	 * Result of a group-by query: the packet and byte counts of each
+	 * distinct key, by decreasing packet counts.
+	 */
+	public static final class PacketGroups {
+
+		private final long[] keys;
+		private final long[] packets;
+		private final long[] bytes;
+
+		PacketGroups(long[] keys, long[] packets, long[] bytes) {
+			this.keys = keys;
+			this.packets = packets;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return the number of groups (distinct keys).
+		 */
+		public int getGroupCount() {
+			return this.keys.length;
+		}
+
+		/**
+		 * @param group the rank of a group (from 0, for the largest).
+		 * @return the key of that group.
+		 */
+		public long getKey(int group) {
+			return this.keys[group];
+		}
+
+		/**
+		 * @param group the rank of a group (from 0, for the largest).
+		 * @return the number of packets of that group.
+		 */
+		public long getPacketCount(int group) {
+			return this.packets[group];
+		}
+
+		/**
+		 * @param group the rank of a group (from 0, for the largest).
+		 * @return the number of captured bytes of that group.
+		 */
+		public long getByteCount(int group) {
+			return this.bytes[group];
+		}
+
+	}
+
+	///*** CONSTANTES ***///
+
+	/** Key of the packets without source address. */
+	public static final long NO_ADDRESS = -1L;
+
+	/** Default initial capacity, in packets. */
+	public static final int DEFAULT_INITIAL_PACKETS = 1024;
+
+	/** Default initial capacity of the data slab, in bytes. */
+	public static final int DEFAULT_INITIAL_DATA_SIZE = 64 * 1024;
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	/** Maximal size of the arrays and of the data slab. */
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_CAPACITY =
+			"Initial capacities must be strictly positive (got %d and %d)!";
+	private static final String ERR_STORE_FULL =
+			"Packet store is full (%d packets, %d bytes of data)!";
+	private static final String ERR_BAD_ROW =
+			"Row #%d is out of range (%d packets)!";
+	private static final String ERR_BAD_RANGE =
+			"Invalid range of rows [%d, %d) (%d packets)!";
+	private static final String ERR_BAD_BUCKETS =
+			"Invalid time buckets (width %d, %d and %d counters)!";
+	private static final String ERR_BAD_KEYS =
+			"Key column has %d rows instead of %d!";
+	private static final String ERR_NOT_SORTED =
+			"Packets are not sorted by time!";
+
+	///*** ATTRIBUTS ***///
+
+	private final NetworkType netType;
+	private final boolean direct;
+
+	/* columns */
+	private long[] seconds;
+	private int[] nanos;
+	private int[] originalLengths;
+	private int[] dataOffsets;
+	private int count;
+	private boolean timeSorted;
+
+	/* data slab, and a read-only view of it (duplicated when used) */
+	private ByteBuffer data;
+	private ByteBuffer dataView;
+
+	/* derived columns (computed on first use) */
+	private long[] sourceAddresses;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for an empty store, with its data on the Java heap
+	 * and default initial capacities.
+	 *
+	 * @param netType the link type of the stored packets.
+	 */
+	public PacketColumnStore(NetworkType netType) {
+		this(netType, false, DEFAULT_INITIAL_PACKETS,
+		     DEFAULT_INITIAL_DATA_SIZE);
+	}
+
+	/**
+	 * Constructor for an empty store.
+	 *
+	 * @param netType the link type of the stored packets.
+	 * @param direct <code>true</code> to store the packet data off-heap
+	 *               (in a direct buffer).
+	 * @param initialPackets initial capacity, in packets.
+	 * @param initialDataSize initial capacity of the data slab, in bytes.
+	 * @throws IllegalArgumentException if a capacity is not
+	 *                                  strictly positive.
+	 */
+	public PacketColumnStore(NetworkType netType, boolean direct,
+	                         int initialPackets, int initialDataSize)
+	throws IllegalArgumentException
+	{
+		if (initialPackets <= 0 || initialDataSize <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_CAPACITY,
+					initialPackets, initialDataSize));
+		}
+		this.netType = netType;
+		this.direct = direct;
+		this.seconds = new long[initialPackets];
+		this.nanos = new int[initialPackets];
+		this.originalLengths = new int[initialPackets];
+		this.dataOffsets = new int[initialPackets + 1];
+		this.timeSorted = true;
+		setDataSlab(allocate(initialDataSize));
+	}
+
+	/**
+	 * Load all the (remaining) packets of a parser into a new store,
+	 * through its <code>PacketCursor</code> (its packet filter,
+	 * if any, thus applies).
+	 *
+	 * @param parser the parser of the capture to load.
+	 * @param direct <code>true</code> to store the packet data off-heap.
+	 * @return the store holding the packets.
+	 * @throws IllegalStateException if the capture doesn't fit in a store.
+	 * @throws IOException if an I/O error prevents the packets
+	 *                     from being read.
+	 */
+	public static PacketColumnStore load(PCapFileParser parser,
+	                                     boolean direct)
+	throws IllegalStateException, IOException
+	{
+		PacketColumnStore store = new PacketColumnStore(
+				parser.getNetworkType(), direct,
+				DEFAULT_INITIAL_PACKETS, DEFAULT_INITIAL_DATA_SIZE);
+		store.addAll(parser);
+		store.trimToSize();
+		return store;
+	}
+
+	///*** AJOUT DE PAQUETS ***///
+
+	/**
+	 * Add all the (remaining) packets of a parser to this store,
+	 * through its <code>PacketCursor</code>.
+	 *
+	 * @param parser the parser of the packets to add.
+	 * @return the number of packets added.
+	 * @throws IllegalStateException if the store is full.
+	 * @throws IOException if an I/O error prevents the packets
+	 *                     from being read.
+	 */
+	public long addAll(PCapFileParser parser)
+	throws IllegalStateException, IOException
+	{
+		PacketCursor cursor = parser.getPacketCursor();
+		long added = 0;
+		while (cursor.next()) {
+			add(cursor);
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Add the current packet of a cursor to this store.
+	 *
+	 * @param cursor a cursor positioned on the packet to add.
+	 * @throws IllegalStateException if the store is full.
+	 * @throws IOException if an I/O error prevents the packet data
+	 *                     from being read.
+	 */
+	public void add(PacketCursor cursor)
+	throws IllegalStateException, IOException
+	{
+		int fraction = cursor.getTimestampFraction();
+		if (!(cursor.hasNanosecondPrecision())) fraction *= 1000;
+		add(cursor.getTimestampSeconds(), fraction,
+		    cursor.getOriginalPacketLength(), cursor.getPacketData());
+	}
+
+	/**
+	 * Add a packet to this store.
+	 *
+	 * @param seconds the timestamp of the packet, in seconds
+	 *                since the Unix epoch.
+	 * @param nanos the sub-second part of the timestamp, in nanoseconds.
+	 * @param originalLength the original length of the packet.
+	 * @param packetData the captured data of the packet, from its
+	 *                   position to its limit (its position being
+	 *                   moved to its limit).
+	 * @throws IllegalStateException if the store is full.
+	 */
+	public void add(long seconds, int nanos, int originalLength,
+	                ByteBuffer packetData)
+	throws IllegalStateException
+	{
+		int length = packetData.remaining();
+		ensureCapacity(this.count + 1, length);
+		int row = this.count;
+		this.seconds[row] = seconds;
+		this.nanos[row] = nanos;
+		this.originalLengths[row] = Math.max(originalLength, length);
+		if (row > 0 && this.timeSorted
+		    && compareTime(row - 1, seconds, nanos) > 0)
+		{
+			this.timeSorted = false;
+		}
+		int offset = this.dataOffsets[row];
+		this.data.position(offset);
+		this.data.put(packetData);
+		this.dataOffsets[row + 1] = offset + length;
+		this.count = row + 1;
+		this.sourceAddresses = null;
+	}
+
+	/**
+	 * Release the unused capacity of this store (e.g.: once loaded).
+	 */
+	public void trimToSize() {
+		if (this.seconds.length > this.count) {
+			int capacity = Math.max(this.count, 1);
+			this.seconds = Arrays.copyOf(this.seconds, capacity);
+			this.nanos = Arrays.copyOf(this.nanos, capacity);
+			this.originalLengths =
+					Arrays.copyOf(this.originalLengths, capacity);
+			this.dataOffsets = Arrays.copyOf(this.dataOffsets, capacity + 1);
+		}
+		int used = this.dataOffsets[this.count];
+		if (this.data.capacity() > used) {
+			ByteBuffer slab = allocate(Math.max(used, 1));
+			copyData(slab, used);
+			setDataSlab(slab);
+		}
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the link type of the stored packets.
+	 */
+	public NetworkType getNetworkType() {
+		return this.netType;
+	}
+
+	/**
+	 * @return <code>true</code> if the packet data is stored off-heap.
+	 */
+	public boolean isDirect() {
+		return this.direct;
+	}
+
+	/**
+	 * @return the number of stored packets.
+	 */
+	public int getPacketCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return the total size of the stored packet data, in bytes.
+	 */
+	public long getDataSize() {
+		return this.dataOffsets[this.count];
+	}
+
+	/**
+	 * @return <code>true</code> if the packets have been added
+	 *         by increasing timestamps.
+	 */
+	public boolean isTimeSorted() {
+		return this.timeSorted;
+	}
+
+	/**
+	 * @param row the number of a packet.
+	 * @return the timestamp seconds of that packet.
+	 */
+	public long getTimestampSeconds(int row) {
+		checkRow(row);
+		return this.seconds[row];
+	}
+
+	/**
+	 * @param row the number of a packet.
+	 * @return the sub-second part of the timestamp of that packet,
+	 *         in nanoseconds.
+	 */
+	public int getTimestampNanos(int row) {
+		checkRow(row);
+		return this.nanos[row];
+	}
+
+	/**
+	 * @param row the number of a packet.
+	 * @return the timestamp of that packet, in nanoseconds
+	 *         since the Unix epoch.
+	 */
+	public long getTime(int row) {
+		checkRow(row);
+		return this.seconds[row] * NANOS_PER_SECOND + this.nanos[row];
+	}
+
+	/**
+	 * @param row the number of a packet.
+	 * @return the captured length of that packet.
+	 */
+	public int getPacketLength(int row) {
+		checkRow(row);
+		return this.dataOffsets[row + 1] - this.dataOffsets[row];
+	}
+
+	/**
+	 * @param row the number of a packet.
+	 * @return the original length of that packet.
+	 */
+	public int getOriginalPacketLength(int row) {
+		checkRow(row);
+		return this.originalLengths[row];
+	}
+
+	/**
+	 * Get the data of a packet, without copy.
+	 *
+	 * @param row the number of a packet.
+	 * @return a new read-only view, positioned on the data of that
+	 *         packet, valid until the next modification of the store.
+	 */
+	public ByteBuffer getPacketData(int row) {
+		checkRow(row);
+		ByteBuffer view = this.dataView.duplicate();
+		view.limit(this.dataOffsets[row + 1]);
+		view.position(this.dataOffsets[row]);
+		return view;
+	}
+
+	/**
+	 * Copy a packet into a new, standalone <code>PCapSniffedPacket</code>.
+	 *
+	 * @param row the number of a packet.
+	 * @return that packet (with a nanosecond precision).
+	 */
+	public PCapSniffedPacket getPacket(int row) {
+		ByteBuffer view = getPacketData(row);
+		byte[] copy = new byte[view.remaining()];
+		view.get(copy);
+		return new PCapSniffedPacket((int) this.seconds[row],
+		                             this.nanos[row], true,
+		                             copy.length, this.originalLengths[row],
+		                             copy);
+	}
+
+	///*** REQUETES ***///
+
+	/**
+	 * Find the first packet whose timestamp is at or after a given time
+	 * (by binary search).
+	 *
+	 * @param time a time, in nanoseconds since the Unix epoch.
+	 * @return the number of that packet, or the number of packets if
+	 *         all are earlier.
+	 * @throws IllegalStateException if the packets are not sorted
+	 *                               by time.
+	 */
+	public int findFirstRow(long time) throws IllegalStateException {
+		if (!(this.timeSorted)) {
+			throw new IllegalStateException(ERR_NOT_SORTED);
+		}
+		long sec = Math.floorDiv(time, NANOS_PER_SECOND);
+		int nano = (int) Math.floorMod(time, NANOS_PER_SECOND);
+		int low = 0;
+		int high = this.count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareTime(middle, sec, nano) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param from the first packet (included).
+	 * @param to the last packet (excluded).
+	 * @return the total captured length of these packets.
+	 */
+	public long sumPacketLengths(int from, int to) {
+		checkRange(from, to);
+		return (long) this.dataOffsets[to] - this.dataOffsets[from];
+	}
+
+	/**
+	 * @param from the first packet (included).
+	 * @param to the last packet (excluded).
+	 * @return the total original length of these packets.
+	 */
+	public long sumOriginalPacketLengths(int from, int to) {
+		checkRange(from, to);
+		long sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += this.originalLengths[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * @param from the first packet (included).
+	 * @param to the last packet (excluded).
+	 * @return the number of truncated packets among these packets.
+	 */
+	public int countTruncated(int from, int to) {
+		checkRange(from, to);
+		int truncated = 0;
+		for (int i = from; i < to; i++) {
+			int length = this.dataOffsets[i + 1] - this.dataOffsets[i];
+			truncated += (length < this.originalLengths[i] ? 1 : 0);
+		}
+		return truncated;
+	}
+
+	/**
+	 * Count the packets and bytes (captured lengths) of a range of
+	 * packets in consecutive time buckets of equal width; packets out
+	 * of the buckets are ignored.
+	 *
+	 * @param from the first packet (included).
+	 * @param to the last packet (excluded).
+	 * @param start the start of the first bucket, in nanoseconds
+	 *              since the Unix epoch.
+	 * @param width the width of the buckets, in nanoseconds.
+	 * @param packets the packet counts to increment, one per bucket.
+	 * @param bytes the byte counts to increment (same length as
+	 *              <code>packets</code>), or <code>null</code>.
+	 */
+	public void countByTime(int from, int to, long start, long width,
+	                        long[] packets, long[] bytes)
+	{
+		checkRange(from, to);
+		if (width <= 0
+		    || (bytes != null && bytes.length != packets.length))
+		{
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_BUCKETS,
+					width, packets.length,
+					(bytes == null ? 0 : bytes.length)));
+		}
+		long span = width * packets.length;
+		for (int i = from; i < to; i++) {
+			long offset = this.seconds[i] * NANOS_PER_SECOND + this.nanos[i]
+			              - start;
+			if (offset < 0 || offset >= span) continue;
+			int bucket = (int) (offset / width);
+			packets[bucket]++;
+			if (bytes != null) {
+				bytes[bucket] += this.dataOffsets[i + 1] - this.dataOffsets[i];
+			}
+		}
+	}
+
+	/**
+	 * Get the IEEE 802.15.4 source address of each packet (decoded once,
+	 * then kept until a packet is added): short addresses are lower than
+	 * <tt>0x10000</tt>, and packets without source address (or which are
+	 * not IEEE 802.15.4 frames) have <code>NO_ADDRESS</code>.
+	 *
+	 * @return the source address column (not to be modified).
+	 */
+	public long[] getSourceAddresses() {
+		if (this.sourceAddresses != null) return this.sourceAddresses;
+		long[] column = new long[this.count];
+		Arrays.fill(column, NO_ADDRESS);
+		if (this.netType != null && IEEE802154Frame.isSupported(this.netType)) {
+			IEEE802154Frame frame = new IEEE802154Frame();
+			/* frames are decoded at absolute offsets in the whole slab */
+			ByteBuffer view = this.dataView.duplicate();
+			view.clear();
+			for (int i = 0; i < this.count; i++) {
+				int offset = this.dataOffsets[i];
+				if (!(frame.wrap(view, offset,
+				                 this.dataOffsets[i + 1] - offset,
+				                 this.netType)))
+				{
+					continue;
+				}
+				switch (frame.getSourceAddressMode()) {
+				case IEEE802154Frame.ADDR_MODE_SHORT:
+					column[i] = frame.getSourceShortAddress();
+					break;
+				case IEEE802154Frame.ADDR_MODE_EXTENDED:
+					column[i] = frame.getSourceExtendedAddress();
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		this.sourceAddresses = column;
+		return column;
+	}
+
+	/**
+	 * Group a range of packets by key (e.g.: by node, with the column
+	 * given by <code>getSourceAddresses()</code>), counting the packets
+	 * and bytes of each group.
+	 *
+	 * @param keys the key of each stored packet.
+	 * @param from the first packet (included).
+	 * @param to the last packet (excluded).
+	 * @return the groups, by decreasing packet counts.
+	 * @throws IllegalArgumentException if <code>keys</code> doesn't
+	 *                                  have one key per packet.
+	 */
+	public PacketGroups groupBy(long[] keys, int from, int to)
+	throws IllegalArgumentException
+	{
+		if (keys.length != this.count) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_KEYS,
+					keys.length, this.count));
+		}
+		checkRange(from, to);
+
+		/* open-addressing table, of primitive arrays */
+		int capacity = 16;
+		long[] tableKeys = new long[capacity];
+		int[] tableGroups = new int[capacity];
+		long[] groupKeys = new long[8];
+		long[] groupPackets = new long[8];
+		long[] groupBytes = new long[8];
+		int groups = 0;
+		for (int i = from; i < to; i++) {
+			long key = keys[i];
+			int mask = capacity - 1;
+			int slot = mix(key) & mask;
+			int group;
+			while (true) {
+				group = tableGroups[slot] - 1;
+				if (group < 0 || tableKeys[slot] == key) break;
+				slot = (slot + 1) & mask;
+			}
+			if (group < 0) {
+				group = groups++;
+				if (group == groupKeys.length) {
+					groupKeys = Arrays.copyOf(groupKeys, group * 2);
+					groupPackets = Arrays.copyOf(groupPackets, group * 2);
+					groupBytes = Arrays.copyOf(groupBytes, group * 2);
+				}
+				groupKeys[group] = key;
+				tableKeys[slot] = key;
+				tableGroups[slot] = group + 1;
+				if (groups * 2 > capacity) {
+					/* rehash, to keep a load factor of at most 1/2 */
+					capacity *= 2;
+					tableKeys = new long[capacity];
+					tableGroups = new int[capacity];
+					for (int g = 0; g < groups; g++) {
+						int s = mix(groupKeys[g]) & (capacity - 1);
+						while (tableGroups[s] != 0) {
+							s = (s + 1) & (capacity - 1);
+						}
+						tableKeys[s] = groupKeys[g];
+						tableGroups[s] = g + 1;
+					}
+				}
+			}
+			groupPackets[group]++;
+			groupBytes[group] += this.dataOffsets[i + 1] - this.dataOffsets[i];
+		}
+
+		/* sort the groups by decreasing packet counts (packet counts
+		   and group numbers fitting in 32 bits, both are sorted at once) */
+		long[] order = new long[groups];
+		for (int g = 0; g < groups; g++) {
+			order[g] = (groupPackets[g] << 32) | (0xFFFFFFFFL - g);
+		}
+		Arrays.sort(order);
+		long[] sortedKeys = new long[groups];
+		long[] sortedPackets = new long[groups];
+		long[] sortedBytes = new long[groups];
+		for (int g = 0; g < groups; g++) {
+			int group = (int) (0xFFFFFFFFL - (order[groups - 1 - g]
+			                                  & 0xFFFFFFFFL));
+			sortedKeys[g] = groupKeys[group];
+			sortedPackets[g] = groupPackets[group];
+			sortedBytes[g] = groupBytes[group];
+		}
+		return new PacketGroups(sortedKeys, sortedPackets, sortedBytes);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= this.count) {
+			throw new IndexOutOfBoundsException(String.format(
+					ERR_BAD_ROW,
+					row, this.count));
+		}
+	}
+
+	private void checkRange(int from, int to) {
+		if (from < 0 || to > this.count || from > to) {
+			throw new IndexOutOfBoundsException(String.format(
+					ERR_BAD_RANGE,
+					from, to, this.count));
+		}
+	}
+
+	private int compareTime(int row, long sec, int nano) {
+		int cmp = Long.compare(this.seconds[row], sec);
+		return (cmp != 0 ? cmp : Integer.compare(this.nanos[row], nano));
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private ByteBuffer allocate(int size) {
+		return (this.direct ?
+		        ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size));
+	}
+
+	private void setDataSlab(ByteBuffer slab) {
+		this.data = slab;
+		this.dataView = slab.asReadOnlyBuffer();
+	}
+
+	private void copyData(ByteBuffer slab, int used) {
+		ByteBuffer source = this.data.duplicate();
+		source.position(0);
+		source.limit(used);
+		slab.put(source);
+	}
+
+	private void ensureCapacity(int packets, int extraData) {
+		int used = this.dataOffsets[this.count];
+		if (packets > MAX_CAPACITY
+		    || (long) used + extraData > MAX_CAPACITY)
+		{
+			throw new IllegalStateException(String.format(
+					ERR_STORE_FULL,
+					this.count, used));
+		}
+		if (packets > this.seconds.length) {
+			int capacity = (int) Math.min(MAX_CAPACITY,
+			                              Math.max(packets,
+			                                       this.seconds.length * 2L));
+			this.seconds = Arrays.copyOf(this.seconds, capacity);
+			this.nanos = Arrays.copyOf(this.nanos, capacity);
+			this.originalLengths =
+					Arrays.copyOf(this.originalLengths, capacity);
+			this.dataOffsets = Arrays.copyOf(this.dataOffsets, capacity + 1);
+		}
+		if (used + extraData > this.data.capacity()) {
+			int capacity = (int) Math.min(MAX_CAPACITY,
+			                              Math.max(used + (long) extraData,
+			                                       this.data.capacity() * 2L));
+			ByteBuffer slab = allocate(capacity);
+			copyData(slab, used);
+			setDataSlab(slab);
+		}
+	}
+
+}
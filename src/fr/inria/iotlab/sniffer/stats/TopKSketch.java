@@ -0,0 +1,314 @@
+package fr.inria.iotlab.sniffer.stats;
+
+
+/**
+ * Estimator of the most frequent keys of a stream (e.g.: the source
+ * addresses sending the most packets), in constant memory.
+ * <br/>
+ * Occurrences are counted by a count-min sketch: a small matrix of
+ * counters, each key incrementing one counter per row (chosen by a hash
+ * function specific to that row); the estimated count of a key is the
+ * lowest of its counters, which never underestimates its actual count.
+ * The <tt>k</tt> keys with the highest estimates seen so far are kept
+ * as candidates for the top-<tt>k</tt>.
+ * <br/>
+ * Sketches with the same dimensions can be merged (e.g.: sketches
+ * computed in parallel on several parts of a capture).
+ * This class is not thread-safe.
+ *
+ * @author KR
+ */
+public final class TopKSketch {
+
+	///*** CONSTANTES ***///
+
+	/** Default number of rows (hash functions) of the sketch. */
+	public static final int DEFAULT_DEPTH = 4;
+
+	/** Default number of counters per row of the sketch. */
+	public static final int DEFAULT_WIDTH = 4096;
+
+	/** Default number of most frequent keys kept. */
+	public static final int DEFAULT_TOP_SIZE = 16;
+
+	private static final long[] ROW_SEEDS = {
+		0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL,
+		0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+		0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L,
+		0x94D049BB133111EBL, 0xBF58476D1CE4E5B9L
+	};
+
+	// MESSAGES D'ERREUR //
+
+	private static final String ERR_BAD_DEPTH =
+			"Depth must be between 1 and %d (got %d)!";
+	private static final String ERR_BAD_WIDTH =
+			"Width must be a strictly positive power of two (got %d)!";
+	private static final String ERR_BAD_TOP_SIZE =
+			"Number of top keys must be strictly positive (got %d)!";
+	private static final String ERR_NEGATIVE_COUNT =
+			"Cannot add a negative count (%d)!";
+	private static final String ERR_DIMENSIONS_MISMATCH =
+			"Cannot merge sketches of different dimensions!";
+
+	///*** ATTRIBUTS ***///
+
+	private final int depth;
+	private final int widthMask;
+	private final long[] counters;
+	private long totalCount;
+
+	/* candidate top keys, with their estimates (sorted when needed) */
+	private final long[] topKeys;
+	private final long[] topEstimates;
+	private int topCount;
+	private boolean topSorted;
+
+	///*** CONSTRUCTEURS ***///
+
+	/**
+	 * Constructor for an empty sketch with the default dimensions.
+	 */
+	public TopKSketch() {
+		this(DEFAULT_DEPTH, DEFAULT_WIDTH, DEFAULT_TOP_SIZE);
+	}
+
+	/**
+	 * Constructor for an empty sketch.
+	 *
+	 * @param depth number of rows (hash functions) of the sketch.
+	 * @param width number of counters per row of the sketch
+	 *              (a power of two).
+	 * @param topSize number of most frequent keys kept.
+	 * @throws IllegalArgumentException if one of the dimensions
+	 *                                  is invalid.
+	 */
+	public TopKSketch(int depth, int width, int topSize)
+	throws IllegalArgumentException
+	{
+		if (depth < 1 || depth > ROW_SEEDS.length) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_DEPTH,
+					ROW_SEEDS.length, depth));
+		}
+		if (width <= 0 || Integer.bitCount(width) != 1) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_WIDTH,
+					width));
+		}
+		if (topSize <= 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_BAD_TOP_SIZE,
+					topSize));
+		}
+		this.depth = depth;
+		this.widthMask = width - 1;
+		this.counters = new long[depth * width];
+		this.topKeys = new long[topSize];
+		this.topEstimates = new long[topSize];
+		this.topSorted = true;
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other the sketch to copy.
+	 */
+	public TopKSketch(TopKSketch other) {
+		this.depth = other.depth;
+		this.widthMask = other.widthMask;
+		this.counters = other.counters.clone();
+		this.totalCount = other.totalCount;
+		this.topKeys = other.topKeys.clone();
+		this.topEstimates = other.topEstimates.clone();
+		this.topCount = other.topCount;
+		this.topSorted = other.topSorted;
+	}
+
+	///*** COMPTAGE ***///
+
+	/**
+	 * Count one occurrence of a key.
+	 *
+	 * @param key the key.
+	 */
+	public void add(long key) {
+		add(key, 1L);
+	}
+
+	/**
+	 * Count several occurrences of a key.
+	 *
+	 * @param key the key.
+	 * @param count its number of occurrences.
+	 * @throws IllegalArgumentException if <code>count</code> is negative.
+	 */
+	public void add(long key, long count) throws IllegalArgumentException {
+		if (count < 0) {
+			throw new IllegalArgumentException(String.format(
+					ERR_NEGATIVE_COUNT,
+					count));
+		}
+		if (count == 0) return;
+		this.totalCount += count;
+		long estimate = Long.MAX_VALUE;
+		int width = this.widthMask + 1;
+		for (int row = 0; row < this.depth; row++) {
+			int i = row * width + counterIndex(key, row);
+			long value = (this.counters[i] += count);
+			if (value < estimate) estimate = value;
+		}
+		offerCandidate(key, estimate);
+	}
+
+	/**
+	 * Add all the occurrences counted by another sketch to this one.
+	 *
+	 * @param other the sketch to merge into this one.
+	 * @throws IllegalArgumentException if both sketches don't have
+	 *                                  the same dimensions.
+	 */
+	public void merge(TopKSketch other) throws IllegalArgumentException {
+		if (other.depth != this.depth
+		    || other.widthMask != this.widthMask
+		    || other.topKeys.length != this.topKeys.length)
+		{
+			throw new IllegalArgumentException(ERR_DIMENSIONS_MISMATCH);
+		}
+		for (int i = 0; i < this.counters.length; i++) {
+			this.counters[i] += other.counters[i];
+		}
+		this.totalCount += other.totalCount;
+
+		/* the candidates of both sketches are estimated again */
+		for (int i = 0; i < this.topCount; i++) {
+			this.topEstimates[i] = estimate(this.topKeys[i]);
+		}
+		this.topSorted = false;
+		for (int i = 0; i < other.topCount; i++) {
+			long key = other.topKeys[i];
+			offerCandidate(key, estimate(key));
+		}
+	}
+
+	///*** ACCESSEURS ***///
+
+	/**
+	 * @return the total number of occurrences counted.
+	 */
+	public long getTotalCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * Estimate the number of occurrences of a key (never lower
+	 * than the actual number).
+	 *
+	 * @param key the key.
+	 * @return the estimated number of occurrences of that key.
+	 */
+	public long estimate(long key) {
+		long estimate = Long.MAX_VALUE;
+		int width = this.widthMask + 1;
+		for (int row = 0; row < this.depth; row++) {
+			long value = this.counters[row * width + counterIndex(key, row)];
+			if (value < estimate) estimate = value;
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return the number of top keys known (at most the number
+	 *         of top keys given at construction).
+	 */
+	public int getTopCount() {
+		return this.topCount;
+	}
+
+	/**
+	 * @param rank the rank of a top key (from 0, for the most frequent).
+	 * @return the key at that rank.
+	 * @throws IndexOutOfBoundsException if <code>rank</code> is not lower
+	 *                                   than <code>getTopCount()</code>.
+	 */
+	public long getTopKey(int rank) throws IndexOutOfBoundsException {
+		checkRank(rank);
+		return this.topKeys[rank];
+	}
+
+	/**
+	 * @param rank the rank of a top key (from 0, for the most frequent).
+	 * @return the estimated number of occurrences of the key at that rank.
+	 * @throws IndexOutOfBoundsException if <code>rank</code> is not lower
+	 *                                   than <code>getTopCount()</code>.
+	 */
+	public long getTopEstimate(int rank) throws IndexOutOfBoundsException {
+		checkRank(rank);
+		return this.topEstimates[rank];
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private int counterIndex(long key, int row) {
+		long h = key ^ ROW_SEEDS[row];
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return (int) h & this.widthMask;
+	}
+
+	/**
+	 * Update the estimate of a key among the top candidates, or make it
+	 * a candidate if its estimate is higher than the lowest one.
+	 */
+	private void offerCandidate(long key, long estimate) {
+		int lowest = -1;
+		for (int i = 0; i < this.topCount; i++) {
+			if (this.topKeys[i] == key) {
+				if (estimate > this.topEstimates[i]) {
+					this.topEstimates[i] = estimate;
+					this.topSorted = false;
+				}
+				return;
+			}
+			if (lowest < 0
+			    || this.topEstimates[i] < this.topEstimates[lowest])
+			{
+				lowest = i;
+			}
+		}
+		if (this.topCount < this.topKeys.length) {
+			lowest = this.topCount++;
+		} else if (estimate <= this.topEstimates[lowest]) {
+			return;
+		}
+		this.topKeys[lowest] = key;
+		this.topEstimates[lowest] = estimate;
+		this.topSorted = false;
+	}
+
+	private void checkRank(int rank) {
+		if (rank < 0 || rank >= this.topCount) {
+			throw new IndexOutOfBoundsException(Integer.toString(rank));
+		}
+		if (!(this.topSorted)) {
+			/* insertion sort, by decreasing estimates (few keys) */
+			for (int i = 1; i < this.topCount; i++) {
+				long key = this.topKeys[i];
+				long estimate = this.topEstimates[i];
+				int j = i - 1;
+				while (j >= 0 && this.topEstimates[j] < estimate) {
+					this.topKeys[j + 1] = this.topKeys[j];
+					this.topEstimates[j + 1] = this.topEstimates[j];
+					j--;
+				}
+				this.topKeys[j + 1] = key;
+				this.topEstimates[j + 1] = estimate;
+			}
+			this.topSorted = true;
+		}
+	}
+
+}
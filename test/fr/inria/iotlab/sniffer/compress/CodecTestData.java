@@ -0,0 +1,155 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test data and checks shared by the tests of the decoders: synthetic
+ * captures, decompression through <code>DecompressingInputStream</code>,
+ * and corruption of compressed data.
+ *
+ * @author KR
+ */
+final class CodecTestData {
+
+	///*** CONSTANTES ***///
+
+	/** Number of corrupted copies checked per compressed stream. */
+	private static final int CORRUPTIONS = 60;
+
+	///*** CONSTRUCTEURS ***///
+
+	private CodecTestData() {
+	}
+
+	///*** DONNEES ***///
+
+	/**
+	 * @return a synthetic PCap capture of (about) the given size: records
+	 *         with similar headers, and payloads mixing random bytes and
+	 *         repeated patterns, so that compressors use all their kinds
+	 *         of blocks and matches.
+	 */
+	static byte[] capture(int size, long seed) {
+		Random random = new Random(seed);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size + 256);
+		out.write(new byte[] { (byte) 0xd4, (byte) 0xc3, (byte) 0xb2,
+		                       (byte) 0xa1, 2, 0, 4, 0 }, 0, 8);
+		out.write(new byte[8], 0, 8);
+		out.write(new byte[] { (byte) 0xff, (byte) 0xff, 0, 0,
+		                       (byte) 195, 0, 0, 0 }, 0, 8);
+		byte[] pattern = new byte[127];
+		random.nextBytes(pattern);
+		int seconds = 1500000000;
+		while (out.size() < size) {
+			int length = 5 + random.nextInt(123);
+			byte[] record = new byte[16 + length];
+			seconds += random.nextInt(2);
+			writeIntLE(record, 0, seconds);
+			writeIntLE(record, 4, random.nextInt(1000000));
+			writeIntLE(record, 8, length);
+			writeIntLE(record, 12, length);
+			switch (random.nextInt(3)) {
+			case 0:
+				for (int i = 16; i < record.length; i++) {
+					record[i] = (byte) random.nextInt(256);
+				}
+				break;
+			case 1:
+				System.arraycopy(pattern, 0, record, 16, length);
+				break;
+			default:
+				Arrays.fill(record, 16, record.length, (byte) 0x55);
+				break;
+			}
+			out.write(record, 0, record.length);
+		}
+		return out.toByteArray();
+	}
+
+	///*** VERIFICATIONS ***///
+
+	/**
+	 * Check that the given data decompresses to the expected data,
+	 * with the format detected, and with a single worker thread.
+	 */
+	static void assertDecompresses(byte[] expected, byte[] compressed,
+	                               CompressionFormat format)
+	throws IOException
+	{
+		InputStream in = DecompressingInputStream.open(
+				new ByteArrayInputStream(compressed));
+		assertArrayEquals(expected, readAll(in));
+		in = new DecompressingInputStream(
+				new ByteArrayInputStream(compressed), format, 1);
+		assertArrayEquals(expected, readAll(in));
+	}
+
+	/**
+	 * Check that truncated copies of the given compressed data are
+	 * rejected with an <code>IOException</code>, as are copies with
+	 * a few flipped bits, unless they still decompress to the
+	 * expected data (e.g.: flips in ignored header fields).
+	 */
+	static void assertCorruptionDetected(byte[] expected, byte[] compressed,
+	                                     CompressionFormat format, long seed)
+	{
+		Random random = new Random(seed);
+		for (int n = 0; n < CORRUPTIONS; n++) {
+			byte[] corrupted;
+			boolean truncated = (n % 3 == 0);
+			if (truncated) {
+				corrupted = Arrays.copyOf(compressed,
+				                          random.nextInt(compressed.length));
+			} else {
+				corrupted = compressed.clone();
+				int flips = 1 + random.nextInt(4);
+				for (int i = 0; i < flips; i++) {
+					corrupted[random.nextInt(corrupted.length)] ^=
+							(byte) (1 << random.nextInt(8));
+				}
+			}
+			byte[] output;
+			try {
+				output = readAll(new DecompressingInputStream(
+						new ByteArrayInputStream(corrupted), format));
+			} catch (IOException exc) {
+				continue;
+			}
+			if (truncated || !(Arrays.equals(expected, output))) {
+				fail(String.format("Corruption #%d of %s data not detected",
+				                   n, format));
+			}
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[65536];
+			int n;
+			while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeIntLE(byte[] buffer, int offset, int value) {
+		for (int i = 0; i < 4; i++) {
+			buffer[offset + i] = (byte) (value >> (8 * i));
+		}
+	}
+
+}
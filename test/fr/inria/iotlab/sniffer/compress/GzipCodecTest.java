@@ -0,0 +1,131 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Round trips of data compressed by the gzip implementation of the JDK
+ * (and of hand-made BGZF blocks) through <code>GzipCodec</code>, and
+ * detection of corrupted data.
+ *
+ * @author KR
+ */
+public class GzipCodecTest {
+
+	///*** CONSTANTES ***///
+
+	private static final CompressionFormat FORMAT = CompressionFormat.GZIP;
+
+	private static final byte[] CAPTURE = CodecTestData.capture(
+			3 * 1024 * 1024 + 12345, 4L);
+
+	/** Maximal uncompressed size of a BGZF block (as used by bgzip). */
+	private static final int BGZF_BLOCK_SIZE = 65280;
+
+	///*** TESTS ***///
+
+	@Test(timeout = 60000)
+	public void singleMember() throws IOException {
+		CodecTestData.assertDecompresses(CAPTURE, gzip(CAPTURE), FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void concatenatedMembers() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int memberSize = 1000 * 1000;
+		for (int offset = 0; offset < CAPTURE.length; offset += memberSize) {
+			byte[] member = gzip(Arrays.copyOfRange(
+					CAPTURE, offset,
+					Math.min(offset + memberSize, CAPTURE.length)));
+			out.write(member, 0, member.length);
+		}
+		CodecTestData.assertDecompresses(CAPTURE, out.toByteArray(), FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void bgzfBlocks() throws IOException {
+		CodecTestData.assertDecompresses(CAPTURE, bgzf(CAPTURE), FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void emptyData() throws IOException {
+		byte[] empty = new byte[0];
+		CodecTestData.assertDecompresses(empty, gzip(empty), FORMAT);
+	}
+
+	@Test(timeout = 120000)
+	public void corruptedData() throws IOException {
+		byte[] small = Arrays.copyOf(CAPTURE, 200000);
+		CodecTestData.assertCorruptionDetected(small, gzip(small),
+		                                       FORMAT, 5L);
+		CodecTestData.assertCorruptionDetected(small, bgzf(small),
+		                                       FORMAT, 6L);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		try {
+			gzip.write(data);
+		} finally {
+			gzip.close();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return the data as BGZF blocks: gzip members whose extra field
+	 *         gives their compressed size, followed by an empty block.
+	 */
+	private static byte[] bgzf(byte[] data) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int offset = 0; offset < data.length;
+		     offset += BGZF_BLOCK_SIZE)
+		{
+			writeBgzfBlock(out, data, offset,
+			               Math.min(BGZF_BLOCK_SIZE, data.length - offset));
+		}
+		writeBgzfBlock(out, data, 0, 0);
+		return out.toByteArray();
+	}
+
+	private static void writeBgzfBlock(ByteArrayOutputStream out,
+	                                   byte[] data, int offset, int length)
+	{
+		Deflater deflater = new Deflater(6, true);
+		deflater.setInput(data, offset, length);
+		deflater.finish();
+		byte[] deflated = new byte[length + 1024];
+		int n = 0;
+		while (!(deflater.finished())) {
+			n += deflater.deflate(deflated, n, deflated.length - n);
+		}
+		deflater.end();
+		int blockSize = 18 + n + 8;
+		byte[] header = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0,
+		                  (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+		                  (byte) (blockSize - 1),
+		                  (byte) ((blockSize - 1) >> 8) };
+		out.write(header, 0, header.length);
+		out.write(deflated, 0, n);
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		writeIntLE(out, (int) crc.getValue());
+		writeIntLE(out, length);
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream out, int value) {
+		for (int i = 0; i < 4; i++) {
+			out.write(value >>> (8 * i));
+		}
+	}
+
+}
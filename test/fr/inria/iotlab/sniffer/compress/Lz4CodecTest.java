@@ -0,0 +1,122 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream.BlockSize;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream.Parameters;
+import org.junit.Test;
+
+/**
+ * Round trips of data compressed by the LZ4 frame implementation of
+ * Commons Compress through <code>Lz4Codec</code>, and detection of
+ * corrupted data.
+ * <br/>
+ * Dependent blocks are only checked with 64 KB blocks: Commons Compress
+ * writes invalid data for larger dependent blocks.
+ *
+ * @author KR
+ */
+public class Lz4CodecTest {
+
+	///*** CONSTANTES ***///
+
+	private static final CompressionFormat FORMAT = CompressionFormat.LZ4;
+
+	/**
+	 * Larger than the units decompressed in parallel, but small:
+	 * the compressor of Commons Compress is slow.
+	 */
+	private static final byte[] CAPTURE = CodecTestData.capture(
+			1536 * 1024 + 12345, 7L);
+
+	///*** TESTS ***///
+
+	@Test(timeout = 60000)
+	public void independentBlocks() throws IOException {
+		for (BlockSize size: new BlockSize[] { BlockSize.K64, BlockSize.M1,
+		                                       BlockSize.M4 })
+		{
+			byte[] compressed = lz4(CAPTURE,
+			                        new Parameters(size, true, true, false));
+			CodecTestData.assertDecompresses(CAPTURE, compressed, FORMAT);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void dependentBlocks() throws IOException {
+		byte[] compressed = lz4(CAPTURE,
+		                        new Parameters(BlockSize.K64, true, true, true));
+		CodecTestData.assertDecompresses(CAPTURE, compressed, FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void withoutChecksums() throws IOException {
+		byte[] compressed = lz4(CAPTURE,
+		                        new Parameters(BlockSize.M4, false, false,
+		                                       false));
+		CodecTestData.assertDecompresses(CAPTURE, compressed, FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void concatenatedFrames() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int frameSize = 1000 * 1000;
+		for (int offset = 0; offset < CAPTURE.length; offset += frameSize) {
+			byte[] frame = lz4(
+					Arrays.copyOfRange(CAPTURE, offset,
+					                   Math.min(offset + frameSize,
+					                            CAPTURE.length)),
+					new Parameters(BlockSize.M1, true, false, false));
+			out.write(frame, 0, frame.length);
+		}
+		CodecTestData.assertDecompresses(CAPTURE, out.toByteArray(), FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void repeatedAndEmptyData() throws IOException {
+		Parameters parameters = new Parameters(BlockSize.M4);
+		byte[] zeros = new byte[1024 * 1024];
+		CodecTestData.assertDecompresses(zeros, lz4(zeros, parameters),
+		                                 FORMAT);
+		byte[] empty = new byte[0];
+		CodecTestData.assertDecompresses(empty, lz4(empty, parameters),
+		                                 FORMAT);
+	}
+
+	@Test(timeout = 120000)
+	public void corruptedData() throws IOException {
+		byte[] small = Arrays.copyOf(CAPTURE, 200000);
+		CodecTestData.assertCorruptionDetected(
+				small, lz4(small, new Parameters(BlockSize.K64, true, true,
+				                                 false)),
+				FORMAT, 8L);
+		CodecTestData.assertCorruptionDetected(
+				small, lz4(small, new Parameters(BlockSize.K64, true, false,
+				                                 true)),
+				FORMAT, 9L);
+		/* default of the lz4 tool: only the content checksum */
+		CodecTestData.assertCorruptionDetected(
+				small, lz4(small, new Parameters(BlockSize.M4)),
+				FORMAT, 10L);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static byte[] lz4(byte[] data, Parameters parameters)
+	throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FramedLZ4CompressorOutputStream lz4 =
+				new FramedLZ4CompressorOutputStream(out, parameters);
+		try {
+			lz4.write(data);
+		} finally {
+			lz4.close();
+		}
+		return out.toByteArray();
+	}
+
+}
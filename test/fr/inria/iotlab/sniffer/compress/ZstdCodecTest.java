@@ -0,0 +1,107 @@
+package fr.inria.iotlab.sniffer.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Round trips of data compressed by the reference zstd library
+ * through <code>ZstdCodec</code>, and detection of corrupted data.
+ *
+ * @author KR
+ */
+public class ZstdCodecTest {
+
+	///*** CONSTANTES ***///
+
+	private static final CompressionFormat FORMAT = CompressionFormat.ZSTD;
+
+	/** Larger than the units decompressed in parallel. */
+	private static final byte[] CAPTURE = CodecTestData.capture(
+			3 * 1024 * 1024 + 12345, 1L);
+
+	///*** TESTS ***///
+
+	@Test(timeout = 60000)
+	public void streamedFrames() throws IOException {
+		for (int level: new int[] { 1, 3, 9, 19 }) {
+			byte[] compressed = stream(CAPTURE, level, (level & 1) != 0,
+			                           false);
+			CodecTestData.assertDecompresses(CAPTURE, compressed, FORMAT);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void longWindow() throws IOException {
+		byte[] compressed = stream(CAPTURE, 5, true, true);
+		CodecTestData.assertDecompresses(CAPTURE, compressed, FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void singleFrameWithContentSize() throws IOException {
+		byte[] compressed = Zstd.compress(CAPTURE, 3);
+		CodecTestData.assertDecompresses(CAPTURE, compressed, FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void multipleFramesAndSkippableFrames() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] skippable = { 0x50, 0x2a, 0x4d, 0x18, 3, 0, 0, 0, 1, 2, 3 };
+		out.write(skippable, 0, skippable.length);
+		int frameSize = 300 * 1024;
+		for (int offset = 0; offset < CAPTURE.length; offset += frameSize) {
+			byte[] frame = Zstd.compress(
+					Arrays.copyOfRange(CAPTURE, offset,
+					                   Math.min(offset + frameSize,
+					                            CAPTURE.length)),
+					1 + (offset / frameSize) % 5);
+			out.write(frame, 0, frame.length);
+		}
+		CodecTestData.assertDecompresses(CAPTURE, out.toByteArray(), FORMAT);
+	}
+
+	@Test(timeout = 60000)
+	public void repeatedAndEmptyData() throws IOException {
+		byte[] zeros = new byte[1024 * 1024];
+		CodecTestData.assertDecompresses(zeros, stream(zeros, 3, true, false),
+		                                 FORMAT);
+		CodecTestData.assertDecompresses(zeros, Zstd.compress(zeros, 3),
+		                                 FORMAT);
+		byte[] empty = new byte[0];
+		CodecTestData.assertDecompresses(empty, Zstd.compress(empty, 3),
+		                                 FORMAT);
+	}
+
+	@Test(timeout = 120000)
+	public void corruptedData() throws IOException {
+		byte[] small = Arrays.copyOf(CAPTURE, 200000);
+		CodecTestData.assertCorruptionDetected(
+				small, stream(small, 3, true, false), FORMAT, 2L);
+		CodecTestData.assertCorruptionDetected(
+				small, stream(small, 19, true, false), FORMAT, 3L);
+	}
+
+	///*** METHODES INTERNES ***///
+
+	private static byte[] stream(byte[] data, int level, boolean checksum,
+	                             boolean longWindow)
+	throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ZstdOutputStream zstd = new ZstdOutputStream(out, level);
+		try {
+			zstd.setChecksum(checksum);
+			if (longWindow) zstd.setLong(25);
+			zstd.write(data);
+		} finally {
+			zstd.close();
+		}
+		return out.toByteArray();
+	}
+
+}
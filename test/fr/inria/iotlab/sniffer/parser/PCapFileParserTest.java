@@ -0,0 +1,149 @@
+package fr.inria.iotlab.sniffer.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.inria.iotlab.sniffer.filter.FilterExpression;
+
+/**
+ * Tests of <code>PCapFileParser</code> on small hand-crafted captures.
+ *
+ * @author KR
+ */
+public class PCapFileParserTest {
+
+	///*** CONSTANTES ***///
+
+	private static final int PACKET_COUNT = 50;
+
+	///*** ATTRIBUTS ***///
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	///*** TESTS ***///
+
+	@Test
+	public void randomAccessIgnoresFilter() throws IOException {
+		File file = writeCapture(capture());
+		PCapFileParser parser = new PCapFileParser(file.getPath(), true);
+		try {
+			parser.setPacketIndex(PCapFileIndex.build(file.getPath(), 16));
+			parser.setPacketFilter(FilterExpression.compile("len > 40"));
+			PacketsTableModel model = new PacketsTableModel();
+			model.setParser(parser);
+			for (int n = 0; n < PACKET_COUNT; n++) {
+				assertEquals(packetLength(n),
+				             parser.getPacket(n).getPacketLength());
+				assertEquals(Integer.toString(packetLength(n)),
+				             model.getValueAt(n, 2));
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void packetIndexNeedsMemoryMapping() throws IOException {
+		File file = writeCapture(capture());
+		PCapFileIndex index = PCapFileIndex.build(file.getPath(), 16);
+		PCapFileParser parser = new PCapFileParser(file.getPath(), false);
+		try {
+			parser.setPacketIndex(index);
+		} finally {
+			parser.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void negativeRecordLength() throws IOException {
+		ByteBuffer capture = capture();
+		/* length of record #2, moving back onto its own header */
+		int offset = 24 + 16 + packetLength(0) + 16 + packetLength(1);
+		capture.putInt(offset + 8, -16);
+		File file = writeCapture(capture);
+		for (boolean memoryMapped: new boolean[] { true, false }) {
+			PCapFileParser parser = new PCapFileParser(file.getPath(),
+			                                           memoryMapped);
+			try {
+				PacketCursor cursor = parser.getPacketCursor();
+				while (cursor.next()) {
+					cursor.getPacketData();
+				}
+				fail("Negative record length not detected");
+			} catch (IOException exc) {
+				assertTrue(exc.getMessage(),
+				           exc.getMessage().contains("#2 at offset "
+				                                     + offset));
+			} finally {
+				parser.close();
+			}
+			parser = new PCapFileParser(file.getPath(), memoryMapped);
+			try {
+				parser.readAllPackets();
+				fail("Negative record length not detected");
+			} catch (IOException exc) {
+				assertTrue(exc.getMessage(),
+				           exc.getMessage().contains("#2 at offset "
+				                                     + offset));
+			} finally {
+				parser.close();
+			}
+		}
+	}
+
+	///*** METHODES INTERNES ***///
+
+	/**
+	 * @return the length of packet #n of <code>capture()</code>:
+	 *         alternately shorter and longer than 40 bytes.
+	 */
+	private static int packetLength(int n) {
+		return (n % 2 == 0 ? 10 + n / 2 : 41 + n);
+	}
+
+	/**
+	 * @return a little-endian PCap capture (IEEE 802.15.4 frames, one
+	 *         per second) of <code>PACKET_COUNT</code> packets.
+	 */
+	private static ByteBuffer capture() {
+		ByteBuffer buffer = ByteBuffer.allocate(65536)
+		                              .order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4);
+		buffer.putInt(0).putInt(0).putInt(65535).putInt(195);
+		for (int n = 0; n < PACKET_COUNT; n++) {
+			int length = packetLength(n);
+			buffer.putInt(1500000000 + n).putInt(0);
+			buffer.putInt(length).putInt(length);
+			for (int i = 0; i < length; i++) {
+				buffer.put((byte) (n + i));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private File writeCapture(ByteBuffer capture) throws IOException {
+		File file = this.folder.newFile("capture.pcap");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(capture.array(), 0, capture.limit());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}